@@ -7,12 +7,25 @@ stmt
     | 'let' ID '=' expr ';'
     | ID '=' expr ';'
     | 'if' '(' expr ')' block ('else' block)?
+    | 'while' '(' expr ')' block
+    | 'fn' ID '(' (param (',' param)*)? ')' ':' type block
+    | 'return' expr ';'
     | block
     ;
 
 block: '{' stmt* '}';
 
-expr: equality;
+param: ID ':' type;
+
+type: 'int' | 'string' | 'boolean';
+
+args: expr (',' expr)*;
+
+expr: logicOr;
+
+logicOr: logicAnd ('||' logicAnd)*;
+
+logicAnd: equality ('&&' equality)*;
 
 equality: comparison (('==' | '!=') comparison)*;
 
@@ -29,6 +42,7 @@ primary
     | STRING
     | TRUE
     | FALSE
+    | ID '(' args? ')'
     | ID
     | '(' expr ')'
     ;
@@ -2,6 +2,7 @@ package com.lxg.ast.expr;
 
 import com.lxg.ast.node.Expression;
 import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.ValueType;
 
 /**
  * 二元表达式：<left> <op> <right>。
@@ -9,16 +10,21 @@ import com.lxg.ast.node.SourcePos;
  * @author xiangganluo
  */
 public class BinaryExpr implements Expression {
-    public final SourcePos pos;
+    public final long pos; // 打包的行列，见 SourcePos.pack
     public final Expression left;
     public final BinaryOp op;
     public final Expression right;
+    public ValueType type; // 由 TypeChecker 填写
 
     public BinaryExpr(Expression left, BinaryOp op, Expression right) {
         this(null, left, op, right);
     }
 
     public BinaryExpr(SourcePos pos, Expression left, BinaryOp op, Expression right) {
+        this(SourcePos.pack(pos), left, op, right);
+    }
+
+    public BinaryExpr(long pos, Expression left, BinaryOp op, Expression right) {
         this.pos = pos;
         this.left = left;
         this.op = op;
@@ -27,6 +33,11 @@ public class BinaryExpr implements Expression {
 
     @Override
     public SourcePos getPos() {
-        return pos;
+        return SourcePos.unpack(pos);
+    }
+
+    @Override
+    public ValueType getType() {
+        return type;
     }
 } 
\ No newline at end of file
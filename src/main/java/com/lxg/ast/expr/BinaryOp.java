@@ -1,8 +1,8 @@
 package com.lxg.ast.expr;
 
 /**
- * 二元运算符枚举：算术与比较运算。
+ * 二元运算符枚举：算术、比较与短路逻辑运算（AND/OR 只在左侧不能决定结果时才求值右侧）。
  */
 public enum BinaryOp {
-    ADD, SUB, MUL, DIV, EQ, NE, LT, GT, LE, GE
+    ADD, SUB, MUL, DIV, EQ, NE, LT, GT, LE, GE, AND, OR
 } 
\ No newline at end of file
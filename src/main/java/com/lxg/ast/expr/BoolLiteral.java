@@ -2,6 +2,7 @@ package com.lxg.ast.expr;
 
 import com.lxg.ast.node.Expression;
 import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.ValueType;
 
 /**
  * 布尔字面量：true 或 false。
@@ -9,7 +10,7 @@ import com.lxg.ast.node.SourcePos;
  * @author xiangganluo
  */
 public class BoolLiteral implements Expression {
-    public final SourcePos pos;
+    public final long pos; // 打包的行列，见 SourcePos.pack
     public final boolean value;
 
     public BoolLiteral(boolean value) {
@@ -17,12 +18,21 @@ public class BoolLiteral implements Expression {
     }
 
     public BoolLiteral(SourcePos pos, boolean value) {
+        this(SourcePos.pack(pos), value);
+    }
+
+    public BoolLiteral(long pos, boolean value) {
         this.pos = pos;
         this.value = value;
     }
 
     @Override
     public SourcePos getPos() {
-        return pos;
+        return SourcePos.unpack(pos);
+    }
+
+    @Override
+    public ValueType getType() {
+        return ValueType.BOOLEAN;
     }
 } 
\ No newline at end of file
@@ -0,0 +1,45 @@
+package com.lxg.ast.expr;
+
+import com.lxg.ast.node.Expression;
+import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.ValueType;
+import com.lxg.sema.FunctionSymbol;
+
+import java.util.List;
+
+/**
+ * 函数调用 name(arg, ...)：实参从左到右求值，结果类型为函数的返回类型。
+ *
+ * @author xiangganluo
+ */
+public class CallExpr implements Expression {
+    public final long pos; // 打包的行列，见 SourcePos.pack
+    /**
+     * 名字在 CompilationUnit.names 中的编号；手工构造、未经驻留的节点为 -1。
+     */
+    public final int id;
+    public final String name;
+    public final List<Expression> args;
+    public FunctionSymbol function; // 由 TypeChecker 解析填写
+
+    public CallExpr(String name, List<Expression> args) {
+        this(SourcePos.NONE, -1, name, args);
+    }
+
+    public CallExpr(long pos, int id, String name, List<Expression> args) {
+        this.pos = pos;
+        this.id = id;
+        this.name = name;
+        this.args = args;
+    }
+
+    @Override
+    public SourcePos getPos() {
+        return SourcePos.unpack(pos);
+    }
+
+    @Override
+    public ValueType getType() {
+        return function == null ? null : function.returnType;
+    }
+}
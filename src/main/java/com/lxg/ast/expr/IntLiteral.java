@@ -2,6 +2,7 @@ package com.lxg.ast.expr;
 
 import com.lxg.ast.node.Expression;
 import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.ValueType;
 
 /**
  * 整数字面量，如 1、42。
@@ -9,7 +10,7 @@ import com.lxg.ast.node.SourcePos;
  * @author xiangganluo
  */
 public class IntLiteral implements Expression {
-    public final SourcePos pos;
+    public final long pos; // 打包的行列，见 SourcePos.pack
     public final int value;
 
     public IntLiteral(int value) {
@@ -17,12 +18,21 @@ public class IntLiteral implements Expression {
     }
 
     public IntLiteral(SourcePos pos, int value) {
+        this(SourcePos.pack(pos), value);
+    }
+
+    public IntLiteral(long pos, int value) {
         this.pos = pos;
         this.value = value;
     }
 
     @Override
     public SourcePos getPos() {
-        return pos;
+        return SourcePos.unpack(pos);
+    }
+
+    @Override
+    public ValueType getType() {
+        return ValueType.INT;
     }
 } 
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.lxg.ast.expr;
 
 import com.lxg.ast.node.Expression;
 import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.ValueType;
 
 /**
  * 字符串字面量，如 "hello"。
@@ -9,7 +10,7 @@ import com.lxg.ast.node.SourcePos;
  * @author xiangganluo
  */
 public class StringLiteral implements Expression {
-    public final SourcePos pos;
+    public final long pos; // 打包的行列，见 SourcePos.pack
     public final String value;
 
     public StringLiteral(String value) {
@@ -17,12 +18,21 @@ public class StringLiteral implements Expression {
     }
 
     public StringLiteral(SourcePos pos, String value) {
+        this(SourcePos.pack(pos), value);
+    }
+
+    public StringLiteral(long pos, String value) {
         this.pos = pos;
         this.value = value;
     }
 
     @Override
     public SourcePos getPos() {
-        return pos;
+        return SourcePos.unpack(pos);
+    }
+
+    @Override
+    public ValueType getType() {
+        return ValueType.STRING;
     }
 } 
\ No newline at end of file
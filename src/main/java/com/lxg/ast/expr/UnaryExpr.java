@@ -2,6 +2,7 @@ package com.lxg.ast.expr;
 
 import com.lxg.ast.node.Expression;
 import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.ValueType;
 
 /**
  * 一元表达式：op expr。
@@ -9,15 +10,20 @@ import com.lxg.ast.node.SourcePos;
  * @author xiangganluo
  */
 public class UnaryExpr implements Expression {
-    public final SourcePos pos;
+    public final long pos; // 打包的行列，见 SourcePos.pack
     public final UnaryOp op;
     public final Expression expr;
+    public ValueType type; // 由 TypeChecker 填写
 
     public UnaryExpr(UnaryOp op, Expression expr) {
         this(null, op, expr);
     }
 
     public UnaryExpr(SourcePos pos, UnaryOp op, Expression expr) {
+        this(SourcePos.pack(pos), op, expr);
+    }
+
+    public UnaryExpr(long pos, UnaryOp op, Expression expr) {
         this.pos = pos;
         this.op = op;
         this.expr = expr;
@@ -25,6 +31,11 @@ public class UnaryExpr implements Expression {
 
     @Override
     public SourcePos getPos() {
-        return pos;
+        return SourcePos.unpack(pos);
+    }
+
+    @Override
+    public ValueType getType() {
+        return type;
     }
 } 
\ No newline at end of file
@@ -2,6 +2,8 @@ package com.lxg.ast.expr;
 
 import com.lxg.ast.node.Expression;
 import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.ValueType;
+import com.lxg.sema.Local;
 
 /**
  * 变量引用，按名称读取已声明的局部变量的当前值。
@@ -9,20 +11,35 @@ import com.lxg.ast.node.SourcePos;
  * @author xiangganluo
  */
 public class VarRef implements Expression {
-    public final SourcePos pos;
+    public final long pos; // 打包的行列，见 SourcePos.pack
+    /**
+     * 名字在 CompilationUnit.names 中的编号；手工构造、未经驻留的节点为 -1。
+     */
+    public final int id;
     public final String name;
+    public Local local; // 由 TypeChecker 解析填写（槽位与类型）
 
     public VarRef(String name) {
         this(null, name);
     }
 
     public VarRef(SourcePos pos, String name) {
+        this(SourcePos.pack(pos), -1, name);
+    }
+
+    public VarRef(long pos, int id, String name) {
         this.pos = pos;
+        this.id = id;
         this.name = name;
     }
 
     @Override
     public SourcePos getPos() {
-        return pos;
+        return SourcePos.unpack(pos);
+    }
+
+    @Override
+    public ValueType getType() {
+        return local == null ? null : local.type;
     }
 } 
\ No newline at end of file
@@ -1,9 +1,14 @@
 package com.lxg.ast.node;
 
 /**
- * AST 中的表达式标记接口（求值后产生一个值）。
+ * AST 中的表达式接口（求值后产生一个值）。
  *
  * @author xiangganluo
  */
 public interface Expression extends Node {
+    /**
+     * 静态类型：字面量固定；变量引用与运算由 TypeChecker 回填，检查前为 null。
+     * 代码生成直接读取该类型，不再重新推断。
+     */
+    ValueType getType();
 }
\ No newline at end of file
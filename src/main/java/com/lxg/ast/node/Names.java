@@ -0,0 +1,79 @@
+package com.lxg.ast.node;
+
+import java.util.Arrays;
+
+/**
+ * 标识符驻留表：把变量名映射为从 0 开始的稠密编号，同名标识符共享同一个 String 实例。
+ * <p>
+ * 学习要点：
+ * - 构建 AST 时每个标识符只查一次哈希表，之后符号表、代码生成都按 int 编号直接下标访问，不再反复哈希字符串
+ * - 开放寻址 + 线性探测：键数组与编号数组并行存放，没有 HashMap.Entry 与 Integer 装箱
+ * <p>
+ * 使用建议：同一棵 AST 的所有节点必须来自同一个 Names（见 CompilationUnit.names 与 AstBuilder(Names)）。
+ *
+ * @author xiangganluo
+ */
+public final class Names {
+    private String[] byId = new String[16];
+    private int size;
+    private String[] keys = new String[32]; // 容量为 2 的幂，装载因子不超过 1/2
+    private int[] ids = new int[32];
+
+    /**
+     * 返回名字的编号，首次出现时分配新编号。
+     */
+    public int intern(String name) {
+        int mask = keys.length - 1;
+        int i = name.hashCode() & mask;
+        while (keys[i] != null) {
+            if (keys[i].equals(name)) return ids[i];
+            i = (i + 1) & mask;
+        }
+        int id = size++;
+        if (id == byId.length) byId = Arrays.copyOf(byId, id * 2);
+        byId[id] = name;
+        keys[i] = name;
+        ids[i] = id;
+        if (size * 2 > keys.length) rehash();
+        return id;
+    }
+
+    /**
+     * 查找已有编号，未出现过返回 -1。
+     */
+    public int find(String name) {
+        int mask = keys.length - 1;
+        int i = name.hashCode() & mask;
+        while (keys[i] != null) {
+            if (keys[i].equals(name)) return ids[i];
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 编号对应的（驻留后的）名字。
+     */
+    public String name(int id) {
+        return byId[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash() {
+        String[] oldKeys = keys;
+        int[] oldIds = ids;
+        keys = new String[oldKeys.length * 2];
+        ids = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int k = 0; k < oldKeys.length; k++) {
+            if (oldKeys[k] == null) continue;
+            int i = oldKeys[k].hashCode() & mask;
+            while (keys[i] != null) i = (i + 1) & mask;
+            keys[i] = oldKeys[k];
+            ids[i] = oldIds[k];
+        }
+    }
+}
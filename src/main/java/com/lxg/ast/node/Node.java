@@ -2,7 +2,7 @@ package com.lxg.ast.node;
 
 /**
  * LXG 语言中所有 AST 节点的标记接口。
- * 节点为不可变对象，用于描述源代码的语法结构。
+ * 节点的语法结构不可变；类型与变量解析结果（type/local 字段）由 TypeChecker 回填。
  *
  * @author xiangganluo
  */
@@ -2,10 +2,18 @@ package com.lxg.ast.node;
 
 /**
  * 源码位置（行、列）。行/列均从 1/0 开始（列与 ANTLR 的 charPositionInLine 一致）。
+ * <p>
+ * AST 节点中不保存 SourcePos 对象，而是保存打包后的 long（高 32 位行号、低 32 位列号，0 表示无位置），
+ * 只在输出诊断等需要时才通过 unpack 还原为对象。
  *
  * @author xiangganluo
  */
 public final class SourcePos {
+    /**
+     * 打包形式的“无位置”（行号从 1 开始，合法位置不会为 0）。
+     */
+    public static final long NONE = 0L;
+
     public final int line;
     public final int column;
 
@@ -14,8 +22,28 @@ public final class SourcePos {
         this.column = column;
     }
 
+    public static long pack(int line, int column) {
+        return ((long) line << 32) | (column & 0xFFFFFFFFL);
+    }
+
+    public static long pack(SourcePos pos) {
+        return pos == null ? NONE : pack(pos.line, pos.column);
+    }
+
+    public static SourcePos unpack(long packed) {
+        return packed == NONE ? null : new SourcePos(line(packed), column(packed));
+    }
+
+    public static int line(long packed) {
+        return (int) (packed >>> 32);
+    }
+
+    public static int column(long packed) {
+        return (int) packed;
+    }
+
     @Override
     public String toString() {
         return line + ":" + column;
     }
-} 
\ No newline at end of file
+}
@@ -1,8 +1,10 @@
 package com.lxg.ast.program;
 
+import com.lxg.ast.node.Names;
 import com.lxg.ast.node.Node;
 import com.lxg.ast.node.SourcePos;
 import com.lxg.ast.node.Statement;
+import com.lxg.ast.stmt.Param;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -10,27 +12,62 @@ import java.util.List;
 
 /**
  * 程序根节点，表示整个源文件/程序。
+ * <p>
+ * 嵌入运行的脚本可以有输入（inputs）：由宿主在编译时声明名字与类型（源码中没有对应的语法），
+ * 脚本中像顶层变量一样读写；与函数参数一样固定占 main 的前几个槽位（args 之后），运行时由宿主按名字提供，见 ScriptCompiler。
  *
  * @author xiangganluo
  */
 public class CompilationUnit implements Node {
-    public final SourcePos pos;
+    public final long pos; // 打包的行列，见 SourcePos.pack
     /**
      * 程序中按顺序出现的顶层语句列表。
      */
     public final List<Statement> statements;
+    /**
+     * 本程序的标识符驻留表：VarRef/LetStmt/AssignStmt 的 id 均为其中的编号。
+     */
+    public final Names names;
+    /**
+     * 程序输入（按声明顺序），普通程序为空。
+     */
+    public final List<Param> inputs;
 
     public CompilationUnit(List<Statement> statements) {
         this(null, statements);
     }
 
     public CompilationUnit(SourcePos pos, List<Statement> statements) {
+        this(SourcePos.pack(pos), statements, new Names());
+    }
+
+    public CompilationUnit(long pos, List<Statement> statements, Names names) {
+        this(pos, statements, names, Collections.emptyList());
+    }
+
+    public CompilationUnit(long pos, List<Statement> statements, Names names, List<Param> inputs) {
         this.pos = pos;
         this.statements = Collections.unmodifiableList(new ArrayList<>(statements));
+        this.names = names;
+        this.inputs = Collections.unmodifiableList(new ArrayList<>(inputs));
+    }
+
+    /**
+     * 语句相同、带有给定输入的编译单元（检查之前调用）。
+     */
+    public CompilationUnit withInputs(List<Param> inputs) {
+        return new CompilationUnit(pos, statements, names, inputs);
+    }
+
+    /**
+     * 输入与驻留表相同、语句替换为 statements 的编译单元（优化遍改写语句时使用）。
+     */
+    public CompilationUnit withStatements(List<Statement> statements) {
+        return new CompilationUnit(pos, statements, names, inputs);
     }
 
     @Override
     public SourcePos getPos() {
-        return pos;
+        return SourcePos.unpack(pos);
     }
 } 
\ No newline at end of file
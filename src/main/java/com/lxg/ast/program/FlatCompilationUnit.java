@@ -0,0 +1,475 @@
+package com.lxg.ast.program;
+
+import com.lxg.ast.expr.*;
+import com.lxg.ast.node.Expression;
+import com.lxg.ast.node.Names;
+import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.node.ValueType;
+import com.lxg.ast.stmt.*;
+import com.lxg.sema.Local;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 扁平（结构体数组）形式的程序：所有节点存放在几组并行的基本类型数组中，节点以 int 下标表示。
+ * <p>
+ * 每个节点占用 kind/a/b/c/pos 五个数组中的同一下标，各字段含义随 kind 而定：
+ * <pre>
+ *   INT_LITERAL     a=值
+ *   STRING_LITERAL  a=字符串常量下标
+ *   BOOL_LITERAL    a=0/1
+ *   VAR_REF         a=名字编号      c=槽位
+ *   UNARY           a=UnaryOp 序号  b=操作数
+ *   BINARY          a=BinaryOp 序号 b=左操作数 c=右操作数
+ *   PRINT           b=表达式
+ *   LET / ASSIGN    a=名字编号      b=右值 c=槽位
+ *   BLOCK           b=子语句在 lists 中的起点 c=子语句数
+ *   IF              a=条件 b=then 块 c=else 块（无 else 时为 -1）
+ *   WHILE           a=条件 b=循环体块
+ * </pre>
+ * 槽位与 types 侧表（每节点 1 字节的 ValueType 序号）由 TypeChecker 检查时写入，检查前槽位为 -1、
+ * 非字面量节点类型未知；代码生成只读取它们。
+ * <p>
+ * 学习要点：
+ * - 对象图中每个字面量/运算节点都有对象头与若干引用，且节点散落在堆中；扁平形式每节点约 22 字节，
+ * 且子节点先于父节点追加（后序），遍历时按下标顺序访问内存，缓存友好
+ * - “游标”就是节点下标：kind(n) 取种类，再按种类调用 left/right/operand/child 等访问器向下走，
+ * TypeChecker.check(FlatCompilationUnit) 与 ClassGenerator.generate(FlatCompilationUnit) 均基于这套访问器
+ * - 名字编号与 CompilationUnit 相同，来自共享的 Names；与对象 AST 可通过 of/toCompilationUnit 互相转换
+ * <p>
+ * 使用建议：超大程序在类型检查/代码生成前转换为扁平形式，原对象 AST 即可被回收；
+ * 也可以用 Builder 按后序直接追加节点（例如在解析监听器中），完全跳过对象 AST。
+ *
+ * @author xiangganluo
+ */
+public final class FlatCompilationUnit {
+    public static final byte INT_LITERAL = 0;
+    public static final byte STRING_LITERAL = 1;
+    public static final byte BOOL_LITERAL = 2;
+    public static final byte VAR_REF = 3;
+    public static final byte UNARY = 4;
+    public static final byte BINARY = 5;
+    public static final byte PRINT = 6;
+    public static final byte LET = 7;
+    public static final byte ASSIGN = 8;
+    public static final byte BLOCK = 9;
+    public static final byte IF = 10;
+    public static final byte WHILE = 11;
+
+    private static final UnaryOp[] UNARY_OPS = UnaryOp.values();
+    private static final BinaryOp[] BINARY_OPS = BinaryOp.values();
+    private static final ValueType[] TYPES = ValueType.values();
+
+    public final Names names;
+    private final byte[] kinds;
+    private final int[] a;
+    private final int[] b;
+    private final int[] c;
+    private final long[] positions;
+    private final byte[] types; // ValueType 序号，-1 为未知
+    private final int size;
+    private final int[] lists; // BLOCK 子语句与顶层语句的下标序列
+    private final String[] strings;
+    private final int firstStatement;
+    private final int statementCount;
+    private final long pos;
+
+    private FlatCompilationUnit(Builder builder, int firstStatement, int statementCount, long pos) {
+        this.names = builder.names;
+        this.size = builder.size;
+        this.kinds = Arrays.copyOf(builder.kinds, size);
+        this.a = Arrays.copyOf(builder.a, size);
+        this.b = Arrays.copyOf(builder.b, size);
+        this.c = Arrays.copyOf(builder.c, size);
+        this.positions = Arrays.copyOf(builder.positions, size);
+        this.types = Arrays.copyOf(builder.types, size);
+        this.lists = Arrays.copyOf(builder.lists, builder.listSize);
+        this.strings = Arrays.copyOf(builder.strings, builder.stringCount);
+        this.firstStatement = firstStatement;
+        this.statementCount = statementCount;
+        this.pos = pos;
+    }
+
+    /**
+     * 由对象 AST 转换（共享其 Names；手工构造、未驻留的名字在转换时驻留）。
+     * 扁平形式只表示 main 中的语句：含函数（fn/return/调用）或程序输入的程序抛出 IllegalArgumentException。
+     */
+    public static FlatCompilationUnit of(CompilationUnit unit) {
+        if (!unit.inputs.isEmpty()) throw new IllegalArgumentException("Program inputs are not supported in the flat form");
+        Builder builder = new Builder(unit.names);
+        int[] top = new int[unit.statements.size()];
+        for (int i = 0; i < top.length; i++) top[i] = builder.convert(unit.statements.get(i));
+        return builder.build(unit.pos, top, top.length);
+    }
+
+    /**
+     * 还原为对象 AST（位置、名字编号与 Names 均保持一致）。
+     */
+    public CompilationUnit toCompilationUnit() {
+        List<Statement> stmts = new ArrayList<>(statementCount);
+        for (int i = 0; i < statementCount; i++) stmts.add(toStatement(statement(i)));
+        return new CompilationUnit(pos, stmts, names);
+    }
+
+    // ---- 游标访问器 ----
+
+    /**
+     * 节点总数。
+     */
+    public int size() {
+        return size;
+    }
+
+    public int statementCount() {
+        return statementCount;
+    }
+
+    /**
+     * 第 i 条顶层语句的节点下标。
+     */
+    public int statement(int i) {
+        return lists[firstStatement + i];
+    }
+
+    public byte kind(int n) {
+        return kinds[n];
+    }
+
+    public long pos(int n) {
+        return positions[n];
+    }
+
+    public SourcePos getPos(int n) {
+        return SourcePos.unpack(positions[n]);
+    }
+
+    public int intValue(int n) {
+        return a[n];
+    }
+
+    public boolean boolValue(int n) {
+        return a[n] != 0;
+    }
+
+    public String stringValue(int n) {
+        return strings[a[n]];
+    }
+
+    /**
+     * VAR_REF/LET/ASSIGN 的名字编号。
+     */
+    public int nameId(int n) {
+        return a[n];
+    }
+
+    public String name(int n) {
+        return names.name(a[n]);
+    }
+
+    public UnaryOp unaryOp(int n) {
+        return UNARY_OPS[a[n]];
+    }
+
+    public BinaryOp binaryOp(int n) {
+        return BINARY_OPS[a[n]];
+    }
+
+    /**
+     * UNARY 的操作数、PRINT 的表达式、LET/ASSIGN 的右值。
+     */
+    public int operand(int n) {
+        return b[n];
+    }
+
+    public int left(int n) {
+        return b[n];
+    }
+
+    public int right(int n) {
+        return c[n];
+    }
+
+    /**
+     * 节点的静态类型（字面量构建时已知，其余由 TypeChecker 写入）；未知时为 null。
+     */
+    public ValueType type(int n) {
+        return types[n] < 0 ? null : TYPES[types[n]];
+    }
+
+    public void setType(int n, ValueType type) {
+        types[n] = (byte) type.ordinal();
+    }
+
+    /**
+     * VAR_REF/LET/ASSIGN 解析到的局部变量槽位；未检查时为 -1。
+     */
+    public int slot(int n) {
+        return c[n];
+    }
+
+    /**
+     * 记录 VAR_REF/LET/ASSIGN 的解析结果：槽位写入 c，类型写入侧表。
+     */
+    public void resolve(int n, Local local) {
+        c[n] = local.index;
+        types[n] = (byte) local.type.ordinal();
+    }
+
+    /**
+     * IF/WHILE 的条件。
+     */
+    public int condition(int n) {
+        return a[n];
+    }
+
+    public int thenBlock(int n) {
+        return b[n];
+    }
+
+    /**
+     * IF 的 else 块，无 else 时为 -1。
+     */
+    public int elseBlock(int n) {
+        return c[n];
+    }
+
+    /**
+     * WHILE 的循环体块。
+     */
+    public int body(int n) {
+        return b[n];
+    }
+
+    public int childCount(int block) {
+        return c[block];
+    }
+
+    public int child(int block, int i) {
+        return lists[b[block] + i];
+    }
+
+    private Statement toStatement(int n) {
+        long p = positions[n];
+        switch (kinds[n]) {
+            case PRINT:
+                return new PrintStmt(p, toExpression(b[n]));
+            case LET:
+                return new LetStmt(p, a[n], name(n), toExpression(b[n]));
+            case ASSIGN:
+                return new AssignStmt(p, a[n], name(n), toExpression(b[n]));
+            case BLOCK:
+                return toBlock(n);
+            case IF:
+                return new IfStmt(p, toExpression(a[n]), toBlock(b[n]), c[n] < 0 ? null : toBlock(c[n]));
+            case WHILE:
+                return new WhileStmt(p, toExpression(a[n]), toBlock(b[n]));
+            default:
+                throw new IllegalStateException("Not a statement node: " + kinds[n]);
+        }
+    }
+
+    private BlockStmt toBlock(int n) {
+        List<Statement> stmts = new ArrayList<>(c[n]);
+        for (int i = 0; i < c[n]; i++) stmts.add(toStatement(child(n, i)));
+        return new BlockStmt(positions[n], stmts);
+    }
+
+    private Expression toExpression(int n) {
+        long p = positions[n];
+        switch (kinds[n]) {
+            case INT_LITERAL:
+                return new IntLiteral(p, a[n]);
+            case STRING_LITERAL:
+                return new StringLiteral(p, strings[a[n]]);
+            case BOOL_LITERAL:
+                return new BoolLiteral(p, a[n] != 0);
+            case VAR_REF:
+                return new VarRef(p, a[n], name(n));
+            case UNARY:
+                return new UnaryExpr(p, unaryOp(n), toExpression(b[n]));
+            case BINARY:
+                return new BinaryExpr(p, toExpression(b[n]), binaryOp(n), toExpression(c[n]));
+            default:
+                throw new IllegalStateException("Not an expression node: " + kinds[n]);
+        }
+    }
+
+    /**
+     * 按后序追加节点：先追加子节点拿到下标，再追加父节点。
+     */
+    public static final class Builder {
+        private final Names names;
+        private byte[] kinds = new byte[64];
+        private int[] a = new int[64];
+        private int[] b = new int[64];
+        private int[] c = new int[64];
+        private long[] positions = new long[64];
+        private byte[] types = new byte[64];
+        private int size;
+        private int[] lists = new int[64];
+        private int listSize;
+        private String[] strings = new String[16];
+        private int stringCount;
+
+        public Builder(Names names) {
+            this.names = names;
+        }
+
+        public int intLiteral(long pos, int value) {
+            return add(INT_LITERAL, pos, value, 0, 0, ValueType.INT);
+        }
+
+        public int stringLiteral(long pos, String value) {
+            if (stringCount == strings.length) strings = Arrays.copyOf(strings, stringCount * 2);
+            strings[stringCount] = value;
+            return add(STRING_LITERAL, pos, stringCount++, 0, 0, ValueType.STRING);
+        }
+
+        public int boolLiteral(long pos, boolean value) {
+            return add(BOOL_LITERAL, pos, value ? 1 : 0, 0, 0, ValueType.BOOLEAN);
+        }
+
+        public int varRef(long pos, int nameId) {
+            return add(VAR_REF, pos, nameId, 0, -1, null);
+        }
+
+        public int unary(long pos, UnaryOp op, int operand) {
+            return add(UNARY, pos, op.ordinal(), operand, 0, null);
+        }
+
+        public int binary(long pos, BinaryOp op, int left, int right) {
+            return add(BINARY, pos, op.ordinal(), left, right, null);
+        }
+
+        public int print(long pos, int expr) {
+            return add(PRINT, pos, 0, expr, 0, null);
+        }
+
+        public int let(long pos, int nameId, int value) {
+            return add(LET, pos, nameId, value, -1, null);
+        }
+
+        public int assign(long pos, int nameId, int value) {
+            return add(ASSIGN, pos, nameId, value, -1, null);
+        }
+
+        /**
+         * 块语句：children[0..count) 为已追加的子语句下标。
+         */
+        public int block(long pos, int[] children, int count) {
+            return add(BLOCK, pos, 0, appendList(children, count), count, null);
+        }
+
+        /**
+         * if 语句：elseBlock 无 else 时传 -1。
+         */
+        public int ifStmt(long pos, int condition, int thenBlock, int elseBlock) {
+            return add(IF, pos, condition, thenBlock, elseBlock, null);
+        }
+
+        /**
+         * while 语句。
+         */
+        public int whileStmt(long pos, int condition, int body) {
+            return add(WHILE, pos, condition, body, 0, null);
+        }
+
+        /**
+         * 以 statements[0..count) 为顶层语句完成构建；数组按实际大小裁剪。
+         */
+        public FlatCompilationUnit build(long pos, int[] statements, int count) {
+            int first = appendList(statements, count);
+            return new FlatCompilationUnit(this, first, count, pos);
+        }
+
+        private int add(byte kind, long pos, int va, int vb, int vc, ValueType type) {
+            if (size == kinds.length) {
+                int cap = size * 2;
+                kinds = Arrays.copyOf(kinds, cap);
+                a = Arrays.copyOf(a, cap);
+                b = Arrays.copyOf(b, cap);
+                c = Arrays.copyOf(c, cap);
+                positions = Arrays.copyOf(positions, cap);
+                types = Arrays.copyOf(types, cap);
+            }
+            kinds[size] = kind;
+            a[size] = va;
+            b[size] = vb;
+            c[size] = vc;
+            positions[size] = pos;
+            types[size] = type == null ? -1 : (byte) type.ordinal();
+            return size++;
+        }
+
+        private int appendList(int[] items, int count) {
+            if (listSize + count > lists.length) {
+                lists = Arrays.copyOf(lists, Math.max(listSize + count, lists.length * 2));
+            }
+            System.arraycopy(items, 0, lists, listSize, count);
+            int start = listSize;
+            listSize += count;
+            return start;
+        }
+
+        private int convert(Statement s) {
+            if (s instanceof PrintStmt) {
+                PrintStmt ps = (PrintStmt) s;
+                return print(ps.pos, convert(ps.expression));
+            } else if (s instanceof LetStmt) {
+                LetStmt ls = (LetStmt) s;
+                int value = convert(ls.value);
+                return let(ls.pos, nameId(ls.id, ls.name), value);
+            } else if (s instanceof AssignStmt) {
+                AssignStmt as = (AssignStmt) s;
+                int value = convert(as.value);
+                return assign(as.pos, nameId(as.id, as.name), value);
+            } else if (s instanceof BlockStmt) {
+                return convertBlock((BlockStmt) s);
+            } else if (s instanceof IfStmt) {
+                IfStmt is = (IfStmt) s;
+                int cond = convert(is.condition);
+                int thenB = convertBlock(is.thenBlock);
+                int elseB = is.elseBlock == null ? -1 : convertBlock(is.elseBlock);
+                return ifStmt(is.pos, cond, thenB, elseB);
+            } else if (s instanceof WhileStmt) {
+                WhileStmt ws = (WhileStmt) s;
+                int cond = convert(ws.condition);
+                return whileStmt(ws.pos, cond, convertBlock(ws.body));
+            }
+            throw new IllegalArgumentException("Unknown statement: " + s.getClass().getSimpleName());
+        }
+
+        private int convertBlock(BlockStmt block) {
+            int[] children = new int[block.statements.size()];
+            for (int i = 0; i < children.length; i++) children[i] = convert(block.statements.get(i));
+            return block(block.pos, children, children.length);
+        }
+
+        private int convert(Expression e) {
+            if (e instanceof IntLiteral) return intLiteral(((IntLiteral) e).pos, ((IntLiteral) e).value);
+            if (e instanceof StringLiteral) return stringLiteral(((StringLiteral) e).pos, ((StringLiteral) e).value);
+            if (e instanceof BoolLiteral) return boolLiteral(((BoolLiteral) e).pos, ((BoolLiteral) e).value);
+            if (e instanceof VarRef) {
+                VarRef v = (VarRef) e;
+                return varRef(v.pos, nameId(v.id, v.name));
+            }
+            if (e instanceof UnaryExpr) {
+                UnaryExpr ue = (UnaryExpr) e;
+                return unary(ue.pos, ue.op, convert(ue.expr));
+            }
+            if (e instanceof BinaryExpr) {
+                BinaryExpr be = (BinaryExpr) e;
+                int left = convert(be.left);
+                return binary(be.pos, be.op, left, convert(be.right));
+            }
+            throw new IllegalArgumentException("Unknown expression: " + e.getClass().getSimpleName());
+        }
+
+        private int nameId(int id, String name) {
+            return id >= 0 ? id : names.intern(name);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.lxg.ast.stmt;
 import com.lxg.ast.node.Expression;
 import com.lxg.ast.node.SourcePos;
 import com.lxg.ast.node.Statement;
+import com.lxg.sema.Local;
 
 /**
  * 赋值语句：<name> = <expr>; 将表达式结果存入已声明的局部变量。
@@ -10,22 +11,32 @@ import com.lxg.ast.node.Statement;
  * @author xiangganluo
  */
 public class AssignStmt implements Statement {
-    public final SourcePos pos;
+    public final long pos; // 打包的行列，见 SourcePos.pack
+    /**
+     * 名字在 CompilationUnit.names 中的编号；手工构造、未经驻留的节点为 -1。
+     */
+    public final int id;
     public final String name;
     public final Expression value;
+    public Local local; // 由 TypeChecker 解析填写（槽位与类型）
 
     public AssignStmt(String name, Expression value) {
         this(null, name, value);
     }
 
     public AssignStmt(SourcePos pos, String name, Expression value) {
+        this(SourcePos.pack(pos), -1, name, value);
+    }
+
+    public AssignStmt(long pos, int id, String name, Expression value) {
         this.pos = pos;
+        this.id = id;
         this.name = name;
         this.value = value;
     }
 
     @Override
     public SourcePos getPos() {
-        return pos;
+        return SourcePos.unpack(pos);
     }
 } 
\ No newline at end of file
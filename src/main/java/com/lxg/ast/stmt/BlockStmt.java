@@ -13,7 +13,7 @@ import java.util.List;
  * @author xiangganluo
  */
 public class BlockStmt implements Statement {
-    public final SourcePos pos;
+    public final long pos; // 打包的行列，见 SourcePos.pack
     public final List<Statement> statements;
 
     public BlockStmt(List<Statement> statements) {
@@ -21,12 +21,16 @@ public class BlockStmt implements Statement {
     }
 
     public BlockStmt(SourcePos pos, List<Statement> statements) {
+        this(SourcePos.pack(pos), statements);
+    }
+
+    public BlockStmt(long pos, List<Statement> statements) {
         this.pos = pos;
         this.statements = Collections.unmodifiableList(new ArrayList<>(statements));
     }
 
     @Override
     public SourcePos getPos() {
-        return pos;
+        return SourcePos.unpack(pos);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,45 @@
+package com.lxg.ast.stmt;
+
+import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.node.ValueType;
+import com.lxg.sema.FunctionSymbol;
+
+import java.util.List;
+
+/**
+ * 函数声明：fn name(p1: type, ...): returnType { ... }，只能出现在顶层。
+ * 编译为生成类中的 private static 方法，参数与返回值使用对应的 JVM 类型（int/boolean 为 I/Z，string 为 String）。
+ *
+ * @author xiangganluo
+ */
+public class FnDecl implements Statement {
+    public final long pos; // 打包的行列，见 SourcePos.pack
+    /**
+     * 名字在 CompilationUnit.names 中的编号；手工构造、未经驻留的节点为 -1。
+     */
+    public final int id;
+    public final String name;
+    public final List<Param> params;
+    public final ValueType returnType;
+    public final BlockStmt body;
+    public FunctionSymbol symbol; // 由 TypeChecker 声明后填写；重复声明时为 null
+
+    public FnDecl(String name, List<Param> params, ValueType returnType, BlockStmt body) {
+        this(SourcePos.NONE, -1, name, params, returnType, body);
+    }
+
+    public FnDecl(long pos, int id, String name, List<Param> params, ValueType returnType, BlockStmt body) {
+        this.pos = pos;
+        this.id = id;
+        this.name = name;
+        this.params = params;
+        this.returnType = returnType;
+        this.body = body;
+    }
+
+    @Override
+    public SourcePos getPos() {
+        return SourcePos.unpack(pos);
+    }
+}
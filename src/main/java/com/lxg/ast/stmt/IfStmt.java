@@ -11,7 +11,7 @@ import com.lxg.ast.node.Statement;
  * @author xiangganluo
  */
 public class IfStmt implements Statement {
-    public final SourcePos pos;
+    public final long pos; // 打包的行列，见 SourcePos.pack
     public final Expression condition;
     public final BlockStmt thenBlock;
     public final BlockStmt elseBlock; // may be null
@@ -21,6 +21,10 @@ public class IfStmt implements Statement {
     }
 
     public IfStmt(SourcePos pos, Expression condition, BlockStmt thenBlock, BlockStmt elseBlock) {
+        this(SourcePos.pack(pos), condition, thenBlock, elseBlock);
+    }
+
+    public IfStmt(long pos, Expression condition, BlockStmt thenBlock, BlockStmt elseBlock) {
         this.pos = pos;
         this.condition = condition;
         this.thenBlock = thenBlock;
@@ -29,6 +33,6 @@ public class IfStmt implements Statement {
 
     @Override
     public SourcePos getPos() {
-        return pos;
+        return SourcePos.unpack(pos);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,38 @@
+package com.lxg.ast.stmt;
+
+import com.lxg.ast.node.Node;
+import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.ValueType;
+import com.lxg.sema.Local;
+
+/**
+ * 函数参数：name: type。参数占函数的前几个局部变量槽位（按声明顺序从 0 开始）。
+ *
+ * @author xiangganluo
+ */
+public class Param implements Node {
+    public final long pos; // 打包的行列，见 SourcePos.pack
+    /**
+     * 名字在 CompilationUnit.names 中的编号；手工构造、未经驻留的节点为 -1。
+     */
+    public final int id;
+    public final String name;
+    public final ValueType type;
+    public Local local; // 由 TypeChecker 解析填写（槽位与类型）
+
+    public Param(String name, ValueType type) {
+        this(SourcePos.NONE, -1, name, type);
+    }
+
+    public Param(long pos, int id, String name, ValueType type) {
+        this.pos = pos;
+        this.id = id;
+        this.name = name;
+        this.type = type;
+    }
+
+    @Override
+    public SourcePos getPos() {
+        return SourcePos.unpack(pos);
+    }
+}
@@ -10,7 +10,7 @@ import com.lxg.ast.node.Statement;
  * @author xiangganluo
  */
 public class PrintStmt implements Statement {
-    public final SourcePos pos;
+    public final long pos; // 打包的行列，见 SourcePos.pack
     public final Expression expression;
 
     public PrintStmt(Expression expression) {
@@ -18,12 +18,16 @@ public class PrintStmt implements Statement {
     }
 
     public PrintStmt(SourcePos pos, Expression expression) {
+        this(SourcePos.pack(pos), expression);
+    }
+
+    public PrintStmt(long pos, Expression expression) {
         this.pos = pos;
         this.expression = expression;
     }
 
     @Override
     public SourcePos getPos() {
-        return pos;
+        return SourcePos.unpack(pos);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,29 @@
+package com.lxg.ast.stmt;
+
+import com.lxg.ast.node.Expression;
+import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.Statement;
+
+/**
+ * return value; 语句，只能出现在函数体中。函数没有 void 返回类型，因此总是带一个值。
+ *
+ * @author xiangganluo
+ */
+public class ReturnStmt implements Statement {
+    public final long pos; // 打包的行列，见 SourcePos.pack
+    public final Expression value;
+
+    public ReturnStmt(Expression value) {
+        this(SourcePos.NONE, value);
+    }
+
+    public ReturnStmt(long pos, Expression value) {
+        this.pos = pos;
+        this.value = value;
+    }
+
+    @Override
+    public SourcePos getPos() {
+        return SourcePos.unpack(pos);
+    }
+}
@@ -0,0 +1,36 @@
+package com.lxg.ast.stmt;
+
+import com.lxg.ast.node.Expression;
+import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.Statement;
+
+/**
+ * 循环语句：while (condition) body。
+ * 每次迭代前求值条件，为真时执行循环体。
+ *
+ * @author xiangganluo
+ */
+public class WhileStmt implements Statement {
+    public final long pos; // 打包的行列，见 SourcePos.pack
+    public final Expression condition;
+    public final BlockStmt body;
+
+    public WhileStmt(Expression condition, BlockStmt body) {
+        this(null, condition, body);
+    }
+
+    public WhileStmt(SourcePos pos, Expression condition, BlockStmt body) {
+        this(SourcePos.pack(pos), condition, body);
+    }
+
+    public WhileStmt(long pos, Expression condition, BlockStmt body) {
+        this.pos = pos;
+        this.condition = condition;
+        this.body = body;
+    }
+
+    @Override
+    public SourcePos getPos() {
+        return SourcePos.unpack(pos);
+    }
+}
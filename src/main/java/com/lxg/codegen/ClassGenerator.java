@@ -2,54 +2,181 @@ package com.lxg.codegen;
 
 import com.lxg.ast.node.Statement;
 import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.program.FlatCompilationUnit;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.MethodVisitor;
-
-import static org.objectweb.asm.Opcodes.*;
+import org.objectweb.asm.Opcodes;
 
 /**
  * 类生成器：为整个程序生成一个包含 public static void main(String[]) 的类。
- * 使用 ClassWriter(COMPUTE_FRAMES|COMPUTE_MAXS) 自动计算栈帧与最大栈深度，简化栈管理。
- * 生成类名固定为 com.lxg.gen.Program，运行时通过内存类加载器加载该类并调用 main。
+ * 栈映射帧与最大栈深度默认由发射过程显式给出（FrameTracker），ClassWriter 不做事后分析；
+ * computeFrames 为 true（--compute-frames）或开启窥孔优化时改用 ClassWriter(COMPUTE_FRAMES|COMPUTE_MAXS) 计算。
+ * 默认类名为 com.lxg.gen.Program，运行时通过内存类加载器加载该类并调用 main；
+ * 批量编译时每个脚本用各自的类名（内部名形式，如 com/lxg/gen/tools/Deploy），见 BatchCompiler；
+ * 嵌入运行时类名由 ScriptLoader.newClassName 按定义策略分配（共享加载器要求唯一，隐藏类要求在 com/lxg/runtime 包下）。
+ * <p>
+ * 除一次性的 generate 外，还可以用 begin 得到 ProgramEmitter，逐条发射语句（流式编译使用）。
+ * <p>
+ * 字节码目标（--target=8|11|17）决定类文件版本与可用的指令形式：8 为默认，兼容性最好，
+ * 字符串拼接用预估容量的 StringBuilder；9 及以上用 invokedynamic + StringConcatFactory，由运行时选择拼接策略。
+ * <p>
+ * print 默认经由 com.lxg.runtime.FastOut 缓冲输出（生成的类依赖该运行时类）；--unbuffered 时每条 print 直接调用
+ * System.out.println，生成的类只依赖 JDK。
+ * <p>
+ * 方法拆分：main 的字节码超过预算（默认 8000 字节，即 HotSpot 的 HugeMethodLimit）时，在顶层语句边界处
+ * 拆成一串 static 方法 chunk1、chunk2…，使每个方法都能被 JIT 编译，也不再受单方法 64KB 的限制，见 ProgramEmitter。
+ * <p>
+ * 可选的窥孔优化（--peephole）在每个方法写出前改写发射器留下的冗余指令序列，见 PeepholeOptimizer。
+ * <p>
+ * 嵌入运行：forScript 得到脚本模式的生成器，生成的类实现 com.lxg.runtime.LxgProgram，输入与输出经由 LxgContext，
+ * 不拆分、不缓冲输出、没有静态状态，见 ProgramEmitter 与 com.lxg.driver.ScriptCompiler。
  *
  * @author xiangganluo
  */
 public class ClassGenerator {
 
-    private static final String CLASS_NAME = "com/lxg/gen/Program";
+    /**
+     * 默认生成的类（内部名形式）。
+     */
+    public static final String CLASS_NAME = "com/lxg/gen/Program";
+
+    /**
+     * 默认字节码目标（Java 版本）。
+     */
+    public static final int DEFAULT_TARGET = 8;
+
+    /**
+     * 默认单方法字节码预算：与 HotSpot 的 HugeMethodLimit 相同，超过即不会被 JIT 编译。
+     */
+    public static final int DEFAULT_METHOD_BUDGET = 8000;
+
+    private final String className;
+    private final int target;
+    private final boolean bufferedOutput;
+    private final int methodBudget;
+    private final PeepholeOptimizer peephole;
+    private final boolean computeFrames;
+    private final boolean script;
+
+    public ClassGenerator() {
+        this(CLASS_NAME);
+    }
+
+    /**
+     * @param className 内部名形式的类名（以 / 分隔包名）
+     */
+    public ClassGenerator(String className) {
+        this(className, DEFAULT_TARGET);
+    }
+
+    /**
+     * @param target 字节码目标：8、11 或 17
+     */
+    public ClassGenerator(String className, int target) {
+        this(className, target, true);
+    }
 
     /**
-     * 根据 AST 生成字节码。返回的字节数组可直接写入 .class 或由类加载器加载。
+     * @param bufferedOutput print 是否经由 FastOut 缓冲输出（false 为逐条 System.out.println）
+     */
+    public ClassGenerator(String className, int target, boolean bufferedOutput) {
+        this(className, target, bufferedOutput, DEFAULT_METHOD_BUDGET);
+    }
+
+    /**
+     * @param methodBudget 单方法字节码预算，超出时拆分 main；0 表示不拆分（整个程序在一个 main 中）
+     */
+    public ClassGenerator(String className, int target, boolean bufferedOutput, int methodBudget) {
+        this(className, target, bufferedOutput, methodBudget, null);
+    }
+
+    /**
+     * @param peephole 写出每个方法前运行的窥孔优化（命中次数累积在该实例上）；null 表示不优化
+     */
+    public ClassGenerator(String className, int target, boolean bufferedOutput, int methodBudget, PeepholeOptimizer peephole) {
+        this(className, target, bufferedOutput, methodBudget, peephole, false);
+    }
+
+    /**
+     * @param computeFrames 由 ClassWriter 分析整个方法计算栈映射帧与最大栈深度（COMPUTE_FRAMES|COMPUTE_MAXS），
+     *                      而不是在发射时显式给出；开启窥孔优化时总是如此（改写发生在发射之后）
+     */
+    public ClassGenerator(String className, int target, boolean bufferedOutput, int methodBudget, PeepholeOptimizer peephole,
+                          boolean computeFrames) {
+        this(className, target, bufferedOutput, methodBudget, peephole, computeFrames, false);
+    }
+
+    private ClassGenerator(String className, int target, boolean bufferedOutput, int methodBudget, PeepholeOptimizer peephole,
+                           boolean computeFrames, boolean script) {
+        classVersion(target); // 校验
+        if (methodBudget < 0) throw new IllegalArgumentException("Negative method budget: " + methodBudget);
+        this.className = className;
+        this.target = target;
+        this.bufferedOutput = bufferedOutput;
+        this.methodBudget = methodBudget;
+        this.peephole = peephole;
+        this.computeFrames = computeFrames || peephole != null;
+        this.script = script;
+    }
+
+    /**
+     * 脚本模式的生成器：类实现 LxgProgram（run(LxgContext)），程序输入从上下文读取，print 写入上下文；
+     * 不拆分 main、不缓冲输出（两者都依赖静态状态），显式栈映射帧。
+     */
+    public static ClassGenerator forScript(String className, int target) {
+        return new ClassGenerator(className, target, false, 0, null, false, true);
+    }
+
+    /**
+     * 字节码目标对应的类文件版本；不支持的目标抛出 IllegalArgumentException。
+     */
+    public static int classVersion(int target) {
+        switch (target) {
+            case 8:
+                return Opcodes.V1_8;
+            case 11:
+                return Opcodes.V11;
+            case 17:
+                return Opcodes.V17;
+            default:
+                throw new IllegalArgumentException("Unsupported target: " + target + " (expected 8, 11 or 17)");
+        }
+    }
+
+    /**
+     * 根据 AST 生成字节码（有程序输入时必须是脚本模式）。返回的字节数组可直接写入 .class 或由类加载器加载。
      */
     public byte[] generate(CompilationUnit unit) {
-        // 创建类：public class com.lxg.gen.Program extends java.lang.Object
-        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-        cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, CLASS_NAME, null, "java/lang/Object", null);
-
-        // 生成默认构造方法：public Program(){ super(); }
-        MethodVisitor ctor = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
-        ctor.visitCode();
-        ctor.visitVarInsn(ALOAD, 0);
-        ctor.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
-        ctor.visitInsn(RETURN);
-        ctor.visitMaxs(0, 0); // 由 COMPUTE_* 自动计算
-        ctor.visitEnd();
-
-        // 生成入口：public static void main(String[] args)
-        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "main", "([Ljava/lang/String;)V", null, null);
-        mv.visitCode();
-
-        // 发射主体语句
-        com.lxg.sema.SymbolTable symbols = new com.lxg.sema.SymbolTable();
-        CodeEmitter emitter = new CodeEmitter(mv, symbols);
+        ProgramEmitter program = begin();
+        if (!unit.inputs.isEmpty()) program.inputs(unit.inputs);
         for (Statement s : unit.statements) {
-            emitter.emitStatement(s);
+            program.emit(s);
+        }
+        return program.finish();
+    }
+
+    /**
+     * 根据扁平形式的程序生成字节码，结果与同一程序的对象 AST 完全相同。
+     */
+    public byte[] generate(FlatCompilationUnit unit) {
+        ProgramEmitter program = begin();
+        for (int i = 0; i < unit.statementCount(); i++) {
+            program.emit(unit, unit.statement(i));
         }
-        mv.visitInsn(RETURN);
-        mv.visitMaxs(0, 0); // 由 COMPUTE_* 自动计算
-        mv.visitEnd();
+        return program.finish();
+    }
 
-        cw.visitEnd();
-        return cw.toByteArray();
+    /**
+     * 开始生成一个写入 ClassWriter 的类，finish 时返回字节码。
+     */
+    public ProgramEmitter begin() {
+        return begin(new ClassWriter(computeFrames ? ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS : 0));
+    }
+
+    /**
+     * 开始生成一个写入任意 ClassVisitor 的类（例如只做统计、不保留字节码的访问者）。
+     */
+    public ProgramEmitter begin(ClassVisitor cv) {
+        return new ProgramEmitter(cv, className, target, bufferedOutput, methodBudget, peephole, !computeFrames, script);
     }
-} 
\ No newline at end of file
+}
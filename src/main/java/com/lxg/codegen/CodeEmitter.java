@@ -4,27 +4,223 @@ import com.lxg.ast.expr.*;
 import com.lxg.ast.node.Expression;
 import com.lxg.ast.node.Statement;
 import com.lxg.ast.node.ValueType;
+import com.lxg.ast.program.FlatCompilationUnit;
 import com.lxg.ast.stmt.*;
+import com.lxg.runtime.FastOut;
+import com.lxg.runtime.LxgContext;
 import com.lxg.sema.Local;
-import com.lxg.sema.SymbolTable;
+import com.lxg.sema.TypeChecker;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 import static org.objectweb.asm.Opcodes.*;
 
 /**
  * 代码发射器：将 AST 节点翻译为 ASM 字节码指令（基于 JVM 栈机器）。
  * 该类不负责类/方法的创建，只关注语句与表达式的具体指令序列。
+ * <p>
+ * 输入必须是已通过 TypeChecker 检查的 AST：表达式类型取自 getType()，变量槽位取自节点上的 Local
+ * （扁平形式取自其类型/槽位侧表）。发射器不持有符号表，也不重复做类型校验。
+ * <p>
+ * 字符串拼接（类型为 STRING 的 +）：整条左结合链展开为操作数序列后一次完成，字面量操作数直接并入常量文本；
+ * 目标为 Java 9+ 时用 invokedynamic 调用 StringConcatFactory.makeConcatWithConstants，否则用预估容量的 StringBuilder。
+ * <p>
+ * print：缓冲输出（默认）时调用 FastOut.println，字符串字面量改为读取预先编码的 UTF-8 byte[] 静态字段
+ * （字段由 ProgramEmitter 在 finish 时声明并在 &lt;clinit&gt; 中初始化）；否则为 System.out.println。
+ * <p>
+ * 方法拆分（见 ProgramEmitter）：发射目标可以在顶层语句之间切换到新的方法（startChunk）。
+ * 当前方法中声明过的槽位按局部变量访问；之前的方法中声明的变量已在切换时存入静态字段（spill），此后按字段访问。
+ * <p>
+ * 函数：每个函数体由一个新的发射器（共享字面量字段）发射到它自己的 static 方法中，参数占前几个槽位（见 emitFunction）；
+ * 调用为实参依次压栈后的 INVOKESTATIC，描述符取自 FunctionSymbol。
+ * <p>
+ * 脚本模式（嵌入运行，见 ClassGenerator.forScript）：每个方法的槽位 0 是 LxgContext——入口方法中代替 args，
+ * 函数中作为额外的首个参数（函数自己的槽位因此整体后移一位）；print 调用上下文的 println，调用函数时先压入上下文，
+ * 程序输入在入口处从上下文读入各自的槽位（见 emitInputs）。
+ * <p>
+ * 显式栈映射帧（见 FrameTracker）：发射目标之下有 FrameTracker 时，它随指令流跟踪类型；
+ * 发射器只需在每个循环头放置之前告知循环体内 let 声明的局部变量（回边是唯一的向后跳转，这些槽位在回边处可能已改变类型）。
  *
  * @author xiangganluo
  */
 class CodeEmitter {
-    private final MethodVisitor mv;
-    private final SymbolTable symbols;
+    /**
+     * StringConcatFactory 单次调用的参数上限是 200 个槽位；分组时留 1 个给上一组的结果。
+     */
+    private static final int MAX_CONCAT_ARGS = 199;
+    private static final Handle CONCAT_BOOTSTRAP = new Handle(H_INVOKESTATIC, "java/lang/invoke/StringConcatFactory",
+            "makeConcatWithConstants",
+            "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;",
+            false);
 
-    CodeEmitter(MethodVisitor mv, SymbolTable symbols) {
+    /**
+     * 预编码字面量字段的数量上限：每个字段在 &lt;clinit&gt; 中约占 13 字节，超出后的字面量在运行时编码。
+     */
+    static final int MAX_LITERAL_FIELDS = 2048;
+
+    private MethodVisitor mv;
+    private FrameTracker frames; // 当前方法的帧跟踪；为 null 时由 ClassWriter 计算帧
+    private final String owner;
+    private final boolean indyConcat;
+    private final boolean bufferedOutput;
+    private final boolean script;
+    private final Map<String, String> literalFields;
+    private int slotOffset; // 槽位 → 局部变量下标的偏移：脚本模式的函数中为 1（槽位 0 是 LxgContext）
+
+    // 方法拆分状态
+    private final Map<Integer, Integer> chunkLocals = new HashMap<>(); // 当前方法中由 let 写入过的槽位 → 方法内的局部变量下标
+    private boolean compactLocals; // chunk 方法从 0 起紧凑编号；main 保持槽位原号（未拆分的程序输出不变）
+    private final Map<Integer, ValueType> topLevelSlots = new TreeMap<>(); // 槽位 → 最近在其中声明的顶层变量类型（块内声明为 null）
+    private final Map<String, String> variableFields = new LinkedHashMap<>(); // 字段名 → 描述符
+    private int nesting; // 当前语句所在的块/分支嵌套深度，0 为顶层
+    private MethodVisitor measured; // 估算期间被替换下来的发射目标；非 null 表示正在估算
+
+    /**
+     * @param frames         mv 之下的帧跟踪（发射循环时提供提示）；null 表示由 ClassWriter 计算帧
+     * @param owner          生成类的内部名（字面量字段的所属类）
+     * @param indyConcat     字符串拼接是否使用 invokedynamic（要求类文件版本不低于 Java 9）
+     * @param bufferedOutput print 是否经由 FastOut 缓冲输出
+     * @param script         脚本模式：print 写入槽位 0 中的 LxgContext，函数以它为首个参数
+     */
+    CodeEmitter(MethodVisitor mv, FrameTracker frames, String owner, boolean indyConcat, boolean bufferedOutput, boolean script) {
+        this.mv = mv;
+        this.frames = frames;
+        this.owner = owner;
+        this.indyConcat = indyConcat;
+        this.bufferedOutput = bufferedOutput;
+        this.script = script;
+        this.literalFields = new LinkedHashMap<>();
+    }
+
+    /**
+     * 函数体的发射器：与 parent 使用相同的生成选项并共享字面量字段（字段只由 main 所在的 ProgramEmitter 声明一次）。
+     */
+    CodeEmitter(MethodVisitor mv, FrameTracker frames, CodeEmitter parent) {
         this.mv = mv;
-        this.symbols = symbols;
+        this.frames = frames;
+        this.owner = parent.owner;
+        this.indyConcat = parent.indyConcat;
+        this.bufferedOutput = parent.bufferedOutput;
+        this.script = parent.script;
+        this.literalFields = parent.literalFields;
+    }
+
+    /**
+     * 函数在生成类中的描述符：脚本模式在 FunctionSymbol 的描述符前加上 LxgContext 参数。
+     */
+    String functionDescriptor(String descriptor) {
+        return script ? "(L" + LxgContext.INTERNAL_NAME + ";" + descriptor.substring(1) : descriptor;
+    }
+
+    /**
+     * 脚本模式的入口：按声明顺序从上下文读取程序输入，存入它们的槽位（之后与普通变量相同）。
+     */
+    void emitInputs(List<Param> inputs) {
+        for (Param p : inputs) {
+            Local local = resolved(p.local, p.name);
+            declare(local.type, local.index);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitLdcInsn(p.name);
+            String getter = local.type == ValueType.INT ? "getInt" : local.type == ValueType.STRING ? "getString" : "getBoolean";
+            mv.visitMethodInsn(INVOKEVIRTUAL, LxgContext.INTERNAL_NAME, getter, "(Ljava/lang/String;)" + descriptor(local.type), false);
+            store(local);
+        }
+    }
+
+    /**
+     * 已引用的字面量 → 字段名（按首次出现的顺序），由 ProgramEmitter 声明并初始化。
+     */
+    Map<String, String> literalFields() {
+        return literalFields;
+    }
+
+    /**
+     * 跨方法存活的变量字段：字段名 → 描述符，由 ProgramEmitter 声明。
+     */
+    Map<String, String> variableFields() {
+        return variableFields;
+    }
+
+    /**
+     * 估算一条顶层语句的字节码长度：发射到只计数的访问者，不改变槽位/字段状态
+     * （语句内新声明的变量按字段访问估算，结果只会偏大）。
+     */
+    int measure(Statement s) {
+        SizeCounter counter = beginMeasure();
+        try {
+            emitStatement(s);
+        } finally {
+            endMeasure();
+        }
+        return counter.size;
+    }
+
+    int measure(FlatCompilationUnit u, int n) {
+        SizeCounter counter = beginMeasure();
+        try {
+            emitStatement(u, n);
+        } finally {
+            endMeasure();
+        }
+        return counter.size;
+    }
+
+    private SizeCounter beginMeasure() {
+        SizeCounter counter = new SizeCounter(null);
+        measured = mv;
+        mv = counter;
+        return counter;
+    }
+
+    private void endMeasure() {
+        mv = measured;
+        measured = null;
+    }
+
+    /**
+     * spill 的字节数上界：每个顶层变量一次装载（≤ 4 字节）与一次 PUTSTATIC。
+     */
+    int spillSize() {
+        return 7 * topLevelSlots.size();
+    }
+
+    /**
+     * 当前方法结束前：把仍在槽位中的顶层变量存入静态字段，供后续方法读取。
+     * 只有最近一次声明在顶层的槽位才保存（块内声明复用了该槽位时，原来的顶层变量已经不再使用，
+     * 而块内变量在分支汇合处可能未赋值，不能装载）。
+     */
+    void spill() {
+        for (Map.Entry<Integer, ValueType> e : topLevelSlots.entrySet()) {
+            if (e.getValue() == null) continue;
+            localInsn(e.getValue(), e.getKey(), false);
+            mv.visitFieldInsn(PUTSTATIC, owner, variableField(e.getKey(), e.getValue()), descriptor(e.getValue()));
+        }
+    }
+
+    /**
+     * 切换到新的方法：此前声明的变量此后按字段访问。
+     */
+    void startChunk(MethodVisitor mv, FrameTracker frames) {
+        this.mv = mv;
+        this.frames = frames;
+        chunkLocals.clear();
+        topLevelSlots.clear();
+        compactLocals = true;
+    }
+
+    private String variableField(int slot, ValueType type) {
+        String name = "V" + slot + (type == ValueType.STRING ? "S" : type == ValueType.BOOLEAN ? "Z" : "I");
+        if (measured == null) variableFields.putIfAbsent(name, descriptor(type));
+        return name;
     }
 
     /**
@@ -34,255 +230,808 @@ class CodeEmitter {
         if (stmt instanceof PrintStmt) {
             emitPrint((PrintStmt) stmt);
         } else if (stmt instanceof LetStmt) {
-            emitLet((LetStmt) stmt);
+            LetStmt ls = (LetStmt) stmt;
+            emitExpression(ls.value);
+            Local local = resolved(ls.local, ls.name);
+            declare(local.type, local.index);
+            store(local);
         } else if (stmt instanceof AssignStmt) {
-            emitAssign((AssignStmt) stmt);
+            AssignStmt as = (AssignStmt) stmt;
+            emitExpression(as.value);
+            store(resolved(as.local, as.name));
         } else if (stmt instanceof BlockStmt) {
+            nesting++;
             for (Statement s : ((BlockStmt) stmt).statements) emitStatement(s);
+            nesting--;
         } else if (stmt instanceof IfStmt) {
+            nesting++;
             emitIf((IfStmt) stmt);
+            nesting--;
+        } else if (stmt instanceof WhileStmt) {
+            nesting++;
+            emitWhile((WhileStmt) stmt);
+            nesting--;
+        } else if (stmt instanceof ReturnStmt) {
+            Expression value = ((ReturnStmt) stmt).value;
+            emitExpression(value);
+            mv.visitInsn(value.getType() == ValueType.STRING ? ARETURN : IRETURN);
         } else {
             throw new IllegalStateException("Unknown statement: " + stmt.getClass());
         }
     }
 
+    /**
+     * 发射函数体（方法头由调用方写好）：参数槽位即 JVM 的参数下标（都只占 1 个槽位），函数体的每条路径都以 return 结束。
+     */
+    void emitFunction(FnDecl fd) {
+        if (script) slotOffset = 1;
+        for (Param p : fd.params) {
+            Local local = resolved(p.local, p.name);
+            chunkLocals.put(local.index, local.index + slotOffset);
+        }
+        nesting = 1; // 函数中的变量不是 main 的顶层变量，不参与 spill
+        for (Statement s : fd.body.statements) emitStatement(s);
+    }
+
     /**
      * 生成 if/else 分支：
-     * - 先将条件表达式压栈（0/1）
-     * - IFEQ 跳到 else 分支（0 为假）
-     * - 执行 then 分支并跳过 else
+     * - 条件编译为跳转（见 emitCondition）：为假时直接跳到 else 标签，不先物化 0/1 再测试
+     * - 执行 then 分支；有 else 时 GOTO 跳过 else
      * - 贴上 else 与 end 标签，控制流程汇合
      */
     private void emitIf(IfStmt ifs) {
-        ValueType condType = emitExpression(ifs.condition);
-        if (condType != ValueType.BOOLEAN) {
-            throw new IllegalStateException("if condition must be boolean");
-        }
         Label elseLabel = new Label();
-        Label endLabel = new Label();
-        mv.visitJumpInsn(IFEQ, elseLabel); // 栈顶为0则跳到else
+        emitCondition(ifs.condition, elseLabel, false);
         for (Statement s : ifs.thenBlock.statements) emitStatement(s);
-        mv.visitJumpInsn(GOTO, endLabel);
+        if (ifs.elseBlock == null) {
+            mv.visitLabel(elseLabel);
+            return;
+        }
+        Label endLabel = new Label();
+        boolean returned = TypeChecker.returns(ifs.thenBlock);
+        if (!returned) mv.visitJumpInsn(GOTO, endLabel); // then 分支以 return 结束时 GOTO 不可达
         mv.visitLabel(elseLabel);
-        if (ifs.elseBlock != null) {
-            for (Statement s : ifs.elseBlock.statements) emitStatement(s);
+        for (Statement s : ifs.elseBlock.statements) emitStatement(s);
+        if (!returned) mv.visitLabel(endLabel);
+    }
+
+    /**
+     * 生成 while 循环（旋转成“条件在底部”的形式）：
+     * - 先 GOTO 到底部的条件，再贴上循环体标签
+     * - 循环体之后是条件：为真时跳回循环体（向后跳转），否则顺序执行离开循环
+     * - 每次迭代只执行一条条件跳转，没有额外的 GOTO；向后的条件跳转就是 HotSpot 计数回边、触发 OSR 的位置
+     */
+    private void emitWhile(WhileStmt ws) {
+        Label bodyLabel = new Label();
+        Label testLabel = new Label();
+        mv.visitJumpInsn(GOTO, testLabel);
+        if (tracking()) {
+            List<Integer> slots = new ArrayList<>();
+            collectDeclared(ws.body, slots);
+            frames.enterLoop(bodyLabel, localIndices(slots));
+        }
+        mv.visitLabel(bodyLabel);
+        for (Statement s : ws.body.statements) emitStatement(s);
+        mv.visitLabel(testLabel);
+        emitCondition(ws.condition, bodyLabel, true);
+        if (tracking()) frames.exitLoop(bodyLabel);
+    }
+
+    /**
+     * 是否需要向 FrameTracker 提供循环提示（估算长度时发射目标只是计数器）。
+     */
+    private boolean tracking() {
+        return frames != null && measured == null;
+    }
+
+    /**
+     * 语句（含嵌套的块、分支与循环）中 let 声明的槽位。
+     */
+    private static void collectDeclared(Statement s, List<Integer> out) {
+        if (s instanceof LetStmt) {
+            out.add(((LetStmt) s).local.index);
+        } else if (s instanceof BlockStmt) {
+            for (Statement c : ((BlockStmt) s).statements) collectDeclared(c, out);
+        } else if (s instanceof IfStmt) {
+            collectDeclared(((IfStmt) s).thenBlock, out);
+            if (((IfStmt) s).elseBlock != null) collectDeclared(((IfStmt) s).elseBlock, out);
+        } else if (s instanceof WhileStmt) {
+            collectDeclared(((WhileStmt) s).body, out);
+        }
+    }
+
+    /**
+     * 槽位 → 当前方法中的局部变量下标；尚未在当前方法中声明的槽位还没有下标，也不在帧中，跳过。
+     */
+    private int[] localIndices(List<Integer> slots) {
+        int[] indices = new int[slots.size()];
+        int n = 0;
+        for (int slot : slots) {
+            Integer index = chunkLocals.get(slot);
+            if (index != null) indices[n++] = index;
         }
-        mv.visitLabel(endLabel);
+        return Arrays.copyOf(indices, n);
+    }
+
+    /**
+     * 把布尔表达式编译为跳转：值等于 jumpIf 时跳到 target，否则顺序执行下去（栈上不留值）。
+     * - 比较：一条 IF_ICMPxx（jumpIf 为假时取反，如 &lt; 变为 IF_ICMPGE）；与字面量 0 比较时用单操作数的 IFxx
+     * - !：交换跳转目标（jumpIf 取反），不产生指令
+     * - &amp;&amp; / ||：短路跳转链，右操作数只在需要时求值
+     * - 其余（变量、字面量等）求值后 IFNE/IFEQ；字面量条件也照常测试而不是改为 GOTO，
+     * 否则另一侧成为不可达代码，需要额外的栈帧（COMPUTE_FRAMES 还会把它替换为 NOP/ATHROW），类反而变大（常量分支由优化器删除）
+     */
+    private void emitCondition(Expression e, Label target, boolean jumpIf) {
+        if (e instanceof UnaryExpr && ((UnaryExpr) e).op == UnaryOp.NOT) {
+            emitCondition(((UnaryExpr) e).expr, target, !jumpIf);
+        } else if (e instanceof BinaryExpr && isLogical(((BinaryExpr) e).op)) {
+            BinaryExpr be = (BinaryExpr) e;
+            // a && b 为真 / a || b 为假 需要两侧都满足：左侧不满足时跳过右侧
+            if ((be.op == BinaryOp.AND) == jumpIf) {
+                Label skip = new Label();
+                emitCondition(be.left, skip, !jumpIf);
+                emitCondition(be.right, target, jumpIf);
+                mv.visitLabel(skip);
+            } else {
+                emitCondition(be.left, target, jumpIf);
+                emitCondition(be.right, target, jumpIf);
+            }
+        } else if (e instanceof BinaryExpr && isComparison(((BinaryExpr) e).op)) {
+            BinaryExpr be = (BinaryExpr) e;
+            emitExpression(be.left);
+            if (isZero(be.right)) {
+                mv.visitJumpInsn(compareJump(be.op, jumpIf) - (IF_ICMPEQ - IFEQ), target);
+            } else {
+                emitExpression(be.right);
+                mv.visitJumpInsn(compareJump(be.op, jumpIf), target);
+            }
+        } else {
+            emitExpression(e);
+            mv.visitJumpInsn(jumpIf ? IFNE : IFEQ, target);
+        }
+    }
+
+    /**
+     * 表达式是否以跳转形式求值（比较、&amp;&amp;/||，以及作用于它们的 !）：作为值使用时需要物化为 0/1。
+     */
+    private static boolean isCondition(Expression e) {
+        if (e instanceof BinaryExpr) return isComparison(((BinaryExpr) e).op) || isLogical(((BinaryExpr) e).op);
+        return e instanceof UnaryExpr && ((UnaryExpr) e).op == UnaryOp.NOT && isCondition(((UnaryExpr) e).expr);
+    }
+
+    private static boolean isZero(Expression e) {
+        return e instanceof IntLiteral && ((IntLiteral) e).value == 0;
     }
 
     /**
-     * System.out.println 重载选择：根据值类型调用(I)V/(Ljava/lang/String;)V/(Z)V。
-     * 前置条件：表达式已将值压栈。
+     * println 重载选择：根据值类型调用(I)V/(Ljava/lang/String;)V/(Z)V。
+     * 缓冲输出时为 FastOut 的静态方法，否则先取 System.out 再压入值。
      */
     private void emitPrint(PrintStmt ps) {
-        mv.visitFieldInsn(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
-        ValueType type = emitExpression(ps.expression);
+        if (ps.expression instanceof StringLiteral && printLiteral(((StringLiteral) ps.expression).value)) return;
+        printTarget();
+        emitExpression(ps.expression);
+        println(ps.expression.getType());
+    }
+
+    /**
+     * println 的接收者：脚本模式为槽位 0 中的 LxgContext，非缓冲输出为 System.out，缓冲输出（静态方法）没有。
+     */
+    private void printTarget() {
+        if (script) {
+            mv.visitVarInsn(ALOAD, 0);
+        } else if (!bufferedOutput) {
+            mv.visitFieldInsn(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+        }
+    }
+
+    /**
+     * 缓冲输出时字面量直接输出其预编码字段；字段数已达上限或非缓冲输出时返回 false，按普通字符串处理。
+     */
+    private boolean printLiteral(String value) {
+        if (!bufferedOutput) return false;
+        String field = literalFields.get(value);
+        if (field == null) {
+            if (literalFields.size() >= MAX_LITERAL_FIELDS) return false;
+            field = "S" + literalFields.size();
+            literalFields.put(value, field);
+        }
+        mv.visitFieldInsn(GETSTATIC, owner, field, "[B");
+        mv.visitMethodInsn(INVOKESTATIC, FastOut.INTERNAL_NAME, "println", "([B)V", false);
+        return true;
+    }
+
+    private void println(ValueType type) {
+        String desc;
         if (type == ValueType.INT) {
-            mv.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(I)V", false);
+            desc = "(I)V";
         } else if (type == ValueType.STRING) {
-            mv.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V", false);
+            desc = "(Ljava/lang/String;)V";
         } else if (type == ValueType.BOOLEAN) {
-            mv.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Z)V", false);
+            desc = "(Z)V";
         } else {
             throw new IllegalStateException("Unsupported type in print: " + type);
         }
+        if (script) {
+            mv.visitMethodInsn(INVOKEVIRTUAL, LxgContext.INTERNAL_NAME, "println", desc, false);
+        } else if (bufferedOutput) {
+            mv.visitMethodInsn(INVOKESTATIC, FastOut.INTERNAL_NAME, "println", desc, false);
+        } else {
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", desc, false);
+        }
     }
 
     /**
-     * let 声明：右值先求值压栈 -> 分配局部槽位 -> 存储。
+     * 未经 TypeChecker 检查的节点没有 Local，给出明确的错误而不是空指针。
      */
-    private void emitLet(LetStmt ls) {
-        ValueType type = emitExpression(ls.value);
-        Local local = symbols.declare(ls.name, type);
-        storeLocal(local);
+    private static Local resolved(Local local, String name) {
+        if (local == null) throw new IllegalStateException("Unresolved variable '" + name + "' (run TypeChecker before code generation)");
+        return local;
+    }
+
+    private void store(Local local) {
+        store(local.type, local.index);
     }
 
     /**
-     * 赋值：右值先求值压栈 -> 类型校验 -> 存储到已存在槽位。
+     * let 声明：记录槽位属于当前方法（在求值右侧之后调用，右侧仍可读取同一槽位中已死亡的旧变量）。
      */
-    private void emitAssign(AssignStmt as) {
-        Local local = symbols.resolve(as.name);
-        ValueType type = emitExpression(as.value);
-        if (local.type != type) {
-            throw new IllegalStateException("Type mismatch for variable '" + as.name + "': expected " + local.type + ", got " + type);
+    private void declare(ValueType type, int index) {
+        if (measured != null) return;
+        if (!chunkLocals.containsKey(index)) chunkLocals.put(index, compactLocals ? chunkLocals.size() : index + slotOffset);
+        topLevelSlots.put(index, nesting == 0 ? type : null);
+    }
+
+    /**
+     * 按类型将栈顶存入变量：当前方法声明过的槽位用 ISTORE/ASTORE，之前方法中的变量用 PUTSTATIC。
+     */
+    private void store(ValueType type, int index) {
+        if (!chunkLocals.containsKey(index)) {
+            mv.visitFieldInsn(PUTSTATIC, owner, variableField(index, type), descriptor(type));
+        } else {
+            localInsn(type, index, true);
         }
-        storeLocal(local);
     }
 
     /**
-     * 按类型将栈顶存入本地变量槽位（int/boolean 使用 I* 指令，引用使用 A* 指令）。
+     * 将变量装载到栈顶：ILOAD/ALOAD，或之前方法中变量的 GETSTATIC。
      */
-    private void storeLocal(Local local) {
-        switch (local.type) {
-            case INT:
-            case BOOLEAN:
-                mv.visitVarInsn(ISTORE, local.index);
-                break;
-            case STRING:
-                mv.visitVarInsn(ASTORE, local.index);
-                break;
-            default:
-                throw new IllegalStateException("Unsupported local type: " + local.type);
+    private void load(ValueType type, int index) {
+        if (!chunkLocals.containsKey(index)) {
+            mv.visitFieldInsn(GETSTATIC, owner, variableField(index, type), descriptor(type));
+        } else {
+            localInsn(type, index, false);
         }
     }
 
     /**
-     * 将本地变量槽位装载到栈顶，对应 ILOAD/ALOAD。
+     * 槽位访问指令（int/boolean 使用 I* 指令，引用使用 A* 指令）。
+     * chunk 方法中槽位映射为紧凑的局部变量下标，栈映射帧不必携带其它方法使用的槽位。
      */
-    private void loadLocal(Local local) {
-        switch (local.type) {
+    private void localInsn(ValueType type, int slot, boolean store) {
+        int index = chunkLocals.get(slot);
+        switch (type) {
             case INT:
             case BOOLEAN:
-                mv.visitVarInsn(ILOAD, local.index);
+                mv.visitVarInsn(store ? ISTORE : ILOAD, index);
                 break;
             case STRING:
-                mv.visitVarInsn(ALOAD, local.index);
+                mv.visitVarInsn(store ? ASTORE : ALOAD, index);
                 break;
             default:
-                throw new IllegalStateException("Unsupported local type: " + local.type);
+                throw new IllegalStateException("Unsupported local type: " + type);
         }
     }
 
     /**
-     * 表达式求值统一入口：将结果压栈并返回静态类型。
+     * 表达式求值统一入口：将结果压栈（类型由 TypeChecker 确定，见 Expression.getType）。
      * - 字面量：直接常量入栈
      * - 变量：槽位装载
      * - 复合表达式：递归生成左右子树，再发射操作指令
      */
-    ValueType emitExpression(Expression e) {
-        if (e instanceof IntLiteral) {
-            int v = ((IntLiteral) e).value;
-            pushInt(v);
-            return ValueType.INT;
+    void emitExpression(Expression e) {
+        if (isCondition(e)) {
+            Label falseL = new Label();
+            emitCondition(e, falseL, false);
+            materialize(falseL);
+        } else if (e instanceof IntLiteral) {
+            pushInt(((IntLiteral) e).value);
         } else if (e instanceof StringLiteral) {
             mv.visitLdcInsn(((StringLiteral) e).value);
-            return ValueType.STRING;
         } else if (e instanceof BoolLiteral) {
-            mv.visitLdcInsn(((BoolLiteral) e).value ? 1 : 0);
-            return ValueType.BOOLEAN;
+            pushInt(((BoolLiteral) e).value ? 1 : 0);
         } else if (e instanceof VarRef) {
-            Local local = symbols.resolve(((VarRef) e).name);
-            loadLocal(local);
-            return local.type;
+            VarRef v = (VarRef) e;
+            Local local = resolved(v.local, v.name);
+            load(local.type, local.index);
         } else if (e instanceof UnaryExpr) {
-            return emitUnary((UnaryExpr) e);
+            UnaryExpr ue = (UnaryExpr) e;
+            emitExpression(ue.expr);
+            unaryOp(ue.op);
+        } else if (e instanceof BinaryExpr && ((BinaryExpr) e).type == ValueType.STRING) {
+            List<Expression> parts = new ArrayList<>();
+            collectConcat(e, parts);
+            emitConcat(new Operands() {
+                @Override
+                public int size() {
+                    return parts.size();
+                }
+
+                @Override
+                public ValueType type(int i) {
+                    return parts.get(i).getType();
+                }
+
+                @Override
+                public String constant(int i) {
+                    Expression p = parts.get(i);
+                    if (p instanceof StringLiteral) return ((StringLiteral) p).value;
+                    if (p instanceof IntLiteral) return String.valueOf(((IntLiteral) p).value);
+                    if (p instanceof BoolLiteral) return String.valueOf(((BoolLiteral) p).value);
+                    return null;
+                }
+
+                @Override
+                public void emit(int i) {
+                    emitExpression(parts.get(i));
+                }
+            });
         } else if (e instanceof BinaryExpr) {
-            return emitBinary((BinaryExpr) e);
+            BinaryExpr be = (BinaryExpr) e;
+            emitExpression(be.left);
+            emitExpression(be.right);
+            binaryOp(be.op);
+        } else if (e instanceof CallExpr) {
+            CallExpr call = (CallExpr) e;
+            if (call.function == null) {
+                throw new IllegalStateException("Unresolved function '" + call.name + "' (run TypeChecker before code generation)");
+            }
+            if (script) mv.visitVarInsn(ALOAD, 0);
+            for (Expression a : call.args) emitExpression(a);
+            mv.visitMethodInsn(INVOKESTATIC, owner, call.name, functionDescriptor(call.function.descriptor), false);
+        } else {
+            throw new IllegalStateException("Unknown expression: " + e.getClass());
         }
-        throw new IllegalStateException("Unknown expression: " + e.getClass());
     }
 
     /**
-     * 一元运算：
-     * - +x：类型需为 int，指令无操作
-     * - -x：类型为 int，发射 INEG
-     * - !x：类型为 boolean，借助条件跳转将 0/1 取反
+     * 一元运算（操作数已在栈顶，对象 AST 与扁平形式共用）：
+     * - +x：指令无操作
+     * - -x：发射 INEG
+     * - !x：与 1 异或（0/1 取反，无分支）；作用于比较等条件时不会走到这里，见 emitCondition
      */
-    private ValueType emitUnary(UnaryExpr ue) {
-        ValueType t = emitExpression(ue.expr);
-        switch (ue.op) {
+    private void unaryOp(UnaryOp op) {
+        switch (op) {
             case PLUS:
-                if (t != ValueType.INT) throw new IllegalStateException("Unary + expects INT");
-                return ValueType.INT;
+                break;
             case MINUS:
-                if (t != ValueType.INT) throw new IllegalStateException("Unary - expects INT");
                 mv.visitInsn(INEG);
-                return ValueType.INT;
+                break;
             case NOT:
-                if (t != ValueType.BOOLEAN) throw new IllegalStateException("Unary ! expects BOOLEAN");
-                Label trueL = new Label();
-                Label endL = new Label();
-                // 栈顶为0(假) -> 跳到trueL 压1，否则压0
-                mv.visitJumpInsn(IFEQ, trueL);
-                pushInt(0);
-                mv.visitJumpInsn(GOTO, endL);
-                mv.visitLabel(trueL);
                 pushInt(1);
-                mv.visitLabel(endL);
-                return ValueType.BOOLEAN;
+                mv.visitInsn(IXOR);
+                break;
             default:
-                throw new IllegalStateException("Unknown unary op: " + ue.op);
+                throw new IllegalStateException("Unknown unary op: " + op);
         }
     }
 
     /**
-     * 二元运算：
-     * - 算术：先左后右压栈 -> 发射 IADD/ISUB/IMUL/IDIV
-     * - 比较：先左后右压栈 -> 条件跳转到 true 标签 -> 归一化为 0/1
+     * 算术运算（左右操作数已依次压栈，对象 AST 与扁平形式共用）：发射 IADD/ISUB/IMUL/IDIV。
+     * 比较与 &amp;&amp;/|| 以跳转形式求值，见 emitCondition。
      */
-    private ValueType emitBinary(BinaryExpr be) {
-        switch (be.op) {
+    private void binaryOp(BinaryOp op) {
+        switch (op) {
             case ADD:
+                mv.visitInsn(IADD);
+                break;
             case SUB:
+                mv.visitInsn(ISUB);
+                break;
             case MUL:
-            case DIV: {
-                ValueType lt = emitExpression(be.left);
-                ValueType rt = emitExpression(be.right);
-                if (lt != ValueType.INT || rt != ValueType.INT) {
-                    throw new IllegalStateException("Arithmetic expects INT operands");
-                }
-                switch (be.op) {
-                    case ADD:
-                        mv.visitInsn(IADD);
-                        break;
-                    case SUB:
-                        mv.visitInsn(ISUB);
-                        break;
-                    case MUL:
-                        mv.visitInsn(IMUL);
-                        break;
-                    case DIV:
-                        mv.visitInsn(IDIV);
-                        break;
+                mv.visitInsn(IMUL);
+                break;
+            case DIV:
+                mv.visitInsn(IDIV);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported binary op: " + op);
+        }
+    }
+
+    /**
+     * 展开类型为 STRING 的 + 链：a + 1 + b 得到 [a, 1, b]；非字符串的子表达式（如 "s" + (1 + 2) 中的 1 + 2）作为整体。
+     */
+    private static void collectConcat(Expression e, List<Expression> out) {
+        if (e instanceof BinaryExpr && ((BinaryExpr) e).type == ValueType.STRING) {
+            collectConcat(((BinaryExpr) e).left, out);
+            collectConcat(((BinaryExpr) e).right, out);
+        } else {
+            out.add(e);
+        }
+    }
+
+    /**
+     * 字符串拼接的操作数序列（对象 AST 与扁平形式各自提供）。
+     */
+    private interface Operands {
+        int size();
+
+        ValueType type(int i);
+
+        /**
+         * 字面量操作数的文本（在编译期并入常量）；非字面量返回 null。
+         */
+        String constant(int i);
+
+        /**
+         * 将非字面量操作数压栈。
+         */
+        void emit(int i);
+    }
+
+    private void emitConcat(Operands ops) {
+        if (indyConcat) {
+            emitIndyConcat(ops);
+        } else {
+            emitBuilderConcat(ops);
+        }
+    }
+
+    /**
+     * invokedynamic 拼接：配方（recipe）中 \1 表示一个参数，字面量直接写入配方；
+     * 含 \1/\2 的字面量以 \2 引用引导方法的常量参数。参数超过上限时分组，上一组的结果作为下一组的第一个参数。
+     */
+    private void emitIndyConcat(Operands ops) {
+        int i = 0;
+        boolean first = true;
+        while (i < ops.size()) {
+            StringBuilder recipe = new StringBuilder();
+            StringBuilder desc = new StringBuilder("(");
+            List<Object> bsmArgs = new ArrayList<>();
+            bsmArgs.add(null); // 占位：recipe
+            int args = 0;
+            if (!first) {
+                recipe.append('\u0001');
+                desc.append("Ljava/lang/String;");
+                args++;
+            }
+            for (; i < ops.size() && args < MAX_CONCAT_ARGS; i++) {
+                String constant = ops.constant(i);
+                if (constant == null) {
+                    ops.emit(i);
+                    recipe.append('\u0001');
+                    desc.append(descriptor(ops.type(i)));
+                    args++;
+                } else if (constant.indexOf('\u0001') >= 0 || constant.indexOf('\u0002') >= 0) {
+                    recipe.append('\u0002');
+                    bsmArgs.add(constant);
+                } else {
+                    recipe.append(constant);
                 }
-                return ValueType.INT;
             }
+            bsmArgs.set(0, recipe.toString());
+            mv.visitInvokeDynamicInsn("makeConcatWithConstants", desc.append(")Ljava/lang/String;").toString(),
+                    CONCAT_BOOTSTRAP, bsmArgs.toArray());
+            first = false;
+        }
+    }
+
+    /**
+     * StringBuilder 拼接：按字面量长度与各类型的典型长度（int 11、boolean 5、字符串 16）预估容量，避免扩容；
+     * 相邻的字面量在编译期合并为一次 append。
+     */
+    private void emitBuilderConcat(Operands ops) {
+        int capacity = 0;
+        for (int i = 0; i < ops.size(); i++) {
+            String constant = ops.constant(i);
+            if (constant != null) {
+                capacity += constant.length();
+            } else {
+                ValueType t = ops.type(i);
+                capacity += t == ValueType.INT ? 11 : t == ValueType.BOOLEAN ? 5 : 16;
+            }
+        }
+        mv.visitTypeInsn(NEW, "java/lang/StringBuilder");
+        mv.visitInsn(DUP);
+        pushInt(capacity);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "(I)V", false);
+        StringBuilder pending = null;
+        for (int i = 0; i < ops.size(); i++) {
+            String constant = ops.constant(i);
+            if (constant != null) {
+                if (pending == null) pending = new StringBuilder();
+                pending.append(constant);
+                continue;
+            }
+            if (pending != null) {
+                appendConstant(pending.toString());
+                pending = null;
+            }
+            ops.emit(i);
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                    "(" + descriptor(ops.type(i)) + ")Ljava/lang/StringBuilder;", false);
+        }
+        if (pending != null) appendConstant(pending.toString());
+        mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
+    }
+
+    private void appendConstant(String s) {
+        mv.visitLdcInsn(s);
+        mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+    }
+
+    private static String descriptor(ValueType type) {
+        switch (type) {
+            case INT:
+                return "I";
+            case BOOLEAN:
+                return "Z";
+            case STRING:
+                return "Ljava/lang/String;";
+            default:
+                throw new IllegalStateException("Cannot concatenate " + type);
+        }
+    }
+
+    /**
+     * 条件为假时跳到 falseL：在此之前压 1 并跳过，falseL 处压 0。
+     */
+    private void materialize(Label falseL) {
+        Label endL = new Label();
+        pushInt(1);
+        mv.visitJumpInsn(GOTO, endL);
+        mv.visitLabel(falseL);
+        pushInt(0);
+        mv.visitLabel(endL);
+    }
+
+    /**
+     * 比较运算对应的 IF_ICMPxx；jumpIf 为假时取反（EQ/NE、LT/GE、GT/LE 的操作码两两相邻，低位异或 1 即取反）。
+     */
+    private static int compareJump(BinaryOp op, boolean jumpIf) {
+        int opcode;
+        switch (op) {
             case EQ:
+                opcode = IF_ICMPEQ;
+                break;
             case NE:
+                opcode = IF_ICMPNE;
+                break;
             case LT:
+                opcode = IF_ICMPLT;
+                break;
+            case GE:
+                opcode = IF_ICMPGE;
+                break;
             case GT:
+                opcode = IF_ICMPGT;
+                break;
             case LE:
-            case GE: {
-                ValueType lt = emitExpression(be.left);
-                ValueType rt = emitExpression(be.right);
-                if (lt != ValueType.INT || rt != ValueType.INT) {
-                    throw new IllegalStateException("Comparison expects INT operands");
+                opcode = IF_ICMPLE;
+                break;
+            default:
+                throw new IllegalStateException("Not a comparison: " + op);
+        }
+        return jumpIf ? opcode : IF_ICMPEQ + ((opcode - IF_ICMPEQ) ^ 1);
+    }
+
+    private static boolean isComparison(BinaryOp op) {
+        return op.ordinal() >= BinaryOp.EQ.ordinal() && op.ordinal() <= BinaryOp.GE.ordinal();
+    }
+
+    private static boolean isLogical(BinaryOp op) {
+        return op == BinaryOp.AND || op == BinaryOp.OR;
+    }
+
+    /**
+     * 扁平形式的语句发射：与 emitStatement 生成完全相同的指令序列。
+     */
+    void emitStatement(FlatCompilationUnit u, int n) {
+        switch (u.kind(n)) {
+            case FlatCompilationUnit.PRINT:
+                if (u.kind(u.operand(n)) == FlatCompilationUnit.STRING_LITERAL && printLiteral(u.stringValue(u.operand(n)))) break;
+                printTarget();
+                emitExpression(u, u.operand(n));
+                println(u.type(u.operand(n)));
+                break;
+            case FlatCompilationUnit.LET:
+                emitExpression(u, u.operand(n));
+                declare(u.type(n), slot(u, n));
+                store(u.type(n), slot(u, n));
+                break;
+            case FlatCompilationUnit.ASSIGN:
+                emitExpression(u, u.operand(n));
+                store(u.type(n), slot(u, n));
+                break;
+            case FlatCompilationUnit.BLOCK:
+                nesting++;
+                for (int i = 0; i < u.childCount(n); i++) emitStatement(u, u.child(n, i));
+                nesting--;
+                break;
+            case FlatCompilationUnit.IF: {
+                nesting++;
+                Label elseLabel = new Label();
+                emitCondition(u, u.condition(n), elseLabel, false);
+                emitStatement(u, u.thenBlock(n));
+                if (u.elseBlock(n) < 0) {
+                    mv.visitLabel(elseLabel);
+                } else {
+                    Label endLabel = new Label();
+                    mv.visitJumpInsn(GOTO, endLabel);
+                    mv.visitLabel(elseLabel);
+                    emitStatement(u, u.elseBlock(n));
+                    mv.visitLabel(endLabel);
                 }
-                Label trueL = new Label();
-                Label endL = new Label();
-                switch (be.op) {
-                    case EQ:
-                        mv.visitJumpInsn(IF_ICMPEQ, trueL);
-                        break;
-                    case NE:
-                        mv.visitJumpInsn(IF_ICMPNE, trueL);
-                        break;
-                    case LT:
-                        mv.visitJumpInsn(IF_ICMPLT, trueL);
-                        break;
-                    case GT:
-                        mv.visitJumpInsn(IF_ICMPGT, trueL);
-                        break;
-                    case LE:
-                        mv.visitJumpInsn(IF_ICMPLE, trueL);
-                        break;
-                    case GE:
-                        mv.visitJumpInsn(IF_ICMPGE, trueL);
-                        break;
+                nesting--;
+                break;
+            }
+            case FlatCompilationUnit.WHILE: {
+                nesting++;
+                Label bodyLabel = new Label();
+                Label testLabel = new Label();
+                mv.visitJumpInsn(GOTO, testLabel);
+                if (tracking()) {
+                    List<Integer> slots = new ArrayList<>();
+                    collectDeclared(u, u.body(n), slots);
+                    frames.enterLoop(bodyLabel, localIndices(slots));
                 }
-                // 未跳转到 trueL 则为假，压0
-                pushInt(0);
-                mv.visitJumpInsn(GOTO, endL);
-                mv.visitLabel(trueL);
-                pushInt(1);
-                mv.visitLabel(endL);
-                return ValueType.BOOLEAN;
+                mv.visitLabel(bodyLabel);
+                emitStatement(u, u.body(n));
+                mv.visitLabel(testLabel);
+                emitCondition(u, u.condition(n), bodyLabel, true);
+                if (tracking()) frames.exitLoop(bodyLabel);
+                nesting--;
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown statement kind: " + u.kind(n));
+        }
+    }
+
+    private static void collectDeclared(FlatCompilationUnit u, int n, List<Integer> out) {
+        switch (u.kind(n)) {
+            case FlatCompilationUnit.LET:
+                out.add(slot(u, n));
+                break;
+            case FlatCompilationUnit.BLOCK:
+                for (int i = 0; i < u.childCount(n); i++) collectDeclared(u, u.child(n, i), out);
+                break;
+            case FlatCompilationUnit.IF:
+                collectDeclared(u, u.thenBlock(n), out);
+                if (u.elseBlock(n) >= 0) collectDeclared(u, u.elseBlock(n), out);
+                break;
+            case FlatCompilationUnit.WHILE:
+                collectDeclared(u, u.body(n), out);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void emitCondition(FlatCompilationUnit u, int n, Label target, boolean jumpIf) {
+        int kind = u.kind(n);
+        if (kind == FlatCompilationUnit.UNARY && u.unaryOp(n) == UnaryOp.NOT) {
+            emitCondition(u, u.operand(n), target, !jumpIf);
+        } else if (kind == FlatCompilationUnit.BINARY && isLogical(u.binaryOp(n))) {
+            if ((u.binaryOp(n) == BinaryOp.AND) == jumpIf) {
+                Label skip = new Label();
+                emitCondition(u, u.left(n), skip, !jumpIf);
+                emitCondition(u, u.right(n), target, jumpIf);
+                mv.visitLabel(skip);
+            } else {
+                emitCondition(u, u.left(n), target, jumpIf);
+                emitCondition(u, u.right(n), target, jumpIf);
+            }
+        } else if (kind == FlatCompilationUnit.BINARY && isComparison(u.binaryOp(n))) {
+            emitExpression(u, u.left(n));
+            int right = u.right(n);
+            if (u.kind(right) == FlatCompilationUnit.INT_LITERAL && u.intValue(right) == 0) {
+                mv.visitJumpInsn(compareJump(u.binaryOp(n), jumpIf) - (IF_ICMPEQ - IFEQ), target);
+            } else {
+                emitExpression(u, right);
+                mv.visitJumpInsn(compareJump(u.binaryOp(n), jumpIf), target);
             }
+        } else {
+            emitExpression(u, n);
+            mv.visitJumpInsn(jumpIf ? IFNE : IFEQ, target);
+        }
+    }
+
+    private static boolean isCondition(FlatCompilationUnit u, int n) {
+        if (u.kind(n) == FlatCompilationUnit.BINARY) return isComparison(u.binaryOp(n)) || isLogical(u.binaryOp(n));
+        return u.kind(n) == FlatCompilationUnit.UNARY && u.unaryOp(n) == UnaryOp.NOT && isCondition(u, u.operand(n));
+    }
+
+    private void emitExpression(FlatCompilationUnit u, int n) {
+        if (isCondition(u, n)) {
+            Label falseL = new Label();
+            emitCondition(u, n, falseL, false);
+            materialize(falseL);
+            return;
+        }
+        switch (u.kind(n)) {
+            case FlatCompilationUnit.INT_LITERAL:
+                pushInt(u.intValue(n));
+                break;
+            case FlatCompilationUnit.STRING_LITERAL:
+                mv.visitLdcInsn(u.stringValue(n));
+                break;
+            case FlatCompilationUnit.BOOL_LITERAL:
+                pushInt(u.boolValue(n) ? 1 : 0);
+                break;
+            case FlatCompilationUnit.VAR_REF:
+                load(u.type(n), slot(u, n));
+                break;
+            case FlatCompilationUnit.UNARY:
+                emitExpression(u, u.operand(n));
+                unaryOp(u.unaryOp(n));
+                break;
+            case FlatCompilationUnit.BINARY:
+                if (u.type(n) == ValueType.STRING) {
+                    emitConcat(u, n);
+                    break;
+                }
+                emitExpression(u, u.left(n));
+                emitExpression(u, u.right(n));
+                binaryOp(u.binaryOp(n));
+                break;
             default:
-                throw new IllegalStateException("Unsupported binary op: " + be.op);
+                throw new IllegalStateException("Unknown expression kind: " + u.kind(n));
         }
     }
 
+    private void emitConcat(FlatCompilationUnit u, int n) {
+        List<Integer> parts = new ArrayList<>();
+        collectConcat(u, n, parts);
+        emitConcat(new Operands() {
+            @Override
+            public int size() {
+                return parts.size();
+            }
+
+            @Override
+            public ValueType type(int i) {
+                return u.type(parts.get(i));
+            }
+
+            @Override
+            public String constant(int i) {
+                int p = parts.get(i);
+                switch (u.kind(p)) {
+                    case FlatCompilationUnit.STRING_LITERAL:
+                        return u.stringValue(p);
+                    case FlatCompilationUnit.INT_LITERAL:
+                        return String.valueOf(u.intValue(p));
+                    case FlatCompilationUnit.BOOL_LITERAL:
+                        return String.valueOf(u.boolValue(p));
+                    default:
+                        return null;
+                }
+            }
+
+            @Override
+            public void emit(int i) {
+                emitExpression(u, parts.get(i));
+            }
+        });
+    }
+
+    private static void collectConcat(FlatCompilationUnit u, int n, List<Integer> out) {
+        if (u.kind(n) == FlatCompilationUnit.BINARY && u.type(n) == ValueType.STRING) {
+            collectConcat(u, u.left(n), out);
+            collectConcat(u, u.right(n), out);
+        } else {
+            out.add(n);
+        }
+    }
+
+    private static int slot(FlatCompilationUnit u, int n) {
+        int slot = u.slot(n);
+        if (slot < 0) throw new IllegalStateException("Unresolved variable '" + u.name(n) + "' (run TypeChecker before code generation)");
+        return slot;
+    }
+
     /**
      * 常量压栈：根据取值范围选择 ICONST/BIPUSH/SIPUSH/LDC 最短指令形式。
      */
@@ -0,0 +1,457 @@
+package com.lxg.codegen;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * 显式栈映射帧：随指令流单趟跟踪操作数栈与局部变量的类型，在需要的位置调用 visitFrame，结束时以算出的值调用 visitMaxs，
+ * 使 ClassWriter 不必开启 COMPUTE_FRAMES|COMPUTE_MAXS。
+ * <p>
+ * 学习要点：
+ * - COMPUTE_FRAMES 在方法结束后对控制流图做迭代的数据流分析，合并引用类型时还会调用 getCommonSuperClass（可能加载类）；
+ * 发射器生成的是结构化代码，单趟即可确定每个跳转目标的状态
+ * - 前向跳转的目标：放置标签时，已记录全部来源状态（跳转处的状态与顺序执行的状态），取交汇（类型不同的槽位记为 TOP）
+ * - 向后跳转只有 while 的回边：循环头位于 GOTO 之后，放置时取进入循环时的状态，并把循环体内 let 声明的槽位记为 TOP
+ * （CodeEmitter 在放置前通过 enterLoop 告知）。这些槽位可能复用了循环前已死亡、类型不同的变量，而回边处已改为新类型；
+ * 其余槽位在循环体内只会按原类型赋值，回边时用 exitLoop 之前记录的帧校验
+ * - 帧只写在跳转目标、异常处理器以及无条件转移之后的位置；同一偏移上的多个标签只写一个帧
+ * - NEW 之后、构造方法调用之前栈上是“未初始化”类型，用 NEW 前插入的标签表示，INVOKESPECIAL &lt;init&gt; 后替换为类名
+ * <p>
+ * 设计取舍：
+ * - 只支持发射器用到的指令（int/引用，没有 long/double）；遇到其它指令抛出 IllegalStateException 而不是生成错误的帧
+ * - 异常处理器的帧取保护区间开始处的局部变量（main 的 catch-any 区间开始时只有 args），区间内这些槽位的类型不变
+ * - 窥孔优化在发射之后改写指令（删除标签、合并跳转），开启时仍由 ClassWriter 计算帧，见 ClassGenerator
+ *
+ * @author xiangganluo
+ */
+final class FrameTracker extends MethodVisitor {
+    private final String owner;
+    private List<Object> locals = new ArrayList<>();
+    private final List<Object> stack = new ArrayList<>();
+    private boolean reachable = true;
+    private List<Object> exitLocals; // 最近一次无条件转移处的局部变量：其后的代码只能经由跳转到达
+    private boolean pendingFrame;
+    private int maxStack;
+    private int maxLocals;
+
+    private final Map<Label, State> forward = new HashMap<>(); // 已有跳转、尚未放置的标签 → 各来源状态的交汇
+    private final Map<Label, int[]> loopHints = new HashMap<>(); // 将要放置的循环头 → 循环体内 let 的局部变量下标
+    private final Map<Label, State> loops = new HashMap<>(); // 已放置、仍可能有回边的循环头 → 其帧
+    private final Map<Label, TryBlock> handlers = new HashMap<>(); // 异常处理器标签 → 保护区间
+    private final Map<Label, TryBlock> tryStarts = new HashMap<>(); // 保护区间开始标签 → 保护区间
+
+    /**
+     * @param owner      方法所属类的内部名（构造方法中 this 初始化后的类型）
+     * @param access     方法的访问标志（是否 static 决定槽位 0 是否为 this）
+     * @param name       方法名
+     * @param descriptor 方法描述符：参数依次占据初始的局部变量
+     */
+    FrameTracker(MethodVisitor next, String owner, int access, String name, String descriptor) {
+        super(Opcodes.ASM9, next);
+        this.owner = owner;
+        if ((access & ACC_STATIC) == 0) locals.add("<init>".equals(name) ? UNINITIALIZED_THIS : owner);
+        for (Type t : Type.getArgumentTypes(descriptor)) locals.add(type(t));
+        maxLocals = locals.size();
+    }
+
+    /**
+     * 即将放置循环头 head：其帧中 bodyLocals（循环体内 let 声明的局部变量下标）记为 TOP。
+     */
+    void enterLoop(Label head, int[] bodyLocals) {
+        loopHints.put(head, bodyLocals);
+    }
+
+    /**
+     * 循环的回边都已发射：不再保留循环头的帧。
+     */
+    void exitLoop(Label head) {
+        loops.remove(head);
+    }
+
+    // ---------------------------------------------------------------- 标签与帧
+
+    @Override
+    public void visitLabel(Label label) {
+        State in = forward.remove(label);
+        int[] hint = loopHints.remove(label);
+        TryBlock handler = handlers.remove(label);
+        boolean frame = in != null || hint != null || handler != null || !reachable;
+        if (handler != null) {
+            in = State.of(handler.locals, handler.type);
+        } else if (reachable) {
+            in = State.merge(in, snapshot());
+        } else if (in == null) {
+            in = State.of(exitLocals, null); // 只经由之后的回边到达
+        }
+        if (hint != null) {
+            for (int i : hint) if (i < in.locals.size()) in.locals.set(i, TOP);
+            loops.put(label, in.copy());
+        }
+        if (frame) {
+            locals = in.locals;
+            stack.clear();
+            stack.addAll(in.stack);
+            // 处理器入口的栈上已有异常对象，不经过 push：max_stack 须至少容纳帧中的栈
+            if (stack.size() > maxStack) maxStack = stack.size();
+            reachable = true;
+            pendingFrame = true;
+        }
+        TryBlock tryBlock = tryStarts.remove(label);
+        if (tryBlock != null) tryBlock.locals = new ArrayList<>(locals);
+        super.visitLabel(label);
+    }
+
+    @Override
+    public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+        TryBlock block = new TryBlock(type == null ? "java/lang/Throwable" : type);
+        tryStarts.put(start, block);
+        handlers.put(handler, block);
+        super.visitTryCatchBlock(start, end, handler, type);
+    }
+
+    /**
+     * 每条指令之前：放置过需要帧的标签（或位于无条件转移之后）时写出当前状态。
+     */
+    private void beforeInsn() {
+        if (!reachable) {
+            locals = new ArrayList<>(exitLocals);
+            stack.clear();
+            reachable = true;
+            pendingFrame = true;
+        }
+        if (!pendingFrame) return;
+        pendingFrame = false;
+        int n = locals.size();
+        while (n > 0 && locals.get(n - 1) == TOP) n--;
+        super.visitFrame(F_NEW, n, locals.subList(0, n).toArray(), stack.size(), stack.toArray());
+    }
+
+    private State snapshot() {
+        return new State(new ArrayList<>(locals), new ArrayList<>(stack));
+    }
+
+    /**
+     * 无条件转移（GOTO、xRETURN、ATHROW）：之后的代码不可顺序到达。
+     */
+    private void exit() {
+        exitLocals = new ArrayList<>(locals);
+        stack.clear();
+        reachable = false;
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+        beforeInsn();
+        if (opcode >= IF_ICMPEQ && opcode <= IF_ACMPNE) {
+            pop(2);
+        } else if (opcode != GOTO) {
+            pop(1);
+        }
+        State here = snapshot();
+        State head = loops.get(label);
+        if (head != null) {
+            head.checkBackEdge(here);
+        } else {
+            forward.put(label, State.merge(forward.get(label), here));
+        }
+        super.visitJumpInsn(opcode, label);
+        if (opcode == GOTO) exit();
+    }
+
+    @Override
+    public void visitMaxs(int ignoredStack, int ignoredLocals) {
+        super.visitMaxs(maxStack, maxLocals);
+    }
+
+    // ---------------------------------------------------------------- 指令
+
+    @Override
+    public void visitInsn(int opcode) {
+        beforeInsn();
+        super.visitInsn(opcode);
+        switch (opcode) {
+            case NOP:
+                break;
+            case ICONST_M1:
+            case ICONST_0:
+            case ICONST_1:
+            case ICONST_2:
+            case ICONST_3:
+            case ICONST_4:
+            case ICONST_5:
+                push(INTEGER);
+                break;
+            case IADD:
+            case ISUB:
+            case IMUL:
+            case IDIV:
+            case IREM:
+            case IAND:
+            case IOR:
+            case IXOR:
+                pop(2);
+                push(INTEGER);
+                break;
+            case INEG:
+                pop(1);
+                push(INTEGER);
+                break;
+            case DUP:
+                push(stack.get(stack.size() - 1));
+                break;
+            case POP:
+                pop(1);
+                break;
+            case SWAP: {
+                Object top = stack.remove(stack.size() - 1);
+                stack.add(stack.size() - 1, top);
+                break;
+            }
+            case IRETURN:
+            case ARETURN:
+            case RETURN:
+            case ATHROW:
+                exit();
+                break;
+            default:
+                throw unsupported(opcode);
+        }
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+        beforeInsn();
+        if (opcode != BIPUSH && opcode != SIPUSH) throw unsupported(opcode);
+        super.visitIntInsn(opcode, operand);
+        push(INTEGER);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+        beforeInsn();
+        super.visitVarInsn(opcode, var);
+        switch (opcode) {
+            case ILOAD:
+                push(INTEGER);
+                break;
+            case ALOAD:
+                push(locals.get(var));
+                break;
+            case ISTORE:
+                pop(1);
+                setLocal(var, INTEGER);
+                break;
+            case ASTORE:
+                setLocal(var, stack.remove(stack.size() - 1));
+                break;
+            default:
+                throw unsupported(opcode);
+        }
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+        beforeInsn();
+        if (opcode == NEW) {
+            Label site = new Label(); // 未初始化类型以 NEW 指令的位置表示
+            super.visitLabel(site);
+            super.visitTypeInsn(opcode, type);
+            push(site);
+        } else if (opcode == CHECKCAST) {
+            super.visitTypeInsn(opcode, type);
+            pop(1);
+            push(type);
+        } else {
+            throw unsupported(opcode);
+        }
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+        beforeInsn();
+        super.visitFieldInsn(opcode, owner, name, descriptor);
+        switch (opcode) {
+            case GETSTATIC:
+                push(type(Type.getType(descriptor)));
+                break;
+            case PUTSTATIC:
+                pop(1);
+                break;
+            case GETFIELD:
+                pop(1);
+                push(type(Type.getType(descriptor)));
+                break;
+            case PUTFIELD:
+                pop(2);
+                break;
+            default:
+                throw unsupported(opcode);
+        }
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+        beforeInsn();
+        super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+        pop(Type.getArgumentTypes(descriptor).length);
+        if (opcode != INVOKESTATIC) {
+            Object receiver = stack.remove(stack.size() - 1);
+            if (opcode == INVOKESPECIAL && "<init>".equals(name)) {
+                initialize(receiver, receiver == UNINITIALIZED_THIS ? this.owner : owner);
+            }
+        }
+        Type result = Type.getReturnType(descriptor);
+        if (result.getSort() != Type.VOID) push(type(result));
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+        beforeInsn();
+        super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+        pop(Type.getArgumentTypes(descriptor).length);
+        Type result = Type.getReturnType(descriptor);
+        if (result.getSort() != Type.VOID) push(type(result));
+    }
+
+    @Override
+    public void visitLdcInsn(Object value) {
+        beforeInsn();
+        super.visitLdcInsn(value);
+        if (value instanceof Integer) {
+            push(INTEGER);
+        } else if (value instanceof String) {
+            push("java/lang/String");
+        } else if (value instanceof Type) {
+            push("java/lang/Class");
+        } else {
+            throw new IllegalStateException("Unsupported constant: " + value.getClass());
+        }
+    }
+
+    @Override
+    public void visitIincInsn(int var, int increment) {
+        beforeInsn();
+        super.visitIincInsn(var, increment);
+    }
+
+    private void push(Object type) {
+        stack.add(type);
+        if (stack.size() > maxStack) maxStack = stack.size();
+    }
+
+    private void pop(int n) {
+        for (int i = 0; i < n; i++) stack.remove(stack.size() - 1);
+    }
+
+    private void setLocal(int var, Object type) {
+        while (locals.size() <= var) locals.add(TOP);
+        locals.set(var, type);
+        if (var + 1 > maxLocals) maxLocals = var + 1;
+    }
+
+    /**
+     * 构造方法调用之后，栈与局部变量中同一个未初始化值都变为已初始化的类型。
+     */
+    private void initialize(Object uninitialized, String type) {
+        for (int i = 0; i < stack.size(); i++) if (stack.get(i) == uninitialized) stack.set(i, type);
+        for (int i = 0; i < locals.size(); i++) if (locals.get(i) == uninitialized) locals.set(i, type);
+    }
+
+    /**
+     * 描述符类型 → 帧中的类型（ASM 的 API 形式）：boolean/char/byte/short/int 为 INTEGER，对象为内部名，数组为描述符。
+     */
+    private static Object type(Type t) {
+        switch (t.getSort()) {
+            case Type.BOOLEAN:
+            case Type.CHAR:
+            case Type.BYTE:
+            case Type.SHORT:
+            case Type.INT:
+                return INTEGER;
+            case Type.OBJECT:
+                return t.getInternalName();
+            case Type.ARRAY:
+                return t.getDescriptor();
+            default:
+                throw new IllegalStateException("Unsupported type in frame: " + t);
+        }
+    }
+
+    private static IllegalStateException unsupported(int opcode) {
+        return new IllegalStateException("Unsupported opcode for explicit frames: " + opcode);
+    }
+
+    /**
+     * 某一位置的局部变量与操作数栈类型。
+     */
+    private static final class State {
+        final List<Object> locals;
+        final List<Object> stack;
+
+        State(List<Object> locals, List<Object> stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+
+        /**
+         * 以 locals 的副本为局部变量、栈上至多一个值（null 表示空栈）的状态。
+         */
+        static State of(List<Object> locals, Object stackTop) {
+            List<Object> stack = new ArrayList<>();
+            if (stackTop != null) stack.add(stackTop);
+            return new State(new ArrayList<>(locals), stack);
+        }
+
+        State copy() {
+            return new State(new ArrayList<>(locals), new ArrayList<>(stack));
+        }
+
+        /**
+         * 两条路径的交汇：局部变量逐个比较，类型不同（或一侧没有）记为 TOP；操作数栈必须相同。
+         */
+        static State merge(State a, State b) {
+            if (a == null) return b;
+            if (!a.stack.equals(b.stack)) throw new IllegalStateException("Operand stacks differ at a merge point: " + a.stack + " vs " + b.stack);
+            int n = Math.min(a.locals.size(), b.locals.size());
+            List<Object> locals = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) locals.add(a.locals.get(i).equals(b.locals.get(i)) ? a.locals.get(i) : TOP);
+            return new State(locals, new ArrayList<>(a.stack));
+        }
+
+        /**
+         * 回边处的状态必须可以赋给循环头的帧：帧中每个非 TOP 的局部变量类型不变，操作数栈相同。
+         */
+        void checkBackEdge(State edge) {
+            if (!stack.equals(edge.stack)) throw new IllegalStateException("Operand stack changes around a loop: " + stack + " vs " + edge.stack);
+            for (int i = 0; i < locals.size(); i++) {
+                Object t = locals.get(i);
+                if (t != TOP && (i >= edge.locals.size() || !t.equals(edge.locals.get(i)))) {
+                    throw new IllegalStateException("Local " + i + " changes type inside a loop: " + t + " vs "
+                            + (i < edge.locals.size() ? edge.locals.get(i) : TOP));
+                }
+            }
+        }
+    }
+
+    /**
+     * 异常保护区间：处理器的帧为区间开始处的局部变量加上栈上的异常对象。
+     */
+    private static final class TryBlock {
+        final String type;
+        List<Object> locals = new ArrayList<>();
+
+        TryBlock(String type) {
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.lxg.codegen;
+
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * 字节码窥孔优化：CodeEmitter 逐语句发射，语句之间、条件与取值之间会留下固定的冗余模式，
+ * 这里在方法写出前（ASM tree API 的 MethodNode）把它们改写为更短的等价序列，并统计各规则的命中次数。
+ * <p>
+ * 学习要点：
+ * - 发射器面向 AST 一次生成，看不到相邻语句；窥孔只看相邻的几条指令，正好补上这一层
+ * - 规则反复应用直到不再变化：一条规则的结果常常是另一条规则的输入
+ * （布尔菱形 → 跳转串联 → 不可达代码 → 跳到下一条的 GOTO）
+ * - 标签是否仍被引用（跳转或异常区间）决定了它后面的代码能否删除、两侧的指令能否合并，因此维护每个标签的引用计数
+ * <p>
+ * 规则（均只在没有标签隔开的相邻指令上匹配，被跳转到的位置不会被合并）：
+ * - STORE_LOAD：xSTORE n; xLOAD n → DUP; xSTORE n（let x = ...; print x;）
+ * - INCREMENT：ILOAD n; 常量 c; IADD/ISUB; ISTORE n → IINC n, ±c（x = x + 1;）
+ * - BOOLEAN_JUMP：条件物化的 ICONST_1; GOTO end; false: ICONST_0; end: 紧接 IFEQ/IFNE → 直接跳转，不经过 0/1
+ * - JUMP_THREADING：跳到“只有 GOTO T 的位置”的跳转直接跳到 T
+ * - UNREACHABLE：GOTO/RETURN/ATHROW 之后、下一个被引用的标签之前的指令
+ * - JUMP_INVERSION：IFxx L1; GOTO L2; L1: → IFnotxx L2; L1:
+ * - GOTO_NEXT：跳到紧随其后位置的 GOTO
+ * - DOUBLE_NEGATION：INEG; INEG 与 ICONST_1; IXOR; ICONST_1; IXOR（- -x、!!b）
+ * <p>
+ * 设计取舍：
+ * - 方法拆分按改写前的长度估算，窥孔只会让方法变短，预算依然成立
+ * - 栈映射帧与最大栈深度由 ClassWriter（COMPUTE_FRAMES|COMPUTE_MAXS）在改写之后重新计算
+ * - 命中计数累积在实例上，一个实例只用于一个线程（可跨多次 generate 累积）
+ * <p>
+ * 使用建议：默认关闭，--peephole 开启并打印各规则命中次数；CompilerBenchmark peephole 对比指令数与 code_length。
+ *
+ * @author xiangganluo
+ */
+public final class PeepholeOptimizer {
+    /**
+     * 改写规则。
+     */
+    public enum Rule {
+        STORE_LOAD, INCREMENT, BOOLEAN_JUMP, JUMP_THREADING, UNREACHABLE, JUMP_INVERSION, GOTO_NEXT, DOUBLE_NEGATION
+    }
+
+    private final int[] hits = new int[Rule.values().length];
+    private final Map<LabelNode, Integer> refs = new HashMap<>();
+
+    /**
+     * 规则的累计命中次数。
+     */
+    public int hits(Rule rule) {
+        return hits[rule.ordinal()];
+    }
+
+    /**
+     * 全部规则的累计命中次数（按规则声明顺序）。
+     */
+    public Map<Rule, Integer> hits() {
+        Map<Rule, Integer> all = new EnumMap<>(Rule.class);
+        for (Rule r : Rule.values()) all.put(r, hits[r.ordinal()]);
+        return all;
+    }
+
+    /**
+     * 返回一个缓冲整个方法的访问者：visitEnd 时改写并转发给 target；target 为 null（调用方不关心该方法）时返回 null。
+     */
+    MethodVisitor wrap(MethodVisitor target, int access, String name, String descriptor) {
+        if (target == null) return null;
+        return new MethodNode(Opcodes.ASM9, access, name, descriptor, null, null) {
+            @Override
+            public void visitEnd() {
+                optimize(this);
+                accept(target);
+            }
+        };
+    }
+
+    /**
+     * 对方法反复应用全部规则，直到不再变化。
+     */
+    public void optimize(MethodNode method) {
+        InsnList insns = method.instructions;
+        refs.clear();
+        for (AbstractInsnNode i = insns.getFirst(); i != null; i = i.getNext()) {
+            if (i instanceof JumpInsnNode) ref(((JumpInsnNode) i).label, 1);
+        }
+        for (TryCatchBlockNode tcb : method.tryCatchBlocks) {
+            ref(tcb.start, 1);
+            ref(tcb.end, 1);
+            ref(tcb.handler, 1);
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (AbstractInsnNode i = insns.getFirst(); i != null; ) {
+                AbstractInsnNode next = rewrite(insns, i);
+                if (next != null) {
+                    changed = true;
+                    i = next;
+                } else {
+                    i = i.getNext();
+                }
+            }
+        }
+        refs.clear();
+    }
+
+    /**
+     * 以 i 为起点尝试各规则；命中时返回继续扫描的位置，否则返回 null。
+     */
+    private AbstractInsnNode rewrite(InsnList insns, AbstractInsnNode i) {
+        int op = i.getOpcode();
+        if (op == ISTORE || op == ASTORE) return storeLoad(insns, (VarInsnNode) i);
+        if (op == ILOAD) return increment(insns, (VarInsnNode) i);
+        if (op == ICONST_1) {
+            AbstractInsnNode r = booleanJump(insns, i);
+            return r != null ? r : doubleNot(insns, i);
+        }
+        if (op == INEG) return doubleNeg(insns, i);
+        if (i instanceof JumpInsnNode) {
+            JumpInsnNode jump = (JumpInsnNode) i;
+            AbstractInsnNode r = thread(jump);
+            if (r == null && op == GOTO) r = gotoNext(insns, jump);
+            if (r == null && op != GOTO && op != JSR) r = invert(insns, jump);
+            if (r == null && op == GOTO) r = unreachable(insns, jump);
+            return r;
+        }
+        if (op == RETURN || op == ATHROW) return unreachable(insns, i);
+        return null;
+    }
+
+    private AbstractInsnNode storeLoad(InsnList insns, VarInsnNode store) {
+        AbstractInsnNode next = store.getNext();
+        if (!(next instanceof VarInsnNode) || ((VarInsnNode) next).var != store.var
+                || next.getOpcode() != (store.getOpcode() == ISTORE ? ILOAD : ALOAD)) return null;
+        insns.insertBefore(store, new InsnNode(DUP));
+        insns.remove(next);
+        hit(Rule.STORE_LOAD);
+        return store;
+    }
+
+    private AbstractInsnNode increment(InsnList insns, VarInsnNode load) {
+        AbstractInsnNode c = load.getNext();
+        Integer value = constant(c);
+        if (value == null) return null;
+        AbstractInsnNode op = c.getNext();
+        if (op == null || (op.getOpcode() != IADD && op.getOpcode() != ISUB)) return null;
+        AbstractInsnNode store = op.getNext();
+        if (store == null || store.getOpcode() != ISTORE || ((VarInsnNode) store).var != load.var) return null;
+        long delta = op.getOpcode() == IADD ? (long) value : -(long) value;
+        if (delta < Short.MIN_VALUE || delta > Short.MAX_VALUE) return null;
+        IincInsnNode iinc = new IincInsnNode(load.var, (int) delta);
+        insns.insertBefore(load, iinc);
+        insns.remove(load);
+        insns.remove(c);
+        insns.remove(op);
+        insns.remove(store);
+        hit(Rule.INCREMENT);
+        return iinc;
+    }
+
+    /**
+     * ICONST_1; GOTO end; false: ICONST_0; end: IFxx T（end 只被这条 GOTO 引用）：
+     * - IFEQ T：为真时顺序执行 → GOTO next; false: GOTO T; next:（跳到 false 的条件由 JUMP_THREADING 直接改到 T）
+     * - IFNE T：为真时跳到 T → GOTO T; false:（条件为假时从 false 顺序执行下去）
+     */
+    private AbstractInsnNode booleanJump(InsnList insns, AbstractInsnNode one) {
+        AbstractInsnNode g = one.getNext();
+        if (g == null || g.getOpcode() != GOTO) return null;
+        LabelNode end = ((JumpInsnNode) g).label;
+        if (!(g.getNext() instanceof LabelNode)) return null;
+        LabelNode falseLabel = (LabelNode) g.getNext();
+        AbstractInsnNode zero = falseLabel.getNext();
+        if (zero == null || zero.getOpcode() != ICONST_0 || zero.getNext() != end || refs(end) != 1) return null;
+        AbstractInsnNode test = end.getNext();
+        if (test == null || (test.getOpcode() != IFEQ && test.getOpcode() != IFNE)) return null;
+        LabelNode target = ((JumpInsnNode) test).label;
+        insns.remove(one);
+        insns.remove(zero);
+        insns.remove(end);
+        ref(end, -1);
+        if (test.getOpcode() == IFEQ) {
+            LabelNode next = new LabelNode();
+            ((JumpInsnNode) g).label = next;
+            ref(next, 1);
+            insns.set(test, new JumpInsnNode(GOTO, target));
+            insns.insert(falseLabel.getNext(), next);
+        } else {
+            ((JumpInsnNode) g).label = target;
+            ref(target, 1);
+            insns.remove(test);
+            ref(target, -1);
+        }
+        hit(Rule.BOOLEAN_JUMP);
+        return g;
+    }
+
+    /**
+     * 沿“标签 → GOTO”链找到最终目标；链成环（死循环）时不改写。
+     */
+    private AbstractInsnNode thread(JumpInsnNode jump) {
+        LabelNode target = jump.label;
+        Set<LabelNode> seen = new HashSet<>();
+        for (AbstractInsnNode at = skipLabels(target); at != null && at.getOpcode() == GOTO && at != jump; at = skipLabels(target)) {
+            if (!seen.add(target)) return null;
+            target = ((JumpInsnNode) at).label;
+        }
+        if (target == jump.label) return null;
+        retarget(jump, target);
+        hit(Rule.JUMP_THREADING);
+        return jump;
+    }
+
+    private AbstractInsnNode gotoNext(InsnList insns, JumpInsnNode jump) {
+        for (AbstractInsnNode n = jump.getNext(); n instanceof LabelNode; n = n.getNext()) {
+            if (n == jump.label) {
+                AbstractInsnNode prev = jump.getPrevious();
+                insns.remove(jump);
+                ref(jump.label, -1);
+                hit(Rule.GOTO_NEXT);
+                return prev != null ? prev : insns.getFirst();
+            }
+        }
+        return null;
+    }
+
+    private AbstractInsnNode invert(InsnList insns, JumpInsnNode jump) {
+        AbstractInsnNode g = jump.getNext();
+        if (g == null || g.getOpcode() != GOTO) return null;
+        for (AbstractInsnNode n = g.getNext(); n instanceof LabelNode; n = n.getNext()) {
+            if (n == jump.label) {
+                LabelNode target = ((JumpInsnNode) g).label;
+                insns.remove(g);
+                ref(target, -1);
+                jump.setOpcode(opposite(jump.getOpcode()));
+                retarget(jump, target);
+                hit(Rule.JUMP_INVERSION);
+                return jump;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 删除无条件转移之后、下一个被引用的标签之前的指令（未被引用的标签一并删除）。
+     */
+    private AbstractInsnNode unreachable(InsnList insns, AbstractInsnNode exit) {
+        boolean removed = false;
+        for (AbstractInsnNode n = exit.getNext(); n != null; ) {
+            if (n instanceof LabelNode && refs((LabelNode) n) > 0) break;
+            AbstractInsnNode next = n.getNext();
+            if (n.getOpcode() >= 0 || n instanceof LabelNode) {
+                if (n instanceof JumpInsnNode) ref(((JumpInsnNode) n).label, -1);
+                insns.remove(n);
+                removed |= n.getOpcode() >= 0;
+            }
+            n = next;
+        }
+        if (!removed) return null;
+        hit(Rule.UNREACHABLE);
+        return exit;
+    }
+
+    private AbstractInsnNode doubleNeg(InsnList insns, AbstractInsnNode neg) {
+        AbstractInsnNode next = neg.getNext();
+        if (next == null || next.getOpcode() != INEG) return null;
+        return removeAll(insns, neg, next.getNext(), Rule.DOUBLE_NEGATION);
+    }
+
+    private AbstractInsnNode doubleNot(InsnList insns, AbstractInsnNode one) {
+        AbstractInsnNode n = one;
+        int[] pattern = {ICONST_1, IXOR, ICONST_1, IXOR};
+        for (int i = 0; i < pattern.length; i++, n = n.getNext()) {
+            if (n == null || n.getOpcode() != pattern[i]) return null;
+        }
+        return removeAll(insns, one, n, Rule.DOUBLE_NEGATION);
+    }
+
+    private AbstractInsnNode removeAll(InsnList insns, AbstractInsnNode from, AbstractInsnNode until, Rule rule) {
+        AbstractInsnNode prev = from.getPrevious();
+        for (AbstractInsnNode n = from; n != until; ) {
+            AbstractInsnNode next = n.getNext();
+            insns.remove(n);
+            n = next;
+        }
+        hit(rule);
+        return prev != null ? prev : insns.getFirst();
+    }
+
+    private static AbstractInsnNode skipLabels(AbstractInsnNode n) {
+        while (n instanceof LabelNode) n = n.getNext();
+        return n;
+    }
+
+    private static Integer constant(AbstractInsnNode n) {
+        if (n == null) return null;
+        int op = n.getOpcode();
+        if (op >= ICONST_M1 && op <= ICONST_5) return op - ICONST_0;
+        if (op == BIPUSH || op == SIPUSH) return ((IntInsnNode) n).operand;
+        return null;
+    }
+
+    /**
+     * 条件跳转取反：IFEQ..IF_ACMPNE 的操作码两两相邻（EQ/NE、LT/GE、GT/LE），IFNULL/IFNONNULL 亦然。
+     */
+    private static int opposite(int opcode) {
+        if (opcode >= IFEQ && opcode <= IF_ACMPNE) return ((opcode - IFEQ) ^ 1) + IFEQ;
+        if (opcode == IFNULL || opcode == IFNONNULL) return opcode ^ 1;
+        throw new IllegalArgumentException("Not a conditional jump: " + opcode);
+    }
+
+    private void retarget(JumpInsnNode jump, LabelNode target) {
+        ref(jump.label, -1);
+        jump.label = target;
+        ref(target, 1);
+    }
+
+    private int refs(LabelNode label) {
+        Integer n = refs.get(label);
+        return n == null ? 0 : n;
+    }
+
+    private void ref(LabelNode label, int delta) {
+        refs.merge(label, delta, Integer::sum);
+    }
+
+    private void hit(Rule rule) {
+        hits[rule.ordinal()]++;
+    }
+}
@@ -0,0 +1,276 @@
+package com.lxg.codegen;
+
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.program.FlatCompilationUnit;
+import com.lxg.ast.stmt.FnDecl;
+import com.lxg.ast.stmt.Param;
+import com.lxg.runtime.FastOut;
+import com.lxg.runtime.LxgContext;
+import com.lxg.runtime.LxgProgram;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * 逐条语句的程序发射器：由 ClassGenerator.begin 创建，类头与 main 方法头已写好，
+ * 调用方每次 emit 一条顶层语句，最后 finish 收尾（RETURN、visitMaxs、visitEnd）。
+ * <p>
+ * 学习要点：
+ * - 发射器只持有当前 MethodVisitor（类型与槽位来自 TypeChecker 回填的 AST），不持有任何已发射的 AST，语句发射后即可被回收
+ * - 目标是任意 ClassVisitor：默认是 ClassWriter（finish 返回 .class 字节），也可以是自定义的访问者链
+ * （例如只统计指令、不保存字节码的访问者），便于流式编译与测试
+ * - 缓冲输出时 main 的全部语句包在一个 catch-any 区间内：正常结束与抛出异常都先 FastOut.flush()；
+ * 语句引用的字面量字段在 finish 时声明，并由 &lt;clinit&gt; 一次性编码为 UTF-8
+ * <p>
+ * 方法拆分：HotSpot 不编译超过 8000 字节的方法（DontCompileHugeMethods），超过 64KB 则无法生成。
+ * 开启预算（methodBudget &gt; 0）时，每条顶层语句先估算长度（CodeEmitter.measure），当前方法放不下时在语句边界处切换：
+ * <pre>
+ * main:   [语句...] spill; INVOKESTATIC chunk1; (FastOut.flush) RETURN
+ * chunk1: [语句...] spill; INVOKESTATIC chunk2; RETURN
+ * ...
+ * </pre>
+ * spill 把当前方法中的顶层变量存入静态字段 V&lt;槽位&gt;&lt;类型&gt;，之后的方法按字段读写它们；
+ * 只在一个方法内使用的变量（块内变量、方法内声明且不再跨越边界的变量）仍是局部变量。
+ * 切换只依赖已发射的语句，流式编译同样适用；程序小于预算时输出与不拆分完全相同。
+ * <p>
+ * 函数声明（fn）不进入 main：每个函数立即发射为一个 private static 方法（main 保持打开），按自己的描述符接收参数、
+ * 以 IRETURN/ARETURN 返回；函数体不拆分，也不计入 main 的预算。
+ * <p>
+ * 窥孔优化（PeepholeOptimizer）开启时，每个方法先缓冲为 MethodNode，结束时改写再写出；
+ * 拆分按改写前的长度估算，改写只会缩短方法。
+ * <p>
+ * 脚本模式（script，见 ClassGenerator.forScript）：类实现 LxgProgram，入口不是 main 而是
+ * <pre>
+ * public void run(LxgContext ctx)          { execute(ctx); }
+ * private static void execute(LxgContext)  [程序输入] [语句...] RETURN
+ * </pre>
+ * 语句仍发射在静态方法中（与 main 相同的槽位布局，槽位 0 从 args 换成上下文）；函数多接收一个上下文参数。
+ * 脚本模式不拆分、不缓冲输出，类中没有静态字段，同一个实例可以在多个线程中同时运行。
+ * <p>
+ * 显式栈映射帧（explicitFrames）：每个方法的访问者之上套一层 FrameTracker，栈映射帧与 visitMaxs 的参数由它算出，
+ * 这里的 visitMaxs(0, 0) 只是触发；关闭时（或开启窥孔优化时）由 ClassWriter 的 COMPUTE_FRAMES|COMPUTE_MAXS 计算。
+ *
+ * @author xiangganluo
+ */
+public final class ProgramEmitter {
+    private final ClassVisitor cv;
+    private final ClassWriter cw; // 目标为 ClassWriter 时非空
+    private final MethodVisitor mv; // main
+    private final CodeEmitter emitter;
+    private final int methodBudget;
+    private SizeCounter chunk; // 当前方法（main 或 chunkN）的长度计数，转发到其 MethodVisitor
+    private int chunks;
+    private final String className;
+    private final boolean bufferedOutput;
+    private final Label bodyEnd = new Label();
+    private final Label flushHandler = new Label();
+    private final PeepholeOptimizer peephole; // 为 null 时不做窥孔优化
+    private final boolean explicitFrames;
+    private final boolean script;
+
+    /**
+     * main 的收尾（flush、RETURN、异常处理器中的 flush 与 ATHROW）与 chunkN 的收尾（调用下一段、RETURN）的长度上界。
+     */
+    private static final int EPILOGUE = 8;
+
+    ProgramEmitter(ClassVisitor cv, String className, int target, boolean bufferedOutput, int methodBudget,
+                   PeepholeOptimizer peephole, boolean explicitFrames, boolean script) {
+        if (script && (bufferedOutput || methodBudget > 0)) {
+            throw new IllegalArgumentException("Scripts are generated unbuffered and unsplit");
+        }
+        this.cv = cv;
+        this.peephole = peephole;
+        this.explicitFrames = explicitFrames;
+        this.script = script;
+        this.methodBudget = methodBudget;
+        this.className = className;
+        this.bufferedOutput = bufferedOutput;
+        this.cw = cv instanceof ClassWriter ? (ClassWriter) cv : null;
+        // 创建类：public class <className> extends java.lang.Object（脚本模式 implements LxgProgram）
+        cv.visit(ClassGenerator.classVersion(target), ACC_PUBLIC | ACC_SUPER, className, null, "java/lang/Object",
+                script ? new String[]{LxgProgram.INTERNAL_NAME} : null);
+
+        // 生成默认构造方法：public Program(){ super(); }
+        MethodVisitor ctor = method(ACC_PUBLIC, "<init>", "()V");
+        ctor.visitCode();
+        ctor.visitVarInsn(ALOAD, 0);
+        ctor.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        ctor.visitInsn(RETURN);
+        ctor.visitMaxs(0, 0); // 由 FrameTracker 或 COMPUTE_* 计算
+        ctor.visitEnd();
+
+        if (script) {
+            // 生成入口：public void run(LxgContext ctx) { execute(ctx); }
+            String execute = "(L" + LxgContext.INTERNAL_NAME + ";)V";
+            MethodVisitor run = method(ACC_PUBLIC, "run", execute);
+            run.visitCode();
+            run.visitVarInsn(ALOAD, 1);
+            run.visitMethodInsn(INVOKESTATIC, className, "execute", execute, false);
+            run.visitInsn(RETURN);
+            run.visitMaxs(0, 0);
+            run.visitEnd();
+            this.mv = method(ACC_PRIVATE | ACC_STATIC, "execute", execute);
+        } else {
+            // 生成入口：public static void main(String[] args)
+            this.mv = method(ACC_PUBLIC | ACC_STATIC, "main", "([Ljava/lang/String;)V");
+        }
+        mv.visitCode();
+        if (bufferedOutput) {
+            Label bodyStart = new Label();
+            mv.visitTryCatchBlock(bodyStart, bodyEnd, flushHandler, null);
+            mv.visitLabel(bodyStart);
+        }
+        this.chunk = new SizeCounter(mv);
+        this.emitter = new CodeEmitter(chunk, frames(mv), className, target >= 9, bufferedOutput, script);
+    }
+
+    /**
+     * 脚本模式：发射程序输入的读取（必须在第一条语句之前调用）。
+     */
+    public void inputs(List<Param> inputs) {
+        if (!script) throw new IllegalStateException("Program inputs require script mode (ClassGenerator.forScript)");
+        emitter.emitInputs(inputs);
+    }
+
+    /**
+     * 发射一条（已通过语义检查的）顶层语句。
+     */
+    public void emit(Statement s) {
+        if (s instanceof FnDecl) {
+            emitFunction((FnDecl) s);
+            return;
+        }
+        if (methodBudget > 0 && !fits(emitter.measure(s))) nextChunk();
+        emitter.emitStatement(s);
+    }
+
+    /**
+     * 把函数发射为 private static 方法（与 main/chunkN 一样经过窥孔优化）。
+     */
+    private void emitFunction(FnDecl fd) {
+        if (fd.symbol == null) {
+            throw new IllegalStateException("Unresolved function '" + fd.name + "' (run TypeChecker before code generation)");
+        }
+        MethodVisitor target = method(ACC_PRIVATE | ACC_STATIC, fd.name, emitter.functionDescriptor(fd.symbol.descriptor));
+        SizeCounter method = new SizeCounter(target);
+        method.visitCode();
+        new CodeEmitter(method, frames(target), emitter).emitFunction(fd);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    /**
+     * 发射扁平形式中的一条（已通过语义检查的）顶层语句，n 为节点下标。
+     */
+    public void emit(FlatCompilationUnit unit, int n) {
+        if (methodBudget > 0 && !fits(emitter.measure(unit, n))) nextChunk();
+        emitter.emitStatement(unit, n);
+    }
+
+    /**
+     * 已拆分出的方法数（不含 main）。
+     */
+    public int chunks() {
+        return chunks;
+    }
+
+    /**
+     * 长度为 size 的语句能否放进当前方法（计入它可能新增的一个顶层变量的 spill 与收尾）；空方法总是放得下。
+     */
+    private boolean fits(int size) {
+        return chunk.size == 0 || chunk.size + size + emitter.spillSize() + 7 + EPILOGUE <= methodBudget;
+    }
+
+    /**
+     * 结束当前方法（main 保持打开，直到 finish 写入收尾），后续语句发射到新的 chunkN。
+     */
+    private void nextChunk() {
+        String name = "chunk" + (++chunks);
+        emitter.spill();
+        chunk.visitMethodInsn(INVOKESTATIC, className, name, "()V", false);
+        if (chunks > 1) endChunk();
+        MethodVisitor next = method(ACC_PRIVATE | ACC_STATIC, name, "()V");
+        chunk = new SizeCounter(next); // 访问者可以不关心该方法（返回 null），此时只计数
+        chunk.visitCode();
+        emitter.startChunk(chunk, frames(next));
+    }
+
+    private void endChunk() {
+        chunk.visitInsn(RETURN);
+        chunk.visitMaxs(0, 0);
+        chunk.visitEnd();
+    }
+
+    /**
+     * 结束 main 与类；目标为 ClassWriter 时返回 .class 字节，否则返回 null。
+     */
+    public byte[] finish() {
+        if (chunks > 0) endChunk();
+        if (bufferedOutput) {
+            flush(); // 位于保护区间内，保证区间非空
+            mv.visitLabel(bodyEnd);
+            mv.visitInsn(RETURN);
+            mv.visitLabel(flushHandler);
+            flush();
+            mv.visitInsn(ATHROW);
+        } else {
+            mv.visitInsn(RETURN);
+        }
+        mv.visitMaxs(0, 0); // 由 FrameTracker 或 COMPUTE_* 计算
+        mv.visitEnd();
+        for (Map.Entry<String, String> e : emitter.variableFields().entrySet()) {
+            field(ACC_PRIVATE | ACC_STATIC, e.getKey(), e.getValue());
+        }
+        if (!emitter.literalFields().isEmpty()) emitLiteralFields(emitter.literalFields());
+        cv.visitEnd();
+        return cw == null ? null : cw.toByteArray();
+    }
+
+    /**
+     * 声明方法；开启窥孔优化时先缓冲为 MethodNode，visitEnd 时改写后再写出；显式帧时经由 FrameTracker 写出。
+     */
+    private MethodVisitor method(int access, String name, String descriptor) {
+        MethodVisitor method = cv.visitMethod(access, name, descriptor, null, null);
+        if (peephole != null) return peephole.wrap(method, access, name, descriptor);
+        return explicitFrames && method != null ? new FrameTracker(method, className, access, name, descriptor) : method;
+    }
+
+    private static FrameTracker frames(MethodVisitor method) {
+        return method instanceof FrameTracker ? (FrameTracker) method : null;
+    }
+
+    private void field(int access, String name, String descriptor) {
+        FieldVisitor fv = cv.visitField(access, name, descriptor, null, null);
+        if (fv != null) fv.visitEnd();
+    }
+
+    private void flush() {
+        mv.visitMethodInsn(INVOKESTATIC, FastOut.INTERNAL_NAME, "flush", "()V", false);
+    }
+
+    /**
+     * 声明字面量字段，并在 &lt;clinit&gt; 中初始化为 "...".getBytes(UTF_8)。
+     */
+    private void emitLiteralFields(Map<String, String> fields) {
+        for (String name : fields.values()) field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, name, "[B");
+        MethodVisitor clinit = method(ACC_STATIC, "<clinit>", "()V");
+        if (clinit == null) return;
+        clinit.visitCode();
+        for (Map.Entry<String, String> e : fields.entrySet()) {
+            clinit.visitLdcInsn(e.getKey());
+            clinit.visitFieldInsn(GETSTATIC, "java/nio/charset/StandardCharsets", "UTF_8", "Ljava/nio/charset/Charset;");
+            clinit.visitMethodInsn(INVOKEVIRTUAL, "java/lang/String", "getBytes", "(Ljava/nio/charset/Charset;)[B", false);
+            clinit.visitFieldInsn(PUTSTATIC, className, e.getValue(), "[B");
+        }
+        clinit.visitInsn(RETURN);
+        clinit.visitMaxs(0, 0);
+        clinit.visitEnd();
+    }
+}
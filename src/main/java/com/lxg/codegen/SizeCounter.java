@@ -0,0 +1,84 @@
+package com.lxg.codegen;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * 字节码长度估算：统计经过的指令按 JVM 编码占用的字节数，并原样转发给下一个访问者（可以为 null，只统计）。
+ * <p>
+ * 学习要点：
+ * - ASM 的 MethodWriter 不公开已写入的代码长度；方法拆分需要在发射过程中知道“当前方法有多大”
+ * - 估算取上界：LDC 一律按 LDC_W（3 字节）、槽位 ≥ 256 按 WIDE 形式计，因此实际长度不会超过估算值
+ * （跳转按 3 字节计，单个方法远小于 32KB 时 ASM 不会把跳转改写为 GOTO_W）
+ *
+ * @author xiangganluo
+ */
+final class SizeCounter extends MethodVisitor {
+    int size;
+
+    SizeCounter(MethodVisitor next) {
+        super(Opcodes.ASM9, next);
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+        size += 1;
+        super.visitInsn(opcode);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+        size += opcode == Opcodes.SIPUSH ? 3 : 2;
+        super.visitIntInsn(opcode, operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+        size += var < 4 ? 1 : var < 256 ? 2 : 4;
+        super.visitVarInsn(opcode, var);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+        size += 3;
+        super.visitTypeInsn(opcode, type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+        size += 3;
+        super.visitFieldInsn(opcode, owner, name, descriptor);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+        size += opcode == Opcodes.INVOKEINTERFACE ? 5 : 3;
+        super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+        size += 5;
+        super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+        size += 3;
+        super.visitJumpInsn(opcode, label);
+    }
+
+    @Override
+    public void visitLdcInsn(Object value) {
+        size += 3;
+        super.visitLdcInsn(value);
+    }
+
+    @Override
+    public void visitIincInsn(int var, int increment) {
+        size += var < 256 && increment >= Byte.MIN_VALUE && increment <= Byte.MAX_VALUE ? 3 : 6;
+        super.visitIincInsn(var, increment);
+    }
+}
@@ -0,0 +1,276 @@
+package com.lxg.driver;
+
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.opt.Inliner;
+import com.lxg.opt.Optimizer;
+import com.lxg.runtime.FastOut;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import org.objectweb.asm.MethodTooLargeException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 批量编译：把一个目录（含子目录）下的所有 .lxg 脚本并行编译为类，写入同一个 jar。
+ * <p>
+ * 学习要点：
+ * - 一次 JVM 启动编译全部脚本，摊薄启动与 JIT 预热成本；每个脚本是 ForkJoinPool 上的一个任务，
+ * 线程数默认等于可用核数
+ * - 每个工作线程持有自己的 CompilerSession（会话不是线程安全的，DFA 缓存在线程内越用越热）；
+ * TypeChecker/ClassGenerator 每个脚本新建，无共享状态
+ * - 类名由脚本的相对路径决定（见 className），编译完成的类立即在锁内写入 JarOutputStream，不在内存中堆积
+ * - 先写入同目录下的临时文件，全部成功后再原子替换目标 jar；任一脚本有错误时不产出 jar
+ * - 缓冲输出（默认）的类依赖 com.lxg.runtime.FastOut，该运行时类一并写入 jar，jar 仍可独立运行
+ * <p>
+ * 使用建议：java -jar my-language.jar --batch scripts/ --out app.jar [--jobs=N]，
+ * 之后以 java -cp app.jar com.lxg.gen.&lt;目录&gt;.&lt;脚本名&gt; 运行单个脚本（只有一个脚本时 jar 可直接 java -jar 运行）。
+ *
+ * @author xiangganluo
+ */
+public final class BatchCompiler {
+    /**
+     * 生成类的包（内部名形式），脚本的子目录映射为其下的子包。
+     */
+    public static final String PACKAGE = "com/lxg/gen/";
+
+    private final int parallelism;
+    private final boolean optimize;
+    private final int inlineLimit;
+    private final int target;
+    private final boolean bufferedOutput;
+    private final ThreadLocal<CompilerSession> sessions;
+
+    /**
+     * 批量编译的配置：字段默认值与命令行单文件编译一致，按需修改后传给 BatchCompiler(Config)。
+     */
+    public static final class Config {
+        public int parallelism = Runtime.getRuntime().availableProcessors();
+        public CompilerSession.LexerMode lexerMode = CompilerSession.LexerMode.ANTLR;
+        /**
+         * 是否在检查后运行 Optimizer。
+         */
+        public boolean optimize = true;
+        /**
+         * 内联的函数体大小上限（见 Inliner），仅在 optimize 时生效。
+         */
+        public int inlineLimit = Inliner.DEFAULT_LIMIT;
+        /**
+         * 生成类的 Java 版本（8、11 或 17，见 ClassGenerator）。
+         */
+        public int target = ClassGenerator.DEFAULT_TARGET;
+        /**
+         * print 是否经由 FastOut 缓冲输出（见 ClassGenerator）。
+         */
+        public boolean bufferedOutput = true;
+    }
+
+    public BatchCompiler() {
+        this(new Config());
+    }
+
+    public BatchCompiler(int parallelism) {
+        this(parallelism, CompilerSession.LexerMode.ANTLR);
+    }
+
+    public BatchCompiler(int parallelism, CompilerSession.LexerMode lexerMode) {
+        this(config(parallelism, lexerMode));
+    }
+
+    public BatchCompiler(Config config) {
+        ClassGenerator.classVersion(config.target);
+        this.parallelism = Math.max(1, config.parallelism);
+        this.optimize = config.optimize;
+        this.inlineLimit = config.inlineLimit;
+        this.target = config.target;
+        this.bufferedOutput = config.bufferedOutput;
+        CompilerSession.LexerMode lexerMode = config.lexerMode;
+        this.sessions = ThreadLocal.withInitial(() -> {
+            CompilerSession session = new CompilerSession();
+            session.setLexerMode(lexerMode);
+            return session;
+        });
+    }
+
+    private static Config config(int parallelism, CompilerSession.LexerMode lexerMode) {
+        Config config = new Config();
+        config.parallelism = parallelism;
+        config.lexerMode = lexerMode;
+        return config;
+    }
+
+    /**
+     * 批量编译的结果：每个脚本的类名，以及有错误的脚本各自的诊断（按路径排序）。
+     */
+    public static final class Result {
+        public final Map<Path, String> classes;
+        public final Map<Path, Diagnostics> failures;
+
+        Result(Map<Path, String> classes, Map<Path, Diagnostics> failures) {
+            this.classes = Collections.unmodifiableMap(classes);
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        public boolean hasErrors() {
+            return !failures.isEmpty();
+        }
+
+        public void printAll(PrintStream out) {
+            for (Map.Entry<Path, Diagnostics> e : failures.entrySet()) {
+                for (String error : e.getValue().getErrors()) {
+                    out.println("[ERROR] " + e.getKey() + ": " + error);
+                }
+            }
+        }
+    }
+
+    /**
+     * 编译 dir 下的全部 .lxg 脚本并写入 jar；有任何错误时不创建（也不覆盖）jar。
+     */
+    public Result compile(Path dir, Path jar) throws IOException {
+        List<Path> scripts;
+        try (Stream<Path> files = Files.walk(dir)) {
+            scripts = files.filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".lxg"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        Map<Path, String> classes = new LinkedHashMap<>();
+        Set<String> used = new HashSet<>();
+        for (Path script : scripts) {
+            String name = className(dir.relativize(script));
+            String unique = name;
+            for (int i = 2; !used.add(unique); i++) unique = name + "_" + i;
+            classes.put(script, unique);
+        }
+
+        Map<Path, Diagnostics> failures = Collections.synchronizedMap(new TreeMap<>());
+        Path tmp = jar.toAbsolutePath().resolveSibling(jar.getFileName() + ".tmp");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (classes.size() == 1) {
+            manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, classes.values().iterator().next().replace('/', '.'));
+        }
+        try (OutputStream file = Files.newOutputStream(tmp);
+             JarOutputStream out = new JarOutputStream(file, manifest)) {
+            if (bufferedOutput) copyRuntimeClass(out);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                List<ForkJoinTask<?>> tasks = new ArrayList<>(classes.size());
+                for (Map.Entry<Path, String> e : classes.entrySet()) {
+                    tasks.add(pool.submit(() -> compileOne(e.getKey(), e.getValue(), out, failures)));
+                }
+                for (ForkJoinTask<?> task : tasks) task.join();
+            } finally {
+                pool.shutdown();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        if (failures.isEmpty()) {
+            Files.move(tmp, jar, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(tmp);
+        }
+        return new Result(classes, new TreeMap<>(failures));
+    }
+
+    private static void copyRuntimeClass(JarOutputStream out) throws IOException {
+        String entry = FastOut.INTERNAL_NAME + ".class";
+        try (InputStream in = FastOut.class.getClassLoader().getResourceAsStream(entry)) {
+            if (in == null) throw new IOException("Runtime class not found: " + entry);
+            out.putNextEntry(new JarEntry(entry));
+            byte[] buf = new byte[8192];
+            for (int n; (n = in.read(buf)) > 0; ) out.write(buf, 0, n);
+            out.closeEntry();
+        }
+    }
+
+    private void compileOne(Path script, String className, JarOutputStream out, Map<Path, Diagnostics> failures) {
+        Diagnostics diags = new Diagnostics();
+        byte[] cls = compile(script, className, diags);
+        if (diags.hasErrors()) {
+            failures.put(script, diags);
+            return;
+        }
+        if (!failures.isEmpty()) return; // 已有失败，不会产出 jar，省去写入
+        synchronized (out) {
+            try {
+                out.putNextEntry(new JarEntry(className + ".class"));
+                out.write(cls);
+                out.closeEntry();
+            } catch (IOException e) {
+                diags.error("Cannot write class: " + e.getMessage());
+                failures.put(script, diags);
+            }
+        }
+    }
+
+    /**
+     * 单个脚本：解析（直接构建 AST）→ TypeChecker →（Optimizer）→ ClassGenerator；出错时返回 null，错误写入 diags。
+     */
+    private byte[] compile(Path script, String className, Diagnostics diags) {
+        String source;
+        try {
+            source = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            diags.error("Cannot read source: " + e.getMessage());
+            return null;
+        }
+        CompilationUnit unit = sessions.get().parseAst(source, diags);
+        if (diags.hasErrors()) return null;
+        Diagnostics sema = new TypeChecker().check(unit);
+        if (sema.hasErrors()) {
+            for (String e : sema.getErrors()) diags.error(e);
+            return null;
+        }
+        if (optimize) unit = Optimizer.optimize(unit, inlineLimit);
+        try {
+            return new ClassGenerator(className, target, bufferedOutput).generate(unit);
+        } catch (MethodTooLargeException e) {
+            diags.error("Program too large: main exceeds the 64KB bytecode limit (" + e.getCodeSize() + " bytes)");
+            return null;
+        }
+    }
+
+    /**
+     * 由脚本相对路径得到内部名形式的类名：目录映射为 com/lxg/gen 下的子包，文件名去掉 .lxg 作为类名；
+     * 不是 Java 标识符字符的一律替换为 _，以数字开头时前缀 _（例如 ops/2-deploy.lxg → com/lxg/gen/ops/_2_deploy）。
+     */
+    public static String className(Path relative) {
+        StringBuilder sb = new StringBuilder(PACKAGE);
+        int count = relative.getNameCount();
+        for (int i = 0; i < count; i++) {
+            String part = relative.getName(i).toString();
+            if (i == count - 1 && part.endsWith(".lxg")) part = part.substring(0, part.length() - 4);
+            if (i > 0) sb.append('/');
+            identifier(sb, part);
+        }
+        return sb.toString();
+    }
+
+    private static void identifier(StringBuilder sb, String part) {
+        if (part.isEmpty() || !Character.isJavaIdentifierStart(part.charAt(0))) sb.append('_');
+        for (int i = 0; i < part.length(); i++) {
+            char ch = part.charAt(i);
+            sb.append(Character.isJavaIdentifierPart(ch) ? ch : '_');
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.lxg.driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+/**
+ * 磁盘编译缓存：以内容寻址的方式保存 ClassGenerator.generate 的结果，源码与选项不变时，重启后直接加载缓存的类，
+ * 跳过解析、检查、优化与代码生成。
+ * <p>
+ * 学习要点：
+ * - 键是 SHA-256(编译器版本, 代码生成选项, 源码字节) 的十六进制串，文件名即键（&lt;key&gt;.class）；
+ * 相同的输入总是得到逐字节相同的类（生成过程不依赖哈希顺序、时间或随机数），同一份源码的键在多次运行间保持稳定
+ * - 写入是原子的：先写同目录下的临时文件，再原子重命名为目标文件；并发写同一个键的进程写入的内容相同，谁最后重命名都一样，
+ * 读者永远看不到写了一半的文件
+ * - 命中时把文件只读映射到内存（FileChannel.map），映射区域直接交给 ClassLoader.defineClass(String, ByteBuffer, ...)，
+ * 不经过 Java 堆上的 byte[]
+ * - 容量有上限：每次写入后按文件的修改时间从旧到新删除，直到总大小不超过上限；命中时更新修改时间，因此是近似的 LRU
+ * <p>
+ * 设计取舍：
+ * - 不维护索引文件：目录本身就是索引，多个进程共享同一目录时无需加锁；代价是淘汰时要列一次目录（只在未命中写入时发生）
+ * - 修改时间的精度取决于文件系统，同一时刻访问的文件之间的淘汰顺序不确定
+ * - 读到的文件不是类文件（魔数不是 CAFEBABE）时按未命中处理并删除
+ * - 编译器版本不是手写常量，而是编译器自身类文件的哈希（见 COMPILER_VERSION）：任何一次改动代码生成、优化或运行时约定的构建
+ * 都会得到新的键，旧构建写入的缓存（包括已修复的错误编译结果）不再命中，无需记得手工递增修订号
+ * <p>
+ * 使用建议：Main 的 --cache-dir=&lt;dir&gt;（可选 --cache-max=&lt;MB&gt;）。CompilerBenchmark cache 对比冷启动与热启动的耗时。
+ *
+ * @author xiangganluo
+ */
+public final class CompilationCache {
+    private static final String SUFFIX = ".class";
+    private static final char[] HEX = "0123456789abcdef".toCharArray(); // 须在 COMPILER_VERSION 之前初始化
+    private static final String COMPILER_PACKAGE = "com/lxg/";
+    private static final String ASM_CLASS = "org/objectweb/asm/ClassWriter.class"; // 打包运行时代表 ASM 的版本
+
+    /**
+     * 编译器版本：参与缓存键，由构建产物自动得出。清单为编译器自身全部类文件（com/lxg 下，按名字排序）的名字与
+     * jar 中记录的 CRC-32 和大小（从类目录运行时为大小与修改时间，另加类路径），打包运行时还含 ASM ClassWriter 的 CRC；
+     * 版本是清单的 CRC-32 与 Adler-32。只读元数据、不读类文件内容，也不加载 ASM，不拖慢命中缓存时的启动。
+     * 代码来源既不是目录也不是 jar 时，退回为其路径与修改时间。
+     */
+    public static final String COMPILER_VERSION = compilerVersion();
+
+    /**
+     * 默认容量上限：64MB。
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    private final Path dir;
+    private final long maxBytes;
+    private int hits;
+    private int misses;
+    private int evictions;
+
+    public CompilationCache(Path dir) {
+        this(dir, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param dir      缓存目录，不存在时创建
+     * @param maxBytes 缓存文件的总大小上限
+     */
+    public CompilationCache(Path dir, long maxBytes) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("Cache size must be positive: " + maxBytes);
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 缓存键：编译器版本、代码生成选项（调用方给出的稳定文本，如 Main.Options.fingerprint）与源码字节的 SHA-256。
+     */
+    public static String key(byte[] source, String options) {
+        MessageDigest sha = sha256();
+        sha.update(COMPILER_VERSION.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+        sha.update(options.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+        return hex(sha.digest(source));
+    }
+
+    private static String compilerVersion() {
+        StringBuilder listing = new StringBuilder();
+        Path root = null;
+        try {
+            root = Paths.get(CompilationCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            Map<String, String> classes = new TreeMap<>();
+            if (Files.isDirectory(root)) {
+                listClasses(root, root.resolve(COMPILER_PACKAGE), classes);
+                // 升级 ASM 也可能改变生成的字节码：类路径中 ASM 的 jar 名含版本号
+                listing.append(System.getProperty("java.class.path")).append('\n');
+            } else {
+                try (JarFile jar = new JarFile(root.toFile())) {
+                    for (JarEntry e : Collections.list(jar.entries())) {
+                        if (e.getName().startsWith(COMPILER_PACKAGE) && e.getName().endsWith(SUFFIX) || e.getName().equals(ASM_CLASS)) {
+                            classes.put(e.getName(), e.getSize() + "/" + Long.toHexString(e.getCrc()));
+                        }
+                    }
+                }
+            }
+            for (Map.Entry<String, String> e : classes.entrySet()) {
+                listing.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+            }
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            listing.setLength(0);
+            listing.append(root).append('@').append(root == null ? 0 : root.toFile().lastModified());
+        }
+        // 两个 32 位校验和拼成 64 位：清单只有几 KB，用 JDK 的本地实现，冷启动时也几乎不花时间（SHA-256 此时还在解释执行）
+        byte[] bytes = listing.toString().getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        Adler32 adler = new Adler32();
+        adler.update(bytes, 0, bytes.length);
+        long version = crc.getValue() << 32 | adler.getValue();
+        char[] hex = new char[16];
+        for (int i = 15; i >= 0; i--, version >>>= 4) hex[i] = HEX[(int) (version & 0xF)];
+        return new String(hex);
+    }
+
+    /**
+     * 类目录中的类文件：相对路径 → 大小与修改时间（每次重新编译都会改变修改时间）。
+     */
+    private static void listClasses(Path root, Path dir, Map<String, String> out) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path f : entries) {
+                BasicFileAttributes attrs = Files.readAttributes(f, BasicFileAttributes.class);
+                if (attrs.isDirectory()) {
+                    listClasses(root, f, out);
+                } else if (f.getFileName().toString().endsWith(SUFFIX)) {
+                    out.put(root.relativize(f).toString().replace(File.separatorChar, '/'),
+                            attrs.size() + "/" + attrs.lastModifiedTime().toMillis());
+                }
+            }
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // 每个 JRE 都必须提供 SHA-256
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * 读取缓存的类：命中时返回只读的内存映射（并更新访问时间），未命中返回 null。
+     */
+    public ByteBuffer get(String key) throws IOException {
+        Path file = dir.resolve(key + SUFFIX);
+        ByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            misses++;
+            return null;
+        }
+        if (bytes.remaining() < 4 || bytes.getInt(0) != 0xCAFEBABE) {
+            Files.deleteIfExists(file);
+            misses++;
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            // 映射之后被其他进程淘汰：映射仍然有效
+        }
+        hits++;
+        return bytes;
+    }
+
+    /**
+     * 写入类：先写临时文件再原子重命名，随后按 LRU 淘汰到容量上限以内（刚写入的文件除外）。
+     */
+    public void put(String key, byte[] cls) throws IOException {
+        Files.createDirectories(dir);
+        Path file = dir.resolve(key + SUFFIX);
+        Path tmp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            Files.write(tmp, cls);
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        evict(file);
+    }
+
+    /**
+     * 总大小超过上限时，按修改时间从旧到新删除缓存文件（keep 除外）。
+     */
+    private void evict(Path keep) throws IOException {
+        List<Path> files = new ArrayList<>();
+        List<BasicFileAttributes> attrs = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path p : entries) {
+                BasicFileAttributes a;
+                try {
+                    a = Files.readAttributes(p, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue; // 被其他进程删除
+                }
+                files.add(p);
+                attrs.add(a);
+                total += a.size();
+            }
+        }
+        if (total <= maxBytes) return;
+        Integer[] order = new Integer[files.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparing(i -> attrs.get(i).lastModifiedTime()));
+        for (int i : order) {
+            if (total <= maxBytes) break;
+            if (files.get(i).equals(keep)) continue;
+            if (Files.deleteIfExists(files.get(i))) evictions++;
+            total -= attrs.get(i).size();
+        }
+    }
+
+    /**
+     * 本实例的命中次数。
+     */
+    public int hits() {
+        return hits;
+    }
+
+    public int misses() {
+        return misses;
+    }
+
+    /**
+     * 本实例写入时淘汰的文件数。
+     */
+    public int evictions() {
+        return evictions;
+    }
+}
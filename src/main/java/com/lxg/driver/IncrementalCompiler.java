@@ -0,0 +1,499 @@
+package com.lxg.driver;
+
+import com.lxg.ast.expr.BinaryExpr;
+import com.lxg.ast.expr.CallExpr;
+import com.lxg.ast.expr.UnaryExpr;
+import com.lxg.ast.expr.VarRef;
+import com.lxg.ast.node.Expression;
+import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.node.ValueType;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.stmt.*;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.frontend.AstBuilder;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.opt.Inliner;
+import com.lxg.opt.Optimizer;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.FunctionSymbol;
+import com.lxg.sema.SymbolTable;
+import com.lxg.sema.TypeChecker;
+import org.antlr.v4.runtime.Token;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 增量编译服务（编辑器/--watch 模式）：接收文本编辑，只重新解析受影响的顶层语句，只重新检查依赖它们的语句。
+ * <p>
+ * 学习要点：
+ * - 顶层语句是增量的最小单位（Segment）：保存其文本范围、AST、声明的变量（decls）与引用的变量（refs）、检查结果
+ * - 重新解析：从编辑点之前最近一条完整语句的末尾开始逐条解析，直到某条新语句恰好从“编辑点之后、且不在编辑行上”的
+ * 旧语句起点开始，此后的文本与 Token 必然相同，直接复用旧语句（只平移偏移与行号）
+ * - 重新检查：只有顶层 let 的变量对后续语句可见（块内声明随块结束失效），一条语句的检查结果只取决于其用到的
+ * 名字在它之前的首次顶层声明类型；因此只需重查“名字与改动语句的声明有交集”的后续语句，若其声明类型因此变化，
+ * 再把这些名字加入改动集合继续传播。块内的 let 记入 refs：外层同名声明的增删会影响它是否构成重复声明
+ * - 函数与变量同样先声明后使用：fn 声明记为名字 "f()"（不会与变量名冲突），调用记为对它的引用；
+ * 函数体只依赖它调用的函数，不依赖 main 的变量
+ * - 复用的 AST 保留解析时的位置：诊断输出时按语句的行号偏移量（lineDelta）修正 "at 行:列"
+ * <p>
+ * 与整体编译的关系：语义诊断与 TypeChecker.check 整体检查逐条一致；有语法错误时只报告语法错误（与 Main 相同）。
+ * 语法错误在单条语句内恢复，信息可能与整体解析的恢复结果略有不同。
+ * <p>
+ * 使用建议：实例不是线程安全的；编辑偏移按 UTF-16 char 计算。
+ *
+ * @author xiangganluo
+ */
+public final class IncrementalCompiler {
+    private static final Pattern POSITION = Pattern.compile(" at (\\d+):(\\d+)$");
+
+    private final CompilerSession session;
+    private final AstBuilder builder = new AstBuilder();
+    private final TypeChecker checker = new TypeChecker();
+    private String text = "";
+    private final List<Segment> segments = new ArrayList<>();
+    /**
+     * 变量名 → 声明了它的语句（按需取下标最小者作为首次声明）。
+     */
+    private final Map<String, List<Segment>> declarers = new HashMap<>();
+    private int syntaxErrorSegments;
+    private int lastReparsed;
+    private int lastRechecked;
+
+    public IncrementalCompiler() {
+        this(new CompilerSession());
+    }
+
+    public IncrementalCompiler(CompilerSession session) {
+        this.session = session;
+    }
+
+    /**
+     * 打开新文档（丢弃已有状态并完整编译一次），返回诊断。
+     */
+    public Diagnostics open(String source) {
+        segments.clear();
+        declarers.clear();
+        syntaxErrorSegments = 0;
+        text = "";
+        return edit(0, 0, source);
+    }
+
+    /**
+     * 以新全文更新：比较首尾公共部分得到一次编辑再增量处理（--watch 模式按文件内容调用）。
+     */
+    public Diagnostics update(String source) {
+        int max = Math.min(text.length(), source.length());
+        int prefix = 0;
+        while (prefix < max && text.charAt(prefix) == source.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < max - prefix
+                && text.charAt(text.length() - 1 - suffix) == source.charAt(source.length() - 1 - suffix)) suffix++;
+        return edit(prefix, text.length() - prefix - suffix, source.substring(prefix, source.length() - suffix));
+    }
+
+    /**
+     * 把 [offset, offset+removed) 替换为 inserted，返回编辑后的全部诊断。
+     */
+    public Diagnostics edit(int offset, int removed, String inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > text.length()) {
+            throw new IndexOutOfBoundsException("Edit [" + offset + ", " + (offset + removed) + ") outside text of length " + text.length());
+        }
+        String old = text;
+        int oldEnd = offset + removed;
+        int charDelta = inserted.length() - removed;
+        int lineDelta = newlines(inserted, 0, inserted.length()) - newlines(old, offset, oldEnd);
+        int oldEndLine = lineAt(old, oldEnd);
+        text = old.substring(0, offset) + inserted + old.substring(oldEnd);
+
+        // 1) 受影响区间：与编辑点相接或重叠的第一条语句开始（其前一条语句的末尾是安全的词法起点）
+        int first = 0;
+        while (first < segments.size() && segments.get(first).end < offset) first++;
+        Segment before = first == 0 ? null : segments.get(first - 1);
+        int regionStart = before == null ? 0 : before.end;
+        int line = before == null ? 1 : before.endLine;
+        int column = before == null ? 0 : before.endColumn;
+
+        // 2) 可复用的旧语句：起点不早于编辑末尾，且位于编辑末尾所在行之后（列号不受编辑影响）
+        int reuse = first;
+        while (reuse < segments.size()
+                && (segments.get(reuse).start < oldEnd || segments.get(reuse).line <= oldEndLine)) reuse++;
+        for (int i = reuse; i < segments.size(); i++) {
+            segments.get(i).shift(charDelta, lineDelta);
+        }
+
+        // 3) 逐条重新解析，遇到可复用语句的起点即停止
+        List<Segment> parsed = reparse(regionStart, line, column, reuse);
+        int resync = resyncAt;
+        List<Segment> removedSegments = new ArrayList<>(segments.subList(first, resync));
+        for (Segment s : removedSegments) forget(s);
+        segments.subList(first, resync).clear();
+        segments.addAll(first, parsed);
+        for (int i = first; i < segments.size(); i++) {
+            segments.get(i).index = i;
+        }
+        for (Segment s : parsed) remember(s);
+        lastReparsed = parsed.size();
+
+        // 4) 重新检查：新语句全部检查；后续语句按名字依赖传播
+        Set<String> changed = new HashSet<>();
+        for (Segment s : removedSegments) changed.addAll(s.decls);
+        for (Segment s : parsed) changed.addAll(s.decls);
+        lastRechecked = 0;
+        for (int i = first; i < segments.size(); i++) {
+            Segment s = segments.get(i);
+            boolean isNew = i < first + parsed.size();
+            if (!isNew && changed.isEmpty()) break; // 没有声明变化：后续语句的检查结果不受影响
+            if (!isNew && !intersects(s, changed)) continue;
+            Map<String, ValueType> previous = s.declared;
+            check(s);
+            lastRechecked++;
+            if (!isNew && !previous.equals(s.declared)) {
+                changed.addAll(previous.keySet());
+                changed.addAll(s.declared.keySet());
+            }
+        }
+        return diagnostics();
+    }
+
+    /**
+     * 当前全部诊断：有语法错误时只含语法错误，否则为按语句顺序排列的语义错误。
+     */
+    public Diagnostics diagnostics() {
+        Diagnostics diags = new Diagnostics();
+        for (Segment s : segments) {
+            List<String> errors = syntaxErrorSegments > 0 ? s.syntaxErrors : s.errors;
+            for (String e : errors) diags.error(s.lineDelta == 0 ? e : shiftLine(e, s.lineDelta));
+        }
+        return diags;
+    }
+
+    /**
+     * 由当前 AST 生成字节码（不优化，默认代码生成选项），见 compile(boolean, int, ClassGenerator)。
+     */
+    public byte[] compile() {
+        return compile(false, Inliner.DEFAULT_LIMIT, new ClassGenerator());
+    }
+
+    /**
+     * 由当前 AST 生成字节码（不重新解析，只做一次统一分配槽位的整体检查），之后与 Main.compile 相同：
+     * 按需运行 Optimizer，再交给调用方配置好的 ClassGenerator；有错误时返回 null。
+     * 优化遍只产生新节点，不改动各语句保存的 AST，之后的增量编辑不受影响。
+     *
+     * @param inlineLimit optimize 为 true 时的内联阈值（见 Inliner）
+     */
+    public byte[] compile(boolean optimize, int inlineLimit, ClassGenerator generator) {
+        if (diagnostics().hasErrors()) return null;
+        // 逐条检查时各用局部符号表，槽位并不统一：生成前整体检查一遍（与 TypeChecker.check 整体编译相同的槽位分配）
+        List<Statement> statements = new ArrayList<>(segments.size());
+        for (Segment s : segments) statements.add(s.ast);
+        CompilationUnit unit = new CompilationUnit(SourcePos.NONE, statements, builder.names());
+        if (checker.check(unit).hasErrors()) return null;
+        if (optimize) unit = Optimizer.optimize(unit, inlineLimit);
+        return generator.generate(unit);
+    }
+
+    public String text() {
+        return text;
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 上一次编辑重新解析的语句数。
+     */
+    public int lastReparsed() {
+        return lastReparsed;
+    }
+
+    /**
+     * 上一次编辑重新检查的语句数（含重新解析的语句）。
+     */
+    public int lastRechecked() {
+        return lastRechecked;
+    }
+
+    // ---------------------------------------------------------------- 解析
+
+    /**
+     * 上一次 reparse 的重新同步点：从该下标起的旧语句被复用；解析到文件末尾时等于 segments.size()。
+     */
+    private int resyncAt;
+
+    private List<Segment> reparse(int regionStart, int line, int column, int reuse) {
+        List<Segment> parsed = new ArrayList<>();
+        StringReader reader = new StringReader(text);
+        try {
+            reader.skip(regionStart);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Offsets offsets = new Offsets(regionStart);
+        Diagnostics syntax = new Diagnostics();
+        int[] reported = {0};
+        resyncAt = reuse;
+        boolean[] resynced = {false};
+        session.parseStatements(reader, line, column, syntax, t -> {
+            int at = offsets.toChar(t.getStartIndex());
+            while (resyncAt < segments.size() && segments.get(resyncAt).start < at) resyncAt++;
+            resynced[0] = resyncAt < segments.size() && segments.get(resyncAt).start == at;
+            return !resynced[0];
+        }, ctx -> {
+            Segment s = new Segment();
+            Token start = ctx.getStart();
+            Token stop = ctx.getStop();
+            s.start = offsets.toChar(start.getStartIndex());
+            s.line = start.getLine();
+            if (stop == null || stop.getStopIndex() < start.getStartIndex()) {
+                s.end = s.start;
+                s.endLine = s.line;
+                s.endColumn = start.getCharPositionInLine();
+            } else {
+                s.end = offsets.toChar(stop.getStopIndex() + 1);
+                String t = stop.getText();
+                int nl = t.lastIndexOf('\n');
+                s.endLine = stop.getLine() + newlines(t, 0, t.length());
+                s.endColumn = nl < 0 ? stop.getCharPositionInLine() + t.codePointCount(0, t.length())
+                        : t.codePointCount(nl + 1, t.length());
+            }
+            List<String> errors = syntax.getErrors();
+            s.syntaxErrors = new ArrayList<>(errors.subList(reported[0], errors.size()));
+            reported[0] = errors.size();
+            if (s.syntaxErrors.isEmpty()) {
+                s.ast = (Statement) builder.visit(ctx);
+                collectNames(s.ast, true, s.decls, s.refs);
+            }
+            parsed.add(s);
+        });
+        if (!resynced[0]) {
+            resyncAt = segments.size(); // 解析到了文件末尾：其余旧语句全部作废
+        }
+        List<String> errors = syntax.getErrors();
+        if (reported[0] < errors.size()) {
+            // 最后一条语句之后的错误（如末尾的非法字符）：挂到最后一条语句上，没有语句时挂到区间起点的空语句上
+            Segment last;
+            if (parsed.isEmpty()) {
+                last = new Segment();
+                last.start = last.end = regionStart;
+                last.line = last.endLine = line;
+                last.endColumn = column;
+                last.syntaxErrors = new ArrayList<>();
+                parsed.add(last);
+            } else {
+                last = parsed.get(parsed.size() - 1);
+                if (last.syntaxErrors.isEmpty()) {
+                    last.syntaxErrors = new ArrayList<>();
+                    last.ast = null;
+                    last.decls.clear();
+                    last.refs.clear();
+                }
+            }
+            last.syntaxErrors.addAll(errors.subList(reported[0], errors.size()));
+        }
+        return parsed;
+    }
+
+    // ---------------------------------------------------------------- 检查
+
+    private void check(Segment s) {
+        s.errors = Collections.emptyList();
+        s.declared = Collections.emptyMap();
+        if (s.ast == null) return;
+        // 只为本语句用到的名字预置“之前的首次声明”，类型与整体检查时符号表中的一致
+        SymbolTable symbols = new SymbolTable(builder.names());
+        for (String name : s.names()) {
+            Segment d = firstDeclarer(name, s.index);
+            if (d == null) continue;
+            if (name.endsWith(FUNCTION_SUFFIX)) {
+                FunctionSymbol f = d.ast instanceof FnDecl ? ((FnDecl) d.ast).symbol : null;
+                if (f != null) symbols.declareFunction(f);
+            } else {
+                symbols.declare(name, d.declared.get(name));
+            }
+        }
+        Diagnostics diags = new Diagnostics();
+        checker.check(s.ast, symbols, diags);
+        s.errors = diags.getErrors();
+        Map<String, ValueType> declared = new HashMap<>();
+        for (String name : s.decls) {
+            if (firstDeclarer(name, s.index) == null && symbols.isDeclared(name)) {
+                declared.put(name, symbols.resolve(name).type);
+            }
+        }
+        s.declared = declared;
+    }
+
+    private Segment firstDeclarer(String name, int before) {
+        List<Segment> list = declarers.get(name);
+        Segment best = null;
+        if (list == null) return null;
+        for (Segment d : list) {
+            if (d.index < before && (best == null || d.index < best.index)) best = d;
+        }
+        return best;
+    }
+
+    private static boolean intersects(Segment s, Set<String> names) {
+        if (names.isEmpty()) return false;
+        for (String n : s.decls) if (names.contains(n)) return true;
+        for (String n : s.refs) if (names.contains(n)) return true;
+        return false;
+    }
+
+    private void remember(Segment s) {
+        if (!s.syntaxErrors.isEmpty()) syntaxErrorSegments++;
+        for (String name : s.decls) declarers.computeIfAbsent(name, k -> new ArrayList<>(1)).add(s);
+    }
+
+    private void forget(Segment s) {
+        if (!s.syntaxErrors.isEmpty()) syntaxErrorSegments--;
+        for (String name : s.decls) {
+            List<Segment> list = declarers.get(name);
+            list.remove(s);
+            if (list.isEmpty()) declarers.remove(name);
+        }
+    }
+
+    /**
+     * 函数在 decls/refs 中的名字后缀。
+     */
+    private static final String FUNCTION_SUFFIX = "()";
+
+    /**
+     * 收集语句中 let 声明的名字（含块内）与引用/赋值的名字；函数声明与调用以 "f()" 记录。
+     * 只有顶层的函数声明算作声明：嵌在块或 if 中的 fn 是错误（由 TypeChecker 报告），不能让后续语句看到它。
+     */
+    private static void collectNames(Statement s, boolean topLevel, Set<String> decls, Set<String> refs) {
+        if (s instanceof FnDecl) {
+            FnDecl fd = (FnDecl) s;
+            (topLevel ? decls : refs).add(fd.name + FUNCTION_SUFFIX);
+            // 函数体中的变量与 main 无关，只保留调用
+            Set<String> body = new HashSet<>();
+            collectNames(fd.body, false, body, body);
+            for (String name : body) if (name.endsWith(FUNCTION_SUFFIX)) refs.add(name);
+        } else if (s instanceof ReturnStmt) {
+            collectNames(((ReturnStmt) s).value, refs);
+        } else if (s instanceof LetStmt) {
+            collectNames(((LetStmt) s).value, refs);
+            (topLevel ? decls : refs).add(((LetStmt) s).name);
+        } else if (s instanceof AssignStmt) {
+            refs.add(((AssignStmt) s).name);
+            collectNames(((AssignStmt) s).value, refs);
+        } else if (s instanceof PrintStmt) {
+            collectNames(((PrintStmt) s).expression, refs);
+        } else if (s instanceof BlockStmt) {
+            for (Statement child : ((BlockStmt) s).statements) collectNames(child, false, decls, refs);
+        } else if (s instanceof IfStmt) {
+            IfStmt is = (IfStmt) s;
+            collectNames(is.condition, refs);
+            collectNames(is.thenBlock, false, decls, refs);
+            if (is.elseBlock != null) collectNames(is.elseBlock, false, decls, refs);
+        } else if (s instanceof WhileStmt) {
+            collectNames(((WhileStmt) s).condition, refs);
+            collectNames(((WhileStmt) s).body, false, decls, refs);
+        }
+    }
+
+    private static void collectNames(Expression e, Set<String> refs) {
+        if (e instanceof VarRef) {
+            refs.add(((VarRef) e).name);
+        } else if (e instanceof UnaryExpr) {
+            collectNames(((UnaryExpr) e).expr, refs);
+        } else if (e instanceof BinaryExpr) {
+            collectNames(((BinaryExpr) e).left, refs);
+            collectNames(((BinaryExpr) e).right, refs);
+        } else if (e instanceof CallExpr) {
+            refs.add(((CallExpr) e).name + FUNCTION_SUFFIX);
+            for (Expression a : ((CallExpr) e).args) collectNames(a, refs);
+        }
+    }
+
+    // ---------------------------------------------------------------- 位置
+
+    private static int newlines(String s, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) if (s.charAt(i) == '\n') n++;
+        return n;
+    }
+
+    /**
+     * 偏移所在的行号：从不晚于它的最后一条语句起点开始数换行，避免扫描全文。
+     */
+    private int lineAt(String s, int offset) {
+        int lo = 0, hi = segments.size() - 1, best = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (segments.get(mid).start <= offset) {
+                best = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (best < 0) return 1 + newlines(s, 0, offset);
+        Segment seg = segments.get(best);
+        return seg.line + newlines(s, seg.start, offset);
+    }
+
+    private static String shiftLine(String message, int delta) {
+        Matcher m = POSITION.matcher(message);
+        if (!m.find()) return message;
+        return message.substring(0, m.start()) + " at " + (Integer.parseInt(m.group(1)) + delta) + ":" + m.group(2);
+    }
+
+    /**
+     * ANTLR 字符流按码点编号，这里把区间内的码点下标换算为 UTF-16 偏移（单调前进，整体线性）。
+     */
+    private final class Offsets {
+        private int codePoint;
+        private int charOffset;
+
+        Offsets(int start) {
+            this.charOffset = start;
+        }
+
+        int toChar(int cp) {
+            charOffset = text.offsetByCodePoints(charOffset, cp - codePoint);
+            codePoint = cp;
+            return charOffset;
+        }
+    }
+
+    /**
+     * 一条顶层语句及其增量状态。
+     */
+    private static final class Segment {
+        int index;
+        int start, end;           // 当前文本中的 [start, end)
+        int line;                 // 当前起始行
+        int endLine, endColumn;   // 语句末尾之后的位置（下一次从这里开始词法分析）
+        int lineDelta;            // 当前行号 - 解析时的行号（AST 与诊断中的位置需加上它）
+        Statement ast;            // 有语法错误时为 null
+        List<String> syntaxErrors = Collections.emptyList();
+        final Set<String> decls = new LinkedHashSet<>();
+        final Set<String> refs = new HashSet<>();
+        List<String> errors = Collections.emptyList();
+        Map<String, ValueType> declared = Collections.emptyMap();
+
+        void shift(int chars, int lines) {
+            start += chars;
+            end += chars;
+            line += lines;
+            endLine += lines;
+            lineDelta += lines;
+        }
+
+        Set<String> names() {
+            Set<String> all = new HashSet<>(refs);
+            all.addAll(decls);
+            return all;
+        }
+    }
+}
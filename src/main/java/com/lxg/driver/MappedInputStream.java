@@ -0,0 +1,68 @@
+package com.lxg.driver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 基于内存映射的输入流：按固定大小的窗口依次映射文件，读完一个窗口再映射下一个。
+ * <p>
+ * 学习要点：
+ * - 映射区域位于堆外，由操作系统按页调入/换出，Java 堆中只有一个 MappedByteBuffer 对象
+ * - 分窗口映射：单个 MappedByteBuffer 最多 2GB，且映射整个大文件会占满虚拟地址空间；窗口读完即丢弃引用
+ *
+ * @author xiangganluo
+ */
+final class MappedInputStream extends InputStream {
+    private final FileChannel channel;
+    private final long size;
+    private final int window;
+    private long mapped; // 已映射到的文件偏移
+    private MappedByteBuffer current;
+
+    MappedInputStream(FileChannel channel, int window) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.window = window;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensure()) return -1;
+        return current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!ensure()) return -1;
+        int n = Math.min(len, current.remaining());
+        current.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.remaining();
+    }
+
+    /**
+     * 当前窗口读完时映射下一个窗口；文件结束返回 false。
+     */
+    private boolean ensure() throws IOException {
+        while (current == null || !current.hasRemaining()) {
+            if (mapped >= size) return false;
+            long len = Math.min(window, size - mapped);
+            current = channel.map(FileChannel.MapMode.READ_ONLY, mapped, len);
+            mapped += len;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        current = null;
+        channel.close();
+    }
+}
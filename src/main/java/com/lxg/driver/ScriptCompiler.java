@@ -0,0 +1,123 @@
+package com.lxg.driver;
+
+import com.lxg.ast.node.ValueType;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.stmt.Param;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.opt.Optimizer;
+import com.lxg.runtime.CompiledScript;
+import com.lxg.runtime.ScriptLoader;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 嵌入式编译入口：把脚本编译为 CompiledScript，宿主以 LxgContext 传入输入、收集输出，反复运行而不经过 main 与反射。
+ * <p>
+ * 学习要点：
+ * - 输入由宿主声明（名字 → 类型），不需要新的语法：它们成为 main 的前几个槽位，TypeChecker 把它们当作已声明的变量，
+ * 脚本中可以读取、赋值，但不能再用 let 声明同名变量
+ * - 流水线与命令行相同（解析、检查、Optimizer），代码生成使用 ClassGenerator.forScript
+ * - 编译结果只有一个类，定义与实例化一次；之后每次运行是 LxgProgram.run 的一次接口调用
+ * - 类名与定义方式由 ScriptLoader 决定：默认每个脚本一个加载器（固定类名），
+ * 大量存活脚本可以共享一个加载器（唯一类名）或定义为隐藏类（JDK 15+）
+ * <p>
+ * 设计取舍：
+ * - 脚本模式不拆分 main（拆分靠静态字段在 chunk 间传递变量，并发运行会互相覆盖），
+ * 因此单个脚本的顶层代码仍受单方法 64KB 的限制，超过 8000 字节时不会被 JIT 编译
+ * - 每次 compile 新建 CompilerSession，编译本身可以在多个线程中同时进行；频繁编译的宿主可以自行按线程复用会话
+ * <p>
+ * 使用建议：
+ * <pre>
+ * CompiledScript s = ScriptCompiler.compile("print \"hi \" + name;", Collections.singletonMap("name", ValueType.STRING));
+ * String out = s.run(Collections.singletonMap("name", "lxg"));
+ * </pre>
+ * 大多数只运行一次的脚本用 tiered：先由 Interpreter 解释执行，变热后才付出代码生成与类定义的开销。
+ * CompilerBenchmark embed 对比经 LxgShell（反射调用 main）与 CompiledScript.run 的单次运行耗时与多线程吞吐。
+ *
+ * @author xiangganluo
+ */
+public final class ScriptCompiler {
+    private ScriptCompiler() {
+    }
+
+    /**
+     * 编译脚本；有错误时抛出 IllegalArgumentException，消息为全部诊断（每行一条）。
+     */
+    public static CompiledScript compile(String source, Map<String, ValueType> inputs) {
+        Diagnostics diags = new Diagnostics();
+        CompiledScript script = compile(source, inputs, diags);
+        if (script == null) throw new IllegalArgumentException(String.join("\n", diags.getErrors()));
+        return script;
+    }
+
+    /**
+     * 编译脚本（每个脚本一个加载器），诊断写入 diags；有错误时返回 null。
+     *
+     * @param inputs 脚本的输入：名字 → 类型，按迭代顺序占用槽位（宜用 LinkedHashMap）
+     */
+    public static CompiledScript compile(String source, Map<String, ValueType> inputs, Diagnostics diags) {
+        return compile(source, inputs, diags, new ScriptLoader(ScriptLoader.Strategy.LOADER_PER_SCRIPT));
+    }
+
+    /**
+     * 编译脚本并按 loader 的策略定义；有错误时返回 null（不分配类名）。
+     */
+    public static CompiledScript compile(String source, Map<String, ValueType> inputs, Diagnostics diags, ScriptLoader loader) {
+        CompilationUnit unit = check(source, inputs, diags);
+        return unit == null ? null : define(unit, loader);
+    }
+
+    /**
+     * 分层执行的脚本（默认阈值，每个脚本一个加载器）：先解释执行，变热后编译，见 TieredScript。有错误时返回 null。
+     */
+    public static TieredScript tiered(String source, Map<String, ValueType> inputs, Diagnostics diags) {
+        return tiered(source, inputs, diags, TieredScript.DEFAULT_PROMOTE_AFTER, TieredScript.DEFAULT_PROMOTE_AFTER_NANOS,
+                new ScriptLoader(ScriptLoader.Strategy.LOADER_PER_SCRIPT));
+    }
+
+    /**
+     * @param promoteAfter      解释执行多少次之后编译（0 表示创建时立即编译）
+     * @param promoteAfterNanos 解释执行累计耗时超过该值（纳秒）后编译，不论次数
+     * @param loader            编译后的类的定义策略
+     */
+    public static TieredScript tiered(String source, Map<String, ValueType> inputs, Diagnostics diags, int promoteAfter,
+                                      long promoteAfterNanos, ScriptLoader loader) {
+        CompilationUnit unit = check(source, inputs, diags);
+        return unit == null ? null : new TieredScript(unit, promoteAfter, promoteAfterNanos, loader);
+    }
+
+    /**
+     * 解析并检查脚本，输入声明为 main 的前几个槽位；有错误时返回 null。
+     */
+    static CompilationUnit check(String source, Map<String, ValueType> inputs, Diagnostics diags) {
+        CompilationUnit unit = new CompilerSession().parseAst(source, diags);
+        if (diags.hasErrors()) return null;
+        List<Param> params = new ArrayList<>(inputs.size());
+        for (Map.Entry<String, ValueType> e : inputs.entrySet()) params.add(new Param(e.getKey(), e.getValue()));
+        unit = unit.withInputs(Collections.unmodifiableList(params));
+        Diagnostics sema = new TypeChecker().check(unit);
+        if (sema.hasErrors()) {
+            for (String error : sema.getErrors()) diags.error(error);
+            return null;
+        }
+        return unit;
+    }
+
+    /**
+     * 优化已检查的编译单元（Optimizer 不修改输入），以脚本模式生成并定义。
+     */
+    static CompiledScript define(CompilationUnit checked, ScriptLoader loader) {
+        Map<String, String> types = new LinkedHashMap<>();
+        for (Param p : checked.inputs) types.put(p.name, p.type.name());
+        String className = loader.newClassName();
+        byte[] cls = ClassGenerator.forScript(className, ClassGenerator.DEFAULT_TARGET).generate(Optimizer.optimize(checked));
+        return CompiledScript.define(loader, className, cls, types);
+    }
+}
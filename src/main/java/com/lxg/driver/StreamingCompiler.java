@@ -0,0 +1,123 @@
+package com.lxg.driver;
+
+import com.lxg.antlr.LxgParser;
+import com.lxg.ast.node.Statement;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.codegen.ProgramEmitter;
+import com.lxg.frontend.AstBuilder;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.SymbolTable;
+import com.lxg.sema.TypeChecker;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodTooLargeException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * 流式编译器：源码按顶层语句逐条流过 解析 → AST → 语义检查 → 字节码发射，处理完的语句立即可被回收。
+ * <p>
+ * 学习要点：
+ * - 输入：FileChannel 分窗口内存映射（MappedInputStream），文件内容不进入 Java 堆
+ * - 词法/语法：CompilerSession.parseStatements（Unbuffered 字符流与 Token 流），只缓冲当前语句的字符与 Token
+ * - 语义与发射：“跨语句”的状态只有 TypeChecker 的符号表（发射器直接使用检查回填的 Local），堆占用与变量个数相关、与文件大小无关
+ * - 出现错误后停止发射，但继续解析与检查，尽量一次报告全部错误
+ * <p>
+ * 注意：发射器按方法预算把 main 拆分为多个 chunk 方法（见 ProgramEmitter），超大程序也不会触及单方法 64KB 的限制
+ * （只有单条语句本身超过 64KB 时才会在 finish 时报错）；
+ * 需要验证“只跑流水线”的内存行为时，可向 compile 传入不保存字节码的 ClassVisitor。
+ *
+ * @author xiangganluo
+ */
+public final class StreamingCompiler {
+    /**
+     * 默认映射窗口大小。
+     */
+    public static final int DEFAULT_WINDOW = 64 << 20;
+    private static final int CHAR_BUFFER = 1 << 16;
+
+    private final CompilerSession session;
+    private final int window;
+
+    public StreamingCompiler() {
+        this(new CompilerSession(), DEFAULT_WINDOW);
+    }
+
+    public StreamingCompiler(CompilerSession session, int window) {
+        this.session = session;
+        this.window = window;
+    }
+
+    /**
+     * 编译源文件为 .class 字节；有错误时返回 null，错误写入 diags。
+     */
+    public byte[] compile(Path source, Diagnostics diags) throws IOException {
+        ProgramEmitter program = new ClassGenerator().begin();
+        run(source, program, diags);
+        if (diags.hasErrors()) return null;
+        try {
+            return program.finish();
+        } catch (MethodTooLargeException e) {
+            diags.error("Program too large: main exceeds the 64KB bytecode limit (" + e.getCodeSize() + " bytes)");
+            return null;
+        }
+    }
+
+    /**
+     * 编译源文件并把类写入任意 ClassVisitor，返回处理的顶层语句数。
+     */
+    public int compile(Path source, ClassVisitor cv, Diagnostics diags) throws IOException {
+        ProgramEmitter program = new ClassGenerator().begin(cv);
+        int statements = run(source, program, diags);
+        if (!diags.hasErrors()) program.finish();
+        return statements;
+    }
+
+    private int run(Path source, ProgramEmitter program, Diagnostics diags) throws IOException {
+        try (MappedInputStream in = new MappedInputStream(FileChannel.open(source, StandardOpenOption.READ), window);
+             Reader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), CHAR_BUFFER)) {
+            return session.parseStatements(reader, diags, new Pipeline(program, diags));
+        }
+    }
+
+    /**
+     * 每条语句的处理：构建 AST → 检查 → 发射。
+     * 一旦出现语法错误（解析该语句期间新增了诊断），后续语句只解析不再构建 AST，与非流式流程“语法错误即中止”一致。
+     */
+    private static final class Pipeline implements Consumer<LxgParser.StmtContext> {
+        private final ProgramEmitter program;
+        private final Diagnostics diags;
+        private final AstBuilder builder = new AstBuilder();
+        private final TypeChecker checker = new TypeChecker();
+        private final SymbolTable symbols = new SymbolTable(builder.names());
+        private int reported;
+        private boolean syntaxFailed;
+
+        Pipeline(ProgramEmitter program, Diagnostics diags) {
+            this.program = program;
+            this.diags = diags;
+        }
+
+        @Override
+        public void accept(LxgParser.StmtContext ctx) {
+            if (syntaxFailed || diags.getErrors().size() > reported) {
+                syntaxFailed = true;
+                return;
+            }
+            Statement s = (Statement) builder.visit(ctx);
+            checker.check(s, symbols, diags);
+            reported = diags.getErrors().size();
+            if (reported == 0) {
+                program.emit(s);
+            }
+        }
+    }
+}
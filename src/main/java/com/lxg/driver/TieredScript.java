@@ -0,0 +1,150 @@
+package com.lxg.driver;
+
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.runtime.CompiledScript;
+import com.lxg.runtime.Interpreter;
+import com.lxg.runtime.LxgContext;
+import com.lxg.runtime.ScriptLoader;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 分层执行的脚本：前几次运行由 Interpreter 直接解释已检查的 AST，运行次数或累计解释耗时达到阈值后
+ * 编译为字节码（ScriptCompiler 的脚本模式），之后每次运行都是编译后的接口调用。
+ * <p>
+ * 学习要点：
+ * - 只运行一次的脚本完全不经过 Optimizer、ASM 与类的定义、校验，首次运行的延迟只有解析、检查与解释本身
+ * - 两层执行同一份检查结果，输出逐字节一致（解释器的 print 与脚本模式的生成类都调用 LxgContext.println）；
+ * 升级对调用方透明
+ * - 达到阈值的那次运行结束后，由该线程同步编译并发布（volatile）；编译期间其他线程继续解释执行，不会重复编译
+ * <p>
+ * 设计取舍：
+ * - 没有栈上替换：单次运行内的长循环不会中途切换到编译代码，时间阈值只让之后的运行受益
+ * - 编译失败（如脚本模式不拆分 main，超过单方法 64KB）时保持解释执行，原因由 promotionFailure 给出
+ * - 阈值的默认值按 CompilerBenchmark tiers 的测量取：小脚本解释一次约几微秒，编译并定义约几百微秒，
+ * 几十次运行之后编译才划算
+ * <p>
+ * 使用建议：由 ScriptCompiler.tiered 创建并长期持有；可以在多个线程中同时 run，每次运行各用一个 LxgContext。
+ *
+ * @author xiangganluo
+ */
+public final class TieredScript {
+    /**
+     * 默认在解释执行 50 次之后编译。
+     */
+    public static final int DEFAULT_PROMOTE_AFTER = 50;
+
+    /**
+     * 默认在累计解释执行 10ms 之后编译（不论次数）。
+     */
+    public static final long DEFAULT_PROMOTE_AFTER_NANOS = 10_000_000L;
+
+    private final CompilationUnit unit;
+    private final Interpreter interpreter;
+    private final int promoteAfter;
+    private final long promoteAfterNanos;
+    private final ScriptLoader loader;
+    private final AtomicInteger interpreted = new AtomicInteger();
+    private final AtomicLong interpretedNanos = new AtomicLong();
+    private final AtomicBoolean promoting = new AtomicBoolean();
+    private volatile CompiledScript compiled;
+    private volatile RuntimeException promotionFailure;
+    private long promotionNanos;
+
+    TieredScript(CompilationUnit unit, int promoteAfter, long promoteAfterNanos, ScriptLoader loader) {
+        if (promoteAfter < 0 || promoteAfterNanos < 0) throw new IllegalArgumentException("Promotion thresholds must not be negative");
+        this.unit = unit;
+        this.interpreter = new Interpreter(unit);
+        this.promoteAfter = promoteAfter;
+        this.promoteAfterNanos = promoteAfterNanos;
+        this.loader = loader;
+        if (promoteAfter == 0 && promoting.compareAndSet(false, true)) promote();
+    }
+
+    /**
+     * 运行一次：已编译时直接调用编译后的类，否则解释执行，并在达到阈值后编译。
+     */
+    public void run(LxgContext context) {
+        CompiledScript script = compiled;
+        if (script != null) {
+            script.run(context);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            interpreter.run(context);
+        } finally {
+            long spent = interpretedNanos.addAndGet(System.nanoTime() - start);
+            if ((interpreted.incrementAndGet() >= promoteAfter || spent >= promoteAfterNanos) && promoting.compareAndSet(false, true)) {
+                promote();
+            }
+        }
+    }
+
+    /**
+     * 以给定的输入运行一次，返回输出文本。
+     */
+    public String run(Map<String, ?> inputs) {
+        LxgContext context = new LxgContext(inputs);
+        run(context);
+        return context.output();
+    }
+
+    private void promote() {
+        long start = System.nanoTime();
+        CompiledScript script;
+        try {
+            script = ScriptCompiler.define(unit, loader);
+        } catch (RuntimeException e) {
+            promotionNanos = System.nanoTime() - start;
+            promotionFailure = e;
+            return;
+        }
+        promotionNanos = System.nanoTime() - start;
+        compiled = script; // 发布：之前的写入对读到 compiled 的线程可见
+    }
+
+    /**
+     * 是否已经编译为字节码。
+     */
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
+    /**
+     * 解释执行的次数。
+     */
+    public int interpretedRuns() {
+        return interpreted.get();
+    }
+
+    /**
+     * 解释执行的累计耗时（纳秒）。
+     */
+    public long interpretedNanos() {
+        return interpretedNanos.get();
+    }
+
+    /**
+     * 编译（优化、生成与定义）耗时（纳秒）；尚未编译时为 0。
+     */
+    public long promotionNanos() {
+        return compiled == null && promotionFailure == null ? 0 : promotionNanos;
+    }
+
+    /**
+     * 编译失败的原因；没有失败时为 null。
+     */
+    public RuntimeException promotionFailure() {
+        return promotionFailure;
+    }
+
+    @Override
+    public String toString() {
+        return (compiled != null ? "compiled" : promotionFailure != null ? "interpreted (promotion failed)" : "interpreted")
+                + " after " + interpreted.get() + " interpreted runs";
+    }
+}
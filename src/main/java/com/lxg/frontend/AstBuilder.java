@@ -4,8 +4,10 @@ import com.lxg.antlr.LxgBaseVisitor;
 import com.lxg.antlr.LxgParser;
 import com.lxg.ast.expr.*;
 import com.lxg.ast.node.Expression;
+import com.lxg.ast.node.Names;
 import com.lxg.ast.node.SourcePos;
 import com.lxg.ast.node.Statement;
+import com.lxg.ast.node.ValueType;
 import com.lxg.ast.program.CompilationUnit;
 import com.lxg.ast.stmt.*;
 
@@ -16,9 +18,10 @@ import java.util.List;
  * 前端构建器：将 ANTLR 解析树（Parse Tree）转换为自定义 AST 结构。
  * 学习要点：
  * 1) Parse Tree 保留了语法细节（如括号、分隔符），AST 仅保留与语义相关的节点
- * 2) 本类以 Visitor 模式访问各层规则节点，按优先级自低向高（equality → comparison → ... → primary）构建 AST
+ * 2) 本类以 Visitor 模式访问各层规则节点，按优先级自低向高（logicOr → logicAnd → equality → ... → primary）构建 AST
  * 3) 二元运算按“左结合”构造：使用 (op right)* 的迭代方式，依次折叠为 BinaryExpr
- * 4) 每个 AST 节点都会携带 SourcePos，便于后续语义诊断定位
+ * 4) 每个 AST 节点都会携带（打包为 long 的）源码位置，便于后续语义诊断定位
+ * 5) 标识符在构建时驻留到 Names，节点保存稠密编号 id 与共享的名字实例
  * <p>
  * 提示：若不熟悉 ANTLR 生成的 Context API，可用 --dump-parse-tree 观察树形结构，再对照本类的 visit 方法
  *
@@ -26,9 +29,26 @@ import java.util.List;
  */
 public class AstBuilder extends LxgBaseVisitor<Object> {
 
-    private static SourcePos pos(org.antlr.v4.runtime.Token t) {
-        if (t == null) return null;
-        return new SourcePos(t.getLine(), t.getCharPositionInLine());
+    private final Names names;
+
+    public AstBuilder() {
+        this(new Names());
+    }
+
+    /**
+     * 与已有驻留表共享编号（流式/增量编译逐条构建语句时使用）。
+     */
+    public AstBuilder(Names names) {
+        this.names = names;
+    }
+
+    public Names names() {
+        return names;
+    }
+
+    static long pos(org.antlr.v4.runtime.Token t) {
+        if (t == null) return SourcePos.NONE;
+        return SourcePos.pack(t.getLine(), t.getCharPositionInLine());
     }
 
     /**
@@ -39,11 +59,11 @@ public class AstBuilder extends LxgBaseVisitor<Object> {
         for (LxgParser.StmtContext sc : ctx.stmt()) {
             statements.add((Statement) visit(sc));
         }
-        return new CompilationUnit(pos(ctx.getStart()), statements);
+        return new CompilationUnit(pos(ctx.getStart()), statements, names);
     }
 
     /**
-     * 语句分发：根据第一个词决定语句种类（print/let/if），或回退为 block/赋值。
+     * 语句分发：根据第一个词决定语句种类（print/let/if/while/fn/return），或回退为 block/赋值。
      */
     @Override
     public Object visitStmt(LxgParser.StmtContext ctx) {
@@ -52,15 +72,15 @@ public class AstBuilder extends LxgBaseVisitor<Object> {
             return new PrintStmt(pos(ctx.getStart()), expr);
         }
         if (ctx.getChild(0).getText().equals("let")) {
-            String name = ctx.ID().getText();
+            int id = names.intern(ctx.ID().getText());
             Expression expr = (Expression) visit(ctx.expr());
-            return new LetStmt(pos(ctx.getStart()), name, expr);
+            return new LetStmt(pos(ctx.getStart()), id, names.name(id), expr);
         }
         // 赋值：ID '=' expr ';'
         if (ctx.ID() != null && ctx.expr() != null && ctx.getChildCount() >= 4 && "=".equals(ctx.getChild(1).getText())) {
-            String name = ctx.ID().getText();
+            int id = names.intern(ctx.ID().getText());
             Expression expr = (Expression) visit(ctx.expr());
-            return new AssignStmt(pos(ctx.getStart()), name, expr);
+            return new AssignStmt(pos(ctx.getStart()), id, names.name(id), expr);
         }
         // if/else
         if (ctx.getChild(0).getText().equals("if")) {
@@ -69,6 +89,24 @@ public class AstBuilder extends LxgBaseVisitor<Object> {
             BlockStmt elseBlk = ctx.block().size() > 1 ? (BlockStmt) visit(ctx.block(1)) : null;
             return new IfStmt(pos(ctx.getStart()), cond, thenBlk, elseBlk);
         }
+        // while
+        if (ctx.getChild(0).getText().equals("while")) {
+            Expression cond = (Expression) visit(ctx.expr());
+            BlockStmt body = (BlockStmt) visit(ctx.block(0));
+            return new WhileStmt(pos(ctx.getStart()), cond, body);
+        }
+        // 函数声明：fn ID '(' params ')' ':' type block
+        if (ctx.getChild(0).getText().equals("fn")) {
+            int id = names.intern(ctx.ID().getText());
+            List<Param> params = new ArrayList<>(ctx.param().size());
+            for (LxgParser.ParamContext pc : ctx.param()) params.add((Param) visit(pc));
+            ValueType returnType = (ValueType) visit(ctx.type());
+            BlockStmt body = (BlockStmt) visit(ctx.block(0));
+            return new FnDecl(pos(ctx.getStart()), id, names.name(id), params, returnType, body);
+        }
+        if (ctx.getChild(0).getText().equals("return")) {
+            return new ReturnStmt(pos(ctx.getStart()), (Expression) visit(ctx.expr()));
+        }
         // 纯 block
         if (!ctx.block().isEmpty()) {
             return visit(ctx.block(0));
@@ -89,11 +127,65 @@ public class AstBuilder extends LxgBaseVisitor<Object> {
     }
 
     /**
-     * 顶层 expr 直接转发给 equality（最低优先级的二元运算层）。
+     * 函数参数：ID ':' type。
+     */
+    @Override
+    public Object visitParam(LxgParser.ParamContext ctx) {
+        int id = names.intern(ctx.ID().getText());
+        return new Param(pos(ctx.getStart()), id, names.name(id), (ValueType) visit(ctx.type()));
+    }
+
+    /**
+     * 类型关键字 → ValueType。
+     */
+    @Override
+    public Object visitType(LxgParser.TypeContext ctx) {
+        return valueType(ctx.getStart().getText());
+    }
+
+    static ValueType valueType(String keyword) {
+        switch (keyword) {
+            case "int":
+                return ValueType.INT;
+            case "string":
+                return ValueType.STRING;
+            case "boolean":
+                return ValueType.BOOLEAN;
+            default:
+                throw new IllegalStateException("Unknown type: " + keyword);
+        }
+    }
+
+    /**
+     * 顶层 expr 直接转发给 logicOr（最低优先级的二元运算层）。
      */
     @Override
     public Object visitExpr(LxgParser.ExprContext ctx) {
-        return visit(ctx.equality());
+        return visit(ctx.logicOr());
+    }
+
+    /**
+     * logicOr：处理 ||，左结合。示例：a || b || c 解析为 ((a || b) || c)
+     */
+    @Override
+    public Object visitLogicOr(LxgParser.LogicOrContext ctx) {
+        Object left = visit(ctx.logicAnd(0));
+        for (int i = 1; i < ctx.logicAnd().size(); i++) {
+            left = new BinaryExpr(pos(ctx.getStart()), (Expression) left, BinaryOp.OR, (Expression) visit(ctx.logicAnd(i)));
+        }
+        return left;
+    }
+
+    /**
+     * logicAnd：处理 &amp;&amp;，优先级高于 ||、低于 ==/!=。
+     */
+    @Override
+    public Object visitLogicAnd(LxgParser.LogicAndContext ctx) {
+        Object left = visit(ctx.equality(0));
+        for (int i = 1; i < ctx.equality().size(); i++) {
+            left = new BinaryExpr(pos(ctx.getStart()), (Expression) left, BinaryOp.AND, (Expression) visit(ctx.equality(i)));
+        }
+        return left;
     }
 
     /**
@@ -201,7 +293,7 @@ public class AstBuilder extends LxgBaseVisitor<Object> {
     }
 
     /**
-     * primary：字面量/变量/括号表达式。
+     * primary：字面量/函数调用/变量/括号表达式。
      * 字符串字面量会进行反转义处理（支持 \n \r \t \" \\ 等）。
      */
     @Override
@@ -216,7 +308,18 @@ public class AstBuilder extends LxgBaseVisitor<Object> {
         }
         if (ctx.TRUE() != null) return new BoolLiteral(pos(ctx.getStart()), true);
         if (ctx.FALSE() != null) return new BoolLiteral(pos(ctx.getStart()), false);
-        if (ctx.ID() != null) return new VarRef(pos(ctx.getStart()), ctx.ID().getText());
+        if (ctx.ID() != null && ctx.getChildCount() > 1) {
+            int id = names.intern(ctx.ID().getText());
+            List<Expression> args = new ArrayList<>();
+            if (ctx.args() != null) {
+                for (LxgParser.ExprContext ec : ctx.args().expr()) args.add((Expression) visit(ec));
+            }
+            return new CallExpr(pos(ctx.getStart()), id, names.name(id), args);
+        }
+        if (ctx.ID() != null) {
+            int id = names.intern(ctx.ID().getText());
+            return new VarRef(pos(ctx.getStart()), id, names.name(id));
+        }
         if (ctx.expr() != null) return visit(ctx.expr());
         throw new IllegalStateException("Unknown primary: " + ctx.getText());
     }
@@ -225,7 +328,7 @@ public class AstBuilder extends LxgBaseVisitor<Object> {
      * 反转义字符串字面量：将转义序列替换为实际字符。
      * 支持：\n 换行、\r 回车、\t 制表、\" 双引号、\\ 反斜杠。
      */
-    private static String unescapeString(String s) {
+    static String unescapeString(String s) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < s.length(); i++) {
             char c = s.charAt(i);
@@ -0,0 +1,319 @@
+package com.lxg.frontend;
+
+import com.lxg.antlr.LxgLexer;
+import com.lxg.antlr.LxgParser;
+import com.lxg.ast.expr.*;
+import com.lxg.ast.node.Expression;
+import com.lxg.ast.node.Names;
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.node.ValueType;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.stmt.*;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.Vocabulary;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 解析期 AST 构建：作为 Parser 的 parse listener，在每条规则结束（exitEveryRule）时直接生成 AST 节点。
+ * <p>
+ * 学习要点：
+ * - 配合 setBuildParseTrees(false)：规则上下文不再挂到父节点上，规则结束即可回收，不会与 AST 同时存活一整棵解析树
+ * - 值栈：子规则先于父规则结束，其结果压栈；父规则结束时按“本规则内的 Token 个数”弹出对应数量的子结果
+ * （此时上下文的 children 只剩本规则直接匹配的 Token，子规则上下文不会被挂入）
+ * - 运算符按 Token 类型查表，不做文本比较；类型编号在类加载时由 LxgLexer.VOCABULARY 的字面量得到
+ * - 出现语法错误后停止构建（SLL 放弃时的异常展开、错误恢复产生的上下文都不完整），结果以 null 表示
+ * <p>
+ * 输出与 AstBuilder 完全一致（包括各节点的 SourcePos），--dump-parse-tree 仍走解析树 + AstBuilder 的路径。
+ *
+ * @author xiangganluo
+ */
+final class AstListener implements ParseTreeListener {
+    private static final int PRINT = literal("print");
+    private static final int LET = literal("let");
+    private static final int IF = literal("if");
+    private static final int ELSE = literal("else");
+    private static final int WHILE = literal("while");
+    private static final int FN = literal("fn");
+    private static final int RETURN = literal("return");
+    private static final int LPAREN = literal("(");
+
+    /**
+     * Token 类型 → 运算符，下标为 Token 类型。
+     */
+    private static final BinaryOp[] BINARY = new BinaryOp[LxgLexer.VOCABULARY.getMaxTokenType() + 1];
+    private static final UnaryOp[] UNARY = new UnaryOp[LxgLexer.VOCABULARY.getMaxTokenType() + 1];
+
+    static {
+        BINARY[literal("||")] = BinaryOp.OR;
+        BINARY[literal("&&")] = BinaryOp.AND;
+        BINARY[literal("==")] = BinaryOp.EQ;
+        BINARY[literal("!=")] = BinaryOp.NE;
+        BINARY[literal("<")] = BinaryOp.LT;
+        BINARY[literal(">")] = BinaryOp.GT;
+        BINARY[literal("<=")] = BinaryOp.LE;
+        BINARY[literal(">=")] = BinaryOp.GE;
+        BINARY[literal("+")] = BinaryOp.ADD;
+        BINARY[literal("-")] = BinaryOp.SUB;
+        BINARY[literal("*")] = BinaryOp.MUL;
+        BINARY[literal("/")] = BinaryOp.DIV;
+        UNARY[literal("+")] = UnaryOp.PLUS;
+        UNARY[literal("-")] = UnaryOp.MINUS;
+        UNARY[literal("!")] = UnaryOp.NOT;
+    }
+
+    private final Parser parser;
+    private final Names names;
+    private Object[] values = new Object[64];
+    private int size;
+    /**
+     * prog/block 进入时的值栈深度，退出时其上的值即为子语句。
+     */
+    private int[] marks = new int[16];
+    private int markCount;
+    private boolean failed;
+    private CompilationUnit unit;
+
+    AstListener(Parser parser, Names names) {
+        this.parser = parser;
+        this.names = names;
+    }
+
+    /**
+     * 清空状态；两阶段解析回退到 LL 时需要重新开始。
+     */
+    void reset() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        markCount = 0;
+        failed = false;
+        unit = null;
+    }
+
+    /**
+     * 解析结束后的 AST；有语法错误时为 null。
+     */
+    CompilationUnit unit() {
+        return failed ? null : unit;
+    }
+
+    @Override
+    public void enterEveryRule(ParserRuleContext ctx) {
+        int rule = ctx.getRuleIndex();
+        if (rule == LxgParser.RULE_prog || rule == LxgParser.RULE_block) {
+            if (markCount == marks.length) marks = Arrays.copyOf(marks, markCount * 2);
+            marks[markCount++] = size;
+        }
+    }
+
+    @Override
+    public void exitEveryRule(ParserRuleContext ctx) {
+        if (failed || ctx.exception != null || parser.getNumberOfSyntaxErrors() > 0) {
+            failed = true;
+            return;
+        }
+        switch (ctx.getRuleIndex()) {
+            case LxgParser.RULE_prog:
+                unit = new CompilationUnit(AstBuilder.pos(ctx.getStart()), popStatements(), names);
+                break;
+            case LxgParser.RULE_stmt:
+                exitStmt(ctx);
+                break;
+            case LxgParser.RULE_block:
+                push(new BlockStmt(AstBuilder.pos(ctx.getStart()), popStatements()));
+                break;
+            case LxgParser.RULE_param: {
+                Token name = token(ctx, 0);
+                int id = names.intern(name.getText());
+                push(new Param(AstBuilder.pos(name), id, names.name(id), (ValueType) pop()));
+                break;
+            }
+            case LxgParser.RULE_type:
+                push(AstBuilder.valueType(token(ctx, 0).getText()));
+                break;
+            case LxgParser.RULE_args:
+                exitArgs(ctx);
+                break;
+            case LxgParser.RULE_logicOr:
+            case LxgParser.RULE_logicAnd:
+            case LxgParser.RULE_equality:
+            case LxgParser.RULE_comparison:
+            case LxgParser.RULE_addition:
+            case LxgParser.RULE_multiplication:
+                exitBinary(ctx);
+                break;
+            case LxgParser.RULE_unary:
+                if (ctx.getChildCount() > 0) {
+                    UnaryOp op = UNARY[token(ctx, 0).getType()];
+                    push(new UnaryExpr(AstBuilder.pos(ctx.getStart()), op, (Expression) pop()));
+                }
+                break;
+            case LxgParser.RULE_primary:
+                exitPrimary(ctx);
+                break;
+            default:
+                break; // expr：直接沿用 logicOr 的结果
+        }
+    }
+
+    private void exitStmt(ParserRuleContext ctx) {
+        if (ctx.getChildCount() == 0) return; // 纯 block：沿用 block 的结果
+        Token first = token(ctx, 0);
+        int type = first.getType();
+        if (type == PRINT) {
+            push(new PrintStmt(AstBuilder.pos(first), (Expression) pop()));
+        } else if (type == LET) {
+            int id = names.intern(token(ctx, 1).getText());
+            push(new LetStmt(AstBuilder.pos(first), id, names.name(id), (Expression) pop()));
+        } else if (type == IF) {
+            BlockStmt elseBlk = ctx.getChildCount() > 3 && token(ctx, 3).getType() == ELSE ? (BlockStmt) pop() : null;
+            BlockStmt thenBlk = (BlockStmt) pop();
+            Expression cond = (Expression) pop();
+            push(new IfStmt(AstBuilder.pos(first), cond, thenBlk, elseBlk));
+        } else if (type == WHILE) {
+            BlockStmt body = (BlockStmt) pop();
+            Expression cond = (Expression) pop();
+            push(new WhileStmt(AstBuilder.pos(first), cond, body));
+        } else if (type == FN) {
+            BlockStmt body = (BlockStmt) pop();
+            ValueType returnType = (ValueType) pop();
+            // 参数个数 = 栈顶连续的 Param（其下是外层的语句，不会是 Param）
+            int base = size;
+            while (base > 0 && values[base - 1] instanceof Param) base--;
+            List<Param> params = new ArrayList<>(size - base);
+            for (int i = base; i < size; i++) params.add((Param) values[i]);
+            truncate(base);
+            int id = names.intern(token(ctx, 1).getText());
+            push(new FnDecl(AstBuilder.pos(first), id, names.name(id), params, returnType, body));
+        } else if (type == RETURN) {
+            push(new ReturnStmt(AstBuilder.pos(first), (Expression) pop()));
+        } else {
+            int id = names.intern(first.getText());
+            push(new AssignStmt(AstBuilder.pos(first), id, names.name(id), (Expression) pop()));
+        }
+    }
+
+    /**
+     * 左结合二元链：本规则内有 n 个运算符 Token，则栈顶有 n+1 个操作数。
+     */
+    private void exitBinary(ParserRuleContext ctx) {
+        int ops = ctx.getChildCount();
+        if (ops == 0) return;
+        int base = size - ops - 1;
+        Expression left = (Expression) values[base];
+        for (int i = 0; i < ops; i++) {
+            BinaryOp op = BINARY[token(ctx, i).getType()];
+            left = new BinaryExpr(AstBuilder.pos(ctx.getStart()), left, op, (Expression) values[base + i + 1]);
+        }
+        truncate(base);
+        push(left);
+    }
+
+    /**
+     * 实参列表：本规则内有 n 个逗号，则栈顶有 n+1 个实参，收拢为一个 Args 交给调用所在的 primary。
+     */
+    private void exitArgs(ParserRuleContext ctx) {
+        int base = size - ctx.getChildCount() - 1;
+        List<Expression> args = new ArrayList<>(size - base);
+        for (int i = base; i < size; i++) args.add((Expression) values[i]);
+        truncate(base);
+        push(new Args(args));
+    }
+
+    /**
+     * args 规则的结果：没有实参时 args 规则不出现，调用处栈顶不是 Args。
+     */
+    private static final class Args {
+        final List<Expression> list;
+
+        Args(List<Expression> list) {
+            this.list = list;
+        }
+    }
+
+    private void exitPrimary(ParserRuleContext ctx) {
+        Token t = token(ctx, 0);
+        if (t.getType() == LxgLexer.ID && ctx.getChildCount() > 1) {
+            List<Expression> args = size > 0 && values[size - 1] instanceof Args ? ((Args) pop()).list : new ArrayList<>();
+            int id = names.intern(t.getText());
+            push(new CallExpr(AstBuilder.pos(t), id, names.name(id), args));
+            return;
+        }
+        switch (t.getType()) {
+            case LxgLexer.INT:
+                push(new IntLiteral(AstBuilder.pos(t), Integer.parseInt(t.getText())));
+                break;
+            case LxgLexer.STRING:
+                String raw = t.getText();
+                push(new StringLiteral(AstBuilder.pos(t), AstBuilder.unescapeString(raw.substring(1, raw.length() - 1))));
+                break;
+            case LxgLexer.TRUE:
+                push(new BoolLiteral(AstBuilder.pos(t), true));
+                break;
+            case LxgLexer.FALSE:
+                push(new BoolLiteral(AstBuilder.pos(t), false));
+                break;
+            case LxgLexer.ID:
+                int id = names.intern(t.getText());
+                push(new VarRef(AstBuilder.pos(t), id, names.name(id)));
+                break;
+            default:
+                if (t.getType() != LPAREN) throw new IllegalStateException("Unknown primary: " + t.getText());
+                break; // '(' expr ')'：沿用 expr 的结果
+        }
+    }
+
+    private List<Statement> popStatements() {
+        int base = marks[--markCount];
+        List<Statement> statements = new ArrayList<>(size - base);
+        for (int i = base; i < size; i++) {
+            statements.add((Statement) values[i]);
+        }
+        truncate(base);
+        return statements;
+    }
+
+    private static Token token(ParserRuleContext ctx, int i) {
+        return ((TerminalNode) ctx.getChild(i)).getSymbol();
+    }
+
+    private void push(Object value) {
+        if (size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+
+    private Object pop() {
+        Object v = values[--size];
+        values[size] = null;
+        return v;
+    }
+
+    private void truncate(int newSize) {
+        Arrays.fill(values, newSize, size, null);
+        size = newSize;
+    }
+
+    @Override
+    public void visitTerminal(TerminalNode node) {
+    }
+
+    @Override
+    public void visitErrorNode(ErrorNode node) {
+    }
+
+    private static int literal(String text) {
+        Vocabulary vocab = LxgLexer.VOCABULARY;
+        String quoted = "'" + text + "'";
+        for (int type = 1; type <= vocab.getMaxTokenType(); type++) {
+            if (quoted.equals(vocab.getLiteralName(type))) return type;
+        }
+        throw new IllegalStateException("No token for literal: " + text);
+    }
+}
@@ -0,0 +1,318 @@
+package com.lxg.frontend;
+
+import com.lxg.antlr.LxgLexer;
+import com.lxg.antlr.LxgParser;
+import com.lxg.ast.node.Names;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.sema.Diagnostics;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.LexerATNSimulator;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.IntervalSet;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.io.Reader;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 可复用的解析会话：同一会话内反复编译多份源码时，复用 Lexer/Parser 实例与 ANTLR 的 DFA 预测缓存。
+ * <p>
+ * 学习要点：
+ * - 两阶段解析：先用 SLL + BailErrorStrategy 快速解析（绝大多数合法输入一次成功），
+ * 出错时再回退到完整 LL + 默认错误恢复，得到与单阶段 LL 一致的诊断信息
+ * - DFA 缓存：ANTLR 在预测过程中把 ATN 模拟结果缓存成 DFA，缓存越“热”解析越快；
+ * 生成代码默认把缓存放在静态字段中全局共享且只增不减，本类改为会话私有，并在超过上限时整体重置
+ * - 语法错误不再打印到控制台，而是收集到 Diagnostics，与语义错误统一输出
+ * - 词法器可切换：默认使用 ANTLR 生成的 LxgLexer，LexerMode.FAST 使用手写的 FastLexer（见 --lexer=fast）
+ * - 解析期构建 AST：parseAst 以 parse listener 在规则结束时直接生成 AST，不保留解析树（见 AstListener）
+ * - 流式解析：parseStatements 逐条解析顶层语句并立即交给回调，配合 Unbuffered 流使内存占用与文件大小无关
+ * <p>
+ * 使用建议：会话不是线程安全的，多线程场景请每个线程持有一个会话（见 Main 中的 ThreadLocal 用法）。
+ *
+ * @author xiangganluo
+ */
+public class CompilerSession {
+    /**
+     * 默认的 DFA 状态数上限（词法 + 语法合计），超过后在下一次解析前清空缓存。
+     */
+    public static final int DEFAULT_MAX_DFA_STATES = 50_000;
+
+    /**
+     * 词法器实现：ANTLR 生成的 LxgLexer，或手写的零分配 FastLexer。
+     */
+    public enum LexerMode {
+        ANTLR, FAST
+    }
+
+    private final LxgLexer lexer;
+    private final LxgParser parser;
+    private final SyntaxErrorCollector errors = new SyntaxErrorCollector();
+    private final int maxDfaStates;
+    private LexerMode lexerMode = LexerMode.ANTLR;
+    private int cacheResets;
+
+    public CompilerSession() {
+        this(DEFAULT_MAX_DFA_STATES);
+    }
+
+    public CompilerSession(int maxDfaStates) {
+        this.maxDfaStates = maxDfaStates;
+        this.lexer = new LxgLexer(null);
+        this.parser = new LxgParser(null);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errors);
+        resetCaches();
+        cacheResets = 0;
+    }
+
+    public LexerMode getLexerMode() {
+        return lexerMode;
+    }
+
+    public void setLexerMode(LexerMode lexerMode) {
+        this.lexerMode = lexerMode;
+    }
+
+    /**
+     * 解析源码得到解析树；词法/语法错误写入 diags（此时返回的树仅供调试，不应继续构建 AST）。
+     */
+    public LxgParser.ProgContext parse(String source, Diagnostics diags) {
+        if (lexerMode == LexerMode.FAST) {
+            return parse(new FastTokenStream(FastLexer.lex(source, diags)), diags);
+        }
+        return parse(CharStreams.fromString(source), diags);
+    }
+
+    public LxgParser.ProgContext parse(CharStream input, Diagnostics diags) {
+        lexer.setInputStream(input);
+        return parse(new CommonTokenStream(lexer), diags);
+    }
+
+    /**
+     * 在已有的 Token 流上执行两阶段解析；流需支持 seek(0) 回退（CommonTokenStream/FastTokenStream 均满足）。
+     */
+    public LxgParser.ProgContext parse(TokenStream tokens, Diagnostics diags) {
+        return twoStage(tokens, diags, parser::prog);
+    }
+
+    /**
+     * 解析并在解析过程中直接构建 AST（不保留解析树）；有语法错误时返回 null，错误写入 diags。
+     */
+    public CompilationUnit parseAst(String source, Diagnostics diags) {
+        if (lexerMode == LexerMode.FAST) {
+            return parseAst(new FastTokenStream(FastLexer.lex(source, diags)), diags);
+        }
+        lexer.setInputStream(CharStreams.fromString(source));
+        return parseAst(new CommonTokenStream(lexer), diags);
+    }
+
+    public CompilationUnit parseAst(TokenStream tokens, Diagnostics diags) {
+        AstListener ast = new AstListener(parser, new Names());
+        parser.setBuildParseTree(false);
+        parser.addParseListener(ast);
+        try {
+            return twoStage(tokens, diags, () -> {
+                ast.reset();
+                parser.prog();
+                return ast.unit();
+            });
+        } finally {
+            parser.removeParseListeners();
+            parser.setBuildParseTree(true);
+        }
+    }
+
+    private <T> T twoStage(TokenStream tokens, Diagnostics diags, Supplier<T> rule) {
+        if (dfaStateCount() > maxDfaStates) {
+            resetCaches();
+        }
+        errors.diags = diags;
+        try {
+            parser.setTokenStream(tokens);
+
+            // 第一阶段：SLL + 出错即放弃，无错误恢复开销
+            parser.removeErrorListeners();
+            parser.setErrorHandler(new BailErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+            try {
+                return rule.get();
+            } catch (ParseCancellationException e) {
+                // 第二阶段：完整 LL + 默认错误恢复，Token 已缓冲在流中，无需重新词法分析
+                tokens.seek(0);
+                parser.reset();
+                parser.addErrorListener(errors);
+                parser.setErrorHandler(new DefaultErrorStrategy());
+                parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                return rule.get();
+            }
+        } finally {
+            errors.diags = null;
+        }
+    }
+
+    /**
+     * 流式解析：逐条解析顶层 stmt 并交给 sink，返回解析的语句数；不构建 prog 节点，也不保留已处理的 Token。
+     * <p>
+     * 字符流改用 UnbufferedCharStream、词法器改用复制文本的 Token 工厂、Token 流改用 UnbufferedTokenStream，
+     * 字符与 Token 只在当前语句内被缓冲。
+     * 每条语句仍是两阶段：在语句起点 mark，SLL 失败后 seek 回起点，以 LL + 错误恢复重新解析这一条语句。
+     * 出现语法错误后仍继续解析后续语句（以便一次报告更多错误），调用方应据 diags 决定是否使用回调结果。
+     */
+    public int parseStatements(Reader input, Diagnostics diags, Consumer<LxgParser.StmtContext> sink) {
+        return parseStatements(input, 1, 0, diags, t -> true, sink);
+    }
+
+    /**
+     * 从源码中间某处开始流式解析：input 的第一个字符位于 line:column，
+     * 每条语句开始前以其首个 Token 询问 next，返回 false 时停止（增量编译据此在未改动的语句处重新同步）。
+     */
+    public int parseStatements(Reader input, int line, int column, Diagnostics diags,
+                               Predicate<Token> next, Consumer<LxgParser.StmtContext> sink) {
+        if (dfaStateCount() > maxDfaStates) {
+            resetCaches();
+        }
+        errors.diags = diags;
+        lexer.setInputStream(new StreamingCharStream(input));
+        lexer.setLine(line);
+        lexer.setCharPositionInLine(column);
+        lexer.setTokenFactory(new CommonTokenFactory(true)); // 字符缓冲随时释放，Token 必须自带文本
+        try {
+            UnbufferedTokenStream<Token> tokens = new UnbufferedTokenStream<>(lexer);
+            parser.setTokenStream(tokens);
+            StatementErrorStrategy recovery = new StatementErrorStrategy();
+            int count = 0;
+            while (tokens.LA(1) != Token.EOF && next.test(tokens.LT(1))) {
+                int marker = tokens.mark();
+                int start = tokens.index();
+                try {
+                    LxgParser.StmtContext stmt;
+                    parser.removeErrorListeners();
+                    parser.setErrorHandler(new BailErrorStrategy());
+                    parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+                    try {
+                        stmt = parser.stmt();
+                    } catch (ParseCancellationException e) {
+                        tokens.seek(start);
+                        parser.addErrorListener(errors);
+                        recovery.reset(parser);
+                        parser.setErrorHandler(recovery);
+                        parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+                        stmt = parser.stmt();
+                    }
+                    if (tokens.index() == start) {
+                        tokens.consume(); // 错误恢复未前进时强制跳过一个 Token，避免死循环
+                    }
+                    sink.accept(stmt);
+                    count++;
+                } finally {
+                    tokens.release(marker);
+                }
+            }
+            return count;
+        } finally {
+            lexer.setTokenFactory(CommonTokenFactory.DEFAULT);
+            errors.diags = null;
+        }
+    }
+
+    /**
+     * 当前会话 DFA 缓存中的状态总数，可用于监控长时间运行进程的缓存占用。
+     */
+    public int dfaStateCount() {
+        return countStates(lexer.getInterpreter().decisionToDFA) + countStates(parser.getInterpreter().decisionToDFA);
+    }
+
+    /**
+     * 缓存被重置的次数（不含构造时的初始化）。
+     */
+    public int cacheResets() {
+        return cacheResets;
+    }
+
+    /**
+     * 丢弃已有的 DFA 与预测上下文缓存，换上全新的会话私有缓存。
+     */
+    public void resetCaches() {
+        lexer.setInterpreter(new LexerATNSimulator(lexer, LxgLexer._ATN,
+                newDfa(LxgLexer._ATN), new PredictionContextCache()));
+        parser.setInterpreter(new ParserATNSimulator(parser, LxgParser._ATN,
+                newDfa(LxgParser._ATN), new PredictionContextCache()));
+        cacheResets++;
+    }
+
+    private static DFA[] newDfa(ATN atn) {
+        DFA[] dfa = new DFA[atn.getNumberOfDecisions()];
+        for (int i = 0; i < dfa.length; i++) {
+            dfa[i] = new DFA(atn.getDecisionState(i), i);
+        }
+        return dfa;
+    }
+
+    private static int countStates(DFA[] dfa) {
+        int n = 0;
+        for (DFA d : dfa) n += d.states.size();
+        return n;
+    }
+
+    /**
+     * 将词法/语法错误转为带位置的诊断信息，格式与语义错误保持一致（"... at line:col"）。
+     */
+    static void syntaxError(Diagnostics diags, String msg, int line, int column) {
+        if (diags != null) {
+            diags.error("Syntax error: " + msg + " at " + line + ":" + column);
+        }
+    }
+
+    /**
+     * 逐条解析时的错误恢复：单独调用 stmt() 没有外层 prog 的循环，默认的恢复集合为空，会一路跳到 EOF；
+     * 这里把 stmt 的 FIRST 集合与 EOF 加入恢复集合，使恢复在下一条语句的开头停下。
+     */
+    private static final class StatementErrorStrategy extends DefaultErrorStrategy {
+        private static final IntervalSet STMT_START = LxgParser._ATN.nextTokens(
+                LxgParser._ATN.ruleToStartState[LxgParser.RULE_stmt]);
+
+        @Override
+        protected IntervalSet getErrorRecoverySet(Parser recognizer) {
+            IntervalSet set = new IntervalSet(super.getErrorRecoverySet(recognizer));
+            set.addAll(STMT_START);
+            set.add(Token.EOF);
+            return set;
+        }
+    }
+
+    /**
+     * UnbufferedCharStream 把读到的 EOF（-1）也存进缓冲区；词法错误一直延伸到文件末尾时（如未闭合的字符串），
+     * Lexer 取错误文本的区间会包含这个 -1，直接 new String 会抛异常。这里把区间截断到最后一个真实字符。
+     */
+    private static final class StreamingCharStream extends UnbufferedCharStream {
+        StreamingCharStream(Reader input) {
+            super(input, 4096);
+        }
+
+        @Override
+        public String getText(Interval interval) {
+            int last = getBufferStartIndex() + n - 1;
+            if (n > 0 && data[n - 1] == IntStream.EOF && interval.b >= last) {
+                interval = Interval.of(interval.a, last - 1);
+            }
+            return super.getText(interval);
+        }
+    }
+
+    private static final class SyntaxErrorCollector extends BaseErrorListener {
+        Diagnostics diags;
+
+        @Override
+        public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                                int charPositionInLine, String msg, RecognitionException e) {
+            CompilerSession.syntaxError(diags, msg, line, charPositionInLine);
+        }
+    }
+}
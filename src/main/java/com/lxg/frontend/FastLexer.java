@@ -0,0 +1,250 @@
+package com.lxg.frontend;
+
+import com.lxg.antlr.LxgLexer;
+import com.lxg.sema.Diagnostics;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.Vocabulary;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 手写词法分析器：与 Lxg.g4 的 Token 集合逐一等价，把字符数组扫描为紧凑的 FastTokens。
+ * <p>
+ * 学习要点：
+ * - 与 ANTLR 生成的 LxgLexer 相比，这里不为每个 Token 创建 CommonToken 与文本 String，分配量只与 Token 数组扩容有关
+ * - 关键字与运算符不写死：类加载时从 LxgLexer.VOCABULARY 的字面量名称中读取，语法新增字面量后自动跟随
+ * - 规则与 ANTLR 保持一致：最长匹配；同长度时关键字优先于 ID；WS/COMMENT 直接跳过
+ * - 出错处理也与 ANTLR 一致：报告 "token recognition error"，并跳过出错字符，继续扫描
+ * <p>
+ * 注意：偏移与列号按 UTF-16 char 计算；ANTLR 按码点计算，两者只在出现补充平面字符（如 emoji）的行上有差异。
+ *
+ * @author xiangganluo
+ */
+public final class FastLexer {
+    private FastLexer() {
+    }
+
+    /**
+     * 关键字（形如标识符的字面量，如 print/let/true）及其 Token 类型。
+     */
+    private static final char[][] KEYWORDS;
+    private static final int[] KEYWORD_TYPES;
+    /**
+     * 运算符/分隔符：按首字符分桶，桶内按长度降序，保证最长匹配。
+     */
+    private static final char[][][] OPS = new char[128][][];
+    private static final int[][] OP_TYPES = new int[128][];
+
+    static {
+        Vocabulary vocab = LxgLexer.VOCABULARY;
+        List<String> keywords = new ArrayList<>();
+        List<Integer> keywordTypes = new ArrayList<>();
+        List<List<String>> ops = new ArrayList<>();
+        List<List<Integer>> opTypes = new ArrayList<>();
+        for (int i = 0; i < 128; i++) {
+            ops.add(new ArrayList<>());
+            opTypes.add(new ArrayList<>());
+        }
+        for (int type = 1; type <= vocab.getMaxTokenType(); type++) {
+            String literal = vocab.getLiteralName(type);
+            if (literal == null) continue;
+            String text = literal.substring(1, literal.length() - 1);
+            if (isIdStart(text.charAt(0))) {
+                keywords.add(text);
+                keywordTypes.add(type);
+            } else {
+                List<String> bucket = ops.get(text.charAt(0));
+                int at = 0;
+                while (at < bucket.size() && bucket.get(at).length() >= text.length()) at++;
+                bucket.add(at, text);
+                opTypes.get(text.charAt(0)).add(at, type);
+            }
+        }
+        KEYWORDS = new char[keywords.size()][];
+        KEYWORD_TYPES = new int[keywords.size()];
+        for (int i = 0; i < KEYWORDS.length; i++) {
+            KEYWORDS[i] = keywords.get(i).toCharArray();
+            KEYWORD_TYPES[i] = keywordTypes.get(i);
+        }
+        for (int c = 0; c < 128; c++) {
+            List<String> bucket = ops.get(c);
+            if (bucket.isEmpty()) continue;
+            OPS[c] = new char[bucket.size()][];
+            OP_TYPES[c] = new int[bucket.size()];
+            for (int i = 0; i < bucket.size(); i++) {
+                OPS[c][i] = bucket.get(i).toCharArray();
+                OP_TYPES[c][i] = opTypes.get(c).get(i);
+            }
+        }
+    }
+
+    public static FastTokens lex(String source, Diagnostics diags) {
+        char[] buf = source.toCharArray();
+        return lex(buf, buf.length, diags);
+    }
+
+    /**
+     * 扫描 buf[0, length) 并返回 Token 序列（末尾附带 EOF）；词法错误写入 diags。
+     */
+    public static FastTokens lex(char[] buf, int length, Diagnostics diags) {
+        FastTokens t = new FastTokens(buf, length / 3); // 经验值：平均每 3 个字符左右一个 Token
+        int p = 0;
+        int ln = 1;
+        while (p < length) {
+            char c = buf[p];
+            // WS: [ \t\r\n]+ -> skip（只有 \n 计为换行，与 ANTLR 一致）
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                if (c == '\n') {
+                    ln++;
+                    t.newLine(p + 1);
+                }
+                p++;
+                continue;
+            }
+            // COMMENT: '//' ~[\r\n]* -> skip
+            if (c == '/' && p + 1 < length && buf[p + 1] == '/') {
+                p += 2;
+                while (p < length && buf[p] != '\r' && buf[p] != '\n') p++;
+                continue;
+            }
+            int s = p;
+            if (isIdStart(c)) {
+                p++;
+                while (p < length && isIdPart(buf[p])) p++;
+                t.add(keywordOrId(buf, s, p), s, p, ln);
+                continue;
+            }
+            if (c >= '0' && c <= '9') {
+                p++;
+                while (p < length && buf[p] >= '0' && buf[p] <= '9') p++;
+                t.add(LxgLexer.INT, s, p, ln);
+                continue;
+            }
+            if (c == '"') {
+                int startLine = ln;
+                p++;
+                boolean closed = false;
+                while (p < length) {
+                    char d = buf[p];
+                    if (d == '"') {
+                        p++;
+                        closed = true;
+                        break;
+                    }
+                    if (d == '\\') {
+                        if (p + 1 >= length) {
+                            p = length;
+                            break;
+                        }
+                        d = buf[++p];
+                    }
+                    if (d == '\n') {
+                        ln++;
+                        t.newLine(p + 1);
+                    }
+                    p++;
+                }
+                if (closed) {
+                    t.add(LxgLexer.STRING, s, p, startLine);
+                } else {
+                    error(t, diags, s, length, startLine, length);
+                    p = length;
+                }
+                continue;
+            }
+            int matched = c < 128 ? matchOperator(buf, p, length, c) : -1;
+            if (matched >= 0) {
+                int len = OPS[c][matched].length;
+                t.add(OP_TYPES[c][matched], s, s + len, ln);
+                p += len;
+                continue;
+            }
+            // 无可行分支：ANTLR 在失败位置报告（文本含失败字符），随后再丢弃一个字符继续扫描
+            int fail = s + (c < 128 ? operatorPrefix(buf, p, length, c) : 0);
+            if (fail == s && Character.isHighSurrogate(c) && s + 1 < length && Character.isLowSurrogate(buf[s + 1])) {
+                fail = s + 1; // 码点视角下的同一个字符
+            }
+            error(t, diags, s, fail, ln, length);
+            if (fail < length) {
+                if (buf[fail] == '\n') {
+                    ln++;
+                    t.newLine(fail + 1);
+                }
+                p = fail + 1;
+            } else {
+                p = length;
+            }
+        }
+        t.add(Token.EOF, length, length, ln);
+        return t;
+    }
+
+    private static boolean isIdStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isIdPart(char c) {
+        return isIdStart(c) || (c >= '0' && c <= '9');
+    }
+
+    private static int keywordOrId(char[] buf, int s, int e) {
+        outer:
+        for (int k = 0; k < KEYWORDS.length; k++) {
+            char[] kw = KEYWORDS[k];
+            if (kw.length != e - s) continue;
+            for (int i = 0; i < kw.length; i++) {
+                if (buf[s + i] != kw[i]) continue outer;
+            }
+            return KEYWORD_TYPES[k];
+        }
+        return LxgLexer.ID;
+    }
+
+    /**
+     * 在首字符对应的桶中查找完整匹配的运算符，返回桶内下标（-1 表示没有）。
+     */
+    private static int matchOperator(char[] buf, int p, int length, char c) {
+        char[][] bucket = OPS[c];
+        if (bucket == null) return -1;
+        outer:
+        for (int i = 0; i < bucket.length; i++) {
+            char[] op = bucket[i];
+            if (p + op.length > length) continue;
+            for (int k = 1; k < op.length; k++) {
+                if (buf[p + k] != op[k]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 没有完整匹配时，ANTLR 已沿着某个运算符前缀消费的字符数（如单独的 '&' 对应 '&&' 的前缀 1）。
+     */
+    private static int operatorPrefix(char[] buf, int p, int length, char c) {
+        char[][] bucket = OPS[c];
+        if (bucket == null) return 0;
+        int best = 0;
+        for (char[] op : bucket) {
+            int k = 0;
+            while (k < op.length && p + k < length && buf[p + k] == op[k]) k++;
+            best = Math.max(best, k);
+        }
+        return best;
+    }
+
+    private static void error(FastTokens t, Diagnostics diags, int s, int fail, int line, int length) {
+        int stop = Math.min(fail, length - 1);
+        StringBuilder text = new StringBuilder();
+        for (int i = s; i <= stop; i++) {
+            char ch = t.buf[i];
+            if (ch == '\n') text.append("\\n");
+            else if (ch == '\r') text.append("\\r");
+            else if (ch == '\t') text.append("\\t");
+            else text.append(ch);
+        }
+        int column = s - t.lineStarts[line - 1];
+        CompilerSession.syntaxError(diags, "token recognition error at: '" + text + "'", line, column);
+    }
+}
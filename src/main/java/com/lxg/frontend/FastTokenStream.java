@@ -0,0 +1,230 @@
+package com.lxg.frontend;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * 把 FastTokens 适配为 ANTLR 的 TokenStream，使生成的 LxgParser 可以直接消费手写词法器的输出。
+ * <p>
+ * 学习要点：
+ * - 预测阶段 Parser 大量调用 LA(i)，这里直接读 kind 数组，不创建任何 Token 对象
+ * - 只有 LT(i)/get(i) 才按需创建轻量 Token（文本延迟切片），并放进一个小的环形缓存，避免对同一位置反复创建
+ *
+ * @author xiangganluo
+ */
+public final class FastTokenStream implements TokenStream {
+    private static final int RING = 64;
+
+    private final FastTokens tokens;
+    private final Source source = new Source();
+    private final Token[] ring = new Token[RING];
+    private int p;
+
+    public FastTokenStream(FastTokens tokens) {
+        this.tokens = tokens;
+    }
+
+    @Override
+    public Token LT(int k) {
+        if (k == 0) return null;
+        int i = k < 0 ? p + k : p + k - 1;
+        if (i < 0) return null;
+        return get(Math.min(i, tokens.count - 1));
+    }
+
+    @Override
+    public Token get(int i) {
+        Token t = ring[i & (RING - 1)];
+        if (t == null || t.getTokenIndex() != i) {
+            t = new LazyToken(i);
+            ring[i & (RING - 1)] = t;
+        }
+        return t;
+    }
+
+    @Override
+    public int LA(int k) {
+        if (k == 0) return 0;
+        int i = k < 0 ? p + k : p + k - 1;
+        if (i < 0) return 0;
+        return tokens.kind[Math.min(i, tokens.count - 1)];
+    }
+
+    @Override
+    public void consume() {
+        if (LA(1) == Token.EOF) throw new IllegalStateException("cannot consume EOF");
+        p++;
+    }
+
+    @Override
+    public int mark() {
+        return 0;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return p;
+    }
+
+    @Override
+    public void seek(int index) {
+        p = Math.min(index, tokens.count - 1);
+    }
+
+    @Override
+    public int size() {
+        return tokens.count;
+    }
+
+    @Override
+    public String getSourceName() {
+        return IntStream.UNKNOWN_SOURCE_NAME;
+    }
+
+    @Override
+    public TokenSource getTokenSource() {
+        return source;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int a = Math.max(0, interval.a);
+        int b = Math.min(interval.b, tokens.count - 1);
+        StringBuilder sb = new StringBuilder();
+        for (int i = a; i <= b; i++) {
+            if (tokens.kind[i] == Token.EOF) break;
+            sb.append(tokens.buf, tokens.start[i], tokens.end[i] - tokens.start[i]);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String getText() {
+        return getText(Interval.of(0, tokens.count - 1));
+    }
+
+    @Override
+    public String getText(RuleContext ctx) {
+        return getText(ctx.getSourceInterval());
+    }
+
+    @Override
+    public String getText(Token start, Token stop) {
+        if (start == null || stop == null) return "";
+        return getText(Interval.of(start.getTokenIndex(), stop.getTokenIndex()));
+    }
+
+    /**
+     * 轻量 Token：只记录下标，其余信息都从 FastTokens 的数组中读取。
+     */
+    private final class LazyToken implements Token {
+        private final int index;
+
+        LazyToken(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getText() {
+            return tokens.kind[index] == Token.EOF ? "<EOF>" : tokens.text(index);
+        }
+
+        @Override
+        public int getType() {
+            return tokens.kind[index];
+        }
+
+        @Override
+        public int getLine() {
+            return tokens.line[index];
+        }
+
+        @Override
+        public int getCharPositionInLine() {
+            return tokens.column(index);
+        }
+
+        @Override
+        public int getChannel() {
+            return DEFAULT_CHANNEL;
+        }
+
+        @Override
+        public int getTokenIndex() {
+            return index;
+        }
+
+        @Override
+        public int getStartIndex() {
+            return tokens.start[index];
+        }
+
+        @Override
+        public int getStopIndex() {
+            return tokens.end[index] - 1;
+        }
+
+        @Override
+        public TokenSource getTokenSource() {
+            return source;
+        }
+
+        @Override
+        public CharStream getInputStream() {
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return "[@" + index + "," + getStartIndex() + ":" + getStopIndex() + "='" + getText() + "',<" + getType() + ">,"
+                    + getLine() + ":" + getCharPositionInLine() + "]";
+        }
+    }
+
+    /**
+     * 供 ANTLR 错误恢复（如补全缺失 Token）使用的 TokenSource 视图。
+     */
+    private final class Source implements TokenSource {
+        private int next;
+        private TokenFactory<?> factory = CommonTokenFactory.DEFAULT;
+
+        @Override
+        public Token nextToken() {
+            return get(Math.min(next++, tokens.count - 1));
+        }
+
+        @Override
+        public int getLine() {
+            return tokens.line[Math.min(next, tokens.count - 1)];
+        }
+
+        @Override
+        public int getCharPositionInLine() {
+            return tokens.column(Math.min(next, tokens.count - 1));
+        }
+
+        @Override
+        public CharStream getInputStream() {
+            return null;
+        }
+
+        @Override
+        public String getSourceName() {
+            return IntStream.UNKNOWN_SOURCE_NAME;
+        }
+
+        @Override
+        public void setTokenFactory(TokenFactory<?> factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public TokenFactory<?> getTokenFactory() {
+            return factory;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.lxg.frontend;
+
+import java.util.Arrays;
+
+/**
+ * 紧凑 Token 序列：FastLexer 的输出，用并行的 int 数组保存每个 Token 的种类、起止偏移与行号。
+ * <p>
+ * 学习要点：
+ * - “结构数组”（SoA）代替“对象数组”：每个 Token 只占 4 个 int（16 字节），没有对象头与文本副本
+ * - 文本按需切片：text(i) 才从源字符数组创建 String；整数字面量可用 intValue(i) 直接解析，不产生 String
+ * - 列号不逐 Token 保存，而是记录每行起始偏移（lineStarts），列 = start - 行首偏移
+ * <p>
+ * 约定：kind 与 LxgLexer 的 Token 类型编号一致（EOF 为 -1）；end 为开区间；偏移按 UTF-16 char 计。
+ *
+ * @author xiangganluo
+ */
+public final class FastTokens {
+    final char[] buf;
+    int count;
+    int[] kind;
+    int[] start;
+    int[] end;
+    int[] line;
+    int[] lineStarts;
+    int lineCount;
+
+    FastTokens(char[] buf, int capacity) {
+        this.buf = buf;
+        int cap = Math.max(16, capacity);
+        this.kind = new int[cap];
+        this.start = new int[cap];
+        this.end = new int[cap];
+        this.line = new int[cap];
+        this.lineStarts = new int[Math.max(16, capacity / 8)];
+        this.lineCount = 1; // 第 1 行从偏移 0 开始
+    }
+
+    void add(int k, int s, int e, int ln) {
+        if (count == kind.length) {
+            int cap = count + (count >> 1);
+            kind = Arrays.copyOf(kind, cap);
+            start = Arrays.copyOf(start, cap);
+            end = Arrays.copyOf(end, cap);
+            line = Arrays.copyOf(line, cap);
+        }
+        kind[count] = k;
+        start[count] = s;
+        end[count] = e;
+        line[count] = ln;
+        count++;
+    }
+
+    void newLine(int offset) {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+        }
+        lineStarts[lineCount++] = offset;
+    }
+
+    /**
+     * Token 总数（含末尾的 EOF）。
+     */
+    public int size() {
+        return count;
+    }
+
+    public int kind(int i) {
+        return kind[i];
+    }
+
+    public int start(int i) {
+        return start[i];
+    }
+
+    public int end(int i) {
+        return end[i];
+    }
+
+    public int line(int i) {
+        return line[i];
+    }
+
+    public int column(int i) {
+        return start[i] - lineStarts[line[i] - 1];
+    }
+
+    /**
+     * 按需切片 Token 文本（每次调用都会创建新的 String）。
+     */
+    public String text(int i) {
+        return new String(buf, start[i], end[i] - start[i]);
+    }
+
+    /**
+     * 直接从字符数组解析十进制整数，语义与 Integer.parseInt 一致（越界时抛 NumberFormatException）。
+     */
+    public int intValue(int i) {
+        long v = 0;
+        for (int p = start[i]; p < end[i]; p++) {
+            v = v * 10 + (buf[p] - '0');
+            if (v > Integer.MAX_VALUE) throw new NumberFormatException("For input string: \"" + text(i) + "\"");
+        }
+        return (int) v;
+    }
+
+    /**
+     * 比较 Token 文本与给定字符串是否相同，不创建 String。
+     */
+    public boolean textEquals(int i, String s) {
+        int len = end[i] - start[i];
+        if (len != s.length()) return false;
+        for (int k = 0; k < len; k++) {
+            if (buf[start[i] + k] != s.charAt(k)) return false;
+        }
+        return true;
+    }
+}
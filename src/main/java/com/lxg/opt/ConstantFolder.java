@@ -0,0 +1,278 @@
+package com.lxg.opt;
+
+import com.lxg.ast.expr.*;
+import com.lxg.ast.node.Expression;
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.node.ValueType;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.stmt.*;
+import com.lxg.sema.Local;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 常量折叠与常量传播：在 TypeChecker 之后、ClassGenerator 之前改写已检查的 AST。
+ * <p>
+ * 学习要点：
+ * - 折叠：两侧都是字面量的算术/比较、作用于字面量的一元运算，在编译期求值为字面量；
+ * 运算直接使用 Java int 运算，溢出回绕与 IADD/IMUL/IDIV 完全一致
+ * - 除数为 0 的除法不折叠，保留到运行时抛出 ArithmeticException
+ * - 恒等式：x + 0、x - 0、x * 1、x / 1 化简为 x（x 仍然求值，不改变副作用与异常）；
+ * x * 0 之类会丢弃操作数求值的化简不做；字符串拼接不适用（"s" + 0 是 "s0"）
+ * - 字符串拼接：两侧都是字面量且至少一侧为字符串时，折叠为一个字符串字面量
+ * - 短路运算：左侧为字面量时按短路语义化简（false &amp;&amp; x 为 false，x 本来就不会求值）；
+ * 右侧为字面量时 x &amp;&amp; true、x || false 化简为 x，x &amp;&amp; false、x || true 只在 x 无副作用时化简
+ * - 传播：从未被赋值的 let，若初始值折叠为字面量，其后的引用直接替换为该字面量；
+ * 变量以 Local 的身份区分，块作用域内的同名变量互不影响；循环中被赋值的变量同样不传播（赋值先于折叠全部收集）
+ * - 函数体与调用的实参照常折叠；调用本身不在编译期求值（函数可能有输出），参数也不传播（每次调用的实参不同）
+ * <p>
+ * 设计取舍：
+ * - AST 节点不可变，改写时只重建发生变化的路径，未变化的子树原样复用；新节点沿用原节点的位置、类型与 Local
+ * - 被传播的 let 本身仍然保留，不再被读取时由随后的 DeadCodeEliminator 删除
+ * - 槽位在检查阶段已经分配，这里不重新分配
+ *
+ * @author xiangganluo
+ */
+public final class ConstantFolder {
+    private final Map<Local, Expression> constants = new IdentityHashMap<>();
+    private final Map<Local, Boolean> assigned = new IdentityHashMap<>();
+
+    /**
+     * 返回优化后的编译单元（输入须已通过 TypeChecker 检查）；没有可改写之处时语句原样复用。
+     */
+    public CompilationUnit fold(CompilationUnit unit) {
+        for (Statement s : unit.statements) collectAssigned(s);
+        List<Statement> out = new ArrayList<>(unit.statements.size());
+        for (Statement s : unit.statements) out.add(fold(s));
+        return unit.withStatements(out);
+    }
+
+    private void collectAssigned(Statement s) {
+        if (s instanceof AssignStmt) {
+            assigned.put(((AssignStmt) s).local, Boolean.TRUE);
+        } else if (s instanceof BlockStmt) {
+            for (Statement c : ((BlockStmt) s).statements) collectAssigned(c);
+        } else if (s instanceof IfStmt) {
+            IfStmt is = (IfStmt) s;
+            collectAssigned(is.thenBlock);
+            if (is.elseBlock != null) collectAssigned(is.elseBlock);
+        } else if (s instanceof WhileStmt) {
+            collectAssigned(((WhileStmt) s).body);
+        } else if (s instanceof FnDecl) {
+            collectAssigned(((FnDecl) s).body);
+        }
+    }
+
+    private Statement fold(Statement s) {
+        if (s instanceof LetStmt) {
+            LetStmt ls = (LetStmt) s;
+            Expression value = fold(ls.value);
+            if (isLiteral(value) && !assigned.containsKey(ls.local)) constants.put(ls.local, value);
+            if (value == ls.value) return ls;
+            LetStmt copy = new LetStmt(ls.pos, ls.id, ls.name, value);
+            copy.local = ls.local;
+            return copy;
+        }
+        if (s instanceof AssignStmt) {
+            AssignStmt as = (AssignStmt) s;
+            Expression value = fold(as.value);
+            if (value == as.value) return as;
+            AssignStmt copy = new AssignStmt(as.pos, as.id, as.name, value);
+            copy.local = as.local;
+            return copy;
+        }
+        if (s instanceof PrintStmt) {
+            PrintStmt ps = (PrintStmt) s;
+            Expression e = fold(ps.expression);
+            return e == ps.expression ? ps : new PrintStmt(ps.pos, e);
+        }
+        if (s instanceof BlockStmt) {
+            return foldBlock((BlockStmt) s);
+        }
+        if (s instanceof IfStmt) {
+            IfStmt is = (IfStmt) s;
+            Expression cond = fold(is.condition);
+            BlockStmt thenB = foldBlock(is.thenBlock);
+            BlockStmt elseB = is.elseBlock == null ? null : foldBlock(is.elseBlock);
+            if (cond == is.condition && thenB == is.thenBlock && elseB == is.elseBlock) return is;
+            return new IfStmt(is.pos, cond, thenB, elseB);
+        }
+        if (s instanceof WhileStmt) {
+            WhileStmt ws = (WhileStmt) s;
+            Expression cond = fold(ws.condition);
+            BlockStmt body = foldBlock(ws.body);
+            if (cond == ws.condition && body == ws.body) return ws;
+            return new WhileStmt(ws.pos, cond, body);
+        }
+        if (s instanceof FnDecl) {
+            FnDecl fd = (FnDecl) s;
+            BlockStmt body = foldBlock(fd.body);
+            if (body == fd.body) return fd;
+            FnDecl copy = new FnDecl(fd.pos, fd.id, fd.name, fd.params, fd.returnType, body);
+            copy.symbol = fd.symbol;
+            return copy;
+        }
+        if (s instanceof ReturnStmt) {
+            ReturnStmt rs = (ReturnStmt) s;
+            Expression value = fold(rs.value);
+            return value == rs.value ? rs : new ReturnStmt(rs.pos, value);
+        }
+        return s;
+    }
+
+    private BlockStmt foldBlock(BlockStmt b) {
+        List<Statement> out = new ArrayList<>(b.statements.size());
+        boolean changed = false;
+        for (Statement c : b.statements) {
+            Statement f = fold(c);
+            changed |= f != c;
+            out.add(f);
+        }
+        return changed ? new BlockStmt(b.pos, out) : b;
+    }
+
+    private Expression fold(Expression e) {
+        if (e instanceof VarRef) {
+            VarRef v = (VarRef) e;
+            Expression c = constants.get(v.local);
+            return c == null ? v : relocate(c, v.pos);
+        }
+        if (e instanceof UnaryExpr) {
+            UnaryExpr ue = (UnaryExpr) e;
+            Expression operand = fold(ue.expr);
+            Expression folded = foldUnary(ue.op, operand, ue.pos);
+            if (folded != null) return folded;
+            if (operand == ue.expr) return ue;
+            UnaryExpr copy = new UnaryExpr(ue.pos, ue.op, operand);
+            copy.type = ue.type;
+            return copy;
+        }
+        if (e instanceof BinaryExpr) {
+            BinaryExpr be = (BinaryExpr) e;
+            Expression left = fold(be.left);
+            Expression right = fold(be.right);
+            Expression folded = foldBinary(be.op, left, right, be.pos);
+            if (folded != null) return folded;
+            if (left == be.left && right == be.right) return be;
+            BinaryExpr copy = new BinaryExpr(be.pos, left, be.op, right);
+            copy.type = be.type;
+            return copy;
+        }
+        if (e instanceof CallExpr) {
+            CallExpr call = (CallExpr) e;
+            List<Expression> args = new ArrayList<>(call.args.size());
+            boolean changed = false;
+            for (Expression a : call.args) {
+                Expression f = fold(a);
+                changed |= f != a;
+                args.add(f);
+            }
+            if (!changed) return call;
+            CallExpr copy = new CallExpr(call.pos, call.id, call.name, args);
+            copy.function = call.function;
+            return copy;
+        }
+        return e;
+    }
+
+    /**
+     * 操作数为字面量时求值；不能折叠时返回 null。
+     */
+    private static Expression foldUnary(UnaryOp op, Expression operand, long pos) {
+        switch (op) {
+            case PLUS:
+                return operand instanceof IntLiteral ? relocate(operand, pos) : null;
+            case MINUS:
+                return operand instanceof IntLiteral ? new IntLiteral(pos, -((IntLiteral) operand).value) : null;
+            case NOT:
+                return operand instanceof BoolLiteral ? new BoolLiteral(pos, !((BoolLiteral) operand).value) : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 两侧均为整数字面量时求值（除数为 0 除外）；一侧为单位元时化简为另一侧；否则返回 null。
+     */
+    private static Expression foldBinary(BinaryOp op, Expression left, Expression right, long pos) {
+        if (op == BinaryOp.AND || op == BinaryOp.OR) return foldLogical(op == BinaryOp.AND, left, right, pos);
+        if (left.getType() == ValueType.STRING || right.getType() == ValueType.STRING) {
+            if (isLiteral(left) && isLiteral(right)) return new StringLiteral(pos, text(left) + text(right));
+            return null;
+        }
+        if (left instanceof IntLiteral && right instanceof IntLiteral) {
+            int l = ((IntLiteral) left).value;
+            int r = ((IntLiteral) right).value;
+            switch (op) {
+                case ADD:
+                    return new IntLiteral(pos, l + r);
+                case SUB:
+                    return new IntLiteral(pos, l - r);
+                case MUL:
+                    return new IntLiteral(pos, l * r);
+                case DIV:
+                    return r == 0 ? null : new IntLiteral(pos, l / r);
+                case EQ:
+                    return new BoolLiteral(pos, l == r);
+                case NE:
+                    return new BoolLiteral(pos, l != r);
+                case LT:
+                    return new BoolLiteral(pos, l < r);
+                case GT:
+                    return new BoolLiteral(pos, l > r);
+                case LE:
+                    return new BoolLiteral(pos, l <= r);
+                case GE:
+                    return new BoolLiteral(pos, l >= r);
+                default:
+                    return null;
+            }
+        }
+        if (isInt(right, 0) && (op == BinaryOp.ADD || op == BinaryOp.SUB)) return left;
+        if (isInt(left, 0) && op == BinaryOp.ADD) return right;
+        if (isInt(right, 1) && (op == BinaryOp.MUL || op == BinaryOp.DIV)) return left;
+        if (isInt(left, 1) && op == BinaryOp.MUL) return right;
+        return null;
+    }
+
+    /**
+     * &amp;&amp;（and 为 true）与 ||：decisive 为能决定结果的值（&amp;&amp; 为 false，|| 为 true）。
+     */
+    private static Expression foldLogical(boolean and, Expression left, Expression right, long pos) {
+        boolean decisive = !and;
+        if (left instanceof BoolLiteral) {
+            return ((BoolLiteral) left).value == decisive ? new BoolLiteral(pos, decisive) : right;
+        }
+        if (right instanceof BoolLiteral) {
+            if (((BoolLiteral) right).value != decisive) return left;
+            if (DeadCodeEliminator.isPure(left)) return new BoolLiteral(pos, decisive);
+        }
+        return null;
+    }
+
+    private static boolean isInt(Expression e, int value) {
+        return e instanceof IntLiteral && ((IntLiteral) e).value == value;
+    }
+
+    private static String text(Expression literal) {
+        if (literal instanceof IntLiteral) return String.valueOf(((IntLiteral) literal).value);
+        if (literal instanceof BoolLiteral) return String.valueOf(((BoolLiteral) literal).value);
+        return ((StringLiteral) literal).value;
+    }
+
+    static boolean isLiteral(Expression e) {
+        return e instanceof IntLiteral || e instanceof BoolLiteral || e instanceof StringLiteral;
+    }
+
+    /**
+     * 复制字面量到新的位置（替换变量引用时，诊断与 dump 显示引用处的位置）。
+     */
+    private static Expression relocate(Expression literal, long pos) {
+        if (literal instanceof IntLiteral) return new IntLiteral(pos, ((IntLiteral) literal).value);
+        if (literal instanceof BoolLiteral) return new BoolLiteral(pos, ((BoolLiteral) literal).value);
+        return new StringLiteral(pos, ((StringLiteral) literal).value);
+    }
+}
@@ -0,0 +1,188 @@
+package com.lxg.opt;
+
+import com.lxg.ast.expr.*;
+import com.lxg.ast.node.Expression;
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.stmt.*;
+import com.lxg.sema.Local;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 死分支与死存储消除：在常量折叠之后运行，删除不可达的分支与从未被读取的变量存储。
+ * <p>
+ * 学习要点：
+ * - 条件为字面量的 if 只保留会执行的那个块；两个分支都为空且条件无副作用的 if 整个删除
+ * - 条件为字面量 false 的 while 整个删除；其余循环保留（循环体照常消除），即使循环体为空——删除它可能把死循环变成会结束的程序
+ * - 语句块在代码生成时只是顺序执行（变量已解析为 Local，作用域不再影响发射），因此嵌套块与保留下来的分支直接展开到外层
+ * - 从未被读取的变量（除了在给它自己赋值的右侧，没有任何 VarRef 指向其 Local），若它的所有 let/赋值右侧都无副作用，
+ * 这些存储全部删除；删除后其他变量可能也不再被读取，因此迭代到不动点
+ * - “无副作用”：字面量、变量、一元运算、除数为非零字面量的除法以外的二元运算；
+ * 除数不是非零字面量的除法可能抛出 ArithmeticException，保留；函数调用一律视为有副作用（函数体可以 print）
+ * - 函数体按同样的规则消除（其中的 Local 与 main 的互不相同）；块中 return 之后的语句不可达，直接删除
+ * <p>
+ * 设计取舍：
+ * - 展开后的 AST 不再满足块作用域规则（可能出现同名 let），只能交给代码生成，不能再次送入 TypeChecker
+ * - 右侧有副作用的死存储保留原样（语言没有表达式语句，无法只求值不存储）；这时该变量的其他存储也保留，
+ * 保证保留下来的 x = x / z 读取 x 时它一定已被赋值
+ *
+ * @author xiangganluo
+ */
+public final class DeadCodeEliminator {
+    private final Map<Local, Boolean> loaded = new IdentityHashMap<>();
+    private final Map<Local, Boolean> impureStore = new IdentityHashMap<>();
+    private boolean changed;
+
+    /**
+     * 返回消除后的编译单元（输入须已通过 TypeChecker 检查，通常已经过 ConstantFolder）。
+     */
+    public CompilationUnit eliminate(CompilationUnit unit) {
+        List<Statement> statements = unit.statements;
+        do {
+            changed = false;
+            loaded.clear();
+            impureStore.clear();
+            for (Statement s : statements) collectLoads(s);
+            List<Statement> out = new ArrayList<>(statements.size());
+            for (Statement s : statements) eliminate(s, out);
+            statements = out;
+        } while (changed);
+        return unit.withStatements(statements);
+    }
+
+    private void collectLoads(Statement s) {
+        if (s instanceof LetStmt) {
+            collectStore(((LetStmt) s).local, ((LetStmt) s).value);
+        } else if (s instanceof AssignStmt) {
+            collectStore(((AssignStmt) s).local, ((AssignStmt) s).value);
+        } else if (s instanceof PrintStmt) {
+            collectLoads(((PrintStmt) s).expression, null);
+        } else if (s instanceof BlockStmt) {
+            for (Statement c : ((BlockStmt) s).statements) collectLoads(c);
+        } else if (s instanceof IfStmt) {
+            IfStmt is = (IfStmt) s;
+            collectLoads(is.condition, null);
+            collectLoads(is.thenBlock);
+            if (is.elseBlock != null) collectLoads(is.elseBlock);
+        } else if (s instanceof WhileStmt) {
+            collectLoads(((WhileStmt) s).condition, null);
+            collectLoads(((WhileStmt) s).body);
+        } else if (s instanceof FnDecl) {
+            collectLoads(((FnDecl) s).body);
+        } else if (s instanceof ReturnStmt) {
+            collectLoads(((ReturnStmt) s).value, null);
+        }
+    }
+
+    private void collectStore(Local target, Expression value) {
+        if (!isPure(value)) impureStore.put(target, Boolean.TRUE);
+        collectLoads(value, target);
+    }
+
+    /**
+     * 记录 e 中读取的变量；self 为正在被赋值的变量，x = x + 1 这类自身读取不算“被读取”。
+     */
+    private void collectLoads(Expression e, Local self) {
+        if (e instanceof VarRef) {
+            if (((VarRef) e).local != self) loaded.put(((VarRef) e).local, Boolean.TRUE);
+        } else if (e instanceof UnaryExpr) {
+            collectLoads(((UnaryExpr) e).expr, self);
+        } else if (e instanceof BinaryExpr) {
+            collectLoads(((BinaryExpr) e).left, self);
+            collectLoads(((BinaryExpr) e).right, self);
+        } else if (e instanceof CallExpr) {
+            for (Expression a : ((CallExpr) e).args) collectLoads(a, self);
+        }
+    }
+
+    /**
+     * 将 s 消除后的结果追加到 out：删除时不追加，块展开时追加其中的各条语句。
+     */
+    private void eliminate(Statement s, List<Statement> out) {
+        if (s instanceof LetStmt || s instanceof AssignStmt) {
+            Local local = s instanceof LetStmt ? ((LetStmt) s).local : ((AssignStmt) s).local;
+            if (!loaded.containsKey(local) && !impureStore.containsKey(local)) {
+                changed = true;
+                return;
+            }
+            out.add(s);
+        } else if (s instanceof BlockStmt) {
+            changed = true;
+            for (Statement c : ((BlockStmt) s).statements) eliminate(c, out);
+        } else if (s instanceof IfStmt) {
+            IfStmt is = (IfStmt) s;
+            if (is.condition instanceof BoolLiteral) {
+                changed = true;
+                BlockStmt taken = ((BoolLiteral) is.condition).value ? is.thenBlock : is.elseBlock;
+                if (taken != null) eliminate(taken, out);
+                return;
+            }
+            BlockStmt thenB = eliminateBlock(is.thenBlock);
+            BlockStmt elseB = is.elseBlock == null ? null : eliminateBlock(is.elseBlock);
+            if (elseB != null && elseB.statements.isEmpty()) {
+                elseB = null;
+                changed = true;
+            }
+            if (thenB.statements.isEmpty() && elseB == null && isPure(is.condition)) {
+                changed = true;
+                return;
+            }
+            out.add(thenB == is.thenBlock && elseB == is.elseBlock ? is : new IfStmt(is.pos, is.condition, thenB, elseB));
+        } else if (s instanceof WhileStmt) {
+            WhileStmt ws = (WhileStmt) s;
+            if (ws.condition instanceof BoolLiteral && !((BoolLiteral) ws.condition).value) {
+                changed = true;
+                return;
+            }
+            BlockStmt body = eliminateBlock(ws.body);
+            out.add(body == ws.body ? ws : new WhileStmt(ws.pos, ws.condition, body));
+        } else if (s instanceof FnDecl) {
+            FnDecl fd = (FnDecl) s;
+            BlockStmt body = eliminateBlock(fd.body);
+            if (body == fd.body) {
+                out.add(fd);
+                return;
+            }
+            FnDecl copy = new FnDecl(fd.pos, fd.id, fd.name, fd.params, fd.returnType, body);
+            copy.symbol = fd.symbol;
+            out.add(copy);
+        } else {
+            out.add(s);
+        }
+    }
+
+    private BlockStmt eliminateBlock(BlockStmt b) {
+        List<Statement> out = new ArrayList<>(b.statements.size());
+        for (int i = 0; i < b.statements.size(); i++) {
+            eliminate(b.statements.get(i), out);
+            if (i + 1 < b.statements.size() && !out.isEmpty() && out.get(out.size() - 1) instanceof ReturnStmt) {
+                changed = true; // 之后的语句不可达（常量条件的分支展开后才出现）
+                break;
+            }
+        }
+        if (out.size() == b.statements.size()) {
+            boolean same = true;
+            for (int i = 0; i < out.size() && same; i++) same = out.get(i) == b.statements.get(i);
+            if (same) return b;
+        }
+        return new BlockStmt(b.pos, out);
+    }
+
+    /**
+     * 表达式求值是否没有可观察的副作用（不会抛出异常）。
+     */
+    static boolean isPure(Expression e) {
+        if (e instanceof CallExpr) return false;
+        if (e instanceof UnaryExpr) return isPure(((UnaryExpr) e).expr);
+        if (e instanceof BinaryExpr) {
+            BinaryExpr be = (BinaryExpr) e;
+            if (be.op == BinaryOp.DIV && !(be.right instanceof IntLiteral && ((IntLiteral) be.right).value != 0)) return false;
+            return isPure(be.left) && isPure(be.right);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,372 @@
+package com.lxg.opt;
+
+import com.lxg.ast.expr.*;
+import com.lxg.ast.node.Expression;
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.stmt.*;
+import com.lxg.sema.FunctionSymbol;
+import com.lxg.sema.Local;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 函数内联：把小的叶子函数的调用替换为函数体的表达式，在常量折叠之前运行（内联后的实参常常可以继续折叠）。
+ * <p>
+ * 学习要点：
+ * - 候选函数：函数体只有若干 let 加最后一条 return、不调用任何函数（叶子）、let 的右侧都无副作用，
+ * 把 let 依次代入 return 的值后得到一棵只引用参数的表达式（模板），其节点数不超过阈值
+ * - 调用点：实参依次代入模板中的参数；实参无副作用且为字面量/变量，或对应参数在模板中至多出现一次时才内联，
+ * 否则保留调用（重复求值复杂的实参会增加工作量，有副作用的实参会改变求值次数与顺序）
+ * - 模板的值与调用的值相同：函数体不能修改参数以外的变量，let 无副作用，代入只是改变了求值位置；
+ * return 的值本身可以有副作用（如除法），它在两种形式中都恰好求值一次
+ * - 内联后调用方可能成为新的叶子函数，因此迭代到不动点；之后不再被调用的函数整个删除
+ * <p>
+ * 设计取舍：
+ * - 只在 AST 上做表达式级的内联：不引入临时变量、不需要为调用方分配新的槽位；含 print、if、while 的函数保持为方法调用
+ * - 阈值按模板的节点数计（默认 DEFAULT_LIMIT），0 表示不内联；HotSpot 本身也会内联小方法，
+ * 这里的收益主要是解释执行阶段与后续的常量折叠
+ * - 递归函数调用自身，不是叶子，不会被内联
+ *
+ * @author xiangganluo
+ */
+public final class Inliner {
+    /**
+     * 默认阈值：模板的节点数（字面量、变量、运算各计 1）。
+     */
+    public static final int DEFAULT_LIMIT = 24;
+
+    private final int limit;
+    private final Map<FunctionSymbol, Template> templates = new IdentityHashMap<>();
+    private int inlined;
+    private int removed;
+
+    public Inliner() {
+        this(DEFAULT_LIMIT);
+    }
+
+    /**
+     * @param limit 可内联函数模板的最大节点数；0 表示不内联
+     */
+    public Inliner(int limit) {
+        if (limit < 0) throw new IllegalArgumentException("Negative inline limit: " + limit);
+        this.limit = limit;
+    }
+
+    /**
+     * 被替换的调用点个数。
+     */
+    public int inlined() {
+        return inlined;
+    }
+
+    /**
+     * 内联后不再被调用而删除的函数个数。
+     */
+    public int removed() {
+        return removed;
+    }
+
+    /**
+     * 返回内联后的编译单元（输入须已通过 TypeChecker 检查）；没有可内联的调用时原样返回。
+     */
+    public CompilationUnit inline(CompilationUnit unit) {
+        if (limit == 0) return unit;
+        List<Statement> statements = unit.statements;
+        boolean changed = true;
+        while (changed) {
+            templates.clear();
+            for (Statement s : statements) {
+                if (s instanceof FnDecl) {
+                    Template t = template((FnDecl) s);
+                    if (t != null) templates.put(((FnDecl) s).symbol, t);
+                }
+            }
+            if (templates.isEmpty()) break;
+            int before = inlined;
+            List<Statement> out = new ArrayList<>(statements.size());
+            for (Statement s : statements) out.add(rewrite(s));
+            statements = out;
+            changed = inlined != before;
+        }
+        statements = removeUncalled(statements);
+        return statements == unit.statements ? unit : unit.withStatements(statements);
+    }
+
+    /**
+     * 可内联函数的模板：参数 Local → 模板中的出现次数。
+     */
+    private static final class Template {
+        final Expression value;
+        final List<Param> params;
+        final Map<Local, Integer> uses = new IdentityHashMap<>();
+
+        Template(Expression value, List<Param> params) {
+            this.value = value;
+            this.params = params;
+        }
+    }
+
+    /**
+     * 函数体为 let* return 且是叶子时，代入 let 得到模板；不符合条件或超过阈值时返回 null。
+     */
+    private Template template(FnDecl fd) {
+        if (fd.symbol == null) return null;
+        List<Statement> body = fd.body.statements;
+        if (body.isEmpty() || !(body.get(body.size() - 1) instanceof ReturnStmt)) return null;
+        Map<Local, Expression> lets = new IdentityHashMap<>();
+        for (int i = 0; i < body.size() - 1; i++) {
+            if (!(body.get(i) instanceof LetStmt)) return null;
+            LetStmt ls = (LetStmt) body.get(i);
+            if (!isLeaf(ls.value) || !DeadCodeEliminator.isPure(ls.value)) return null;
+            lets.put(ls.local, substitute(ls.value, lets));
+        }
+        Expression ret = ((ReturnStmt) body.get(body.size() - 1)).value;
+        if (!isLeaf(ret)) return null;
+        Template t = new Template(substitute(ret, lets), fd.params);
+        if (size(t.value) > limit) return null;
+        countUses(t.value, t.uses);
+        return t;
+    }
+
+    private static boolean isLeaf(Expression e) {
+        if (e instanceof CallExpr) return false;
+        if (e instanceof UnaryExpr) return isLeaf(((UnaryExpr) e).expr);
+        if (e instanceof BinaryExpr) return isLeaf(((BinaryExpr) e).left) && isLeaf(((BinaryExpr) e).right);
+        return true;
+    }
+
+    private static int size(Expression e) {
+        if (e instanceof UnaryExpr) return 1 + size(((UnaryExpr) e).expr);
+        if (e instanceof BinaryExpr) return 1 + size(((BinaryExpr) e).left) + size(((BinaryExpr) e).right);
+        return 1;
+    }
+
+    private static void countUses(Expression e, Map<Local, Integer> uses) {
+        if (e instanceof VarRef) {
+            uses.merge(((VarRef) e).local, 1, Integer::sum);
+        } else if (e instanceof UnaryExpr) {
+            countUses(((UnaryExpr) e).expr, uses);
+        } else if (e instanceof BinaryExpr) {
+            countUses(((BinaryExpr) e).left, uses);
+            countUses(((BinaryExpr) e).right, uses);
+        }
+    }
+
+    // ---------------------------------------------------------------- 改写
+
+    private Statement rewrite(Statement s) {
+        if (s instanceof LetStmt) {
+            LetStmt ls = (LetStmt) s;
+            Expression value = rewrite(ls.value);
+            if (value == ls.value) return ls;
+            LetStmt copy = new LetStmt(ls.pos, ls.id, ls.name, value);
+            copy.local = ls.local;
+            return copy;
+        }
+        if (s instanceof AssignStmt) {
+            AssignStmt as = (AssignStmt) s;
+            Expression value = rewrite(as.value);
+            if (value == as.value) return as;
+            AssignStmt copy = new AssignStmt(as.pos, as.id, as.name, value);
+            copy.local = as.local;
+            return copy;
+        }
+        if (s instanceof PrintStmt) {
+            PrintStmt ps = (PrintStmt) s;
+            Expression e = rewrite(ps.expression);
+            return e == ps.expression ? ps : new PrintStmt(ps.pos, e);
+        }
+        if (s instanceof ReturnStmt) {
+            ReturnStmt rs = (ReturnStmt) s;
+            Expression value = rewrite(rs.value);
+            return value == rs.value ? rs : new ReturnStmt(rs.pos, value);
+        }
+        if (s instanceof BlockStmt) {
+            return rewriteBlock((BlockStmt) s);
+        }
+        if (s instanceof IfStmt) {
+            IfStmt is = (IfStmt) s;
+            Expression cond = rewrite(is.condition);
+            BlockStmt thenB = rewriteBlock(is.thenBlock);
+            BlockStmt elseB = is.elseBlock == null ? null : rewriteBlock(is.elseBlock);
+            if (cond == is.condition && thenB == is.thenBlock && elseB == is.elseBlock) return is;
+            return new IfStmt(is.pos, cond, thenB, elseB);
+        }
+        if (s instanceof WhileStmt) {
+            WhileStmt ws = (WhileStmt) s;
+            Expression cond = rewrite(ws.condition);
+            BlockStmt body = rewriteBlock(ws.body);
+            if (cond == ws.condition && body == ws.body) return ws;
+            return new WhileStmt(ws.pos, cond, body);
+        }
+        if (s instanceof FnDecl) {
+            FnDecl fd = (FnDecl) s;
+            BlockStmt body = rewriteBlock(fd.body);
+            if (body == fd.body) return fd;
+            FnDecl copy = new FnDecl(fd.pos, fd.id, fd.name, fd.params, fd.returnType, body);
+            copy.symbol = fd.symbol;
+            return copy;
+        }
+        return s;
+    }
+
+    private BlockStmt rewriteBlock(BlockStmt b) {
+        List<Statement> out = new ArrayList<>(b.statements.size());
+        boolean changed = false;
+        for (Statement c : b.statements) {
+            Statement r = rewrite(c);
+            changed |= r != c;
+            out.add(r);
+        }
+        return changed ? new BlockStmt(b.pos, out) : b;
+    }
+
+    /**
+     * 先改写实参（内层调用先内联），再尝试内联调用本身。
+     */
+    private Expression rewrite(Expression e) {
+        if (e instanceof UnaryExpr) {
+            UnaryExpr ue = (UnaryExpr) e;
+            Expression operand = rewrite(ue.expr);
+            if (operand == ue.expr) return ue;
+            UnaryExpr copy = new UnaryExpr(ue.pos, ue.op, operand);
+            copy.type = ue.type;
+            return copy;
+        }
+        if (e instanceof BinaryExpr) {
+            BinaryExpr be = (BinaryExpr) e;
+            Expression left = rewrite(be.left);
+            Expression right = rewrite(be.right);
+            if (left == be.left && right == be.right) return be;
+            BinaryExpr copy = new BinaryExpr(be.pos, left, be.op, right);
+            copy.type = be.type;
+            return copy;
+        }
+        if (!(e instanceof CallExpr)) return e;
+        CallExpr call = (CallExpr) e;
+        List<Expression> args = new ArrayList<>(call.args.size());
+        boolean changed = false;
+        for (Expression a : call.args) {
+            Expression r = rewrite(a);
+            changed |= r != a;
+            args.add(r);
+        }
+        Template t = templates.get(call.function);
+        if (t != null && canInline(t, args)) {
+            Map<Local, Expression> bindings = new IdentityHashMap<>();
+            for (int i = 0; i < args.size(); i++) bindings.put(t.params.get(i).local, args.get(i));
+            inlined++;
+            return substitute(t.value, bindings);
+        }
+        if (!changed) return call;
+        CallExpr copy = new CallExpr(call.pos, call.id, call.name, args);
+        copy.function = call.function;
+        return copy;
+    }
+
+    private static boolean canInline(Template t, List<Expression> args) {
+        for (int i = 0; i < args.size(); i++) {
+            Expression a = args.get(i);
+            if (!DeadCodeEliminator.isPure(a)) return false;
+            boolean trivial = a instanceof VarRef || ConstantFolder.isLiteral(a);
+            if (!trivial && t.uses.getOrDefault(t.params.get(i).local, 0) > 1) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 复制 e，其中 bindings 里的变量替换为对应表达式的副本（同一节点不在树中出现两次）。
+     */
+    private static Expression substitute(Expression e, Map<Local, Expression> bindings) {
+        if (e instanceof VarRef) {
+            VarRef v = (VarRef) e;
+            Expression bound = bindings.get(v.local);
+            if (bound != null) return substitute(bound, new IdentityHashMap<>());
+            VarRef copy = new VarRef(v.pos, v.id, v.name);
+            copy.local = v.local;
+            return copy;
+        }
+        if (e instanceof UnaryExpr) {
+            UnaryExpr ue = (UnaryExpr) e;
+            UnaryExpr copy = new UnaryExpr(ue.pos, ue.op, substitute(ue.expr, bindings));
+            copy.type = ue.type;
+            return copy;
+        }
+        if (e instanceof BinaryExpr) {
+            BinaryExpr be = (BinaryExpr) e;
+            BinaryExpr copy = new BinaryExpr(be.pos, substitute(be.left, bindings), be.op, substitute(be.right, bindings));
+            copy.type = be.type;
+            return copy;
+        }
+        if (e instanceof IntLiteral) return new IntLiteral(((IntLiteral) e).pos, ((IntLiteral) e).value);
+        if (e instanceof BoolLiteral) return new BoolLiteral(((BoolLiteral) e).pos, ((BoolLiteral) e).value);
+        if (e instanceof StringLiteral) return new StringLiteral(((StringLiteral) e).pos, ((StringLiteral) e).value);
+        throw new IllegalStateException("Unexpected expression in inline template: " + e.getClass());
+    }
+
+    // ---------------------------------------------------------------- 删除
+
+    /**
+     * 删除不再被调用的函数（函数之间的调用也计入，被删除的函数中的调用不计）；重复到不动点，没有可删除的函数时原样返回。
+     */
+    private List<Statement> removeUncalled(List<Statement> statements) {
+        while (true) {
+            Map<FunctionSymbol, Boolean> called = new IdentityHashMap<>();
+            for (Statement s : statements) collectCalls(s, called);
+            List<Statement> out = new ArrayList<>(statements.size());
+            for (Statement s : statements) {
+                if (s instanceof FnDecl && !called.containsKey(((FnDecl) s).symbol)) {
+                    removed++;
+                } else {
+                    out.add(s);
+                }
+            }
+            if (out.size() == statements.size()) return statements;
+            statements = out;
+        }
+    }
+
+    private static void collectCalls(Statement s, Map<FunctionSymbol, Boolean> called) {
+        if (s instanceof LetStmt) {
+            collectCalls(((LetStmt) s).value, called);
+        } else if (s instanceof AssignStmt) {
+            collectCalls(((AssignStmt) s).value, called);
+        } else if (s instanceof PrintStmt) {
+            collectCalls(((PrintStmt) s).expression, called);
+        } else if (s instanceof ReturnStmt) {
+            collectCalls(((ReturnStmt) s).value, called);
+        } else if (s instanceof BlockStmt) {
+            for (Statement c : ((BlockStmt) s).statements) collectCalls(c, called);
+        } else if (s instanceof IfStmt) {
+            IfStmt is = (IfStmt) s;
+            collectCalls(is.condition, called);
+            collectCalls(is.thenBlock, called);
+            if (is.elseBlock != null) collectCalls(is.elseBlock, called);
+        } else if (s instanceof WhileStmt) {
+            collectCalls(((WhileStmt) s).condition, called);
+            collectCalls(((WhileStmt) s).body, called);
+        } else if (s instanceof FnDecl) {
+            FnDecl fd = (FnDecl) s;
+            Map<FunctionSymbol, Boolean> inner = new IdentityHashMap<>();
+            collectCalls(fd.body, inner);
+            inner.remove(fd.symbol); // 只有自身递归调用的函数也可以删除
+            called.putAll(inner);
+        }
+    }
+
+    private static void collectCalls(Expression e, Map<FunctionSymbol, Boolean> called) {
+        if (e instanceof CallExpr) {
+            called.put(((CallExpr) e).function, Boolean.TRUE);
+            for (Expression a : ((CallExpr) e).args) collectCalls(a, called);
+        } else if (e instanceof UnaryExpr) {
+            collectCalls(((UnaryExpr) e).expr, called);
+        } else if (e instanceof BinaryExpr) {
+            collectCalls(((BinaryExpr) e).left, called);
+            collectCalls(((BinaryExpr) e).right, called);
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package com.lxg.opt;
+
+import com.lxg.ast.expr.*;
+import com.lxg.ast.node.Expression;
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.node.ValueType;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.stmt.*;
+import com.lxg.sema.Local;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 循环优化：循环不变量外提（LICM）与归纳变量的强度削弱，在 DeadCodeEliminator 之后运行。
+ * <p>
+ * 学习要点：
+ * - 循环中被赋值或声明（let）的变量是“可变”的；只读取其余变量且无副作用的表达式每次迭代结果相同，
+ * 外提为循环前的 let $licmN，循环内改为读取该变量；取最大的不变子表达式，外层循环先处理，因此一次就提到它不变的最外层
+ * - 只外提纯表达式（见 DeadCodeEliminator.isPure）：它们不会抛出异常，循环一次都不执行、或表达式在未执行的分支中时，
+ * 提前求值也不改变行为
+ * - 归纳变量：循环前声明、循环内只在循环体顶层被赋值一次、形如 i = i ± c（c 为整数字面量）。
+ * 循环中的 i * k（k 为字面量或循环不变的变量）改为读取 $srN：循环前 let $srN = i * k，紧跟 i 的赋值之后 $srN = $srN + c*k。
+ * int 乘法对加法满足分配律（模 2^32），溢出回绕时结果也与原来一致
+ * <p>
+ * 设计取舍：
+ * - 新变量分配新的槽位（已有的最大槽位之后），不参与活跃区间复用；名字以 $ 开头，不会与源程序中的名字冲突
+ * - 函数体中的循环同样优化，新变量分配在该函数自己的槽位之后；调用可能有副作用，含调用的表达式不外提，但其实参照常处理
+ * - 不做循环展开与向量化：热循环经 OSR 编译后，C2 自己会展开并消除范围检查；这里只减少每次迭代的字节码工作量
+ * - 与 DeadCodeEliminator 一样，输出只能交给代码生成
+ *
+ * @author xiangganluo
+ */
+public final class LoopOptimizer {
+    private int nextIndex = 1;
+    private int temps;
+    private int hoisted;
+    private int reduced;
+
+    /**
+     * 返回优化后的编译单元（输入须已通过 TypeChecker 检查）；不含循环的语句原样复用。
+     */
+    public CompilationUnit optimize(CompilationUnit unit) {
+        nextIndex = 1 + unit.inputs.size(); // args 与程序输入
+        for (Statement s : unit.statements) reserveSlots(s);
+        return unit.withStatements(rewrite(unit.statements));
+    }
+
+    /**
+     * 外提的不变表达式个数。
+     */
+    public int hoisted() {
+        return hoisted;
+    }
+
+    /**
+     * 改为累加的乘法（i * k 的不同组合）个数。
+     */
+    public int reduced() {
+        return reduced;
+    }
+
+    private void reserveSlots(Statement s) {
+        if (s instanceof LetStmt) {
+            nextIndex = Math.max(nextIndex, ((LetStmt) s).local.index + 1);
+        } else if (s instanceof BlockStmt) {
+            for (Statement c : ((BlockStmt) s).statements) reserveSlots(c);
+        } else if (s instanceof IfStmt) {
+            reserveSlots(((IfStmt) s).thenBlock);
+            if (((IfStmt) s).elseBlock != null) reserveSlots(((IfStmt) s).elseBlock);
+        } else if (s instanceof WhileStmt) {
+            reserveSlots(((WhileStmt) s).body);
+        }
+    }
+
+    private List<Statement> rewrite(List<Statement> statements) {
+        List<Statement> out = new ArrayList<>(statements.size());
+        for (Statement s : statements) {
+            if (s instanceof WhileStmt) {
+                optimizeLoop((WhileStmt) s, out);
+            } else if (s instanceof BlockStmt) {
+                out.add(rewriteBlock((BlockStmt) s));
+            } else if (s instanceof IfStmt) {
+                IfStmt is = (IfStmt) s;
+                BlockStmt thenB = rewriteBlock(is.thenBlock);
+                BlockStmt elseB = is.elseBlock == null ? null : rewriteBlock(is.elseBlock);
+                out.add(thenB == is.thenBlock && elseB == is.elseBlock ? is : new IfStmt(is.pos, is.condition, thenB, elseB));
+            } else if (s instanceof FnDecl) {
+                out.add(rewriteFunction((FnDecl) s));
+            } else {
+                out.add(s);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * 函数有自己的局部变量表：新变量从参数与函数体中已有的槽位之后分配，完成后恢复 main 的分配位置。
+     */
+    private FnDecl rewriteFunction(FnDecl fd) {
+        int mainNext = nextIndex;
+        nextIndex = fd.params.size();
+        reserveSlots(fd.body);
+        BlockStmt body = rewriteBlock(fd.body);
+        nextIndex = mainNext;
+        if (body == fd.body) return fd;
+        FnDecl copy = new FnDecl(fd.pos, fd.id, fd.name, fd.params, fd.returnType, body);
+        copy.symbol = fd.symbol;
+        return copy;
+    }
+
+    private BlockStmt rewriteBlock(BlockStmt b) {
+        List<Statement> out = rewrite(b.statements);
+        return same(out, b.statements) ? b : new BlockStmt(b.pos, out);
+    }
+
+    /**
+     * 优化一个循环：外提的 let 与归纳变量的初始化追加到 out，随后是改写后的循环；最后处理循环体中的内层循环。
+     */
+    private void optimizeLoop(WhileStmt ws, List<Statement> out) {
+        Map<Local, Boolean> declared = new IdentityHashMap<>();
+        Map<Local, Integer> assignments = new IdentityHashMap<>();
+        collectWrites(ws.body, declared, assignments);
+        Map<Local, Boolean> variant = new IdentityHashMap<>(declared);
+        for (Local local : assignments.keySet()) variant.put(local, Boolean.TRUE);
+
+        Expression cond = hoist(ws.condition, variant, out);
+        BlockStmt body = hoistBlock(ws.body, variant, out);
+        if (findInductions(body, declared, assignments, variant, out)) {
+            cond = reduce(cond);
+            body = reduceBody(body);
+        }
+        body = rewriteBlock(body);
+        out.add(cond == ws.condition && body == ws.body ? ws : new WhileStmt(ws.pos, cond, body));
+    }
+
+    private static void collectWrites(Statement s, Map<Local, Boolean> declared, Map<Local, Integer> assignments) {
+        if (s instanceof LetStmt) {
+            declared.put(((LetStmt) s).local, Boolean.TRUE);
+        } else if (s instanceof AssignStmt) {
+            assignments.merge(((AssignStmt) s).local, 1, Integer::sum);
+        } else if (s instanceof BlockStmt) {
+            for (Statement c : ((BlockStmt) s).statements) collectWrites(c, declared, assignments);
+        } else if (s instanceof IfStmt) {
+            collectWrites(((IfStmt) s).thenBlock, declared, assignments);
+            if (((IfStmt) s).elseBlock != null) collectWrites(((IfStmt) s).elseBlock, declared, assignments);
+        } else if (s instanceof WhileStmt) {
+            collectWrites(((WhileStmt) s).body, declared, assignments);
+        }
+    }
+
+    // ---------------------------------------------------------------- 循环不变量外提
+
+    private Statement hoist(Statement s, Map<Local, Boolean> variant, List<Statement> out) {
+        if (s instanceof LetStmt) {
+            LetStmt ls = (LetStmt) s;
+            Expression value = hoist(ls.value, variant, out);
+            if (value == ls.value) return ls;
+            LetStmt copy = new LetStmt(ls.pos, ls.id, ls.name, value);
+            copy.local = ls.local;
+            return copy;
+        }
+        if (s instanceof AssignStmt) {
+            AssignStmt as = (AssignStmt) s;
+            Expression value = hoist(as.value, variant, out);
+            if (value == as.value) return as;
+            AssignStmt copy = new AssignStmt(as.pos, as.id, as.name, value);
+            copy.local = as.local;
+            return copy;
+        }
+        if (s instanceof PrintStmt) {
+            PrintStmt ps = (PrintStmt) s;
+            Expression e = hoist(ps.expression, variant, out);
+            return e == ps.expression ? ps : new PrintStmt(ps.pos, e);
+        }
+        if (s instanceof BlockStmt) {
+            return hoistBlock((BlockStmt) s, variant, out);
+        }
+        if (s instanceof IfStmt) {
+            IfStmt is = (IfStmt) s;
+            Expression cond = hoist(is.condition, variant, out);
+            BlockStmt thenB = hoistBlock(is.thenBlock, variant, out);
+            BlockStmt elseB = is.elseBlock == null ? null : hoistBlock(is.elseBlock, variant, out);
+            if (cond == is.condition && thenB == is.thenBlock && elseB == is.elseBlock) return is;
+            return new IfStmt(is.pos, cond, thenB, elseB);
+        }
+        if (s instanceof WhileStmt) {
+            WhileStmt ws = (WhileStmt) s;
+            Expression cond = hoist(ws.condition, variant, out);
+            BlockStmt body = hoistBlock(ws.body, variant, out);
+            if (cond == ws.condition && body == ws.body) return ws;
+            return new WhileStmt(ws.pos, cond, body);
+        }
+        if (s instanceof ReturnStmt) {
+            ReturnStmt rs = (ReturnStmt) s;
+            Expression value = hoist(rs.value, variant, out);
+            return value == rs.value ? rs : new ReturnStmt(rs.pos, value);
+        }
+        return s;
+    }
+
+    private BlockStmt hoistBlock(BlockStmt b, Map<Local, Boolean> variant, List<Statement> out) {
+        List<Statement> statements = new ArrayList<>(b.statements.size());
+        for (Statement c : b.statements) statements.add(hoist(c, variant, out));
+        return same(statements, b.statements) ? b : new BlockStmt(b.pos, statements);
+    }
+
+    /**
+     * 把 e 中最大的不变子表达式替换为循环前声明的临时变量；变量与字面量本身不外提。
+     */
+    private Expression hoist(Expression e, Map<Local, Boolean> variant, List<Statement> out) {
+        if (e instanceof CallExpr) {
+            CallExpr call = (CallExpr) e;
+            List<Expression> args = new ArrayList<>(call.args.size());
+            for (Expression a : call.args) args.add(hoist(a, variant, out));
+            return withArgs(call, args);
+        }
+        if (!(e instanceof UnaryExpr) && !(e instanceof BinaryExpr)) return e;
+        if (isInvariant(e, variant) && DeadCodeEliminator.isPure(e)) {
+            hoisted++;
+            return declareTemp("$licm", e, out);
+        }
+        if (e instanceof UnaryExpr) {
+            UnaryExpr ue = (UnaryExpr) e;
+            Expression operand = hoist(ue.expr, variant, out);
+            if (operand == ue.expr) return ue;
+            UnaryExpr copy = new UnaryExpr(ue.pos, ue.op, operand);
+            copy.type = ue.type;
+            return copy;
+        }
+        BinaryExpr be = (BinaryExpr) e;
+        Expression left = hoist(be.left, variant, out);
+        Expression right = hoist(be.right, variant, out);
+        if (left == be.left && right == be.right) return be;
+        BinaryExpr copy = new BinaryExpr(be.pos, left, be.op, right);
+        copy.type = be.type;
+        return copy;
+    }
+
+    private static boolean isInvariant(Expression e, Map<Local, Boolean> variant) {
+        if (e instanceof CallExpr) return false;
+        if (e instanceof VarRef) return !variant.containsKey(((VarRef) e).local);
+        if (e instanceof UnaryExpr) return isInvariant(((UnaryExpr) e).expr, variant);
+        if (e instanceof BinaryExpr) {
+            return isInvariant(((BinaryExpr) e).left, variant) && isInvariant(((BinaryExpr) e).right, variant);
+        }
+        return true;
+    }
+
+    // ---------------------------------------------------------------- 强度削弱
+
+    /**
+     * 一个 i * k 组合：factor 为字面量或不变变量，temp 在循环中始终等于 i * factor。
+     */
+    private static final class Reduction {
+        final Local induction;
+        final Expression factor;
+        final VarRef temp;
+
+        Reduction(Local induction, Expression factor, VarRef temp) {
+            this.induction = induction;
+            this.factor = factor;
+            this.temp = temp;
+        }
+    }
+
+    // 当前循环的强度削弱状态（内层循环在外层处理完之后才处理，不会交错）
+    private Map<Local, Integer> steps;
+    private Map<Local, Boolean> variant;
+    private List<Reduction> reductions;
+    private List<Statement> prelude;
+
+    /**
+     * 找出循环体顶层的归纳变量及其步长；没有时返回 false。
+     */
+    private boolean findInductions(BlockStmt body, Map<Local, Boolean> declared, Map<Local, Integer> assignments,
+                                   Map<Local, Boolean> variant, List<Statement> out) {
+        steps = new IdentityHashMap<>();
+        for (Statement s : body.statements) {
+            if (!(s instanceof AssignStmt)) continue;
+            AssignStmt as = (AssignStmt) s;
+            Integer step = step(as);
+            if (step != null && assignments.get(as.local) == 1 && !declared.containsKey(as.local)) steps.put(as.local, step);
+        }
+        this.variant = variant;
+        this.reductions = new ArrayList<>();
+        this.prelude = out;
+        return !steps.isEmpty();
+    }
+
+    /**
+     * i = i + c、i = c + i、i = i - c 的步长（减法取反，按 int 回绕）；其余形式返回 null。
+     */
+    private static Integer step(AssignStmt as) {
+        if (!(as.value instanceof BinaryExpr)) return null;
+        BinaryExpr be = (BinaryExpr) as.value;
+        if (be.op == BinaryOp.ADD && isRef(be.left, as.local) && be.right instanceof IntLiteral) return ((IntLiteral) be.right).value;
+        if (be.op == BinaryOp.ADD && isRef(be.right, as.local) && be.left instanceof IntLiteral) return ((IntLiteral) be.left).value;
+        if (be.op == BinaryOp.SUB && isRef(be.left, as.local) && be.right instanceof IntLiteral) return -((IntLiteral) be.right).value;
+        return null;
+    }
+
+    /**
+     * 先改写全部语句（建立所有 Reduction），再在每个归纳变量的赋值之后插入它的累加语句：
+     * 乘法可能出现在赋值之后的语句或条件中，第一遍经过赋值时还不知道需要哪些累加变量。
+     */
+    private BlockStmt reduceBody(BlockStmt body) {
+        List<Statement> rewritten = new ArrayList<>(body.statements.size());
+        for (Statement s : body.statements) rewritten.add(reduce(s));
+        if (reductions.isEmpty()) return body;
+        List<Statement> statements = new ArrayList<>(rewritten.size() + reductions.size());
+        for (int i = 0; i < rewritten.size(); i++) {
+            Statement s = body.statements.get(i);
+            statements.add(rewritten.get(i));
+            if (!(s instanceof AssignStmt) || !steps.containsKey(((AssignStmt) s).local)) continue;
+            for (Reduction r : reductions) {
+                if (r.induction == ((AssignStmt) s).local) statements.add(advance(r, steps.get(r.induction)));
+            }
+        }
+        return new BlockStmt(body.pos, statements);
+    }
+
+    /**
+     * $sr = $sr + c*k：k 为字面量时步长在编译期算出；k 为变量且 c = ±1 时直接加减 k，否则先在循环前算好 k * c。
+     */
+    private Statement advance(Reduction r, int step) {
+        long pos = r.factor instanceof IntLiteral ? ((IntLiteral) r.factor).pos : ((VarRef) r.factor).pos;
+        BinaryExpr value;
+        if (r.factor instanceof IntLiteral) {
+            value = new BinaryExpr(pos, ref(r.temp, pos), BinaryOp.ADD, new IntLiteral(pos, step * ((IntLiteral) r.factor).value));
+        } else if (step == 1 || step == -1) {
+            value = new BinaryExpr(pos, ref(r.temp, pos), step == 1 ? BinaryOp.ADD : BinaryOp.SUB, r.factor);
+        } else {
+            BinaryExpr delta = new BinaryExpr(pos, r.factor, BinaryOp.MUL, new IntLiteral(pos, step));
+            delta.type = ValueType.INT;
+            value = new BinaryExpr(pos, ref(r.temp, pos), BinaryOp.ADD, declareTemp("$sr", delta, prelude));
+        }
+        value.type = ValueType.INT;
+        AssignStmt as = new AssignStmt(pos, -1, r.temp.name, value);
+        as.local = r.temp.local;
+        return as;
+    }
+
+    private Statement reduce(Statement s) {
+        if (s instanceof LetStmt) {
+            LetStmt ls = (LetStmt) s;
+            Expression value = reduce(ls.value);
+            if (value == ls.value) return ls;
+            LetStmt copy = new LetStmt(ls.pos, ls.id, ls.name, value);
+            copy.local = ls.local;
+            return copy;
+        }
+        if (s instanceof AssignStmt) {
+            AssignStmt as = (AssignStmt) s;
+            Expression value = reduce(as.value);
+            if (value == as.value) return as;
+            AssignStmt copy = new AssignStmt(as.pos, as.id, as.name, value);
+            copy.local = as.local;
+            return copy;
+        }
+        if (s instanceof PrintStmt) {
+            PrintStmt ps = (PrintStmt) s;
+            Expression e = reduce(ps.expression);
+            return e == ps.expression ? ps : new PrintStmt(ps.pos, e);
+        }
+        if (s instanceof BlockStmt) {
+            BlockStmt b = (BlockStmt) s;
+            List<Statement> statements = new ArrayList<>(b.statements.size());
+            for (Statement c : b.statements) statements.add(reduce(c));
+            return same(statements, b.statements) ? b : new BlockStmt(b.pos, statements);
+        }
+        if (s instanceof IfStmt) {
+            IfStmt is = (IfStmt) s;
+            Expression cond = reduce(is.condition);
+            BlockStmt thenB = (BlockStmt) reduce(is.thenBlock);
+            BlockStmt elseB = is.elseBlock == null ? null : (BlockStmt) reduce(is.elseBlock);
+            if (cond == is.condition && thenB == is.thenBlock && elseB == is.elseBlock) return is;
+            return new IfStmt(is.pos, cond, thenB, elseB);
+        }
+        if (s instanceof WhileStmt) {
+            WhileStmt ws = (WhileStmt) s;
+            Expression cond = reduce(ws.condition);
+            BlockStmt body = (BlockStmt) reduce(ws.body);
+            if (cond == ws.condition && body == ws.body) return ws;
+            return new WhileStmt(ws.pos, cond, body);
+        }
+        if (s instanceof ReturnStmt) {
+            ReturnStmt rs = (ReturnStmt) s;
+            Expression value = reduce(rs.value);
+            return value == rs.value ? rs : new ReturnStmt(rs.pos, value);
+        }
+        return s;
+    }
+
+    /**
+     * 把 i * k / k * i 替换为对应累加变量的读取；同一组合共用一个累加变量。
+     */
+    private Expression reduce(Expression e) {
+        if (e instanceof CallExpr) {
+            CallExpr call = (CallExpr) e;
+            List<Expression> args = new ArrayList<>(call.args.size());
+            for (Expression a : call.args) args.add(reduce(a));
+            return withArgs(call, args);
+        }
+        if (e instanceof UnaryExpr) {
+            UnaryExpr ue = (UnaryExpr) e;
+            Expression operand = reduce(ue.expr);
+            if (operand == ue.expr) return ue;
+            UnaryExpr copy = new UnaryExpr(ue.pos, ue.op, operand);
+            copy.type = ue.type;
+            return copy;
+        }
+        if (!(e instanceof BinaryExpr)) return e;
+        BinaryExpr be = (BinaryExpr) e;
+        if (be.op == BinaryOp.MUL) {
+            if (isInduction(be.left) && isFactor(be.right)) return ref(reduction((VarRef) be.left, be.right), be.pos);
+            if (isInduction(be.right) && isFactor(be.left)) return ref(reduction((VarRef) be.right, be.left), be.pos);
+        }
+        Expression left = reduce(be.left);
+        Expression right = reduce(be.right);
+        if (left == be.left && right == be.right) return be;
+        BinaryExpr copy = new BinaryExpr(be.pos, left, be.op, right);
+        copy.type = be.type;
+        return copy;
+    }
+
+    private boolean isInduction(Expression e) {
+        return e instanceof VarRef && steps.containsKey(((VarRef) e).local);
+    }
+
+    private boolean isFactor(Expression e) {
+        return e instanceof IntLiteral || e instanceof VarRef && !variant.containsKey(((VarRef) e).local);
+    }
+
+    private VarRef reduction(VarRef induction, Expression factor) {
+        for (Reduction r : reductions) {
+            if (r.induction == induction.local && sameFactor(r.factor, factor)) return r.temp;
+        }
+        BinaryExpr init = new BinaryExpr(induction.pos, ref(induction, induction.pos), BinaryOp.MUL, factor);
+        init.type = ValueType.INT;
+        VarRef temp = declareTemp("$sr", init, prelude);
+        reductions.add(new Reduction(induction.local, factor, temp));
+        reduced++;
+        return temp;
+    }
+
+    private static boolean sameFactor(Expression a, Expression b) {
+        if (a instanceof IntLiteral) return b instanceof IntLiteral && ((IntLiteral) a).value == ((IntLiteral) b).value;
+        return b instanceof VarRef && ((VarRef) a).local == ((VarRef) b).local;
+    }
+
+    // ---------------------------------------------------------------- 工具
+
+    /**
+     * 在 out 末尾声明 let $prefixN = value（新槽位），返回读取它的 VarRef。
+     */
+    private VarRef declareTemp(String prefix, Expression value, List<Statement> out) {
+        Local local = new Local(nextIndex++, value.getType());
+        String name = prefix + temps++;
+        long pos = value instanceof BinaryExpr ? ((BinaryExpr) value).pos : ((UnaryExpr) value).pos;
+        LetStmt let = new LetStmt(pos, -1, name, value);
+        let.local = local;
+        out.add(let);
+        VarRef ref = new VarRef(pos, -1, name);
+        ref.local = local;
+        return ref;
+    }
+
+    /**
+     * 复制变量引用到新的位置（同一节点不在树中出现两次）。
+     */
+    private static VarRef ref(VarRef v, long pos) {
+        VarRef ref = new VarRef(pos, v.id, v.name);
+        ref.local = v.local;
+        return ref;
+    }
+
+    /**
+     * 实参有变化时复制调用，否则原样返回。
+     */
+    private static CallExpr withArgs(CallExpr call, List<Expression> args) {
+        boolean same = true;
+        for (int i = 0; i < args.size() && same; i++) same = args.get(i) == call.args.get(i);
+        if (same) return call;
+        CallExpr copy = new CallExpr(call.pos, call.id, call.name, args);
+        copy.function = call.function;
+        return copy;
+    }
+
+    private static boolean isRef(Expression e, Local local) {
+        return e instanceof VarRef && ((VarRef) e).local == local;
+    }
+
+    private static boolean same(List<Statement> a, List<Statement> b) {
+        if (a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) return false;
+        }
+        return true;
+    }
+}
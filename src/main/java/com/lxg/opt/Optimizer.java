@@ -0,0 +1,38 @@
+package com.lxg.opt;
+
+import com.lxg.ast.program.CompilationUnit;
+
+/**
+ * AST 优化流水线：TypeChecker 之后、ClassGenerator 之前按固定顺序运行各优化遍。
+ * <p>
+ * 学习要点：
+ * - 每一遍都是“已检查 AST → 已检查 AST”的纯改写：输出仍带类型与 Local，可以直接交给代码生成
+ * - 优化不改变程序的可观察行为（输出、int 回绕、除零异常），只减少运行时要做的工作与字节码体积
+ * - 优化后的 AST 可能已展开语句块、不再满足作用域规则，只能交给代码生成
+ * <p>
+ * 使用建议：命令行默认开启，--no-opt 关闭；--dump-ast 会同时打印优化后的树，便于对照。
+ *
+ * @author xiangganluo
+ */
+public final class Optimizer {
+    private Optimizer() {
+    }
+
+    /**
+     * 按默认阈值内联（见 Inliner.DEFAULT_LIMIT）后运行其余各遍。
+     */
+    public static CompilationUnit optimize(CompilationUnit unit) {
+        return optimize(unit, Inliner.DEFAULT_LIMIT);
+    }
+
+    /**
+     * 先内联小的叶子函数（内联后的实参与调用方的常量一起折叠），再常量折叠/传播（产生字面量条件与不再被读取的 let），再消除死分支与死存储，最后外提循环不变量、削弱归纳变量乘法
+     * （放在最后：循环中已经折叠成字面量的表达式不必外提，被删除的存储也不会干扰归纳变量的识别）。
+     *
+     * @param inlineLimit 内联阈值（模板节点数），0 表示不内联
+     */
+    public static CompilationUnit optimize(CompilationUnit unit, int inlineLimit) {
+        CompilationUnit inlined = new Inliner(inlineLimit).inline(unit);
+        return new LoopOptimizer().optimize(new DeadCodeEliminator().eliminate(new ConstantFolder().fold(inlined)));
+    }
+}
@@ -0,0 +1,88 @@
+package com.lxg.runtime;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 编译一次、反复运行的脚本句柄：持有已加载的 LxgProgram 实例，每次运行是一次接口调用。
+ * <p>
+ * 学习要点：
+ * - 类在构造句柄时定义并实例化一次（唯一一次反射：无参构造方法），之后 run 直接调用 LxgProgram.run，
+ * 没有 Method.invoke 的参数装箱、访问检查与异常包装，调用点可被 JIT 内联
+ * - 生成的类不含可变的静态状态，句柄可以在任意多个线程中同时 run，每次运行传入各自的 LxgContext
+ * - inputs 记录脚本声明的输入（名字 → 类型名），便于宿主校验与展示
+ * <p>
+ * 使用建议：由 com.lxg.driver.ScriptCompiler 创建；长期持有句柄，不要每次运行重新编译。
+ *
+ * @author xiangganluo
+ */
+public final class CompiledScript {
+    private final LxgProgram program;
+    private final byte[] classBytes;
+    private final Map<String, String> inputs;
+
+    private CompiledScript(LxgProgram program, byte[] classBytes, Map<String, String> inputs) {
+        this.program = program;
+        this.classBytes = classBytes;
+        this.inputs = inputs;
+    }
+
+    /**
+     * 定义由 ClassGenerator 以脚本模式生成的类（类名为 com.lxg.gen.Program，独占一个加载器）并创建句柄。
+     *
+     * @param inputs 脚本声明的输入：名字 → 类型名（按声明顺序）
+     */
+    public static CompiledScript define(byte[] classBytes, Map<String, String> inputs) {
+        return define(new ScriptLoader(ScriptLoader.Strategy.LOADER_PER_SCRIPT), "com/lxg/gen/Program", classBytes, inputs);
+    }
+
+    /**
+     * 按 loader 的策略定义脚本类并创建句柄。
+     *
+     * @param className loader.newClassName() 分配、生成类时使用的类名（内部名形式）
+     */
+    public static CompiledScript define(ScriptLoader loader, String className, byte[] classBytes, Map<String, String> inputs) {
+        try {
+            Class<?> cls = loader.define(className, classBytes);
+            LxgProgram program = (LxgProgram) cls.getConstructor().newInstance();
+            return new CompiledScript(program, classBytes, Collections.unmodifiableMap(new LinkedHashMap<>(inputs)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load script class", e);
+        }
+    }
+
+    /**
+     * 在给定的上下文中运行一次（可在多个线程中同时调用）。
+     */
+    public void run(LxgContext context) {
+        program.run(context);
+    }
+
+    /**
+     * 以给定的输入运行一次，返回输出文本。
+     */
+    public String run(Map<String, ?> inputs) {
+        LxgContext context = new LxgContext(inputs);
+        program.run(context);
+        return context.output();
+    }
+
+    public LxgProgram program() {
+        return program;
+    }
+
+    /**
+     * 脚本声明的输入：名字 → 类型名（INT、STRING、BOOLEAN）。
+     */
+    public Map<String, String> inputs() {
+        return inputs;
+    }
+
+    /**
+     * 生成的类文件（副本）。
+     */
+    public byte[] classBytes() {
+        return classBytes.clone();
+    }
+}
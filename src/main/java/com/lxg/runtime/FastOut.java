@@ -0,0 +1,145 @@
+package com.lxg.runtime;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 缓冲输出运行时：生成的代码调用这里的 println，代替每条 print 一次 System.out.println。
+ * <p>
+ * 学习要点：
+ * - System.out.println(int) 每次都要加锁、把 int 转成 String、按字符集编码、（自动刷新时）写出；
+ * 这里把 int/boolean 直接格式化为字节写入可复用的缓冲区，字符串按 UTF-8 逐字符编码，全程不分配对象
+ * - 字符串字面量在生成的类中预先编码为 UTF-8 的 byte[] 常量（见 ClassGenerator），输出时只是一次数组复制
+ * - 缓冲区满时才写出；生成的 main 在返回与抛出异常前调用 flush，保证输出完整且先于异常栈出现
+ * <p>
+ * 设计取舍：
+ * - 写出目标取刷新时的 System.out（而不是直接持有 stdout 的 FileChannel），
+ * 这样 System.setOut 重定向（测试捕获、嵌入运行）依然有效；满缓冲区一次 write 只进入一次 PrintStream 的锁
+ * - 全局一个缓冲区，方法加锁：同一 JVM 中并发运行的多个脚本输出不会交错损坏；无竞争时的加锁远比 println 的编码与刷新便宜
+ * - 输出固定为 UTF-8，换行取 System.lineSeparator()
+ * - 该类会被批量编译写入 jar（生成的类引用它），因此不使用内部类与 lambda，保持为单个 .class
+ *
+ * @author xiangganluo
+ */
+public final class FastOut {
+    /**
+     * 生成的代码引用的内部名。
+     */
+    public static final String INTERNAL_NAME = "com/lxg/runtime/FastOut";
+
+    private static final int CAPACITY = 8192;
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MIN_INT = String.valueOf(Integer.MIN_VALUE).getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] buf = new byte[CAPACITY];
+    private static int count;
+
+    private FastOut() {
+    }
+
+    public static synchronized void println(int v) {
+        ensure(11 + NEWLINE.length);
+        if (v == Integer.MIN_VALUE) {
+            put(MIN_INT);
+        } else {
+            if (v < 0) {
+                buf[count++] = '-';
+                v = -v;
+            }
+            int end = count + digits(v);
+            for (int i = end - 1; i >= count; i--) {
+                buf[i] = (byte) ('0' + v % 10);
+                v /= 10;
+            }
+            count = end;
+        }
+        put(NEWLINE);
+    }
+
+    public static synchronized void println(boolean v) {
+        ensure(5 + NEWLINE.length);
+        put(v ? TRUE : FALSE);
+        put(NEWLINE);
+    }
+
+    /**
+     * 输出运行时得到的字符串（拼接结果、变量），逐字符编码为 UTF-8；不成对的代理字符输出为 '?'。
+     */
+    public static synchronized void println(String s) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            if (count + 4 > CAPACITY) drain();
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buf[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[count++] = (byte) (0xC0 | c >> 6);
+                buf[count++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buf[count++] = (byte) (0xF0 | cp >> 18);
+                buf[count++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                buf[count++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                buf[count++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                buf[count++] = '?';
+            } else {
+                buf[count++] = (byte) (0xE0 | c >> 12);
+                buf[count++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buf[count++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        ensure(NEWLINE.length);
+        put(NEWLINE);
+    }
+
+    /**
+     * 输出预先编码好的 UTF-8 字面量（不含换行）。
+     */
+    public static synchronized void println(byte[] utf8) {
+        if (utf8.length > CAPACITY - NEWLINE.length) {
+            drain();
+            System.out.write(utf8, 0, utf8.length);
+        } else {
+            ensure(utf8.length + NEWLINE.length);
+            put(utf8);
+        }
+        ensure(NEWLINE.length);
+        put(NEWLINE);
+    }
+
+    /**
+     * 写出缓冲区并刷新 System.out。
+     */
+    public static synchronized void flush() {
+        drain();
+        System.out.flush();
+    }
+
+    private static void ensure(int bytes) {
+        if (count + bytes > CAPACITY) drain();
+    }
+
+    private static void put(byte[] bytes) {
+        System.arraycopy(bytes, 0, buf, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private static void drain() {
+        if (count == 0) return;
+        PrintStream out = System.out;
+        out.write(buf, 0, count);
+        count = 0;
+    }
+
+    private static int digits(int v) {
+        int d = 1;
+        while (v >= 10) {
+            v /= 10;
+            d++;
+        }
+        return d;
+    }
+}
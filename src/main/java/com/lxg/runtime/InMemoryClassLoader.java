@@ -1,36 +1,64 @@
 package com.lxg.runtime;
 
+import java.nio.ByteBuffer;
+import java.security.ProtectionDomain;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
- * 内存类加载器：将生成的字节码数组定义为 JVM 中的类。
- * 仅识别固定类名 "com.lxg.gen.Program"，其余委托父加载器。
+ * 内存类加载器：将生成的字节码定义为 JVM 中的类。
+ * 持有 类名 → 字节码 的映射，只定义映射中的类，其余委托父加载器。
  * <p>
  * 学习要点：
  * - ClassLoader 委派模型：优先委派给父加载器，找不到再由子加载器定义
  * - defineClass：将字节数组转换为 JVM 内部的 Class 对象
- * - 该实现仅演示“单类加载”，满足当前教学目的
+ * - 单类构造方法（固定类名 com.lxg.gen.Program）用于每个程序一个加载器；
+ * add 逐个登记不同类名的类，多个脚本共享一个加载器（见 ScriptLoader）
+ * - 类定义后从映射中删除其字节码：加载器自己记住已定义的类，不必再保留一份类文件
+ * - 字节码也可以是 ByteBuffer（如 CompilationCache 的内存映射文件），defineClass(String, ByteBuffer, ...) 直接读取，不复制到 byte[]
  * <p>
- * 使用建议：
- * - 如需加载多个类，可将 bytes 改为 Map<String, byte[]>，按 name 返回对应字节
- * - 也可重写 loadClass 细化委派与缓存策略
+ * 设计取舍：类只能随加载器一起卸载，共享加载器中的类在加载器不可达之前都不会卸载。
  *
  * @author xiangganluo
  */
 class InMemoryClassLoader extends ClassLoader {
-    private final byte[] bytes; // 单类字节码：固定映射到 com.lxg.gen.Program
+    static {
+        registerAsParallelCapable(); // 不同类名的定义互不阻塞（按类名加锁）
+    }
 
-    InMemoryClassLoader(byte[] bytes) {
+    private final Map<String, ByteBuffer> classes = new ConcurrentHashMap<>(); // 二进制名 → 尚未定义的类的字节码
+
+    InMemoryClassLoader() {
         // 指定父加载器为当前类的加载器，遵循标准委派模型
         super(InMemoryClassLoader.class.getClassLoader());
-        this.bytes = bytes;
+    }
+
+    InMemoryClassLoader(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    InMemoryClassLoader(ByteBuffer bytes) {
+        this();
+        classes.put("com.lxg.gen.Program", bytes);
+    }
+
+    /**
+     * 登记一个类（二进制名，如 com.lxg.gen.Script1），在第一次 loadClass 时定义。
+     */
+    void add(String name, byte[] bytes) {
+        if (classes.putIfAbsent(name, ByteBuffer.wrap(bytes)) != null) {
+            throw new IllegalStateException("Class already registered: " + name);
+        }
     }
 
     @Override
     protected Class<?> findClass(String name) throws ClassNotFoundException {
-        // 仅当请求的名称是我们生成的固定类名时，才使用内存字节码进行定义
-        if (name.equals("com.lxg.gen.Program")) {
-            return defineClass(name, bytes, 0, bytes.length);
+        ByteBuffer bytes = classes.remove(name);
+        if (bytes != null) {
+            // duplicate：defineClass 会移动缓冲区的 position，不影响调用方持有的缓冲区
+            return defineClass(name, bytes.duplicate(), (ProtectionDomain) null);
         }
         // 其他名称全部交给父加载器处理（保持隔离与安全）
         return super.findClass(name);
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,322 @@
+package com.lxg.runtime;
+
+import com.lxg.ast.expr.*;
+import com.lxg.ast.node.Expression;
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.node.ValueType;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.stmt.*;
+import com.lxg.sema.FunctionSymbol;
+import com.lxg.sema.Local;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 树遍历解释器：直接执行通过 TypeChecker 检查的 CompilationUnit，不生成、不定义任何类。
+ * <p>
+ * 学习要点：
+ * - 与代码生成读取同一份检查结果：表达式的静态类型决定求值方式（evalInt/evalBoolean/evalString），
+ * 变量按 Local 的槽位存放在帧中，调用按 CallExpr.function 找到函数声明；解释器自己不做任何名字解析与类型推断
+ * - 帧是两个按槽位下标的数组：int/boolean（0/1）放在 ints，字符串放在 strings，不装箱；
+ * 帧的大小在构造时按各函数体（与 main）中出现的最大槽位算好
+ * - 输出语义与编译路径逐字节一致：print 调用 LxgContext.println（与脚本模式的生成类相同），
+ * int 运算按 Java 的 32 位回绕，除零抛出 ArithmeticException，&amp;&amp;/|| 短路，字符串拼接从左到右求值
+ * - 实例只读取 AST，每次 run 使用各自的帧与上下文，可以在多个线程中同时运行
+ * <p>
+ * 设计取舍：
+ * - 执行的是未经 Optimizer 改写的 AST：只跑一次的脚本省下优化的开销，优化的收益留给编译后的代码
+ * - 每层调用占用若干层 Java 栈帧，极深的递归比编译路径更早 StackOverflowError
+ * - 目标是冷脚本的启动延迟而不是峰值性能：反复执行的脚本应交给 ClassGenerator（见 com.lxg.driver.TieredScript）
+ *
+ * @author xiangganluo
+ */
+public final class Interpreter {
+    private final CompilationUnit unit;
+    private final int mainSlots;
+    private final Map<FunctionSymbol, Function> functions = new IdentityHashMap<>();
+
+    /**
+     * @param unit 已通过 TypeChecker 检查（且没有错误）的编译单元
+     */
+    public Interpreter(CompilationUnit unit) {
+        this.unit = unit;
+        int slots = 1;
+        for (Param p : unit.inputs) slots = Math.max(slots, resolved(p.local, p.name).index + 1);
+        for (Statement s : unit.statements) {
+            if (s instanceof FnDecl) {
+                FnDecl fd = (FnDecl) s;
+                if (fd.symbol == null) throw new IllegalStateException("Unresolved function '" + fd.name + "' (run TypeChecker first)");
+                functions.put(fd.symbol, new Function(fd));
+            } else {
+                slots = Math.max(slots, slots(s));
+            }
+        }
+        this.mainSlots = slots;
+    }
+
+    /**
+     * 执行一次：输入从 context 读取（与编译后的脚本相同，缺少或类型不符时在执行任何语句之前抛出），print 写入 context。
+     */
+    public void run(LxgContext context) {
+        Frame frame = new Frame(mainSlots);
+        for (Param p : unit.inputs) {
+            int slot = p.local.index;
+            if (p.type == ValueType.INT) frame.ints[slot] = context.getInt(p.name);
+            else if (p.type == ValueType.BOOLEAN) frame.ints[slot] = context.getBoolean(p.name) ? 1 : 0;
+            else frame.strings[slot] = context.getString(p.name);
+        }
+        for (Statement s : unit.statements) {
+            if (!(s instanceof FnDecl)) execute(s, frame, context);
+        }
+    }
+
+    /**
+     * 以给定的输入运行一次，返回输出文本。
+     */
+    public String run(Map<String, ?> inputs) {
+        LxgContext context = new LxgContext(inputs);
+        run(context);
+        return context.output();
+    }
+
+    /**
+     * 执行一条语句；执行了 return 时返回 true（返回值在 frame 中），外层的块与循环随之结束。
+     */
+    private boolean execute(Statement s, Frame frame, LxgContext context) {
+        if (s instanceof PrintStmt) {
+            Expression e = ((PrintStmt) s).expression;
+            switch (e.getType()) {
+                case INT:
+                    context.println(evalInt(e, frame, context));
+                    break;
+                case BOOLEAN:
+                    context.println(evalBoolean(e, frame, context));
+                    break;
+                default:
+                    context.println(evalString(e, frame, context));
+            }
+        } else if (s instanceof LetStmt) {
+            LetStmt ls = (LetStmt) s;
+            store(resolved(ls.local, ls.name), ls.value, frame, context);
+        } else if (s instanceof AssignStmt) {
+            AssignStmt as = (AssignStmt) s;
+            store(resolved(as.local, as.name), as.value, frame, context);
+        } else if (s instanceof IfStmt) {
+            IfStmt is = (IfStmt) s;
+            if (evalBoolean(is.condition, frame, context)) return execute(is.thenBlock, frame, context);
+            if (is.elseBlock != null) return execute(is.elseBlock, frame, context);
+        } else if (s instanceof WhileStmt) {
+            WhileStmt ws = (WhileStmt) s;
+            while (evalBoolean(ws.condition, frame, context)) {
+                if (execute(ws.body, frame, context)) return true;
+            }
+        } else if (s instanceof BlockStmt) {
+            List<Statement> statements = ((BlockStmt) s).statements;
+            for (int i = 0; i < statements.size(); i++) {
+                if (execute(statements.get(i), frame, context)) return true;
+            }
+        } else if (s instanceof ReturnStmt) {
+            Expression value = ((ReturnStmt) s).value;
+            switch (value.getType()) {
+                case INT:
+                    frame.intResult = evalInt(value, frame, context);
+                    break;
+                case BOOLEAN:
+                    frame.intResult = evalBoolean(value, frame, context) ? 1 : 0;
+                    break;
+                default:
+                    frame.stringResult = evalString(value, frame, context);
+            }
+            return true;
+        } else if (s instanceof FnDecl) {
+            throw new IllegalStateException("Nested function declaration: " + ((FnDecl) s).name);
+        } else {
+            throw new IllegalStateException("Unsupported statement: " + s.getClass().getSimpleName());
+        }
+        return false;
+    }
+
+    private void store(Local local, Expression value, Frame frame, LxgContext context) {
+        switch (local.type) {
+            case INT:
+                frame.ints[local.index] = evalInt(value, frame, context);
+                break;
+            case BOOLEAN:
+                frame.ints[local.index] = evalBoolean(value, frame, context) ? 1 : 0;
+                break;
+            default:
+                frame.strings[local.index] = evalString(value, frame, context);
+        }
+    }
+
+    private int evalInt(Expression e, Frame frame, LxgContext context) {
+        if (e instanceof IntLiteral) return ((IntLiteral) e).value;
+        if (e instanceof VarRef) return frame.ints[resolved(((VarRef) e).local, ((VarRef) e).name).index];
+        if (e instanceof BinaryExpr) {
+            BinaryExpr be = (BinaryExpr) e;
+            int l = evalInt(be.left, frame, context);
+            int r = evalInt(be.right, frame, context);
+            switch (be.op) {
+                case ADD:
+                    return l + r;
+                case SUB:
+                    return l - r;
+                case MUL:
+                    return l * r;
+                case DIV:
+                    return l / r;
+                default:
+                    throw new IllegalStateException("Not an INT operator: " + be.op);
+            }
+        }
+        if (e instanceof UnaryExpr) {
+            UnaryExpr ue = (UnaryExpr) e;
+            int v = evalInt(ue.expr, frame, context);
+            return ue.op == UnaryOp.MINUS ? -v : v;
+        }
+        if (e instanceof CallExpr) return call((CallExpr) e, frame, context).intResult;
+        throw new IllegalStateException("Unsupported INT expression: " + e.getClass().getSimpleName());
+    }
+
+    private boolean evalBoolean(Expression e, Frame frame, LxgContext context) {
+        if (e instanceof BoolLiteral) return ((BoolLiteral) e).value;
+        if (e instanceof VarRef) return frame.ints[resolved(((VarRef) e).local, ((VarRef) e).name).index] != 0;
+        if (e instanceof BinaryExpr) {
+            BinaryExpr be = (BinaryExpr) e;
+            switch (be.op) {
+                case AND:
+                    return evalBoolean(be.left, frame, context) && evalBoolean(be.right, frame, context);
+                case OR:
+                    return evalBoolean(be.left, frame, context) || evalBoolean(be.right, frame, context);
+                default:
+                    break;
+            }
+            int l = evalInt(be.left, frame, context);
+            int r = evalInt(be.right, frame, context);
+            switch (be.op) {
+                case EQ:
+                    return l == r;
+                case NE:
+                    return l != r;
+                case LT:
+                    return l < r;
+                case GT:
+                    return l > r;
+                case LE:
+                    return l <= r;
+                case GE:
+                    return l >= r;
+                default:
+                    throw new IllegalStateException("Not a BOOLEAN operator: " + be.op);
+            }
+        }
+        if (e instanceof UnaryExpr) return !evalBoolean(((UnaryExpr) e).expr, frame, context); // 唯一的 BOOLEAN 一元运算是 NOT
+        if (e instanceof CallExpr) return call((CallExpr) e, frame, context).intResult != 0;
+        throw new IllegalStateException("Unsupported BOOLEAN expression: " + e.getClass().getSimpleName());
+    }
+
+    private String evalString(Expression e, Frame frame, LxgContext context) {
+        if (e instanceof StringLiteral) return ((StringLiteral) e).value;
+        if (e instanceof VarRef) return frame.strings[resolved(((VarRef) e).local, ((VarRef) e).name).index];
+        if (e instanceof BinaryExpr) {
+            StringBuilder sb = new StringBuilder();
+            append(sb, e, frame, context);
+            return sb.toString();
+        }
+        if (e instanceof CallExpr) return call((CallExpr) e, frame, context).stringResult;
+        throw new IllegalStateException("Unsupported STRING expression: " + e.getClass().getSimpleName());
+    }
+
+    /**
+     * 把拼接链 a + 1 + b 的操作数从左到右求值并追加（与生成的 StringBuilder/invokedynamic 拼接的求值顺序相同）。
+     */
+    private void append(StringBuilder sb, Expression e, Frame frame, LxgContext context) {
+        if (e instanceof BinaryExpr && e.getType() == ValueType.STRING) {
+            append(sb, ((BinaryExpr) e).left, frame, context);
+            append(sb, ((BinaryExpr) e).right, frame, context);
+            return;
+        }
+        switch (e.getType()) {
+            case INT:
+                sb.append(evalInt(e, frame, context));
+                break;
+            case BOOLEAN:
+                sb.append(evalBoolean(e, frame, context));
+                break;
+            default:
+                sb.append(evalString(e, frame, context));
+        }
+    }
+
+    /**
+     * 调用函数：实参按顺序求值后存入新帧的参数槽位，执行函数体；返回值留在新帧中。
+     */
+    private Frame call(CallExpr call, Frame caller, LxgContext context) {
+        Function fn = functions.get(call.function);
+        if (fn == null) throw new IllegalStateException("Unresolved function '" + call.name + "' (run TypeChecker first)");
+        Frame frame = new Frame(fn.slots);
+        List<Param> params = fn.decl.params;
+        for (int i = 0; i < params.size(); i++) {
+            Param p = params.get(i);
+            Expression arg = call.args.get(i);
+            int slot = p.local.index;
+            if (p.type == ValueType.INT) frame.ints[slot] = evalInt(arg, caller, context);
+            else if (p.type == ValueType.BOOLEAN) frame.ints[slot] = evalBoolean(arg, caller, context) ? 1 : 0;
+            else frame.strings[slot] = evalString(arg, caller, context);
+        }
+        execute(fn.decl.body, frame, context);
+        return frame;
+    }
+
+    /**
+     * 语句中出现的最大槽位 + 1。
+     */
+    private static int slots(Statement s) {
+        if (s instanceof LetStmt) return ((LetStmt) s).local.index + 1;
+        if (s instanceof BlockStmt) {
+            int max = 0;
+            for (Statement c : ((BlockStmt) s).statements) max = Math.max(max, slots(c));
+            return max;
+        }
+        if (s instanceof IfStmt) {
+            IfStmt is = (IfStmt) s;
+            return Math.max(slots(is.thenBlock), is.elseBlock == null ? 0 : slots(is.elseBlock));
+        }
+        if (s instanceof WhileStmt) return slots(((WhileStmt) s).body);
+        return 0; // 赋值、print、return 只访问已声明的槽位
+    }
+
+    private static Local resolved(Local local, String name) {
+        if (local == null) throw new IllegalStateException("Unresolved variable '" + name + "' (run TypeChecker first)");
+        return local;
+    }
+
+    private static final class Function {
+        final FnDecl decl;
+        final int slots;
+
+        Function(FnDecl decl) {
+            this.decl = decl;
+            int max = 0;
+            for (Param p : decl.params) max = Math.max(max, resolved(p.local, p.name).index + 1);
+            this.slots = Math.max(max, slots(decl.body));
+        }
+    }
+
+    /**
+     * 一次调用（或 main）的局部变量与返回值。
+     */
+    private static final class Frame {
+        final int[] ints;
+        final String[] strings;
+        int intResult;
+        String stringResult;
+
+        Frame(int slots) {
+            ints = new int[slots];
+            strings = new String[slots];
+        }
+    }
+}
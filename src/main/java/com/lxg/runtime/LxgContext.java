@@ -0,0 +1,108 @@
+package com.lxg.runtime;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 脚本的一次运行环境：输入绑定（名字 → 值）与输出（print 写入的 Appendable）。
+ * <p>
+ * 学习要点：
+ * - 生成的代码在脚本开头按声明顺序调用 getInt/getString/getBoolean 读取输入，之后输入就是普通的局部变量
+ * - print 调用这里的 println：int 直接追加到 StringBuilder 时不产生中间字符串，其它 Appendable（Writer、PrintStream）照常追加
+ * - 换行取 System.lineSeparator()，与 System.out.println、FastOut 的输出逐字节一致
+ * <p>
+ * 设计取舍：
+ * - 上下文不是线程安全的，也不需要是：每次运行（每个线程）各用一个；多个运行共享同一个输出时由调用方负责同步
+ * - 缺少输入或类型不符时抛出 IllegalArgumentException（脚本开始执行之前，不会产生部分输出）
+ *
+ * @author xiangganluo
+ */
+public final class LxgContext {
+    /**
+     * 生成的代码引用的内部名。
+     */
+    public static final String INTERNAL_NAME = "com/lxg/runtime/LxgContext";
+
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final Map<String, ?> inputs;
+    private final Appendable out;
+
+    /**
+     * 没有输入、输出到新的 StringBuilder 的上下文。
+     */
+    public LxgContext() {
+        this(Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * 输出到新的 StringBuilder（由 output() 取得）。
+     */
+    public LxgContext(Map<String, ?> inputs) {
+        this(inputs, new StringBuilder());
+    }
+
+    /**
+     * @param inputs 输入绑定：int 输入为 Integer，string 为 String，boolean 为 Boolean
+     * @param out    print 的输出
+     */
+    public LxgContext(Map<String, ?> inputs, Appendable out) {
+        this.inputs = inputs;
+        this.out = out;
+    }
+
+    public Appendable out() {
+        return out;
+    }
+
+    /**
+     * 到目前为止的输出文本（输出为 StringBuilder 等 CharSequence 时）。
+     */
+    public String output() {
+        if (!(out instanceof CharSequence)) throw new IllegalStateException("Output is not a CharSequence: " + out.getClass().getName());
+        return out.toString();
+    }
+
+    public int getInt(String name) {
+        return (Integer) input(name, Integer.class);
+    }
+
+    public String getString(String name) {
+        return (String) input(name, String.class);
+    }
+
+    public boolean getBoolean(String name) {
+        return (Boolean) input(name, Boolean.class);
+    }
+
+    private Object input(String name, Class<?> type) {
+        Object value = inputs.get(name);
+        if (value == null) throw new IllegalArgumentException("Missing input: " + name);
+        if (!type.isInstance(value)) {
+            throw new IllegalArgumentException("Input '" + name + "' must be " + type.getSimpleName() + ", got " + value.getClass().getSimpleName());
+        }
+        return value;
+    }
+
+    public void println(int v) {
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(v).append(NEWLINE);
+        } else {
+            println(String.valueOf(v));
+        }
+    }
+
+    public void println(boolean v) {
+        println(v ? "true" : "false");
+    }
+
+    public void println(String s) {
+        try {
+            out.append(s).append(NEWLINE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
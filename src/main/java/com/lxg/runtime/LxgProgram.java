@@ -0,0 +1,21 @@
+package com.lxg.runtime;
+
+/**
+ * 嵌入运行的脚本：ScriptCompiler 生成的类实现该接口，宿主经由 CompiledScript 以普通的接口调用执行，不经过反射。
+ * <p>
+ * 实现是无状态的：脚本的变量都是 run 内的局部变量，函数是以 LxgContext 为首个参数的静态方法，
+ * 同一个实例可以在多个线程中同时运行（每次运行使用各自的 LxgContext）。
+ *
+ * @author xiangganluo
+ */
+public interface LxgProgram {
+    /**
+     * 生成的类实现的接口（内部名）。
+     */
+    String INTERNAL_NAME = "com/lxg/runtime/LxgProgram";
+
+    /**
+     * 执行一次脚本：输入从 context 读取，print 写入 context 的输出。
+     */
+    void run(LxgContext context);
+}
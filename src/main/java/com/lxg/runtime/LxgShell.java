@@ -1,35 +1,83 @@
 package com.lxg.runtime;
 
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
 
 /**
  * 运行时 Shell：通过自定义类加载器加载生成的类，并反射调用 main 方法执行。
  * <p>
  * 学习要点：
- * - InMemoryClassLoader 只识别固定名称 com.lxg.gen.Program，将传入的字节数组 define 为此类
+ * - 每次运行新建一个 InMemoryClassLoader，将传入的字节数组 define 为固定名称的 com.lxg.gen.Program
  * - 反射调用静态方法 main(String[])，等价于正常入口执行
  * - 与真实 ClassLoader 隔离，避免污染当前进程的类命名空间
+ * - 可选的 ProgramCache：同一段字节码（或同一个键）只定义一次，之后直接调用已加载的 main
  * <p>
  * 使用建议：
- * - 如果未来生成多个类，可将 InMemoryClassLoader 改为 Map<类名, 字节[]> 的多类加载方案
+ * - 大量存活的脚本不宜每个一个加载器：嵌入运行时用 ScriptLoader 共享加载器（唯一类名）或定义为隐藏类
  * - 捕获的异常栈会打印到标准错误，便于快速定位运行时异常
  *
  * @author xiangganluo
  */
 public class LxgShell {
+    private final ProgramCache cache;
+
+    public LxgShell() {
+        this(null);
+    }
+
+    /**
+     * @param cache 进程内程序缓存，为 null 时每次运行都新建加载器
+     */
+    public LxgShell(ProgramCache cache) {
+        this.cache = cache;
+    }
+
     /**
-     * 执行传入的类字节码：定义类 -> 反射获取 main(String[]) -> 调用。
+     * 执行传入的类字节码：定义类 -> 反射获取 main(String[]) -> 调用。有缓存时以字节码的哈希查找已加载的程序。
      */
     public void run(byte[] classBytes) {
+        if (cache == null) {
+            run(ByteBuffer.wrap(classBytes));
+            return;
+        }
+        try {
+            invoke(cache.program(classBytes));
+        } catch (Throwable t) {
+            t.printStackTrace(System.err);
+            throw new RuntimeException("Execution failed", t);
+        }
+    }
+
+    /**
+     * 以调用方给出的键（如源码哈希）查找缓存的程序，未命中时才调用 classBytes 编译；需要构造时传入缓存。
+     */
+    public void run(String key, Supplier<byte[]> classBytes) {
+        if (cache == null) throw new IllegalStateException("LxgShell was created without a ProgramCache");
+        try {
+            invoke(cache.program(key, classBytes));
+        } catch (Throwable t) {
+            t.printStackTrace(System.err);
+            throw new RuntimeException("Execution failed", t);
+        }
+    }
+
+    /**
+     * 执行缓冲区中的类字节码（从 position 到 limit），如磁盘编译缓存的内存映射文件。
+     */
+    public void run(ByteBuffer classBytes) {
         try {
             ClassLoader loader = new InMemoryClassLoader(classBytes);
             Class<?> cls = loader.loadClass("com.lxg.gen.Program");
-            Method main = cls.getMethod("main", String[].class);
-            // 反射调用静态方法时，参数需以 (Object) String[] 形式传入
-            main.invoke(null, (Object) new String[0]);
+            invoke(cls.getMethod("main", String[].class));
         } catch (Throwable t) {
             t.printStackTrace(System.err);
             throw new RuntimeException("Execution failed", t);
         }
     }
+
+    private static void invoke(Method main) throws ReflectiveOperationException {
+        // 反射调用静态方法时，参数需以 (Object) String[] 形式传入
+        main.invoke(null, (Object) new String[0]);
+    }
 } 
\ No newline at end of file
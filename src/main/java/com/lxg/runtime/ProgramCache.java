@@ -0,0 +1,170 @@
+package com.lxg.runtime;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.reflect.Method;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 进程内程序缓存：键（源码或字节码的哈希）到已加载、可直接调用的 main 方法，反复运行同一脚本时跳过 defineClass 与校验。
+ * <p>
+ * 学习要点：
+ * - 每个缓存项持有一个 InMemoryClassLoader 定义的类；类只能随其加载器一起卸载，
+ * 因此淘汰就是删除缓存项：加载器、类与 Method 都不再可达，下一次 GC 回收它们占用的 Metaspace
+ * - LinkedHashMap 的访问顺序即 LRU 顺序；条目数或类文件总大小超过上限时从最久未用的一端淘汰
+ * - LxgShell.run(byte[]) 以字节码的 SHA-256 为键（哈希远比定义与校验一个类便宜）；
+ * 能拿到源码的调用方用 program(key, supplier)，以源码哈希为键，命中时连编译也跳过
+ * - 计数器：命中、未命中、淘汰，以及 Metaspace 当前用量（metaspaceUsed），用于观察长时间运行时是否稳定
+ * <p>
+ * 设计取舍：
+ * - 方法整体加锁：未命中时在锁内编译与定义，同一个键不会被定义两次；代价是不同脚本的未命中互相等待
+ * - 缓存的类在多次运行间共享静态状态：拆分后的 main 用静态字段在 chunk 间传递变量，
+ * 同一程序在多个线程中并发运行时会互相覆盖，这类场景仍应每次新建加载器（不使用缓存的 LxgShell）
+ * - 大小按类文件字节数估算，与类在 Metaspace 中的实际占用近似成正比
+ * <p>
+ * 使用建议：长期运行、反复执行少量热点脚本的宿主进程，new LxgShell(new ProgramCache(...)) 共享一个实例。
+ * CompilerBenchmark programs 对比有无缓存的单次运行耗时，以及脚本持续更替时的 Metaspace 与类卸载数。
+ *
+ * @author xiangganluo
+ */
+public final class ProgramCache {
+    /**
+     * 默认上限：256 个程序、16MB 类文件。
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_MAX_BYTES = 16L << 20;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ProgramCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxEntries 缓存的程序个数上限
+     * @param maxBytes   缓存的类文件总大小上限
+     */
+    public ProgramCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) throw new IllegalArgumentException("Cache limits must be positive");
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 以字节码的哈希为键取得程序的 main 方法，未命中时定义传入的类。
+     */
+    public Method program(byte[] classBytes) throws ReflectiveOperationException {
+        return program(hash(classBytes), () -> classBytes);
+    }
+
+    /**
+     * 取得键对应程序的 main 方法；未命中时调用 classBytes 得到类文件（如编译源码）并定义，超过上限时淘汰最久未用的程序。
+     */
+    public synchronized Method program(String key, Supplier<byte[]> classBytes) throws ReflectiveOperationException {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits++;
+            return entry.main;
+        }
+        misses++;
+        byte[] cls = classBytes.get();
+        Method main = new InMemoryClassLoader(cls).loadClass("com.lxg.gen.Program").getMethod("main", String[].class);
+        entries.put(key, new Entry(main, cls.length));
+        bytes += cls.length;
+        Iterator<Entry> oldest = entries.values().iterator();
+        while (entries.size() > maxEntries || (bytes > maxBytes && entries.size() > 1)) {
+            bytes -= oldest.next().size;
+            oldest.remove();
+            evictions++;
+        }
+        return main;
+    }
+
+    /**
+     * 字节序列的 SHA-256（十六进制）。
+     */
+    public static String hash(byte[] data) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // 每个 JRE 都必须提供 SHA-256
+        }
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * 清空缓存：全部程序的加载器随之可被回收。
+     */
+    public synchronized void clear() {
+        evictions += entries.size();
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 缓存中类文件的总字节数。
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * 当前 JVM 的 Metaspace 用量（字节）；没有名为 Metaspace 的内存池（非 HotSpot）时返回 -1。
+     */
+    public static long metaspaceUsed() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ("Metaspace".equals(pool.getName())) return pool.getUsage().getUsed();
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "programs=" + entries.size() + " bytes=" + bytes + " hits=" + hits + " misses=" + misses + " evictions=" + evictions
+                + " metaspace=" + metaspaceUsed();
+    }
+
+    private static final class Entry {
+        final Method main;
+        final int size;
+
+        Entry(Method main, int size) {
+            this.main = main;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.lxg.sema;
+
+import com.lxg.ast.node.ValueType;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 函数描述：名字、参数类型与返回类型，以及对应 static 方法的 JVM 描述符（如 (ILjava/lang/String;)Z）。
+ * <p>
+ * 函数与变量在不同的命名空间中：同名的函数与变量可以共存。调用点与声明共享同一个实例（见 SymbolTable.declareFunction）。
+ *
+ * @author xiangganluo
+ */
+public final class FunctionSymbol {
+    public final String name;
+    public final List<ValueType> parameterTypes;
+    public final ValueType returnType;
+    public final String descriptor;
+
+    public FunctionSymbol(String name, List<ValueType> parameterTypes, ValueType returnType) {
+        this.name = name;
+        this.parameterTypes = Collections.unmodifiableList(parameterTypes);
+        this.returnType = returnType;
+        StringBuilder desc = new StringBuilder("(");
+        for (ValueType t : parameterTypes) desc.append(descriptor(t));
+        this.descriptor = desc.append(')').append(descriptor(returnType)).toString();
+    }
+
+    /**
+     * 值类型对应的字段/参数描述符。
+     */
+    public static String descriptor(ValueType type) {
+        switch (type) {
+            case INT:
+                return "I";
+            case BOOLEAN:
+                return "Z";
+            case STRING:
+                return "Ljava/lang/String;";
+            default:
+                throw new IllegalStateException("No descriptor for type: " + type);
+        }
+    }
+}
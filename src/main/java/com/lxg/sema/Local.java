@@ -4,15 +4,20 @@ import com.lxg.ast.node.ValueType;
 
 /**
  * 局部变量描述：包含槽位索引与静态类型。
+ * <p>
+ * 槽位先按作用域栈分配（块结束即归还）；整体检查结束后可能再按活跃区间重新分配（见 SymbolTable.reuseDeadSlots），
+ * 因此 index 不是 final，代码生成时读取的是最终值。
  *
  * @author xiangganluo
  */
 public class Local {
-    public final int index;
+    public int index;
     public final ValueType type;
+    int declaredAt; // 声明所在语句的序号
+    int lastUse;    // 最后一次读/写所在语句的序号
 
     public Local(int index, ValueType type) {
         this.index = index;
         this.type = type;
     }
-} 
\ No newline at end of file
+}
@@ -1,9 +1,15 @@
 package com.lxg.sema;
 
+import com.lxg.ast.node.Names;
 import com.lxg.ast.node.ValueType;
 
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 
 /**
  * 符号表（语义分析阶段）：管理变量名到局部变量槽位（index）与类型的映射。
@@ -11,41 +17,251 @@ import java.util.Map;
  * <p>
  * 学习要点：
  * - JVM 的局部变量通过“槽位下标”寻址（int/boolean 占 1 槽，引用类型占 1 槽）
- * - 本实现采用“平坦作用域”：未引入作用域栈，后续可以扩展为 Block 级作用域
- * - 声明（declare）时分配下一个可用槽位；解析（resolve）时按名字查找对应 Local
+ * - 块级作用域：enterScope/exitScope 成对调用，块内声明的变量在块结束后不可见；
+ * 不允许在内层块中遮蔽外层仍可见的同名变量（与 Java 的局部变量规则一致）
+ * - 槽位按作用域栈分配：块结束时归还其中变量的槽位，后续声明复用，max_locals 取决于嵌套深度而非声明总数
+ * - 活跃区间复用：开启 liveRanges 时记录每个变量的声明与最后使用位置（以语句序号计），
+ * 整体检查结束后 reuseDeadSlots 按区间线性扫描重新分配，同一块内已“死亡”的变量槽位也会被复用
+ * - 变量按 Names 中的稠密编号存放在数组里：AST 节点携带编号时，resolve 只是一次数组下标访问
+ * - 函数：每个函数体用 forFunction 得到的独立符号表检查，槽位从 0 开始，参数固定占前几个槽位（declareParameter），
+ * 其余变量照常按活跃区间复用；函数表在同一程序的所有符号表之间共享，函数体看不到 main 的变量
  * <p>
  * 设计取舍：
- * - 先保证直观易懂，避免一次性引入多层作用域带来的复杂性
- * - 将“槽位分配”与“类型记忆”统一放在 Local 中，便于后续 codegen 使用
+ * - 语句序号按前序遍历递增，在没有循环的结构化控制流中，执行顺序与序号顺序一致，
+ * 因此“最后使用的序号之后”该槽位不会再被读取
+ * - 循环的回边会回到更小的序号：循环外声明、在循环内（含条件）用到的变量，活跃区间延长到循环的最后一条语句之后
+ * （enterLoop/exitLoop）；循环内声明的变量每次迭代都先 let 再使用，不需要延长
+ * - 流式/增量编译逐条检查时无法预知后续引用，只做作用域级的复用（顶层变量的槽位不归还）
  * <p>
- * 使用建议：在 TypeChecker 与 CodeEmitter 中共享同一份符号表，保证类型与槽位一致。
+ * 使用建议：在 TypeChecker 中使用，检查结果（Local）回填到 AST 供 CodeEmitter 使用。
  * <p>
  * author xiangganluo
  */
 public class SymbolTable {
-    private final Map<String, Local> nameToLocal = new LinkedHashMap<>();
+    private final Names names;
+    private Local[] locals = new Local[16]; // 下标为名字编号，值为当前可见的绑定
     private int nextIndex = 1; // 0 reserved for String[] args in main
+    private int maxIndex = 1;
+    private int reserved = 1; // 不参与重新分配的槽位数：main 的 args，或函数的参数
+    private final Map<String, FunctionSymbol> functions;
+
+    // 作用域栈：每层记录进入时 declared 的长度与 nextIndex
+    private int[] declared = new int[16]; // 当前可见变量的名字编号，按声明顺序
+    private int declaredSize;
+    private int[] scopeStart = new int[8];
+    private int[] scopeNext = new int[8];
+    private int depth;
+
+    private final List<Local> all; // 开启 liveRanges 时按声明顺序记录全部变量
+    private int tick;
+    private int[] loopStarts = new int[4]; // 外层到内层各循环开始时的语句序号
+    private int loops;
+
+    public SymbolTable() {
+        this(new Names());
+    }
+
+    /**
+     * 与 AST 共享驻留表：按名字调用的方法（declare(String)/resolve(String)）与节点上的 id 使用同一套编号。
+     */
+    public SymbolTable(Names names) {
+        this(names, false);
+    }
+
+    /**
+     * @param liveRanges 是否记录活跃区间（供 reuseDeadSlots 使用）；逐条检查、无限长输入时应关闭，避免保留全部变量
+     */
+    public SymbolTable(Names names, boolean liveRanges) {
+        this(names, liveRanges, new HashMap<>());
+    }
+
+    private SymbolTable(Names names, boolean liveRanges, Map<String, FunctionSymbol> functions) {
+        this.names = names;
+        this.all = liveRanges ? new ArrayList<>() : null;
+        this.functions = functions;
+    }
+
+    /**
+     * 函数体的符号表：共享名字驻留表与函数表，没有任何变量，槽位从 0 开始（先用 declareParameter 声明参数），
+     * 并记录活跃区间（函数体总是整体检查）。
+     */
+    public SymbolTable forFunction() {
+        SymbolTable table = new SymbolTable(names, true, functions);
+        table.nextIndex = 0;
+        table.maxIndex = 0;
+        table.reserved = 0;
+        return table;
+    }
+
+    /**
+     * 进入一个块级作用域。
+     */
+    public void enterScope() {
+        if (depth == scopeStart.length) {
+            scopeStart = Arrays.copyOf(scopeStart, depth * 2);
+            scopeNext = Arrays.copyOf(scopeNext, depth * 2);
+        }
+        scopeStart[depth] = declaredSize;
+        scopeNext[depth] = nextIndex;
+        depth++;
+    }
+
+    /**
+     * 离开块级作用域：块内变量不再可见，其槽位归还给后续声明。
+     */
+    public void exitScope() {
+        depth--;
+        for (int i = scopeStart[depth]; i < declaredSize; i++) locals[declared[i]] = null;
+        declaredSize = scopeStart[depth];
+        nextIndex = scopeNext[depth];
+    }
+
+    /**
+     * 进入循环（在循环语句自身的 step 之后、检查条件之前调用）。
+     */
+    public void enterLoop() {
+        if (loops == loopStarts.length) loopStarts = Arrays.copyOf(loopStarts, loops * 2);
+        loopStarts[loops++] = tick;
+    }
+
+    /**
+     * 离开循环（循环体检查完之后调用）：循环开始前声明、在循环中用到的变量，最后使用位置延长到循环末尾之后
+     * （tick + 1）。只延长到 tick 时，循环体最后一条语句（或末尾嵌套块中）的 let 满足 lastUse <= declaredAt，
+     * 会复用下一次迭代仍要读取的槽位。这些变量一定在外层作用域中，此时仍然可见。
+     */
+    public void exitLoop() {
+        int start = loopStarts[--loops];
+        for (int i = 0; i < declaredSize; i++) {
+            Local local = locals[declared[i]];
+            if (local.declaredAt < start && local.lastUse >= start) local.lastUse = tick + 1;
+        }
+    }
+
+    /**
+     * 前进到下一条语句（由 TypeChecker 在检查每条语句前调用），用于记录活跃区间。
+     */
+    public void step() {
+        tick++;
+    }
 
     /**
      * 声明新变量并分配局部槽位。
      */
     public Local declare(String name, ValueType type) {
-        if (nameToLocal.containsKey(name)) {
+        return declare(names.intern(name), name, type);
+    }
+
+    /**
+     * 按编号声明；id 为 -1（未驻留的手工节点）时按名字驻留。
+     */
+    public Local declare(int id, String name, ValueType type) {
+        Local local = bind(id, name, type);
+        if (all != null) all.add(local);
+        return local;
+    }
+
+    /**
+     * 声明函数参数（或 main 的程序输入）：须在其他变量之前按顺序声明，槽位依次为 0、1、…（main 中从 1 开始），
+     * 不参与 reuseDeadSlots 的重新分配。
+     */
+    public Local declareParameter(int id, String name, ValueType type) {
+        if (nextIndex != reserved) throw new IllegalStateException("Parameters must be declared before other variables");
+        Local local = bind(id, name, type);
+        reserved++;
+        return local;
+    }
+
+    private Local bind(int id, String name, ValueType type) {
+        if (id < 0) id = names.intern(name);
+        if (id >= locals.length) locals = Arrays.copyOf(locals, Math.max(id + 1, locals.length * 2));
+        if (locals[id] != null) {
             throw new IllegalStateException("Variable already declared: " + name);
         }
         int index = nextIndex;
         nextIndex += 1; // 简化：统一按 1 槽计（本语言仅用到 I* 与 A* 指令）
+        maxIndex = Math.max(maxIndex, nextIndex);
         Local local = new Local(index, type);
-        nameToLocal.put(name, local);
+        local.declaredAt = tick;
+        local.lastUse = tick;
+        locals[id] = local;
+        if (declaredSize == declared.length) declared = Arrays.copyOf(declared, declaredSize * 2);
+        declared[declaredSize++] = id;
         return local;
     }
 
+    /**
+     * 声明函数；同名函数已存在时抛错（不支持重载）。
+     */
+    public void declareFunction(FunctionSymbol function) {
+        if (functions.containsKey(function.name)) {
+            throw new IllegalStateException("Function already declared: " + function.name);
+        }
+        functions.put(function.name, function);
+    }
+
+    /**
+     * 解析函数名；未声明时抛错。
+     */
+    public FunctionSymbol resolveFunction(String name) {
+        FunctionSymbol function = functions.get(name);
+        if (function == null) throw new IllegalStateException("Unknown function: " + name);
+        return function;
+    }
+
+    /**
+     * 变量是否已声明（不抛异常的 resolve 前置判断）。
+     */
+    public boolean isDeclared(String name) {
+        int id = names.find(name);
+        return id >= 0 && id < locals.length && locals[id] != null;
+    }
+
     /**
      * 解析变量名，返回对应的局部变量信息；若不存在则抛错。
      */
     public Local resolve(String name) {
-        Local local = nameToLocal.get(name);
+        return resolve(names.find(name), name);
+    }
+
+    /**
+     * 按编号解析（数组下标访问，无哈希）；name 仅用于错误信息与未驻留节点。
+     */
+    public Local resolve(int id, String name) {
+        if (id < 0) id = names.find(name);
+        Local local = id >= 0 && id < locals.length ? locals[id] : null;
         if (local == null) throw new IllegalStateException("Unknown variable: " + name);
+        local.lastUse = tick;
         return local;
     }
-} 
\ No newline at end of file
+
+    /**
+     * 当前分配方案下需要的局部变量槽位数（main 含 args，函数含参数）。
+     */
+    public int maxLocals() {
+        return maxIndex;
+    }
+
+    /**
+     * 按活跃区间重新分配槽位（需以 liveRanges=true 构造）：按声明顺序线性扫描，
+     * 某变量最后一次使用所在的语句不晚于新变量的声明语句时，其槽位可被新变量复用
+     * （let 先求值右侧再存储，同一语句内读旧值、写新值不冲突）。返回新的 max_locals。
+     */
+    public int reuseDeadSlots() {
+        if (all == null) throw new IllegalStateException("Live ranges were not recorded");
+        PriorityQueue<Local> active = new PriorityQueue<>((x, y) -> Integer.compare(x.lastUse, y.lastUse));
+        BitSet used = new BitSet();
+        used.set(0, reserved); // args 或参数
+        int max = reserved;
+        for (Local local : all) {
+            while (!active.isEmpty() && active.peek().lastUse <= local.declaredAt) {
+                used.clear(active.poll().index);
+            }
+            local.index = used.nextClearBit(reserved);
+            used.set(local.index);
+            active.add(local);
+            max = Math.max(max, local.index + 1);
+        }
+        maxIndex = max;
+        return max;
+    }
+}
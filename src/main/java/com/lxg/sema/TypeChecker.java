@@ -3,32 +3,84 @@ package com.lxg.sema;
 import com.lxg.ast.expr.*;
 import com.lxg.ast.node.*;
 import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.program.FlatCompilationUnit;
 import com.lxg.ast.stmt.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 最小语义检查（教学版）：
  * - 声明与使用：变量须先 let 声明后再使用/赋值
- * - 类型检查：算术运算只接受 INT，比较运算只接受 INT，! 只接受 BOOLEAN
- * - if 条件类型必须为 BOOLEAN
+ * - 类型检查：算术运算只接受 INT，比较运算只接受 INT，!、&amp;&amp;、|| 只接受 BOOLEAN
+ * - if/while 条件类型必须为 BOOLEAN
+ * - 函数：只能在顶层声明，先声明后调用（与变量相同；函数体内可以递归调用自身），实参个数与类型须与形参一致；
+ * return 只能出现在函数体中，值的类型须为返回类型；函数体的每条路径都须以 return 结束，return 之后的语句不可达
  * <p>
  * 简化假设：
- * - 使用单一符号表，未构建作用域栈（Block 遮蔽等高级特性可在后续版本引入）
+ * - 块（含 if 的 then/else）是独立的作用域，块内变量在块外不可见；不允许遮蔽外层同名变量
+ * - 函数体只能看到自己的参数与局部变量（没有全局变量），局部变量槽位按函数独立分配（见 SymbolTable.forFunction）
  * - 诊断信息携带 SourcePos（行:列），便于快速定位错误来源
  * <p>
+ * 检查的同时产出带类型、已解析的 AST：运算表达式回填 type，变量引用与 let/赋值回填 Local（槽位与类型）；
+ * 扁平形式则写入其类型/槽位侧表。代码生成只读取这些结果，不再创建符号表或重新推断类型。
+ * <p>
  * 使用建议：在 codegen 之前运行，若存在错误则打印后终止后续阶段
  *
  * @author xiangganluo
  */
 public class TypeChecker {
+    private FnDecl function; // 正在检查的函数，顶层代码为 null
+    private int blocks; // 当前语句所在的块嵌套深度
+
+    /**
+     * 扁平形式的检查：规则与对象 AST 完全相同，诊断逐条一致。
+     */
+    public Diagnostics check(FlatCompilationUnit unit) {
+        Diagnostics diags = new Diagnostics();
+        SymbolTable symbols = new SymbolTable(unit.names, true);
+        Local[] resolved = new Local[unit.size()];
+        for (int i = 0; i < unit.statementCount(); i++) {
+            checkStatement(unit, unit.statement(i), symbols, diags, resolved);
+        }
+        // 槽位在整体检查后才最终确定，最后统一写入扁平形式的侧表
+        symbols.reuseDeadSlots();
+        for (int n = 0; n < resolved.length; n++) {
+            if (resolved[n] != null) unit.resolve(n, resolved[n]);
+        }
+        return diags;
+    }
+
+    /**
+     * 整体检查：块级作用域 + 活跃区间槽位复用（检查结束后按活跃区间重新分配 Local.index）。
+     * 程序输入先于全部语句声明，与函数参数一样固定占 args 之后的槽位。
+     */
     public Diagnostics check(CompilationUnit unit) {
         Diagnostics diags = new Diagnostics();
-        SymbolTable symbols = new SymbolTable();
+        SymbolTable symbols = new SymbolTable(unit.names, true);
+        for (Param p : unit.inputs) {
+            try {
+                p.local = symbols.declareParameter(p.id, p.name, p.type);
+            } catch (IllegalStateException e) {
+                p.local = null;
+                diags.error(e.getMessage() + at(p));
+            }
+        }
         for (Statement s : unit.statements) {
             checkStatement(s, symbols, diags);
         }
+        symbols.reuseDeadSlots();
         return diags;
     }
 
+    /**
+     * 检查单条顶层语句，符号表由调用方持有并跨语句复用（流式编译逐条检查时使用）。
+     * 符号表应与构建该语句的 AstBuilder 共享同一个 Names。此时只有作用域级的槽位复用。
+     */
+    public void check(Statement s, SymbolTable symbols, Diagnostics diags) {
+        checkStatement(s, symbols, diags);
+    }
+
     /**
      * 构造位置后缀：用于拼接到错误信息后，形如 " at line:col"
      */
@@ -37,31 +89,41 @@ public class TypeChecker {
         return p == null ? "" : (" at " + p.toString());
     }
 
+    private static String at(long pos) {
+        return pos == SourcePos.NONE ? "" : (" at " + SourcePos.line(pos) + ":" + SourcePos.column(pos));
+    }
+
     /**
      * 语句级检查：
      * - let：推断右值类型并声明到符号表
      * - 赋值：解析左侧变量，检查右值类型可赋性
      * - print：仅验证右值可推断
      * - if：条件为 BOOLEAN，再递归检查 then/else 块
+     * - while：条件为 BOOLEAN，再检查循环体（循环内用到的外部变量活跃到循环结束，见 SymbolTable.enterLoop）
+     * - fn：声明函数后用独立的符号表检查函数体；return：值的类型须与所在函数的返回类型一致
      */
     private void checkStatement(Statement s, SymbolTable symbols, Diagnostics diags) {
+        symbols.step();
         if (s instanceof LetStmt) {
             LetStmt ls = (LetStmt) s;
             ValueType t = infer(ls.value, symbols, diags);
             try {
-                symbols.declare(ls.name, t);
+                ls.local = symbols.declare(ls.id, ls.name, t);
             } catch (IllegalStateException e) {
+                ls.local = null;
                 diags.error(e.getMessage() + at(ls));
             }
         } else if (s instanceof AssignStmt) {
             AssignStmt as = (AssignStmt) s;
             Local local;
             try {
-                local = symbols.resolve(as.name);
+                local = symbols.resolve(as.id, as.name);
             } catch (IllegalStateException e) {
+                as.local = null;
                 diags.error(e.getMessage() + at(as));
                 return;
             }
+            as.local = local;
             ValueType rt = infer(as.value, symbols, diags);
             if (local.type != rt) {
                 diags.error("Type mismatch for variable '" + as.name + "': expected " + local.type + ", got " + rt + at(as));
@@ -69,24 +131,106 @@ public class TypeChecker {
         } else if (s instanceof PrintStmt) {
             infer(((PrintStmt) s).expression, symbols, diags);
         } else if (s instanceof BlockStmt) {
-            // 简化实现：未引入作用域栈，直接在同一符号表中检查
+            symbols.enterScope();
+            blocks++;
+            boolean returned = false;
             for (Statement child : ((BlockStmt) s).statements) {
+                if (returned) {
+                    diags.error("Unreachable statement" + at(child));
+                    returned = false; // 每段不可达代码只报告一次
+                }
                 checkStatement(child, symbols, diags);
+                returned = returns(child);
             }
+            blocks--;
+            symbols.exitScope();
         } else if (s instanceof IfStmt) {
             ValueType ct = infer(((IfStmt) s).condition, symbols, diags);
             if (ct != ValueType.BOOLEAN) {
                 diags.error("if condition must be boolean" + at((IfStmt) s));
             }
-            BlockStmt thenB = ((IfStmt) s).thenBlock;
-            for (Statement child : thenB.statements) checkStatement(child, symbols, diags);
+            // then/else 各自是一个块级作用域
+            checkStatement(((IfStmt) s).thenBlock, symbols, diags);
             BlockStmt elseB = ((IfStmt) s).elseBlock;
-            if (elseB != null) for (Statement child : elseB.statements) checkStatement(child, symbols, diags);
+            if (elseB != null) checkStatement(elseB, symbols, diags);
+        } else if (s instanceof WhileStmt) {
+            WhileStmt ws = (WhileStmt) s;
+            symbols.enterLoop();
+            if (infer(ws.condition, symbols, diags) != ValueType.BOOLEAN) {
+                diags.error("while condition must be boolean" + at(ws));
+            }
+            checkStatement(ws.body, symbols, diags);
+            symbols.exitLoop();
+        } else if (s instanceof FnDecl) {
+            checkFunction((FnDecl) s, symbols, diags);
+        } else if (s instanceof ReturnStmt) {
+            ReturnStmt rs = (ReturnStmt) s;
+            ValueType t = infer(rs.value, symbols, diags);
+            if (function == null) {
+                diags.error("return outside of function" + at(rs));
+            } else if (t != function.returnType) {
+                diags.error("Return type mismatch in function '" + function.name + "': expected " + function.returnType
+                        + ", got " + t + at(rs));
+            }
         } else {
             diags.error("Unknown statement: " + s.getClass().getSimpleName() + at(s));
         }
     }
 
+    /**
+     * 函数声明：先声明（之后的语句与函数体自身可以调用），参数固定占前几个槽位，函数体检查完后按活跃区间重新分配其余槽位。
+     */
+    private void checkFunction(FnDecl fd, SymbolTable symbols, Diagnostics diags) {
+        if (function != null || blocks > 0) {
+            fd.symbol = null;
+            diags.error("Functions must be declared at top level" + at(fd));
+            return;
+        }
+        List<ValueType> types = new ArrayList<>(fd.params.size());
+        for (Param p : fd.params) types.add(p.type);
+        FunctionSymbol f = new FunctionSymbol(fd.name, types, fd.returnType);
+        try {
+            symbols.declareFunction(f);
+            fd.symbol = f;
+        } catch (IllegalStateException e) {
+            fd.symbol = null;
+            diags.error(e.getMessage() + at(fd));
+        }
+        SymbolTable locals = symbols.forFunction();
+        for (Param p : fd.params) {
+            try {
+                p.local = locals.declareParameter(p.id, p.name, p.type);
+            } catch (IllegalStateException e) {
+                p.local = null;
+                diags.error(e.getMessage() + at(p));
+            }
+        }
+        function = fd;
+        checkStatement(fd.body, locals, diags);
+        function = null;
+        locals.reuseDeadSlots();
+        if (!returns(fd.body)) diags.error("Missing return in function '" + fd.name + "'" + at(fd));
+    }
+
+    /**
+     * 语句是否在每条路径上都以 return 结束：return；其中有这样一条语句的块；两个分支都如此的 if/else。
+     * while 不算（条件可能一开始就为假）。代码生成据此省略 then 分支之后不可达的 GOTO。
+     */
+    public static boolean returns(Statement s) {
+        if (s instanceof ReturnStmt) return true;
+        if (s instanceof BlockStmt) {
+            for (Statement child : ((BlockStmt) s).statements) {
+                if (returns(child)) return true;
+            }
+            return false;
+        }
+        if (s instanceof IfStmt) {
+            IfStmt is = (IfStmt) s;
+            return is.elseBlock != null && returns(is.thenBlock) && returns(is.elseBlock);
+        }
+        return false;
+    }
+
     /**
      * 表达式类型推断：递归地对字面量、变量引用、一元/二元表达式进行检查与类型返回。
      * 错误不会抛异常，而是落到 Diagnostics 以便一次性展示所有问题。
@@ -96,50 +240,202 @@ public class TypeChecker {
         if (e instanceof StringLiteral) return ValueType.STRING;
         if (e instanceof BoolLiteral) return ValueType.BOOLEAN;
         if (e instanceof VarRef) {
+            VarRef v = (VarRef) e;
             try {
-                return symbols.resolve(((VarRef) e).name).type;
+                v.local = symbols.resolve(v.id, v.name);
+                return v.local.type;
             } catch (IllegalStateException ex) {
-                diags.error(ex.getMessage() + at((VarRef) e));
+                v.local = null;
+                diags.error(ex.getMessage() + at(v));
                 return ValueType.VOID;
             }
         }
         if (e instanceof UnaryExpr) {
             UnaryExpr ue = (UnaryExpr) e;
-            ValueType t = infer(ue.expr, symbols, diags);
-            switch (ue.op) {
-                case PLUS:
-                case MINUS:
-                    if (t != ValueType.INT) diags.error("Unary +/- expects INT" + at(ue));
-                    return ValueType.INT;
-                case NOT:
-                    if (t != ValueType.BOOLEAN) diags.error("Unary ! expects BOOLEAN" + at(ue));
-                    return ValueType.BOOLEAN;
-            }
+            return ue.type = unaryType(ue.op, infer(ue.expr, symbols, diags), ue.pos, diags);
         }
         if (e instanceof BinaryExpr) {
             BinaryExpr be = (BinaryExpr) e;
             ValueType lt = infer(be.left, symbols, diags);
             ValueType rt = infer(be.right, symbols, diags);
-            switch (be.op) {
-                case ADD:
-                case SUB:
-                case MUL:
-                case DIV:
-                    if (lt != ValueType.INT || rt != ValueType.INT)
-                        diags.error("Arithmetic expects INT operands" + at(be));
-                    return ValueType.INT;
-                case EQ:
-                case NE:
-                case LT:
-                case GT:
-                case LE:
-                case GE:
-                    if (lt != ValueType.INT || rt != ValueType.INT)
-                        diags.error("Comparison expects INT operands" + at(be));
-                    return ValueType.BOOLEAN;
-            }
+            return be.type = binaryType(be.op, lt, rt, be.pos, diags);
+        }
+        if (e instanceof CallExpr) {
+            return inferCall((CallExpr) e, symbols, diags);
         }
         diags.error("Unknown expression: " + e.getClass().getSimpleName() + at(e));
         return ValueType.VOID;
     }
-} 
\ No newline at end of file
+
+    /**
+     * 调用：先推断全部实参（报告其中的错误），再按函数签名检查个数与类型。
+     */
+    private ValueType inferCall(CallExpr call, SymbolTable symbols, Diagnostics diags) {
+        List<ValueType> args = new ArrayList<>(call.args.size());
+        for (Expression a : call.args) args.add(infer(a, symbols, diags));
+        FunctionSymbol f;
+        try {
+            f = symbols.resolveFunction(call.name);
+        } catch (IllegalStateException ex) {
+            call.function = null;
+            diags.error(ex.getMessage() + at(call));
+            return ValueType.VOID;
+        }
+        call.function = f;
+        if (args.size() != f.parameterTypes.size()) {
+            diags.error("Function '" + f.name + "' expects " + f.parameterTypes.size() + " argument(s), got " + args.size() + at(call));
+        } else {
+            for (int i = 0; i < args.size(); i++) {
+                if (args.get(i) != f.parameterTypes.get(i)) {
+                    diags.error("Argument " + (i + 1) + " of '" + f.name + "': expected " + f.parameterTypes.get(i)
+                            + ", got " + args.get(i) + at(call.args.get(i)));
+                }
+            }
+        }
+        return f.returnType;
+    }
+
+    /**
+     * 一元运算的类型规则（对象 AST 与扁平形式共用）。
+     */
+    private static ValueType unaryType(UnaryOp op, ValueType t, long pos, Diagnostics diags) {
+        switch (op) {
+            case PLUS:
+            case MINUS:
+                if (t != ValueType.INT) diags.error("Unary +/- expects INT" + at(pos));
+                return ValueType.INT;
+            case NOT:
+                if (t != ValueType.BOOLEAN) diags.error("Unary ! expects BOOLEAN" + at(pos));
+                return ValueType.BOOLEAN;
+            default:
+                throw new IllegalStateException("Unknown unary op: " + op);
+        }
+    }
+
+    private static ValueType arithmeticType(ValueType lt, ValueType rt, long pos, Diagnostics diags) {
+        if (lt != ValueType.INT || rt != ValueType.INT) diags.error("Arithmetic expects INT operands" + at(pos));
+        return ValueType.INT;
+    }
+
+    /**
+     * 二元运算的类型规则（对象 AST 与扁平形式共用）。
+     * + 的任一侧为 STRING 时是字符串拼接（另一侧可为 INT/BOOLEAN/STRING），结果为 STRING。
+     */
+    private static ValueType binaryType(BinaryOp op, ValueType lt, ValueType rt, long pos, Diagnostics diags) {
+        switch (op) {
+            case ADD:
+                if (lt == ValueType.STRING || rt == ValueType.STRING) return ValueType.STRING;
+                return arithmeticType(lt, rt, pos, diags);
+            case SUB:
+            case MUL:
+            case DIV:
+                return arithmeticType(lt, rt, pos, diags);
+            case EQ:
+            case NE:
+            case LT:
+            case GT:
+            case LE:
+            case GE:
+                if (lt != ValueType.INT || rt != ValueType.INT)
+                    diags.error("Comparison expects INT operands" + at(pos));
+                return ValueType.BOOLEAN;
+            case AND:
+            case OR:
+                if (lt != ValueType.BOOLEAN || rt != ValueType.BOOLEAN)
+                    diags.error("Logical operator expects BOOLEAN operands" + at(pos));
+                return ValueType.BOOLEAN;
+            default:
+                throw new IllegalStateException("Unknown binary op: " + op);
+        }
+    }
+
+    private void checkStatement(FlatCompilationUnit u, int n, SymbolTable symbols, Diagnostics diags, Local[] resolved) {
+        symbols.step();
+        switch (u.kind(n)) {
+            case FlatCompilationUnit.LET: {
+                ValueType t = infer(u, u.operand(n), symbols, diags, resolved);
+                try {
+                    resolved[n] = symbols.declare(u.nameId(n), u.name(n), t);
+                } catch (IllegalStateException e) {
+                    diags.error(e.getMessage() + at(u.pos(n)));
+                }
+                break;
+            }
+            case FlatCompilationUnit.ASSIGN: {
+                Local local;
+                try {
+                    local = symbols.resolve(u.nameId(n), u.name(n));
+                } catch (IllegalStateException e) {
+                    diags.error(e.getMessage() + at(u.pos(n)));
+                    return;
+                }
+                resolved[n] = local;
+                ValueType rt = infer(u, u.operand(n), symbols, diags, resolved);
+                if (local.type != rt) {
+                    diags.error("Type mismatch for variable '" + u.name(n) + "': expected " + local.type + ", got " + rt + at(u.pos(n)));
+                }
+                break;
+            }
+            case FlatCompilationUnit.PRINT:
+                infer(u, u.operand(n), symbols, diags, resolved);
+                break;
+            case FlatCompilationUnit.BLOCK:
+                symbols.enterScope();
+                for (int i = 0; i < u.childCount(n); i++) checkStatement(u, u.child(n, i), symbols, diags, resolved);
+                symbols.exitScope();
+                break;
+            case FlatCompilationUnit.IF: {
+                if (infer(u, u.condition(n), symbols, diags, resolved) != ValueType.BOOLEAN) {
+                    diags.error("if condition must be boolean" + at(u.pos(n)));
+                }
+                checkStatement(u, u.thenBlock(n), symbols, diags, resolved);
+                if (u.elseBlock(n) >= 0) checkStatement(u, u.elseBlock(n), symbols, diags, resolved);
+                break;
+            }
+            case FlatCompilationUnit.WHILE: {
+                symbols.enterLoop();
+                if (infer(u, u.condition(n), symbols, diags, resolved) != ValueType.BOOLEAN) {
+                    diags.error("while condition must be boolean" + at(u.pos(n)));
+                }
+                checkStatement(u, u.body(n), symbols, diags, resolved);
+                symbols.exitLoop();
+                break;
+            }
+            default:
+                diags.error("Unknown statement kind: " + u.kind(n) + at(u.pos(n)));
+        }
+    }
+
+    private ValueType infer(FlatCompilationUnit u, int n, SymbolTable symbols, Diagnostics diags, Local[] resolved) {
+        switch (u.kind(n)) {
+            case FlatCompilationUnit.INT_LITERAL:
+            case FlatCompilationUnit.STRING_LITERAL:
+            case FlatCompilationUnit.BOOL_LITERAL:
+                return u.type(n);
+            case FlatCompilationUnit.VAR_REF:
+                try {
+                    Local local = symbols.resolve(u.nameId(n), u.name(n));
+                    resolved[n] = local;
+                    return local.type;
+                } catch (IllegalStateException ex) {
+                    diags.error(ex.getMessage() + at(u.pos(n)));
+                    return ValueType.VOID;
+                }
+            case FlatCompilationUnit.UNARY: {
+                ValueType t = unaryType(u.unaryOp(n), infer(u, u.operand(n), symbols, diags, resolved), u.pos(n), diags);
+                u.setType(n, t);
+                return t;
+            }
+            case FlatCompilationUnit.BINARY: {
+                ValueType lt = infer(u, u.left(n), symbols, diags, resolved);
+                ValueType rt = infer(u, u.right(n), symbols, diags, resolved);
+                ValueType t = binaryType(u.binaryOp(n), lt, rt, u.pos(n), diags);
+                u.setType(n, t);
+                return t;
+            }
+            default:
+                diags.error("Unknown expression kind: " + u.kind(n) + at(u.pos(n)));
+                return ValueType.VOID;
+        }
+    }
+}
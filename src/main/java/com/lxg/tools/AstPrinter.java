@@ -63,6 +63,28 @@ public final class AstPrinter {
                 sb.append("Else:\n");
                 for (Statement c : is.elseBlock.statements) printStmt(sb, c, ind + 2);
             }
+        } else if (s instanceof WhileStmt) {
+            WhileStmt ws = (WhileStmt) s;
+            indent(sb, ind);
+            sb.append("While cond=");
+            printExpr(sb, ws.condition, 0);
+            sb.append("\n");
+            for (Statement c : ws.body.statements) printStmt(sb, c, ind + 2);
+        } else if (s instanceof FnDecl) {
+            FnDecl fd = (FnDecl) s;
+            indent(sb, ind);
+            sb.append("Fn ").append(fd.name).append('(');
+            for (int i = 0; i < fd.params.size(); i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(fd.params.get(i).name).append(": ").append(fd.params.get(i).type);
+            }
+            sb.append("): ").append(fd.returnType).append('\n');
+            for (Statement c : fd.body.statements) printStmt(sb, c, ind + 2);
+        } else if (s instanceof ReturnStmt) {
+            indent(sb, ind);
+            sb.append("Return ");
+            printExpr(sb, ((ReturnStmt) s).value, 0);
+            sb.append('\n');
         } else {
             indent(sb, ind);
             sb.append("UnknownStmt ").append(s.getClass().getSimpleName()).append('\n');
@@ -86,6 +108,14 @@ public final class AstPrinter {
             sb.append(' ').append(be.op).append(' ');
             printExpr(sb, be.right, 0);
             sb.append(')');
+        } else if (e instanceof CallExpr) {
+            CallExpr call = (CallExpr) e;
+            sb.append("Call ").append(call.name).append('(');
+            for (int i = 0; i < call.args.size(); i++) {
+                if (i > 0) sb.append(", ");
+                printExpr(sb, call.args.get(i), 0);
+            }
+            sb.append(')');
         } else {
             sb.append("<UnknownExpr>");
         }
@@ -0,0 +1,1313 @@
+package com.lxg.tools;
+
+import com.lxg.antlr.LxgLexer;
+import com.lxg.antlr.LxgParser;
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.node.ValueType;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.program.FlatCompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.codegen.PeepholeOptimizer;
+import com.lxg.codegen.ProgramEmitter;
+import com.lxg.driver.BatchCompiler;
+import com.lxg.driver.CompilationCache;
+import com.lxg.driver.IncrementalCompiler;
+import com.lxg.driver.ScriptCompiler;
+import com.lxg.driver.TieredScript;
+import com.lxg.frontend.AstBuilder;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.frontend.FastLexer;
+import com.lxg.opt.ConstantFolder;
+import com.lxg.opt.DeadCodeEliminator;
+import com.lxg.opt.Inliner;
+import com.lxg.opt.LoopOptimizer;
+import com.lxg.opt.Optimizer;
+import com.lxg.runtime.CompiledScript;
+import com.lxg.runtime.LxgContext;
+import com.lxg.runtime.LxgShell;
+import com.lxg.runtime.ProgramCache;
+import com.lxg.runtime.ScriptLoader;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 编译器基准：在合成源码上对比各阶段不同实现的耗时，结果打印到标准输出。
+ * <p>
+ * 用法：java -cp my-language.jar com.lxg.tools.CompilerBenchmark <scenario> [--statements=N] [--iterations=K] [--threads=T]
+ * <p>
+ * 说明：这是一个轻量的手写计时器（预热 + 多次取平均），用于观察量级差异；
+ * 需要严谨数据时请配合 -Xint/-XX:+PrintCompilation 等参数多次运行。
+ *
+ * @author xiangganluo
+ */
+public final class CompilerBenchmark {
+    private CompilerBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: CompilerBenchmark <parse|lex|ast|incremental|sema|flat|batch|opt|branches|concat|output|split|peephole|loops|calls|frames|cache|programs|embed|loaders|tiers> [--statements=N] [--iterations=K] [--threads=T]");
+            return;
+        }
+        int statements = 100_000;
+        int iterations = 10;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring("--threads=".length()));
+            if (arg.startsWith("--statements=")) statements = Integer.parseInt(arg.substring("--statements=".length()));
+            else if (arg.startsWith("--iterations=")) iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+        }
+        String source = SyntheticSource.generate(statements, 42);
+        System.out.printf("source: %d statements, %.1f MB%n", statements, source.length() / 1e6);
+        switch (args[0]) {
+            case "parse":
+                parse(source, iterations);
+                break;
+            case "lex":
+                lex(source, iterations);
+                break;
+            case "ast":
+                ast(source, iterations);
+                break;
+            case "incremental":
+                incremental(source, iterations);
+                break;
+            case "sema":
+                sema(source, iterations);
+                break;
+            case "flat":
+                flat(source, iterations);
+                break;
+            case "batch":
+                batch(statements, iterations, threads);
+                break;
+            case "opt":
+                opt(statements, iterations);
+                break;
+            case "branches":
+                branches(statements, iterations);
+                break;
+            case "concat":
+                concat(statements, iterations);
+                break;
+            case "output":
+                output(statements, iterations);
+                break;
+            case "split":
+                split(statements, iterations);
+                break;
+            case "peephole":
+                peephole(statements, iterations);
+                break;
+            case "loops":
+                loops(statements, iterations);
+                break;
+            case "calls":
+                calls(statements, iterations);
+                break;
+            case "frames":
+                frames(statements, iterations);
+                break;
+            case "cache":
+                cache(statements, iterations);
+                break;
+            case "programs":
+                programs(statements, iterations);
+                break;
+            case "embed":
+                embed(statements, iterations, threads);
+                break;
+            case "loaders":
+                loaders(statements);
+                break;
+            case "tiers":
+                tiers(statements, iterations);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scenario: " + args[0]);
+        }
+    }
+
+    /**
+     * 解析吞吐：每次新建 Lexer/Parser 的全 LL 解析 vs CompilerSession 的 SLL→LL 两阶段解析。
+     * 另外对比“大量小脚本”场景，体现会话复用的收益。
+     */
+    private static void parse(String source, int iterations) {
+        report("parse/large baseline-LL", source.length(), iterations, () -> {
+            LxgParser parser = new LxgParser(new CommonTokenStream(new LxgLexer(CharStreams.fromString(source))));
+            parser.prog();
+        });
+        CompilerSession session = new CompilerSession();
+        report("parse/large session-SLL", source.length(), iterations, () -> session.parse(source, new Diagnostics()));
+
+        String small = SyntheticSource.generate(20, 7);
+        int scripts = 5_000;
+        report("parse/5000 small baseline-LL", (long) small.length() * scripts, iterations, () -> {
+            for (int i = 0; i < scripts; i++) {
+                LxgParser parser = new LxgParser(new CommonTokenStream(new LxgLexer(CharStreams.fromString(small))));
+                parser.prog();
+            }
+        });
+        report("parse/5000 small session-SLL", (long) small.length() * scripts, iterations, () -> {
+            for (int i = 0; i < scripts; i++) session.parse(small, new Diagnostics());
+        });
+        System.out.println("session dfa states: " + session.dfaStateCount() + ", resets: " + session.cacheResets());
+    }
+
+    /**
+     * 词法吞吐与分配：ANTLR LxgLexer + CommonTokenStream.fill() vs FastLexer。
+     */
+    private static void lex(String source, int iterations) {
+        report("lex antlr", source.length(), iterations, () -> {
+            CommonTokenStream tokens = new CommonTokenStream(new LxgLexer(CharStreams.fromString(source)));
+            tokens.fill();
+        });
+        reportAllocation("lex antlr", () -> {
+            CommonTokenStream tokens = new CommonTokenStream(new LxgLexer(CharStreams.fromString(source)));
+            tokens.fill();
+        });
+        char[] buf = source.toCharArray();
+        report("lex fast", source.length(), iterations, () -> FastLexer.lex(buf, buf.length, new Diagnostics()));
+        reportAllocation("lex fast", () -> FastLexer.lex(buf, buf.length, new Diagnostics()));
+    }
+
+    /**
+     * AST 构建：解析树 + AstBuilder vs 解析期直接构建（parseAst，不保留解析树）。
+     */
+    private static void ast(String source, int iterations) {
+        CompilerSession session = new CompilerSession();
+        AstBuilder builder = new AstBuilder();
+        report("ast parse-tree+AstBuilder", source.length(), iterations,
+                () -> builder.build(session.parse(source, new Diagnostics())));
+        reportAllocation("ast parse-tree+AstBuilder", () -> builder.build(session.parse(source, new Diagnostics())));
+        report("ast listener", source.length(), iterations, () -> session.parseAst(source, new Diagnostics()));
+        reportAllocation("ast listener", () -> session.parseAst(source, new Diagnostics()));
+    }
+
+    /**
+     * 增量编译：整体打开一次，然后在随机行上做单行编辑（改字面量后再改回），统计编辑到诊断的耗时。
+     */
+    private static void incremental(String source, int iterations) {
+        IncrementalCompiler inc = new IncrementalCompiler();
+        System.out.printf("%-36s %10.2f ms%n", "incremental open", time(1, () -> inc.open(source)));
+        java.util.Random rnd = new java.util.Random(1);
+        int edits = iterations * 100;
+        long[] nanos = new long[edits];
+        for (int i = 0; i < edits; i++) {
+            int at = source.indexOf('\n', rnd.nextInt(source.length() - 1)) + 1;
+            long start = System.nanoTime();
+            inc.edit(at, 0, "print 7;\n");
+            inc.edit(at, "print 7;\n".length(), "");
+            nanos[i] = (System.nanoTime() - start) / 2;
+        }
+        java.util.Arrays.sort(nanos);
+        System.out.printf("%-36s %10.2f ms median %10.2f ms p99%n", "incremental edit",
+                nanos[edits / 2] / 1e6, nanos[edits * 99 / 100] / 1e6);
+    }
+
+    /**
+     * 语义检查与代码生成：AST 常驻内存大小（GC 后的堆增量）、TypeChecker 与字节码发射的耗时。
+     * 发射目标是丢弃指令的 ClassVisitor（大程序超出单方法 64KB 上限，只测发射本身）。
+     */
+    private static void sema(String source, int iterations) {
+        long before = usedHeapAfterGc();
+        CompilationUnit unit = new CompilerSession().parseAst(source, new Diagnostics());
+        long retained = usedHeapAfterGc() - before;
+        int refs = 0;
+        for (int i = source.indexOf('v'); i >= 0; i = source.indexOf('v', i + 1)) refs++;
+        System.out.printf("%-36s %10.1f MB retained, %d variable references%n", "ast", retained / 1e6, refs);
+        report("sema TypeChecker", source.length(), iterations, () -> new TypeChecker().check(unit));
+        report("sema codegen", source.length(), iterations, () -> {
+            ProgramEmitter program = discardingProgram();
+            for (Statement s : unit.statements) program.emit(s);
+            program.finish();
+        });
+        if (unit.statements.isEmpty()) System.out.println(); // 保持 unit 在测量期间可达
+    }
+
+    /**
+     * 扁平 AST：对象 AST 与 FlatCompilationUnit 的每节点内存，以及两种形式上 TypeChecker/代码生成的耗时。
+     * 扁平形式的内存不含与对象 AST 共享的 Names 与字符串常量。
+     */
+    private static void flat(String source, int iterations) {
+        long before = usedHeapAfterGc();
+        CompilationUnit unit = new CompilerSession().parseAst(source, new Diagnostics());
+        long objects = usedHeapAfterGc() - before;
+        FlatCompilationUnit flat = FlatCompilationUnit.of(unit);
+        long flatBytes = usedHeapAfterGc() - before - objects;
+        int nodes = flat.size();
+        System.out.printf("%-36s %10.1f MB %10.1f B/node (%d nodes)%n", "flat objects retained", objects / 1e6, (double) objects / nodes, nodes);
+        System.out.printf("%-36s %10.1f MB %10.1f B/node%n", "flat arrays retained", flatBytes / 1e6, (double) flatBytes / nodes);
+        report("flat objects TypeChecker", source.length(), iterations, () -> new TypeChecker().check(unit));
+        report("flat arrays TypeChecker", source.length(), iterations, () -> new TypeChecker().check(flat));
+        report("flat objects codegen", source.length(), iterations, () -> {
+            ProgramEmitter program = discardingProgram();
+            for (Statement s : unit.statements) program.emit(s);
+            program.finish();
+        });
+        report("flat arrays codegen", source.length(), iterations, () -> {
+            ProgramEmitter program = discardingProgram();
+            for (int i = 0; i < flat.statementCount(); i++) program.emit(flat, flat.statement(i));
+            program.finish();
+        });
+        report("flat convert of()", source.length(), iterations, () -> FlatCompilationUnit.of(unit));
+    }
+
+    /**
+     * 批量编译的扩展性：把 statements 条语句分散到 400 个脚本，分别以 1、2、4…直到 maxThreads
+     * （默认可用核数，--threads=N 指定）个线程编译为 jar，输出耗时与相对单线程的加速比。
+     */
+    private static void batch(int statements, int iterations, int maxThreads) {
+        int files = 400;
+        try {
+            Path dir = Files.createTempDirectory("lxg-batch");
+            for (int i = 0; i < files; i++) {
+                Path script = dir.resolve("dir" + (i % 10)).resolve("script" + i + ".lxg");
+                Files.createDirectories(script.getParent());
+                Files.write(script, SyntheticSource.generate(Math.max(20, statements / files), i).getBytes(StandardCharsets.UTF_8));
+            }
+            Path jar = dir.resolve("app.jar");
+            double single = 0;
+            for (int jobs = 1; ; jobs = Math.min(jobs * 2, maxThreads)) {
+                BatchCompiler compiler = new BatchCompiler(jobs);
+                double ms = time(iterations, () -> {
+                    try {
+                        if (compiler.compile(dir, jar).hasErrors()) throw new IllegalStateException("batch failed");
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                if (jobs == 1) single = ms;
+                System.out.printf("%-36s %10.2f ms/op %8.2fx%n", "batch " + files + " files, " + jobs + " threads", ms, single / ms);
+                if (jobs >= maxThreads) break;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * AST 优化：examples 下可编译的示例、合成程序、常量密集程序与含大量调试分支的程序，对比类文件大小
+     * （未优化 / 仅常量折叠 / 完整优化）与 main 单次运行耗时（未优化 / 完整优化；输出重定向到丢弃字节的流，只测程序本身）。
+     * 合成程序限制在 1000 条语句以内，保证 main 不超过 64KB。
+     */
+    private static void opt(int statements, int iterations) {
+        Map<String, String> programs = new LinkedHashMap<>();
+        try (Stream<Path> files = Files.list(Paths.get("examples"))) {
+            for (Path p : files.filter(f -> f.toString().endsWith(".lxg")).sorted().collect(Collectors.toList())) {
+                programs.put(p.getFileName().toString(), new String(Files.readAllBytes(p), StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            System.out.println("examples/ not found, skipping examples: " + e.getMessage());
+        }
+        int n = Math.min(statements, 1_000);
+        programs.put("synthetic " + n, SyntheticSource.generate(n, 42));
+        programs.put("constants " + n, constantProgram(n));
+        programs.put("debug branches " + n, debugProgram(n));
+
+        PrintStream out = System.out;
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        for (Map.Entry<String, String> e : programs.entrySet()) {
+            Diagnostics diags = new Diagnostics();
+            CompilationUnit unit = new CompilerSession().parseAst(e.getValue(), diags);
+            if (diags.hasErrors() || new TypeChecker().check(unit).hasErrors()) continue; // error_*.lxg
+            byte[] plain = new ClassGenerator().generate(unit);
+            int folded = new ClassGenerator().generate(new ConstantFolder().fold(unit)).length;
+            byte[] optimized = new ClassGenerator().generate(Optimizer.optimize(unit));
+            Runnable runPlain = mainOf(plain);
+            Runnable runOptimized = mainOf(optimized);
+            System.setOut(discard);
+            double before;
+            double after;
+            try {
+                before = time(iterations, runPlain);
+                after = time(iterations, runOptimized);
+            } finally {
+                System.setOut(out);
+            }
+            System.out.printf("%-36s %7d -> %7d -> %7d B %10.4f -> %10.4f ms/run%n", "opt " + e.getKey(),
+                    plain.length, folded, optimized.length, before, after);
+        }
+    }
+
+    /**
+     * 常量密集的程序：一串只声明不赋值的 let（可全部传播），穿插对累加变量 n 的更新与打印。
+     */
+    private static String constantProgram(int statements) {
+        StringBuilder sb = new StringBuilder("let n = 0;\nlet c0 = 1;\n");
+        for (int i = 1; sb.length() < statements * 24; i++) {
+            sb.append("let c").append(i).append(" = c").append(i - 1).append(" * 3 + ").append(i % 7).append(";\n");
+            sb.append("n = n + c").append(i).append(" / (2 * 5) - ").append(i).append(";\n");
+            if (i % 4 == 0) sb.append("if (c").append(i).append(" > 100) { print n; } else { print c").append(i).append(" < 0; }\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 含大量调试代码的程序：由常量开关 debug 控制的分支与只在分支里使用的临时变量，完整优化后应全部消除。
+     */
+    private static String debugProgram(int statements) {
+        StringBuilder sb = new StringBuilder("let debug = false;\nlet sum = 0;\n");
+        for (int i = 0; sb.length() < statements * 24; i++) {
+            sb.append("let t").append(i).append(" = sum * ").append(i + 2).append(";\n");
+            sb.append("if (debug) { print \"step ").append(i).append("\"; print t").append(i).append("; }\n");
+            sb.append("sum = sum + ").append(i).append(";\n");
+        }
+        return sb.append("print sum;\n").toString();
+    }
+
+    /**
+     * 条件密集的程序：每个 if 的跳转指令数（条件跳转 + GOTO）与 main 单次运行耗时。
+     * logical 为 false 时只用比较与 !（可与引入 &amp;&amp;/|| 之前的版本对比），为 true 时混入短路运算。
+     */
+    private static void branches(int statements, int iterations) {
+        for (boolean logical : new boolean[]{false, true}) {
+            String src = conditionProgram(Math.min(statements, 1_000), logical);
+            CompilationUnit unit = new CompilerSession().parseAst(src, new Diagnostics());
+            if (new TypeChecker().check(unit).hasErrors()) throw new IllegalStateException("invalid program");
+            byte[] cls = new ClassGenerator().generate(unit);
+            int ifs = 0;
+            for (int i = src.indexOf("if ("); i >= 0; i = src.indexOf("if (", i + 1)) ifs++;
+            int[] jumps = {0};
+            new ClassReader(cls).accept(new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    return new MethodVisitor(Opcodes.ASM9) {
+                        @Override
+                        public void visitJumpInsn(int opcode, Label label) {
+                            jumps[0]++;
+                        }
+                    };
+                }
+            }, 0);
+            Runnable main = mainOf(cls);
+            double ms = time(iterations, main);
+            System.out.printf("%-36s %6d ifs %6.2f jumps/if %8d B %10.4f ms/run%n", "branches " + (logical ? "&&/||" : "compare/!"),
+                    ifs, (double) jumps[0] / ifs, cls.length, ms);
+        }
+    }
+
+    /**
+     * 条件密集的程序：一组整数变量在 if/else 中相互更新，条件为比较、! 以及（logical 时）&amp;&amp;/|| 组合，不打印。
+     */
+    static String conditionProgram(int statements, boolean logical) {
+        Random rnd = new Random(7);
+        String[] cmp = {"<", ">", "<=", ">=", "==", "!="};
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 8; i++) sb.append("let v").append(i).append(" = ").append(rnd.nextInt(100)).append(";\n");
+        for (int i = 0; i < statements; i++) {
+            StringBuilder cond = new StringBuilder();
+            cond.append('v').append(rnd.nextInt(8)).append(' ').append(cmp[rnd.nextInt(cmp.length)]).append(" v").append(rnd.nextInt(8));
+            if (rnd.nextInt(3) == 0) cond.insert(0, "!(").append(')');
+            if (logical && rnd.nextBoolean()) {
+                cond.append(rnd.nextBoolean() ? " && " : " || ").append('v').append(rnd.nextInt(8)).append(" > ").append(rnd.nextInt(100));
+            }
+            int target = rnd.nextInt(8);
+            sb.append("if (").append(cond).append(") { v").append(target).append(" = v").append(target).append(" + ").append(1 + rnd.nextInt(9))
+                    .append("; } else { v").append(target).append(" = v").append(rnd.nextInt(8)).append(" - 1; }\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 字符串拼接：同样的输出分别用逐段 print（引入拼接之前的写法）、目标 8 的 StringBuilder、
+     * 目标 11/17 的 invokedynamic 生成，比较类大小与 main 单次运行耗时（输出丢弃）。链长分别为 8 段与 64 段。
+     */
+    private static void concat(int statements, int iterations) {
+        PrintStream out = System.out;
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        for (int parts : new int[]{8, 64}) {
+            int lines = Math.min(statements, 2_400 / parts); // 逐段 print 的版本受单方法 64KB 上限约束
+            String separate = concatProgram(lines, parts, false);
+            String joined = concatProgram(lines, parts, true);
+            Map<String, byte[]> classes = new LinkedHashMap<>();
+            classes.put("concat " + parts + " print-per-part", compileChecked(separate, ClassGenerator.DEFAULT_TARGET));
+            for (int target : new int[]{8, 11, 17}) {
+                classes.put("concat " + parts + " target " + target + (target == 8 ? " sb" : " indy"), compileChecked(joined, target));
+            }
+            for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+                Runnable main = mainOf(e.getValue());
+                System.setOut(discard);
+                double ms;
+                try {
+                    ms = time(iterations, main);
+                } finally {
+                    System.setOut(out);
+                }
+                System.out.printf("%-36s %8d B %10.4f ms/run%n", e.getKey(), e.getValue().length, ms);
+            }
+        }
+    }
+
+    private static byte[] compileChecked(String src, int target) {
+        return compileChecked(src, target, true);
+    }
+
+    private static byte[] compileChecked(String src, int target, boolean bufferedOutput) {
+        CompilationUnit unit = new CompilerSession().parseAst(src, new Diagnostics());
+        if (new TypeChecker().check(unit).hasErrors()) throw new IllegalStateException("invalid program");
+        return new ClassGenerator(ClassGenerator.CLASS_NAME, target, bufferedOutput).generate(unit);
+    }
+
+    /**
+     * 方法拆分：同一个不打印的合成程序（约 2500 条语句，main 约 35KB）分别生成为单个 main 与按预算拆分的方法链，
+     * 比较方法数与 main 单次运行耗时（超过 8000 字节的 main 不会被 JIT 编译，始终解释执行）。
+     */
+    private static void split(int statements, int iterations) {
+        String src = SyntheticSource.generate(Math.min(statements, 2_500), 3).replaceAll("print [^;]*;", "v0 = v0 + 1;");
+        CompilationUnit unit = new CompilerSession().parseAst(src, new Diagnostics());
+        if (new TypeChecker().check(unit).hasErrors()) throw new IllegalStateException("invalid program");
+        for (int budget : new int[]{0, ClassGenerator.DEFAULT_METHOD_BUDGET, 2_000}) {
+            ProgramEmitter program = new ClassGenerator(ClassGenerator.CLASS_NAME, ClassGenerator.DEFAULT_TARGET, false, budget).begin();
+            for (Statement s : unit.statements) program.emit(s);
+            byte[] cls = program.finish();
+            Runnable main = mainOf(cls);
+            double ms = time(iterations, main);
+            System.out.printf("%-36s %6d methods %8d B %10.4f ms/run%n", budget == 0 ? "split off" : "split budget " + budget,
+                    program.chunks() + 1, cls.length, ms);
+        }
+    }
+
+    /**
+     * 循环优化：循环密集的程序（n 取 min(statements, 1000)，嵌套循环约 n² 次迭代）分别经常量折叠 + 死代码消除、
+     * 以及再加上 LoopOptimizer 后生成（非缓冲输出，便于捕获比较），对比外提/削弱的个数、类大小与 main 单次运行耗时（两者输出相同才计时）。
+     */
+    private static void loops(int statements, int iterations) {
+        int n = Math.min(statements, 1_000);
+        Map<String, String> programs = new LinkedHashMap<>();
+        programs.put("loops nested index " + n, "let n = 0; n = n + " + n + "; let w = 0; w = w + 17; let sum = 0;\n"
+                + "let i = 0;\n"
+                + "while (i < n) { let j = 0; while (j < n) { sum = sum + i * w + j * 3 + (w * w - n / 2); j = j + 1; } i = i + 1; }\n"
+                + "print sum;\n");
+        programs.put("loops polynomial " + n * n, "let n = 0; n = n + " + n * n + "; let a = 0; a = a + 7; let acc = 0;\n"
+                + "let i = 0;\n"
+                + "while (i < n) { acc = acc + i * 5 + i * a - (a * 3 + 1); if (i * 5 > acc) { acc = acc - 1; } i = i + 2; }\n"
+                + "print acc;\n");
+        programs.put("loops countdown " + n * n, "let n = 0; n = n + " + n * n + "; let k = 0; k = k + 9; let hits = 0;\n"
+                + "while (n > 0) { if (n * k < k * 1000 + 3 * k) { hits = hits + 1; } n = n - 1; }\n"
+                + "print hits;\n");
+        for (Map.Entry<String, String> e : programs.entrySet()) {
+            CompilationUnit unit = new CompilerSession().parseAst(e.getValue(), new Diagnostics());
+            if (new TypeChecker().check(unit).hasErrors()) throw new IllegalStateException("invalid program");
+            CompilationUnit base = new DeadCodeEliminator().eliminate(new ConstantFolder().fold(unit));
+            LoopOptimizer loops = new LoopOptimizer();
+            byte[] plain = new ClassGenerator(ClassGenerator.CLASS_NAME, ClassGenerator.DEFAULT_TARGET, false).generate(base);
+            byte[] optimized = new ClassGenerator(ClassGenerator.CLASS_NAME, ClassGenerator.DEFAULT_TARGET, false)
+                    .generate(loops.optimize(base));
+            if (!capture(plain).equals(capture(optimized))) throw new IllegalStateException("output differs: " + e.getKey());
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(new ByteArrayOutputStream()));
+            double before;
+            double after;
+            try {
+                before = time(iterations, mainOf(plain));
+                after = time(iterations, mainOf(optimized));
+            } finally {
+                System.setOut(out);
+            }
+            System.out.printf("%-36s %2d hoisted %2d reduced %6d -> %6d B %10.4f -> %10.4f ms/run%n", e.getKey(),
+                    loops.hoisted(), loops.reduced(), plain.length, optimized.length, before, after);
+        }
+    }
+
+    /**
+     * 函数内联：调用密集的程序（循环约 n² 次，n 取 min(statements, 1000)）分别以关闭内联（--inline=0）与默认阈值优化后生成，
+     * 对比内联的调用点数、类大小与 main 单次运行耗时（两者输出相同才计时）。递归的 fib 不可内联，作为对照。
+     */
+    private static void calls(int statements, int iterations) {
+        int n = Math.min(statements, 1_000);
+        Map<String, String> programs = new LinkedHashMap<>();
+        programs.put("calls arithmetic " + n * n, "fn sq(x: int): int { return x * x; }\n"
+                + "fn mix(a: int, b: int): int { let t = a * 3; return t + b / 7 - 1; }\n"
+                + "let n = 0; n = n + " + n * n + "; let sum = 0; let i = 0;\n"
+                + "while (i < n) { sum = sum + sq(i) - mix(i, sum); i = i + 1; }\n"
+                + "print sum;\n");
+        programs.put("calls predicate " + n * n, "fn inRange(x: int, lo: int, hi: int): boolean { return x >= lo && x <= hi; }\n"
+                + "fn clamp(x: int, hi: int): int { if (x > hi) { return hi; } return x; }\n"
+                + "let n = 0; n = n + " + n * n + "; let hits = 0; let i = 0;\n"
+                + "while (i < n) { let x = i * 7; if (inRange(x, 1000, 500000)) { hits = hits + clamp(i, 3); } i = i + 1; }\n"
+                + "print hits;\n");
+        programs.put("calls recursive fib 24", "fn fib(k: int): int { if (k < 2) { return k; } return fib(k - 1) + fib(k - 2); }\n"
+                + "print fib(24);\n");
+        for (Map.Entry<String, String> e : programs.entrySet()) {
+            CompilationUnit unit = new CompilerSession().parseAst(e.getValue(), new Diagnostics());
+            if (new TypeChecker().check(unit).hasErrors()) throw new IllegalStateException("invalid program");
+            Inliner inliner = new Inliner();
+            inliner.inline(unit); // 只为统计内联的调用点数
+            byte[] plain = new ClassGenerator(ClassGenerator.CLASS_NAME, ClassGenerator.DEFAULT_TARGET, false)
+                    .generate(Optimizer.optimize(unit, 0));
+            byte[] inlined = new ClassGenerator(ClassGenerator.CLASS_NAME, ClassGenerator.DEFAULT_TARGET, false)
+                    .generate(Optimizer.optimize(unit, Inliner.DEFAULT_LIMIT));
+            if (!capture(plain).equals(capture(inlined))) throw new IllegalStateException("output differs: " + e.getKey());
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(new ByteArrayOutputStream()));
+            double before;
+            double after;
+            try {
+                before = time(iterations, mainOf(plain));
+                after = time(iterations, mainOf(inlined));
+            } finally {
+                System.setOut(out);
+            }
+            System.out.printf("%-36s %2d inlined %2d removed %6d -> %6d B %10.4f -> %10.4f ms/run%n", e.getKey(),
+                    inliner.inlined(), inliner.removed(), plain.length, inlined.length, before, after);
+        }
+    }
+
+    /**
+     * 栈映射帧：同一程序分别以显式帧（FrameTracker）与 ClassWriter 的 COMPUTE_FRAMES|COMPUTE_MAXS 生成，
+     * 对比代码生成耗时与类文件大小（两者输出相同才计时）。程序取 min(statements, 20000) 条语句，按默认预算拆分。
+     */
+    private static void frames(int statements, int iterations) {
+        int n = Math.min(statements, 20_000);
+        Map<String, String> programs = new LinkedHashMap<>();
+        programs.put("frames synthetic " + n, SyntheticSource.generate(n, 7));
+        programs.put("frames conditions " + n, conditionProgram(n, true));
+        StringBuilder loops = new StringBuilder();
+        for (int i = 0; i < n / 4; i++) {
+            loops.append("let i").append(i).append(" = 0; while (i").append(i).append(" < 3) { let s = \"k\" + i").append(i)
+                    .append("; let t = i").append(i).append(" * 2; if (t > 2 && t < 9) { print s; } i").append(i).append(" = i").append(i)
+                    .append(" + 1; }\n");
+        }
+        programs.put("frames loops " + n, loops.toString());
+        for (Map.Entry<String, String> e : programs.entrySet()) {
+            CompilationUnit unit = new CompilerSession().parseAst(e.getValue(), new Diagnostics());
+            if (new TypeChecker().check(unit).hasErrors()) throw new IllegalStateException("invalid program");
+            ClassGenerator computed = new ClassGenerator(ClassGenerator.CLASS_NAME, ClassGenerator.DEFAULT_TARGET, false,
+                    ClassGenerator.DEFAULT_METHOD_BUDGET, null, true);
+            ClassGenerator explicit = new ClassGenerator(ClassGenerator.CLASS_NAME, ClassGenerator.DEFAULT_TARGET, false,
+                    ClassGenerator.DEFAULT_METHOD_BUDGET, null, false);
+            byte[] a = computed.generate(unit);
+            byte[] b = explicit.generate(unit);
+            if (!capture(a).equals(capture(b))) throw new IllegalStateException("output differs: " + e.getKey());
+            System.out.printf("%-36s %8d B computed %8d B explicit%n", e.getKey(), a.length, b.length);
+            report("  COMPUTE_FRAMES", e.getValue().length(), iterations, () -> computed.generate(unit));
+            report("  explicit frames", e.getValue().length(), iterations, () -> explicit.generate(unit));
+        }
+    }
+
+    /**
+     * 磁盘编译缓存：合成程序（min(statements, 20000) 条语句）写入临时文件，每次启动一个子 JVM 以 --cache-dir 运行 Main，
+     * 对比空缓存（冷启动：解析、检查、优化、代码生成并写入缓存）与命中缓存（热启动：映射文件后直接加载）的端到端耗时中位数；
+     * 随后在进程内对比编译与读取缓存的耗时。
+     */
+    private static void cache(int statements, int iterations) {
+        int n = Math.min(statements, 20_000);
+        try {
+            Path dir = Files.createTempDirectory("lxg-cache");
+            Path source = dir.resolve("program.lxg");
+            Files.write(source, SyntheticSource.generate(n, 7).getBytes(StandardCharsets.UTF_8));
+            Path cacheDir = dir.resolve("cache");
+            File out = dir.resolve("out.txt").toFile();
+            ProcessBuilder child = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), Main.class.getName(), "--cache-dir=" + cacheDir, source.toString())
+                    .redirectErrorStream(true).redirectOutput(out);
+            int runs = Math.max(3, iterations);
+            double[] cold = new double[runs];
+            double[] warm = new double[runs];
+            for (int i = 0; i < runs; i++) {
+                for (Path p : list(cacheDir)) Files.delete(p);
+                cold[i] = spawn(child);
+                warm[i] = spawn(child);
+            }
+            System.out.printf("%-36s %10.2f ms median of %d JVM starts%n", "cache cold " + n, median(cold), runs);
+            System.out.printf("%-36s %10.2f ms median of %d JVM starts%n", "cache warm " + n, median(warm), runs);
+
+            byte[] bytes = Files.readAllBytes(source);
+            Main.Options opts = new Main.Options();
+            CompilationCache cache = new CompilationCache(cacheDir);
+            String key = CompilationCache.key(bytes, opts.fingerprint());
+            byte[] compiled = Main.compile(new String(bytes, StandardCharsets.UTF_8), opts);
+            ByteBuffer cached = cache.get(key);
+            byte[] copy = new byte[cached.remaining()];
+            cached.get(copy);
+            if (!Arrays.equals(compiled, copy)) throw new IllegalStateException("cached class differs from a fresh compile");
+            report("  in-process compile", bytes.length, iterations, () -> Main.compile(new String(bytes, StandardCharsets.UTF_8), opts));
+            report("  in-process cache get", bytes.length, iterations, () -> {
+                try {
+                    cache.get(CompilationCache.key(bytes, opts.fingerprint()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 进程内程序缓存：同一个热点脚本（min(statements, 200) 条语句的合成程序）每次新建加载器运行 vs 经 ProgramCache 运行的单次耗时；
+     * 随后持续更替 5 轮、每轮 2000 个不同的小脚本，分别用容量 32 的缓存与不淘汰的缓存运行，
+     * 每轮结束 GC 后打印 Metaspace 用量、缓存的程序数与累计卸载的类数。输出丢弃。
+     */
+    private static void programs(int statements, int iterations) {
+        byte[] hot = compileChecked(SyntheticSource.generate(Math.min(statements, 200), 3), ClassGenerator.DEFAULT_TARGET, true);
+        ProgramCache cache = new ProgramCache();
+        LxgShell plain = new LxgShell();
+        LxgShell cached = new LxgShell(cache);
+        PrintStream out = System.out;
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        int runs = Math.max(iterations, 200);
+        double fresh;
+        double reused;
+        System.setOut(discard);
+        try {
+            fresh = time(runs, () -> plain.run(hot));
+            reused = time(runs, () -> cached.run(hot));
+        } finally {
+            System.setOut(out);
+        }
+        System.out.printf("%-36s %10.4f ms/run%n", "programs hot, new loader per run", fresh);
+        System.out.printf("%-36s %10.4f ms/run  %s%n", "programs hot, ProgramCache", reused, cache);
+
+        ClassLoadingMXBean classes = ManagementFactory.getClassLoadingMXBean();
+        int perRound = 2_000;
+        for (int capacity : new int[]{32, Integer.MAX_VALUE}) {
+            ProgramCache churn = new ProgramCache(capacity, Long.MAX_VALUE);
+            LxgShell shell = new LxgShell(churn);
+            String label = "programs churn " + (capacity == Integer.MAX_VALUE ? "unbounded" : "max " + capacity);
+            long unloaded = classes.getUnloadedClassCount();
+            for (int round = 1; round <= 5; round++) {
+                System.setOut(discard);
+                try {
+                    for (int i = 0; i < perRound; i++) {
+                        int id = round * perRound + i;
+                        shell.run(compileChecked("let v = " + id + "; print v;", ClassGenerator.DEFAULT_TARGET, true));
+                    }
+                } finally {
+                    System.setOut(out);
+                }
+                System.out.printf("%-36s %8.1f MB metaspace %6d cached %8d classes unloaded%n",
+                        label + " round " + round,
+                        metaspaceAfterGc() / 1e6, churn.size(), classes.getUnloadedClassCount() - unloaded);
+            }
+            churn.clear();
+        }
+    }
+
+    /**
+     * 嵌入运行：同一脚本（一个小脚本，以及 min(statements, 200) 条语句的合成程序）经 LxgShell + ProgramCache
+     * 反射调用 main（输出丢弃）vs CompiledScript.run（输出写入复用的 StringBuilder）的单次耗时；
+     * 随后 1 个与 threads 个线程同时运行一个带输入的循环脚本（每个线程各自的上下文，先预热一轮），打印每秒运行次数。
+     */
+    private static void embed(int statements, int iterations, int threads) {
+        Map<String, String> scripts = new LinkedHashMap<>();
+        scripts.put("small", "let a = 6; let b = a * 7; print b; print \"x\" + b;");
+        scripts.put("synthetic " + Math.min(statements, 200), SyntheticSource.generate(Math.min(statements, 200), 3));
+        LxgShell shell = new LxgShell(new ProgramCache());
+        PrintStream out = System.out;
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        int runs = Math.max(iterations, 100_000);
+        for (Map.Entry<String, String> e : scripts.entrySet()) {
+            byte[] cls = compileChecked(e.getValue(), ClassGenerator.DEFAULT_TARGET, true);
+            String key = ProgramCache.hash(cls); // 只计缓存命中后的调用，不计每次对字节码求哈希
+            CompiledScript script = ScriptCompiler.compile(e.getValue(), Collections.<String, ValueType>emptyMap());
+            StringBuilder sb = new StringBuilder();
+            LxgContext context = new LxgContext(Collections.<String, Object>emptyMap(), sb);
+            int n = e.getKey().equals("small") ? runs : runs / 100;
+            double reflective;
+            System.setOut(discard);
+            try {
+                reflective = time(n, () -> shell.run(key, () -> cls));
+            } finally {
+                System.setOut(out);
+            }
+            double direct = time(n, () -> {
+                sb.setLength(0);
+                script.run(context);
+            });
+            System.out.printf("%-36s %10.1f ns/run%n", "embed " + e.getKey() + " LxgShell (reflective)", reflective * 1e6);
+            System.out.printf("%-36s %10.1f ns/run  %.1fx%n", "embed " + e.getKey() + " CompiledScript", direct * 1e6, reflective / direct);
+        }
+
+        Map<String, ValueType> inputs = Collections.singletonMap("n", ValueType.INT);
+        CompiledScript script = ScriptCompiler.compile("let s = 0; let i = 0; while (i < n) { s = s + i; i = i + 1; } print s;", inputs);
+        int[] counts = threads == 1 ? new int[]{1} : new int[]{1, threads};
+        for (int round = 0; round < 2; round++) { // 第一轮只是预热
+            for (int t : counts) {
+                double rate = throughput(script, t, runs);
+                if (round == 1) System.out.printf("%-36s %10.2f M runs/s%n", "embed throughput " + t + " thread(s)", rate / 1e6);
+            }
+        }
+    }
+
+    /**
+     * threads 个线程各自以自己的上下文运行 runs 次，返回合计每秒运行次数。
+     */
+    private static double throughput(CompiledScript script, int threads, int runs) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                tasks.add(pool.submit(() -> {
+                    StringBuilder sb = new StringBuilder();
+                    LxgContext context = new LxgContext(Collections.singletonMap("n", 16), sb);
+                    for (int r = 0; r < runs; r++) {
+                        sb.setLength(0);
+                        script.run(context);
+                    }
+                }));
+            }
+            for (Future<?> f : tasks) f.get();
+            return (double) threads * runs / ((System.nanoTime() - start) / 1e9);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 脚本类的定义策略：每种 ScriptLoader.Strategy 定义 min(statements, 5000) 个不同的小脚本（含一个函数），
+     * 打印每个脚本的定义与实例化耗时、全部存活时（GC 后）的 Metaspace 与堆增量（含句柄与加载器对象）；随后丢弃全部句柄但保留 ScriptLoader，
+     * GC 后打印卸载的类数与剩余的 Metaspace 增量。类文件预先生成，不计入耗时；JDK 15 以下跳过隐藏类。
+     */
+    private static void loaders(int statements) {
+        int count = Math.min(statements, 5_000);
+        for (int round = 0; round < 2; round++) { // 第一轮只是预热
+            for (ScriptLoader.Strategy strategy : ScriptLoader.Strategy.values()) {
+                if (strategy == ScriptLoader.Strategy.HIDDEN_CLASS && !ScriptLoader.hiddenClassesSupported()) {
+                    if (round == 1) System.out.printf("%-36s skipped (requires JDK 15+)%n", "loaders " + strategy);
+                    continue;
+                }
+                loaders(strategy, round == 0 ? 500 : count, round == 1);
+            }
+        }
+    }
+
+    /**
+     * 以一种策略定义 count 个脚本并测量；print 为 false 时只是预热。
+     */
+    private static void loaders(ScriptLoader.Strategy strategy, int count, boolean print) {
+        ClassLoadingMXBean classes = ManagementFactory.getClassLoadingMXBean();
+        ScriptLoader loader = new ScriptLoader(strategy);
+        String[] names = new String[count];
+        byte[][] bytes = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            String src = "fn f(x: int): int { return x * " + i + " + 1; } let v = f(" + i + "); print \"r\" + v;";
+            CompilationUnit unit = new CompilerSession().parseAst(src, new Diagnostics());
+            if (new TypeChecker().check(unit).hasErrors()) throw new IllegalStateException("invalid program");
+            names[i] = loader.newClassName();
+            bytes[i] = ClassGenerator.forScript(names[i], ClassGenerator.DEFAULT_TARGET).generate(unit);
+        }
+        long base = metaspaceAfterGc();
+        long heap = heapUsed();
+        long unloaded = classes.getUnloadedClassCount();
+        List<CompiledScript> live = new ArrayList<>(count);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            live.add(CompiledScript.define(loader, names[i], bytes[i], Collections.<String, String>emptyMap()));
+        }
+        double perScript = (System.nanoTime() - start) / 1e3 / count;
+        if (!live.get(count - 1).run(Collections.<String, Object>emptyMap()).startsWith("r")) throw new IllegalStateException("bad output");
+        long liveBytes = metaspaceAfterGc() - base;
+        long liveHeap = heapUsed() - heap;
+        live.clear();
+        long released = metaspaceAfterGc() - base;
+        if (loader.defined() != count) throw new IllegalStateException("lost scripts"); // 保持 loader 可达到测量之后
+        if (print) {
+            System.out.printf("%-36s %8.1f us/define %6.2f KB metaspace %6.2f KB heap per script, released: %6d unloaded %6.1f MB left%n",
+                    "loaders " + strategy, perScript, liveBytes / 1e3 / count, liveHeap / 1e3 / count,
+                    classes.getUnloadedClassCount() - unloaded, released / 1e6);
+        }
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * 分层执行：
+     * - 只运行一次的脚本：子 JVM 以 Main 编译执行 vs --interpret 解释执行同一个 min(statements, 200) 条语句的合成程序，
+     * 端到端耗时的中位数；进程内每次一个不同的小脚本，ScriptCompiler.compile 后运行 vs tiered 后运行（解释一次）的单次延迟
+     * - 热点脚本：同一个循环脚本只解释、分层（默认阈值）与只编译时，各运行 iterations × 1000 次的平均耗时，以及分层升级的时机
+     */
+    private static void tiers(int statements, int iterations) {
+        int n = Math.min(statements, 200);
+        try {
+            Path dir = Files.createTempDirectory("lxg-tiers");
+            Path source = dir.resolve("program.lxg");
+            Files.write(source, SyntheticSource.generate(n, 11).getBytes(StandardCharsets.UTF_8));
+            File out = dir.resolve("out.txt").toFile();
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            int runs = Math.max(3, iterations);
+            double[] compiled = new double[runs];
+            double[] interpreted = new double[runs];
+            for (int i = 0; i < runs; i++) {
+                compiled[i] = spawn(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Main.class.getName(),
+                        source.toString()).redirectErrorStream(true).redirectOutput(out));
+                interpreted[i] = spawn(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Main.class.getName(),
+                        "--interpret", source.toString()).redirectErrorStream(true).redirectOutput(out));
+            }
+            System.out.printf("%-36s %10.2f ms median of %d JVM starts%n", "tiers once " + n + " compiled", median(compiled), runs);
+            System.out.printf("%-36s %10.2f ms median of %d JVM starts%n", "tiers once " + n + " interpreted", median(interpreted), runs);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Map<String, ValueType> inputs = Collections.singletonMap("n", ValueType.INT);
+        Map<String, Object> values = Collections.singletonMap("n", 20);
+        int scripts = 2_000;
+        for (int round = 0; round < 2; round++) { // 第一轮只是预热
+            long compile = 0;
+            long tiered = 0;
+            for (int i = 0; i < scripts; i++) {
+                String src = "fn f(x: int): int { return x * " + (round * scripts + i) + "; } let i = 0; let s = \"\";\n"
+                        + "while (i < n) { s = s + f(i) + \",\"; i = i + 1; } print s;";
+                long start = System.nanoTime();
+                ScriptCompiler.compile(src, inputs).run(values);
+                compile += System.nanoTime() - start;
+                start = System.nanoTime();
+                ScriptCompiler.tiered(src, inputs, new Diagnostics()).run(values);
+                tiered += System.nanoTime() - start;
+            }
+            if (round == 1) {
+                System.out.printf("%-36s %10.1f us/script (parse, check, optimize, generate, define, run)%n", "tiers once in-process compiled",
+                        compile / 1e3 / scripts);
+                System.out.printf("%-36s %10.1f us/script (parse, check, interpret)%n", "tiers once in-process interpreted",
+                        tiered / 1e3 / scripts);
+            }
+        }
+
+        String hot = "fn f(x: int): int { return x * 3 + 1; } let i = 0; let s = 0;\n"
+                + "while (i < n) { if (i / 2 * 2 == i) { s = s + f(i); } else { s = s - i; } i = i + 1; } print \"s=\" + s;";
+        int hotRuns = Math.max(iterations, 1) * 1_000;
+        Map<String, Object> hotValues = Collections.singletonMap("n", 100);
+        ScriptLoader loader = new ScriptLoader(ScriptLoader.Strategy.LOADER_PER_SCRIPT);
+        Object[][] policies = {
+                {"interpreter only", Integer.MAX_VALUE, Long.MAX_VALUE},
+                {"tiered (default)", TieredScript.DEFAULT_PROMOTE_AFTER, TieredScript.DEFAULT_PROMOTE_AFTER_NANOS},
+                {"compiled only", 0, Long.MAX_VALUE}};
+        for (int round = 0; round < 2; round++) { // 第一轮只是预热（解释器与编译后的代码都要先被 JIT 编译）
+            for (Object[] policy : policies) {
+                long start = System.nanoTime();
+                TieredScript script = ScriptCompiler.tiered(hot, inputs, new Diagnostics(), (Integer) policy[1], (Long) policy[2], loader);
+                StringBuilder sb = new StringBuilder();
+                LxgContext context = new LxgContext(hotValues, sb);
+                for (int r = 0; r < hotRuns; r++) {
+                    sb.setLength(0);
+                    script.run(context);
+                }
+                double total = (System.nanoTime() - start) / 1e6;
+                if (round == 0) continue;
+                    System.out.printf("%-36s %10.1f ns/run over %d runs %8.1f ms total, %s%s%n", "tiers hot " + policy[0],
+                        total * 1e6 / hotRuns, hotRuns, total, script,
+                        script.isCompiled() ? String.format(" (compile %.2f ms)", script.promotionNanos() / 1e6) : "");
+            }
+        }
+    }
+
+    private static long metaspaceAfterGc() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return ProgramCache.metaspaceUsed();
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) return Collections.emptyList();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    private static double spawn(ProcessBuilder child) throws IOException {
+        long start = System.nanoTime();
+        Process process = child.start();
+        try {
+            if (process.waitFor() != 0) throw new IllegalStateException("child JVM failed, see " + child.redirectOutput().file());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static String capture(byte[] cls) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes));
+        try {
+            mainOf(cls).run();
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString();
+    }
+
+    /**
+     * 窥孔优化：examples 下可编译的示例、合成程序与条件密集程序（均经 AST 优化），
+     * 对比关闭/开启窥孔时的指令数、code_length 总和、类文件大小与 main 单次运行耗时（输出丢弃），最后打印各规则的命中次数。
+     */
+    private static void peephole(int statements, int iterations) {
+        Map<String, String> programs = new LinkedHashMap<>();
+        try (Stream<Path> files = Files.list(Paths.get("examples"))) {
+            for (Path p : files.filter(f -> f.toString().endsWith(".lxg")).sorted().collect(Collectors.toList())) {
+                programs.put(p.getFileName().toString(), new String(Files.readAllBytes(p), StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            System.out.println("examples/ not found, skipping examples: " + e.getMessage());
+        }
+        int n = Math.min(statements, 1_000);
+        programs.put("synthetic " + n, SyntheticSource.generate(n, 42));
+        programs.put("branches " + n, conditionProgram(n, true));
+
+        PeepholeOptimizer peephole = new PeepholeOptimizer();
+        PrintStream out = System.out;
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        for (Map.Entry<String, String> e : programs.entrySet()) {
+            Diagnostics diags = new Diagnostics();
+            CompilationUnit unit = new CompilerSession().parseAst(e.getValue(), diags);
+            if (diags.hasErrors() || new TypeChecker().check(unit).hasErrors()) continue; // error_*.lxg
+            unit = Optimizer.optimize(unit);
+            byte[] plain = new ClassGenerator().generate(unit);
+            byte[] rewritten = new ClassGenerator(ClassGenerator.CLASS_NAME, ClassGenerator.DEFAULT_TARGET, true,
+                    ClassGenerator.DEFAULT_METHOD_BUDGET, peephole).generate(unit);
+            long[] before = codeStats(plain);
+            long[] after = codeStats(rewritten);
+            Runnable runPlain = mainOf(plain);
+            Runnable runRewritten = mainOf(rewritten);
+            System.setOut(discard);
+            double msBefore;
+            double msAfter;
+            try {
+                msBefore = time(iterations, runPlain);
+                msAfter = time(iterations, runRewritten);
+            } finally {
+                System.setOut(out);
+            }
+            System.out.printf("%-28s %6d -> %6d insns %7d -> %7d code B %7d -> %7d B %9.4f -> %9.4f ms/run%n",
+                    "peephole " + e.getKey(), before[0], after[0], before[1], after[1], plain.length, rewritten.length, msBefore, msAfter);
+        }
+        for (Map.Entry<PeepholeOptimizer.Rule, Integer> e : peephole.hits().entrySet()) {
+            System.out.printf("  %-16s %8d hits%n", e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * [指令数, 各方法 code_length 之和]：指令由 ClassReader 回调计数，code_length 直接读取 Code 属性。
+     */
+    private static long[] codeStats(byte[] cls) {
+        long[] stats = {0, 0};
+        new ClassReader(cls).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitInsn(int opcode) {
+                        stats[0]++;
+                    }
+
+                    @Override
+                    public void visitIntInsn(int opcode, int operand) {
+                        stats[0]++;
+                    }
+
+                    @Override
+                    public void visitVarInsn(int opcode, int var) {
+                        stats[0]++;
+                    }
+
+                    @Override
+                    public void visitTypeInsn(int opcode, String type) {
+                        stats[0]++;
+                    }
+
+                    @Override
+                    public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+                        stats[0]++;
+                    }
+
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                        stats[0]++;
+                    }
+
+                    @Override
+                    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bsm, Object... args) {
+                        stats[0]++;
+                    }
+
+                    @Override
+                    public void visitJumpInsn(int opcode, Label label) {
+                        stats[0]++;
+                    }
+
+                    @Override
+                    public void visitLdcInsn(Object value) {
+                        stats[0]++;
+                    }
+
+                    @Override
+                    public void visitIincInsn(int var, int increment) {
+                        stats[0]++;
+                    }
+                };
+            }
+        }, 0);
+        // 类文件结构：magic..super_class 之后依次是 interfaces、fields、methods；每个成员 8 字节头 + 属性表
+        ClassReader cr = new ClassReader(cls);
+        char[] buf = new char[cr.getMaxStringLength()];
+        int offset = cr.header + 6;
+        offset += 2 + 2 * cr.readUnsignedShort(offset);
+        for (int table = 0; table < 2; table++) {
+            int count = cr.readUnsignedShort(offset);
+            offset += 2;
+            for (int i = 0; i < count; i++) {
+                int attributes = cr.readUnsignedShort(offset + 6);
+                offset += 8;
+                for (int a = 0; a < attributes; a++) {
+                    if (table == 1 && cr.readUTF8(offset, buf).equals("Code")) stats[1] += cr.readInt(offset + 10);
+                    offset += 6 + cr.readInt(offset + 2);
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 输出吞吐：同一个输出密集的程序分别以 System.out.println（--unbuffered）与 FastOut 缓冲输出运行，
+     * System.out 换成与标准输出相同结构的 PrintStream（8KB 缓冲 + 自动刷新），写入 /dev/null（没有时写临时文件）。
+     */
+    private static void output(int statements, int iterations) {
+        String src = outputProgram(Math.min(statements, 2_000)); // 单方法 64KB 上限
+        PrintStream out = System.out;
+        Path sink = Paths.get("/dev/null");
+        try {
+            if (!Files.isWritable(sink)) {
+                sink = Files.createTempFile("lxg-output", ".txt");
+                sink.toFile().deleteOnExit();
+            }
+            for (boolean buffered : new boolean[]{false, true}) {
+                byte[] cls = compileChecked(src, ClassGenerator.DEFAULT_TARGET, buffered);
+                Runnable main = mainOf(cls);
+                CountingStream counter = new CountingStream(Files.newOutputStream(sink));
+                double ms;
+                System.setOut(new PrintStream(new BufferedOutputStream(counter, 8192), true));
+                try {
+                    ms = time(iterations, main);
+                } finally {
+                    System.out.flush();
+                    System.setOut(out);
+                    counter.close();
+                }
+                long runs = iterations + Math.max(2, iterations / 2);
+                double bytesPerRun = (double) counter.bytes / runs;
+                System.out.printf("%-36s %10.4f ms/run %10.1f MB/s %8d writes/run%n", buffered ? "output FastOut" : "output println",
+                        ms, bytesPerRun / 1e6 / (ms / 1000), counter.writes / runs);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 输出密集的程序：int、boolean、字符串字面量与拼接结果交替输出，每 4 条 print 更新一次计数器。
+     */
+    static String outputProgram(int prints) {
+        StringBuilder sb = new StringBuilder("let n = 0;\nlet name = \"lxg\";\n");
+        for (int i = 0; i < prints; i += 4) {
+            sb.append("n = n + ").append(i % 97 + 1).append(";\n")
+                    .append("print n * 31;\n")
+                    .append("print \"status line ").append(i).append("\";\n")
+                    .append("print n > ").append(i).append(";\n")
+                    .append("print name + \"#\" + n;\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 统计写入字节数与底层 write 调用次数（近似系统调用次数）的输出流。
+     */
+    private static final class CountingStream extends FilterOutputStream {
+        long bytes;
+        long writes;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            bytes++;
+            writes++;
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            bytes += len;
+            writes++;
+            out.write(b, off, len);
+        }
+    }
+
+    /**
+     * 每行输出由 parts 段组成（字面量与 int/boolean/字符串变量交替），joined 时一条 print 拼接整行，否则每段一条 print。
+     */
+    static String concatProgram(int lines, int parts, boolean joined) {
+        StringBuilder sb = new StringBuilder("let n = 0;\nlet name = \"lxg\";\nlet ok = true;\n");
+        String[] values = {"n", "name", "ok", "n * 2"};
+        for (int i = 0; i < lines; i++) {
+            sb.append("n = n + 1;\n");
+            for (int p = 0; p < parts; p++) {
+                String part = p % 2 == 0 ? "\" k" + p + "=\"" : values[(p / 2) % values.length];
+                if (!joined) {
+                    sb.append("print ").append(part).append(";\n");
+                } else {
+                    sb.append(p == 0 ? "print " : " + ").append(part);
+                }
+            }
+            if (joined) sb.append(";\n");
+        }
+        return sb.toString();
+    }
+
+    private static Runnable mainOf(byte[] cls) {
+        try {
+            Class<?> program = new ClassLoader(CompilerBenchmark.class.getClassLoader()) {
+                Class<?> define() {
+                    return defineClass(null, cls, 0, cls.length);
+                }
+            }.define();
+            Method main = program.getMethod("main", String[].class);
+            return () -> {
+                try {
+                    main.invoke(null, (Object) new String[0]);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 发射到丢弃指令的 ClassVisitor（大程序超出单方法 64KB 上限，只测发射本身）。
+     */
+    private static ProgramEmitter discardingProgram() {
+        return new ClassGenerator().begin(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                };
+            }
+        });
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * 单次执行期间当前线程分配的字节数（HotSpot 的 com.sun.management 扩展）。
+     */
+    static void reportAllocation(String label, Runnable task) {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(id);
+        task.run();
+        long bytes = bean.getThreadAllocatedBytes(id) - before;
+        System.out.printf("%-36s %10.1f MB allocated%n", label, bytes / 1e6);
+    }
+
+    /**
+     * 预热 max(2, iterations/2) 次后计时 iterations 次，输出平均耗时与吞吐（MB/s）。
+     */
+    static void report(String label, long chars, int iterations, Runnable task) {
+        double ms = time(iterations, task);
+        System.out.printf("%-36s %10.2f ms/op %10.1f MB/s%n", label, ms, chars / 1e6 / (ms / 1000));
+    }
+
+    static double time(int iterations, Runnable task) {
+        for (int i = 0; i < Math.max(2, iterations / 2); i++) task.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) task.run();
+        return (System.nanoTime() - start) / 1e6 / iterations;
+    }
+}
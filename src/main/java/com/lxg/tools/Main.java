@@ -4,7 +4,19 @@ import com.lxg.antlr.LxgLexer;
 import com.lxg.antlr.LxgParser;
 import com.lxg.ast.program.CompilationUnit;
 import com.lxg.codegen.ClassGenerator;
+import com.lxg.codegen.PeepholeOptimizer;
+import com.lxg.driver.BatchCompiler;
+import com.lxg.driver.CompilationCache;
+import com.lxg.driver.IncrementalCompiler;
+import com.lxg.driver.StreamingCompiler;
 import com.lxg.frontend.AstBuilder;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.frontend.FastLexer;
+import com.lxg.frontend.FastTokens;
+import com.lxg.opt.Inliner;
+import com.lxg.opt.Optimizer;
+import com.lxg.runtime.Interpreter;
+import com.lxg.runtime.LxgContext;
 import com.lxg.runtime.LxgShell;
 import com.lxg.sema.Diagnostics;
 import com.lxg.sema.TypeChecker;
@@ -12,38 +24,80 @@ import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.Token;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
 
 /**
  * 命令行入口：解析 -> 构建 AST -> 语义检查 -> 生成字节码 -> 运行。
  * 支持调试开关：
  * - --dump-tokens：打印词法 Token，用于观察“字符→Token”阶段
  * - --dump-parse-tree：打印解析树，用于观察“Token→语法结构”阶段
- * - --dump-ast：打印 AST，用于观察“解析树→AST 抽象化”结果
+ * - --dump-ast：打印 AST，用于观察“解析树→AST 抽象化”结果；开启优化时随后打印优化后的 AST
+ * - --no-opt：关闭 AST 优化（常量折叠/传播，见 com.lxg.opt.Optimizer），便于对比字节码
+ * - --inline=N：函数内联的阈值（函数体表达式的节点数，默认 24，见 com.lxg.opt.Inliner）；0 关闭内联
+ * - --unbuffered：print 直接调用 System.out.println（默认经由 com.lxg.runtime.FastOut 缓冲，main 结束时刷新）
+ * - --target=8|11|17：生成类的 Java 版本（默认 8）；9 及以上用 invokedynamic 拼接字符串，见 ClassGenerator
+ * - --peephole：写出每个方法前运行字节码窥孔优化（见 com.lxg.codegen.PeepholeOptimizer），并向 stderr 打印各规则命中次数
+ * - --method-budget=N：单个方法的字节码预算（默认 8000，低于 JIT 的 8000 字节“巨型方法”上限），超出时拆分 main；0 关闭拆分
+ * - --compute-frames：由 ASM 的 COMPUTE_FRAMES|COMPUTE_MAXS 分析计算栈映射帧（默认在发射时显式给出，见 com.lxg.codegen.FrameTracker）
  * - --emit-class=<path>：写入 .class，便于 javap -v 反汇编观察指令序列
+ * - --cache-dir=&lt;dir&gt; [--cache-max=MB]：磁盘编译缓存（见 com.lxg.driver.CompilationCache），源码与代码生成选项不变时
+ * 跳过前端与代码生成，直接加载缓存的类；不用于 dump、--stream、--watch 与 --batch
+ * - --interpret：检查后由树遍历解释器（com.lxg.runtime.Interpreter）直接执行，不优化、不生成字节码；
+ * 只运行一次的小脚本启动更快，输出与编译执行相同；代码生成相关的开关与 --cache-dir 不起作用
+ * - --lexer=fast|antlr：选择词法器实现（默认 antlr）
+ * - --stream：流式编译（逐条语句解析/检查/发射，内存占用与源文件大小无关），不支持 dump 开关
+ * - --watch：监视源文件，保存后增量重新解析/检查并运行（Ctrl+C 退出）
+ * - --batch &lt;dir&gt; --out &lt;app.jar&gt; [--jobs=N]：并行编译目录下全部 .lxg 脚本并写入一个 jar（不运行），见 BatchCompiler
  * <p>
  * 使用建议：先层层 dump（tokens/parse-tree/ast）再 emit-class，帮助建立从源码到字节码的心智模型。
  *
  * @author xiangganluo
  */
 public class Main {
-    public static void main(String[] args) throws Exception {
-        if (args.length == 0) {
-            System.out.println("Usage: java -jar my-language.jar <source.lxg> [--emit-class=out/Program.class] [--dump-tokens] [--dump-parse-tree] [--dump-ast]");
-            System.out.println("Example source:\n  let x = 1 + 2;\n  if (x > 2) { print x; } else { print 0; }\n  print 42;");
-            return;
-        }
+    /**
+     * 每个线程一个解析会话：同一进程内反复编译时复用 Lexer/Parser 与 DFA 缓存。
+     */
+    private static final ThreadLocal<CompilerSession> SESSION = ThreadLocal.withInitial(CompilerSession::new);
 
-        String sourcePath = null;
-        String emitClassPath = null;
-        boolean dumpTokens = false;
-        boolean dumpParseTree = false;
-        boolean dumpAst = false;
+    /**
+     * 命令行选项：由 main 解析得到，也可在测试或嵌入场景中直接构造。
+     */
+    public static final class Options {
+        public String emitClassPath;
+        public boolean dumpTokens;
+        public boolean dumpParseTree;
+        public boolean dumpAst;
+        public boolean optimize = true;
+        public int inlineLimit = Inliner.DEFAULT_LIMIT;
+        public int target = ClassGenerator.DEFAULT_TARGET;
+        public boolean bufferedOutput = true;
+        public int methodBudget = ClassGenerator.DEFAULT_METHOD_BUDGET;
+        public boolean peephole;
+        public boolean computeFrames;
+        public String cacheDir;
+        public long cacheMaxBytes = CompilationCache.DEFAULT_MAX_BYTES;
+        public CompilerSession.LexerMode lexer = CompilerSession.LexerMode.ANTLR;
+        public boolean stream;
+        public boolean interpret;
+        public boolean watch;
+        public String batchDir;
+        public String outJar;
+        public int jobs = Runtime.getRuntime().availableProcessors();
 
-        // 解析命令行参数：识别调试开关与源文件
-        for (String arg : args) {
+        /**
+         * 解析一个开关参数；不认识的参数返回 false。
+         */
+        boolean accept(String arg) {
             if (arg.startsWith("--emit-class=")) {
                 emitClassPath = arg.substring("--emit-class=".length());
             } else if ("--dump-tokens".equals(arg)) {
@@ -52,68 +106,184 @@ public class Main {
                 dumpParseTree = true;
             } else if ("--dump-ast".equals(arg)) {
                 dumpAst = true;
+            } else if ("--no-opt".equals(arg)) {
+                optimize = false;
+            } else if ("--stream".equals(arg)) {
+                stream = true;
+            } else if ("--interpret".equals(arg)) {
+                interpret = true;
+            } else if ("--watch".equals(arg)) {
+                watch = true;
+            } else if (arg.startsWith("--jobs=")) {
+                jobs = Integer.parseInt(arg.substring("--jobs=".length()));
+            } else if ("--peephole".equals(arg)) {
+                peephole = true;
+            } else if ("--compute-frames".equals(arg)) {
+                computeFrames = true;
+            } else if (arg.startsWith("--cache-dir=")) {
+                cacheDir = arg.substring("--cache-dir=".length());
+            } else if (arg.startsWith("--cache-max=")) {
+                cacheMaxBytes = Long.parseLong(arg.substring("--cache-max=".length())) << 20;
+            } else if ("--unbuffered".equals(arg)) {
+                bufferedOutput = false;
+            } else if (arg.startsWith("--inline=")) {
+                inlineLimit = Integer.parseInt(arg.substring("--inline=".length()));
+            } else if (arg.startsWith("--method-budget=")) {
+                methodBudget = Integer.parseInt(arg.substring("--method-budget=".length()));
+            } else if (arg.startsWith("--target=")) {
+                target = Integer.parseInt(arg.substring("--target=".length()));
+            } else if (arg.startsWith("--lexer=")) {
+                lexer = CompilerSession.LexerMode.valueOf(arg.substring("--lexer=".length()).toUpperCase());
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * 影响生成字节码的选项的稳定文本，作为磁盘编译缓存键的一部分；词法器与 dump 开关不改变输出，不参与。
+         */
+        public String fingerprint() {
+            return "opt=" + optimize + ";inline=" + inlineLimit + ";target=" + target + ";buffered=" + bufferedOutput
+                    + ";budget=" + methodBudget + ";peephole=" + peephole + ";computeFrames=" + computeFrames;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("Usage: java -jar my-language.jar <source.lxg> [--emit-class=out/Program.class] [--dump-tokens] [--dump-parse-tree] [--dump-ast] [--no-opt] [--inline=N] [--target=8|11|17] [--method-budget=N] [--peephole] [--compute-frames] [--unbuffered] [--cache-dir=<dir>] [--cache-max=MB] [--lexer=fast|antlr] [--interpret] [--stream] [--watch]");
+            System.out.println("       java -jar my-language.jar --batch <dir> --out <app.jar> [--jobs=N] [--lexer=fast|antlr] [--no-opt] [--inline=N] [--target=8|11|17] [--unbuffered]");
+            System.out.println("Example source:\n  let x = 1 + 2;\n  if (x > 2) { print \"x = \" + x; } else { print 0; }\n  print 42;");
+            return;
+        }
+
+        String sourcePath = null;
+        Options opts = new Options();
+
+        // 解析命令行参数：识别调试开关与源文件
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (opts.accept(arg)) {
+                continue;
+            }
+            if (("--batch".equals(arg) || "--out".equals(arg)) && i + 1 < args.length) {
+                if ("--batch".equals(arg)) opts.batchDir = args[++i];
+                else opts.outJar = args[++i];
             } else if (!arg.startsWith("--")) {
                 sourcePath = arg;
             }
         }
+        if (opts.batchDir != null) {
+            if (opts.outJar == null) throw new IllegalArgumentException("--batch requires --out <app.jar>");
+            if (!batch(Paths.get(opts.batchDir), Paths.get(opts.outJar), opts)) System.exit(1);
+            return;
+        }
         if (sourcePath == null) {
             throw new IllegalArgumentException("Missing source file path");
         }
 
-        String source = new String(Files.readAllBytes(Paths.get(sourcePath)), "UTF-8");
-        runSource(source, emitClassPath, dumpTokens, dumpParseTree, dumpAst);
+        if (opts.watch) {
+            watch(Paths.get(sourcePath), opts);
+            return;
+        }
+        if (opts.stream) {
+            runStreaming(Paths.get(sourcePath), opts);
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(Paths.get(sourcePath));
+        if (opts.interpret) {
+            runInterpreted(new String(bytes, StandardCharsets.UTF_8), opts);
+            return;
+        }
+        if (opts.cacheDir != null && !opts.dumpTokens && !opts.dumpParseTree && !opts.dumpAst) {
+            runCached(bytes, opts);
+            return;
+        }
+        runSource(new String(bytes, StandardCharsets.UTF_8), opts);
+    }
+
+    /**
+     * 批量编译：一次 JVM 启动并行编译目录下全部脚本并写入 jar；有错误时按文件输出诊断并返回 false。
+     */
+    public static boolean batch(Path dir, Path jar, Options opts) throws IOException {
+        long start = System.nanoTime();
+        BatchCompiler.Config config = new BatchCompiler.Config();
+        config.parallelism = opts.jobs;
+        config.lexerMode = opts.lexer;
+        config.optimize = opts.optimize;
+        config.inlineLimit = opts.inlineLimit;
+        config.target = opts.target;
+        config.bufferedOutput = opts.bufferedOutput;
+        BatchCompiler.Result result = new BatchCompiler(config).compile(dir, jar);
+        if (result.hasErrors()) {
+            result.printAll(System.err);
+            System.err.printf("[batch] %d of %d scripts failed, %s not written%n", result.failures.size(), result.classes.size(), jar);
+            return false;
+        }
+        System.out.printf("[batch] compiled %d scripts into %s with %d threads in %.1f ms%n",
+                result.classes.size(), jar, opts.jobs, (System.nanoTime() - start) / 1e6);
+        return true;
+    }
+
+    /**
+     * 流式编译并运行：源文件不整体读入内存，见 StreamingCompiler。
+     */
+    public static void runStreaming(Path sourcePath, Options opts) throws IOException {
+        Diagnostics diags = new Diagnostics();
+        byte[] cls = new StreamingCompiler(SESSION.get(), StreamingCompiler.DEFAULT_WINDOW).compile(sourcePath, diags);
+        if (diags.hasErrors()) {
+            diags.printAll(System.err);
+            return; // 中止
+        }
+        emitClass(cls, opts.emitClassPath);
+        new LxgShell().run(cls);
+    }
+
+    /**
+     * 经由磁盘编译缓存运行：命中时把缓存文件映射到内存直接加载，未命中时编译、写入缓存再运行。
+     */
+    public static void runCached(byte[] source, Options opts) throws IOException {
+        CompilationCache cache = new CompilationCache(Paths.get(opts.cacheDir), opts.cacheMaxBytes);
+        String key = CompilationCache.key(source, opts.fingerprint());
+        ByteBuffer cls = cache.get(key);
+        if (cls == null) {
+            byte[] compiled = compile(new String(source, StandardCharsets.UTF_8), opts);
+            if (compiled == null) return; // 有错误时不写缓存
+            cache.put(key, compiled);
+            cls = ByteBuffer.wrap(compiled);
+        }
+        if (opts.emitClassPath != null) {
+            byte[] copy = new byte[cls.remaining()];
+            cls.duplicate().get(copy);
+            emitClass(copy, opts.emitClassPath);
+        }
+        new LxgShell().run(cls);
+    }
+
+    public static void runSource(String source, String emitClassPath, boolean dumpTokens, boolean dumpParseTree, boolean dumpAst) {
+        Options opts = new Options();
+        opts.emitClassPath = emitClassPath;
+        opts.dumpTokens = dumpTokens;
+        opts.dumpParseTree = dumpParseTree;
+        opts.dumpAst = dumpAst;
+        runSource(source, opts);
     }
 
     /**
      * 执行一次完整的编译与运行流程：
-     * 1) 词法/语法分析：由 ANTLR 生成的 Lexer/Parser 完成，必要时 dump tokens/parse tree
-     * 2) AST 构建：使用 AstBuilder 将 Parse Tree 转为简洁 AST，必要时 dump AST
-     * 3) 语义检查：TypeChecker 进行声明/类型检查，错误集中输出并终止
+     * 1) 词法/语法分析：由线程内复用的 CompilerSession 完成（SLL 优先，失败回退 LL），必要时 dump tokens/parse tree
+     * 2) AST 构建：默认在解析过程中直接构建（AstListener）；--dump-parse-tree 时由 AstBuilder 转换解析树。必要时 dump AST
+     * 3) 语义检查：TypeChecker 进行声明/类型检查，错误集中输出并终止；随后按需运行 Optimizer
      * 4) 代码生成：ClassGenerator/CodeEmitter 生成 Program.main 的字节码
      * 5) 运行：LxgShell 内存加载字节码并反射调用 main
      */
-    public static void runSource(String source, String emitClassPath, boolean dumpTokens, boolean dumpParseTree, boolean dumpAst) {
+    public static void runSource(String source, Options opts) {
         try {
-            // 1) Lexer/Parser
-            LxgLexer lexer = new LxgLexer(CharStreams.fromString(source));
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
-            if (dumpTokens) {
-                tokens.fill();
-                for (Token t : tokens.getTokens()) {
-                    System.out.println(t.getText() + " -> " + LxgLexer.VOCABULARY.getDisplayName(t.getType()));
-                }
-            }
-            LxgParser parser = new LxgParser(tokens);
-            LxgParser.ProgContext prog = parser.prog();
-            if (dumpParseTree) {
-                System.out.println(prog.toStringTree(parser));
-            }
-
-            // 2) AST
-            AstBuilder builder = new AstBuilder();
-            CompilationUnit unit = builder.build(prog);
-            if (dumpAst) {
-                System.out.println(AstPrinter.print(unit));
-            }
-
-            // 3) Semantic check
-            Diagnostics diags = new TypeChecker().check(unit);
-            if (diags.hasErrors()) {
-                diags.printAll(System.err);
-                return; // 中止
-            }
-
-            // 4) Codegen
-            ClassGenerator gen = new ClassGenerator();
-            byte[] cls = gen.generate(unit);
+            byte[] cls = compile(source, opts);
+            if (cls == null) return; // 中止
 
             // 5) 可选：写出 .class，便于 javap -v 调试
-            if (emitClassPath != null && !emitClassPath.isEmpty()) {
-                Path out = Paths.get(emitClassPath);
-                Files.createDirectories(out.getParent() == null ? Paths.get(".") : out.getParent());
-                Files.write(out, cls);
-                System.out.println("Emitted class to: " + out.toAbsolutePath());
-            }
+            emitClass(cls, opts.emitClassPath);
 
             // 6) 在内存中加载并执行 main
             new LxgShell().run(cls);
@@ -122,4 +292,154 @@ public class Main {
             throw new RuntimeException("Failed to run source", e);
         }
     }
-} 
\ No newline at end of file
+
+    /**
+     * 解释执行：解析、检查后由 Interpreter 直接执行，输出经缓冲按 UTF-8 写入 System.out（与 FastOut 相同），结束或出错时刷新。
+     */
+    public static void runInterpreted(String source, Options opts) throws IOException {
+        CompilerSession session = SESSION.get();
+        session.setLexerMode(opts.lexer);
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = session.parseAst(source, diags);
+        if (!diags.hasErrors()) diags = new TypeChecker().check(unit);
+        if (diags.hasErrors()) {
+            diags.printAll(System.err);
+            return;
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        try {
+            new Interpreter(unit).run(new LxgContext(Collections.<String, Object>emptyMap(), out));
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * 编译源码（runSource 的第 1~4 步）：有语法或语义错误时输出诊断并返回 null。
+     */
+    public static byte[] compile(String source, Options opts) {
+        // 1) Lexer/Parser
+        if (opts.dumpTokens) {
+            dumpTokens(source, opts.lexer);
+        }
+        CompilerSession session = SESSION.get();
+        session.setLexerMode(opts.lexer);
+        Diagnostics syntax = new Diagnostics();
+        CompilationUnit unit;
+        if (opts.dumpParseTree) {
+            // 需要打印解析树时保留完整解析树，再由 AstBuilder 转换
+            LxgParser.ProgContext prog = session.parse(source, syntax);
+            System.out.println(prog.toStringTree(Arrays.asList(LxgParser.ruleNames)));
+            unit = syntax.hasErrors() ? null : new AstBuilder().build(prog);
+        } else {
+            // 2) AST：解析过程中直接构建，不保留解析树
+            unit = session.parseAst(source, syntax);
+        }
+        if (syntax.hasErrors()) {
+            syntax.printAll(System.err);
+            return null;
+        }
+        if (opts.dumpAst) {
+            System.out.println(AstPrinter.print(unit));
+        }
+
+        // 3) Semantic check
+        Diagnostics diags = new TypeChecker().check(unit);
+        if (diags.hasErrors()) {
+            diags.printAll(System.err);
+            return null;
+        }
+
+        if (opts.optimize) {
+            unit = Optimizer.optimize(unit, opts.inlineLimit);
+            if (opts.dumpAst) {
+                System.out.println("-- optimized --");
+                System.out.println(AstPrinter.print(unit));
+            }
+        }
+
+        // 4) Codegen
+        PeepholeOptimizer peephole = opts.peephole ? new PeepholeOptimizer() : null;
+        byte[] cls = generator(opts, peephole).generate(unit);
+        if (peephole != null) System.err.println("[peephole] " + peephole.hits());
+        return cls;
+    }
+
+    /**
+     * 按选项配置的代码生成器（目标版本、输出缓冲、方法拆分预算、窥孔与帧计算方式）。
+     */
+    private static ClassGenerator generator(Options opts, PeepholeOptimizer peephole) {
+        return new ClassGenerator(ClassGenerator.CLASS_NAME, opts.target, opts.bufferedOutput, opts.methodBudget, peephole,
+                opts.computeFrames);
+    }
+
+    /**
+     * 监视模式：轮询文件修改时间，变化后以 IncrementalCompiler 增量更新，输出诊断与耗时，无错误时运行程序。
+     */
+    public static void watch(Path sourcePath, Options opts) throws Exception {
+        IncrementalCompiler compiler = new IncrementalCompiler(SESSION.get());
+        long stamp = Long.MIN_VALUE;
+        boolean opened = false;
+        while (true) {
+            long modified = Files.getLastModifiedTime(sourcePath).toMillis();
+            if (modified != stamp) {
+                stamp = modified;
+                String source = new String(Files.readAllBytes(sourcePath), "UTF-8");
+                try {
+                    long start = System.nanoTime();
+                    Diagnostics diags = opened ? compiler.update(source) : compiler.open(source);
+                    opened = true;
+                    System.out.printf("[watch] %s: %d statements, re-parsed %d, re-checked %d in %.1f ms%n",
+                            sourcePath.getFileName(), compiler.segmentCount(), compiler.lastReparsed(),
+                            compiler.lastRechecked(), (System.nanoTime() - start) / 1e6);
+                    if (diags.hasErrors()) {
+                        diags.printAll(System.err);
+                    } else {
+                        PeepholeOptimizer peephole = opts.peephole ? new PeepholeOptimizer() : null;
+                        byte[] cls = compiler.compile(opts.optimize, opts.inlineLimit, generator(opts, peephole));
+                        if (cls == null) {
+                            System.err.println("[watch] program has errors, not run");
+                        } else {
+                            if (peephole != null) System.err.println("[peephole] " + peephole.hits());
+                            emitClass(cls, opts.emitClassPath);
+                            new LxgShell().run(cls);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // 例如编辑中途出现超出 int 范围的字面量：报告后继续监视；增量状态可能不完整，下次整体重新打开
+                    System.err.println("[watch] " + e);
+                    opened = false;
+                }
+            }
+            Thread.sleep(200);
+        }
+    }
+
+    private static void emitClass(byte[] cls, String emitClassPath) throws IOException {
+        if (emitClassPath != null && !emitClassPath.isEmpty()) {
+            Path out = Paths.get(emitClassPath);
+            Files.createDirectories(out.getParent() == null ? Paths.get(".") : out.getParent());
+            Files.write(out, cls);
+            System.out.println("Emitted class to: " + out.toAbsolutePath());
+        }
+    }
+
+    /**
+     * 打印 Token 序列（文本 -> 类型显示名），两种词法器输出格式相同，便于对照。
+     */
+    private static void dumpTokens(String source, CompilerSession.LexerMode mode) {
+        if (mode == CompilerSession.LexerMode.FAST) {
+            FastTokens tokens = FastLexer.lex(source, new Diagnostics());
+            for (int i = 0; i < tokens.size(); i++) {
+                String text = tokens.kind(i) == Token.EOF ? "<EOF>" : tokens.text(i);
+                System.out.println(text + " -> " + LxgLexer.VOCABULARY.getDisplayName(tokens.kind(i)));
+            }
+            return;
+        }
+        CommonTokenStream tokens = new CommonTokenStream(new LxgLexer(CharStreams.fromString(source)));
+        tokens.fill();
+        for (Token t : tokens.getTokens()) {
+            System.out.println(t.getText() + " -> " + LxgLexer.VOCABULARY.getDisplayName(t.getType()));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.lxg.tools;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * 合成源码生成器：按给定语句数生成语法与类型均合法的 .lxg 程序，供基准测试与压力测试使用。
+ * <p>
+ * 生成规则：
+ * - 变量只在顶层 let 声明，块内只做赋值，保证在任何作用域规则下都能通过语义检查
+ * - 除法的除数固定为非零字面量，避免运行时除零
+ * - 同一 seed 生成的文本完全相同，便于前后对比
+ *
+ * @author xiangganluo
+ */
+public final class SyntheticSource {
+    private SyntheticSource() {
+    }
+
+    public static String generate(int statements, long seed) {
+        StringBuilder sb = new StringBuilder(statements * 24);
+        Random rnd = new Random(seed);
+        int vars = 0;
+        for (int i = 0; i < statements; i++) {
+            if (statement(sb, rnd, vars, Integer.MAX_VALUE)) vars++;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 向 out 写入约 chars 个字符的程序，最多声明 maxVars 个变量（之后只赋值/打印/分支），
+     * 用于生成远大于内存的源文件：生成过程本身只占用一条语句的缓冲。
+     */
+    public static void write(Appendable out, long chars, int maxVars, long seed) throws IOException {
+        StringBuilder sb = new StringBuilder(256);
+        Random rnd = new Random(seed);
+        int vars = 0;
+        long written = 0;
+        while (written < chars) {
+            sb.setLength(0);
+            if (statement(sb, rnd, vars, maxVars)) vars++;
+            out.append(sb);
+            written += sb.length();
+        }
+    }
+
+    /**
+     * 生成一条顶层语句；声明了新变量时返回 true。
+     */
+    private static boolean statement(StringBuilder sb, Random rnd, int vars, int maxVars) {
+        int kind = vars == 0 ? 0 : rnd.nextInt(10);
+        if (kind <= 3 && vars >= maxVars) kind = 4 + rnd.nextInt(6);
+        if (kind <= 3) {
+            sb.append("let v").append(vars).append(" = ");
+            expr(sb, rnd, vars, 3);
+            sb.append(";\n");
+            return true;
+        } else if (kind <= 6) {
+            sb.append('v').append(rnd.nextInt(vars)).append(" = ");
+            expr(sb, rnd, vars, 3);
+            sb.append(";\n");
+        } else if (kind == 7) {
+            sb.append("print ");
+            expr(sb, rnd, vars, 2);
+            sb.append(";\n");
+        } else {
+            sb.append("if (");
+            expr(sb, rnd, vars, 2);
+            sb.append(' ').append(CMP[rnd.nextInt(CMP.length)]).append(' ');
+            expr(sb, rnd, vars, 2);
+            sb.append(") { v").append(rnd.nextInt(vars)).append(" = ");
+            expr(sb, rnd, vars, 2);
+            sb.append("; } else { print ");
+            expr(sb, rnd, vars, 1);
+            sb.append("; }\n");
+        }
+        return false;
+    }
+
+    private static final String[] CMP = {"<", ">", "<=", ">=", "==", "!="};
+    private static final String[] ARITH = {"+", "-", "*"};
+
+    private static void expr(StringBuilder sb, Random rnd, int vars, int depth) {
+        if (depth == 0 || rnd.nextInt(3) == 0) {
+            if (vars > 0 && rnd.nextBoolean()) {
+                sb.append('v').append(rnd.nextInt(vars));
+            } else {
+                sb.append(rnd.nextInt(1000));
+            }
+            return;
+        }
+        int k = rnd.nextInt(5);
+        if (k == 0) {
+            sb.append('(');
+            expr(sb, rnd, vars, depth - 1);
+            sb.append(" / ").append(1 + rnd.nextInt(9)).append(')');
+        } else if (k == 1) {
+            sb.append("-(");
+            expr(sb, rnd, vars, depth - 1);
+            sb.append(')');
+        } else {
+            expr(sb, rnd, vars, depth - 1);
+            sb.append(' ').append(ARITH[rnd.nextInt(ARITH.length)]).append(' ');
+            expr(sb, rnd, vars, depth - 1);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.lxg;
+
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.driver.BatchCompiler;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.opt.Optimizer;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import com.lxg.tools.SyntheticSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * 批量编译测试：多线程编译一个目录的脚本写入同一个 jar，结果与逐个编译一致。
+ * <p>
+ * 覆盖点：
+ * - 类名由相对路径得到（子目录为子包，非法字符替换为 _）
+ * - jar 中每个类与单独编译（同类名）的字节码完全相同，且可以加载运行
+ * - 任一脚本出错时按文件收集诊断，不产出 jar
+ * - Config 中的内联上限等选项传到每个脚本的 Optimizer
+ *
+ * @author xiangganluo
+ */
+public class BatchCompilerTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void maps_paths_to_class_names() {
+        assertEquals("com/lxg/gen/hello", BatchCompiler.className(Paths.get("hello.lxg")));
+        assertEquals("com/lxg/gen/ops/_2_deploy", BatchCompiler.className(Paths.get("ops", "2-deploy.lxg")));
+    }
+
+    @Test
+    public void compiles_directory_into_jar() throws Exception {
+        Path dir = tmp.newFolder("scripts").toPath();
+        for (int i = 0; i < 40; i++) {
+            write(dir.resolve("group" + (i % 4)).resolve("s" + i + ".lxg"), SyntheticSource.generate(200, i));
+        }
+        write(dir.resolve("hello.lxg"), "let x = 40; print x + 2;");
+        Path jar = dir.resolve("app.jar");
+
+        BatchCompiler.Result result = new BatchCompiler(4).compile(dir, jar);
+        assertFalse(result.hasErrors());
+        assertEquals(41, result.classes.size());
+        try (JarFile jf = new JarFile(jar.toFile())) {
+            for (int i = 0; i < 40; i += 7) {
+                String name = "com/lxg/gen/group" + (i % 4) + "/s" + i;
+                JarEntry entry = jf.getJarEntry(name + ".class");
+                assertNotNull(name, entry);
+                byte[] expected = compileAlone(SyntheticSource.generate(200, i), name);
+                assertArrayEquals(expected, readAll(jf, entry));
+            }
+        }
+
+        PrintStream out = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{jar.toUri().toURL()}, null)) {
+            System.setOut(new PrintStream(captured, true, "UTF-8"));
+            Method main = loader.loadClass("com.lxg.gen.hello").getMethod("main", String[].class);
+            main.invoke(null, (Object) new String[0]);
+        } finally {
+            System.setOut(out);
+        }
+        assertEquals("42", captured.toString("UTF-8").trim());
+    }
+
+    @Test
+    public void collects_errors_per_file_and_writes_no_jar() throws Exception {
+        Path dir = tmp.newFolder("bad").toPath();
+        write(dir.resolve("ok.lxg"), "print 1;");
+        write(dir.resolve("syntax.lxg"), "print 1 +;");
+        write(dir.resolve("types.lxg"), "let s = \"a\"; print s - 1;");
+        Path jar = dir.resolve("app.jar");
+
+        BatchCompiler.Result result = new BatchCompiler(2).compile(dir, jar);
+        assertTrue(result.hasErrors());
+        assertEquals(2, result.failures.size());
+        assertTrue(result.failures.get(dir.resolve("syntax.lxg")).getErrors().get(0).startsWith("Syntax error"));
+        assertTrue(result.failures.get(dir.resolve("types.lxg")).getErrors().get(0).contains("Arithmetic expects INT"));
+        assertFalse(Files.exists(jar));
+        assertFalse(Files.exists(dir.resolve("app.jar.tmp")));
+    }
+
+    @Test
+    public void config_reaches_the_optimizer() throws Exception {
+        String src = "fn sq(x: int): int { return x * x; }\nprint sq(7);\n";
+        Path dir = tmp.newFolder("inline").toPath();
+        write(dir.resolve("sq.lxg"), src);
+        Path jar = dir.resolve("app.jar");
+        BatchCompiler.Config config = new BatchCompiler.Config();
+        config.parallelism = 1;
+        config.inlineLimit = 0;
+        assertFalse(new BatchCompiler(config).compile(dir, jar).hasErrors());
+        CompilationUnit unit = new CompilerSession().parseAst(src, new Diagnostics());
+        assertFalse(new TypeChecker().check(unit).hasErrors());
+        byte[] notInlined = new ClassGenerator("com/lxg/gen/sq").generate(Optimizer.optimize(unit, 0));
+        assertFalse(Arrays.equals(notInlined, compileAlone(src, "com/lxg/gen/sq")));
+        try (JarFile jf = new JarFile(jar.toFile())) {
+            assertArrayEquals(notInlined, readAll(jf, jf.getJarEntry("com/lxg/gen/sq.class")));
+        }
+    }
+
+    private static byte[] compileAlone(String src, String className) {
+        CompilationUnit unit = new CompilerSession().parseAst(src, new Diagnostics());
+        assertFalse(new TypeChecker().check(unit).hasErrors());
+        return new ClassGenerator(className).generate(Optimizer.optimize(unit));
+    }
+
+    private static void write(Path file, String text) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] readAll(JarFile jf, JarEntry entry) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        try (java.io.InputStream in = jf.getInputStream(entry)) {
+            for (int n; (n = in.read(buf)) > 0; ) bytes.write(buf, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+}
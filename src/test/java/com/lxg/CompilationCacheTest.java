@@ -0,0 +1,170 @@
+package com.lxg;
+
+import com.lxg.driver.CompilationCache;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.tools.Main;
+import com.lxg.tools.SyntheticSource;
+import org.antlr.v4.runtime.CharStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 磁盘编译缓存测试：输出确定、键的组成、命中与未命中、原子写入、LRU 淘汰与损坏文件。
+ * <p>
+ * 覆盖点：
+ * - 同一源码与选项在同一进程内、以及另一个 JVM 中生成逐字节相同的类
+ * - 源码、代码生成选项或编译器版本不同则键不同；词法器等不影响输出的选项不参与
+ * - 经缓存运行（未命中写入、命中映射加载）与直接运行输出相同，目录中只留下一个类文件，没有临时文件
+ * - 超过容量上限时淘汰最久未访问的文件；不是类文件的缓存项按未命中处理并被删除
+ *
+ * @author xiangganluo
+ */
+public class CompilationCacheTest {
+    private static final String SRC = "fn sq(x: int): int { return x * x; }\n"
+            + "let i = 0; let s = \"\";\n"
+            + "while (i < 4) { s = s + sq(i) + \",\"; i = i + 1; }\n"
+            + "print s; if (i > 3 && sq(i) != 0) { print \"done \" + i; } else { print 0; }\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void output_is_deterministic_across_runs_and_jvms() throws Exception {
+        String src = SyntheticSource.generate(500, 5) + SRC;
+        Main.Options opts = new Main.Options();
+        byte[] first = Main.compile(src, opts);
+        assertArrayEquals(first, Main.compile(src, opts));
+
+        Path source = tmp.newFile("p.lxg").toPath();
+        Files.write(source, src.getBytes(StandardCharsets.UTF_8));
+        Path emitted = tmp.getRoot().toPath().resolve("Program.class");
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String cp = Stream.of(Main.class, CharStreams.class, ClassWriter.class).map(CompilationCacheTest::location)
+                .collect(Collectors.joining(File.pathSeparator));
+        Process p = new ProcessBuilder(java, "-cp", cp, Main.class.getName(), "--emit-class=" + emitted, source.toString())
+                .redirectErrorStream(true).redirectOutput(tmp.newFile("out.txt")).start();
+        assertEquals(0, p.waitFor());
+        assertArrayEquals(first, Files.readAllBytes(emitted));
+    }
+
+    @Test
+    public void key_covers_source_options_and_version() {
+        byte[] src = SRC.getBytes(StandardCharsets.UTF_8);
+        Main.Options opts = new Main.Options();
+        String key = CompilationCache.key(src, opts.fingerprint());
+        assertEquals(64, key.length());
+        assertEquals(key, CompilationCache.key(src.clone(), new Main.Options().fingerprint()));
+        assertNotEquals(key, CompilationCache.key((SRC + " ").getBytes(StandardCharsets.UTF_8), opts.fingerprint()));
+        opts.lexer = CompilerSession.LexerMode.FAST;
+        assertEquals(key, CompilationCache.key(src, opts.fingerprint()));
+        List<Consumer<Main.Options>> changes = Arrays.asList(o -> o.optimize = false, o -> o.inlineLimit = 0, o -> o.target = 17,
+                o -> o.bufferedOutput = false, o -> o.methodBudget = 0, o -> o.peephole = true, o -> o.computeFrames = true);
+        for (Consumer<Main.Options> change : changes) {
+            Main.Options changed = new Main.Options();
+            change.accept(changed);
+            assertNotEquals(changed.fingerprint(), key, CompilationCache.key(src, changed.fingerprint()));
+        }
+        assertTrue(CompilationCache.COMPILER_VERSION, CompilationCache.COMPILER_VERSION.matches("[0-9a-f]{16}"));
+    }
+
+    @Test
+    public void cached_runs_match_direct_runs() throws Exception {
+        Path dir = tmp.getRoot().toPath().resolve("cache");
+        Main.Options opts = new Main.Options();
+        opts.cacheDir = dir.toString();
+        String expected = capture(() -> Main.runSource(SRC, new Main.Options()));
+        assertEquals("0,1,4,9,\ndone 4\n", expected);
+        byte[] src = SRC.getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected, capture(() -> runCached(src, opts)));
+        assertEquals(expected, capture(() -> runCached(src, opts)));
+        assertEquals(1, files(dir).length);
+        assertTrue(files(dir)[0].endsWith(CompilationCache.key(src, opts.fingerprint()) + ".class"));
+
+        CompilationCache cache = new CompilationCache(dir);
+        assertNull(cache.get("0000"));
+        ByteBuffer hit = cache.get(CompilationCache.key(src, opts.fingerprint()));
+        byte[] bytes = new byte[hit.remaining()];
+        hit.get(bytes);
+        assertArrayEquals(Main.compile(SRC, opts), bytes);
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+
+        // 有错误的源码不写入缓存
+        capture(() -> runCached("print y;".getBytes(StandardCharsets.UTF_8), opts));
+        assertEquals(1, files(dir).length);
+    }
+
+    @Test
+    public void least_recently_used_entries_are_evicted() throws Exception {
+        Path dir = tmp.getRoot().toPath();
+        byte[] cls = Main.compile(SRC, new Main.Options());
+        CompilationCache cache = new CompilationCache(dir, cls.length * 3L);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            cache.put("k" + i, cls);
+            Files.setLastModifiedTime(dir.resolve("k" + i + ".class"), FileTime.fromMillis(now - 60_000 * (3 - i)));
+        }
+        assertNotNull(cache.get("k0")); // k0 成为最近访问的，k1 最旧
+        cache.put("k3", cls);
+        assertEquals(1, cache.evictions());
+        assertEquals("[k0.class, k2.class, k3.class]", Arrays.toString(files(dir)));
+
+        Files.write(dir.resolve("bad.class"), "not a class".getBytes(StandardCharsets.UTF_8));
+        assertNull(cache.get("bad"));
+        assertFalse(Files.exists(dir.resolve("bad.class")));
+        assertEquals(1, cache.misses());
+    }
+
+    private static void runCached(byte[] src, Main.Options opts) {
+        try {
+            Main.runCached(src, opts);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String[] files(Path dir) throws IOException {
+        try (Stream<Path> list = Files.list(dir)) {
+            return list.map(p -> p.getFileName().toString()).sorted().toArray(String[]::new);
+        }
+    }
+
+    private static String location(Class<?> cls) {
+        try {
+            return new File(cls.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String capture(Runnable task) throws IOException {
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout, true, "UTF-8"));
+        try {
+            task.run();
+        } finally {
+            System.setOut(old);
+        }
+        return bout.toString("UTF-8");
+    }
+}
@@ -0,0 +1,148 @@
+package com.lxg;
+
+import com.lxg.antlr.LxgParser;
+import com.lxg.ast.expr.BinaryExpr;
+import com.lxg.ast.expr.BinaryOp;
+import com.lxg.ast.expr.IntLiteral;
+import com.lxg.ast.expr.VarRef;
+import com.lxg.ast.node.SourcePos;
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.stmt.AssignStmt;
+import com.lxg.ast.stmt.LetStmt;
+import com.lxg.ast.stmt.PrintStmt;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.frontend.AstBuilder;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import com.lxg.tools.AstPrinter;
+import com.lxg.tools.SyntheticSource;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 解析会话测试：验证两阶段解析的结果与诊断，以及 DFA 缓存的复用与上限重置。
+ * <p>
+ * 覆盖点：
+ * - 合法源码在 SLL 阶段即可完成解析，且无诊断
+ * - 语法错误回退到 LL 阶段后被收集为带位置的诊断（不再打印到控制台）
+ * - 同一会话多次解析后缓存保持“热”状态；超过上限时下一次解析前重置
+ * - 解析期直接构建的 AST 与“解析树 + AstBuilder”完全一致（结构、字节码与诊断位置）
+ * - 标识符被驻留为共享编号，打包后的位置可无损还原；手工构造（未驻留）的 AST 生成相同字节码
+ *
+ * @author xiangganluo
+ */
+public class CompilerSessionTest {
+    @Test
+    public void parses_valid_source_without_diagnostics() {
+        CompilerSession session = new CompilerSession();
+        Diagnostics diags = new Diagnostics();
+        LxgParser.ProgContext prog = session.parse("let x = 1 + 2; if (x > 1) { print x; } else { print 0; }", diags);
+        assertFalse(diags.hasErrors());
+        assertEquals(2, prog.stmt().size());
+    }
+
+    @Test
+    public void reports_syntax_error_with_position() {
+        CompilerSession session = new CompilerSession();
+        Diagnostics diags = new Diagnostics();
+        session.parse("let x = 1;\nprint x +;", diags);
+        assertTrue(diags.hasErrors());
+        assertTrue(diags.getErrors().get(0).startsWith("Syntax error"));
+        assertTrue(diags.getErrors().get(0).endsWith("at 2:9"));
+
+        // 出错后会话仍可继续使用
+        Diagnostics next = new Diagnostics();
+        session.parse("print 1;", next);
+        assertFalse(next.hasErrors());
+    }
+
+    @Test
+    public void keeps_caches_warm_and_resets_over_limit() {
+        String src = SyntheticSource.generate(200, 1);
+        CompilerSession session = new CompilerSession();
+        session.parse(src, new Diagnostics());
+        int warm = session.dfaStateCount();
+        assertTrue(warm > 0);
+        session.parse(src, new Diagnostics());
+        assertEquals(warm, session.dfaStateCount());
+        assertEquals(0, session.cacheResets());
+
+        CompilerSession capped = new CompilerSession(10);
+        capped.parse(src, new Diagnostics());
+        capped.parse(src, new Diagnostics());
+        assertEquals(1, capped.cacheResets());
+    }
+
+    @Test
+    public void builds_same_ast_as_parse_tree_path() {
+        String src = SyntheticSource.generate(500, 3)
+                + "print \"a\\tb\\\"c\";\n{ let s = \"x\"; print !(1 < 2); print 1 + 2 * 3 == 7 - 0; }\nprint -(+-5) / (2 * 3);\n";
+        for (CompilerSession.LexerMode mode : CompilerSession.LexerMode.values()) {
+            CompilerSession session = new CompilerSession();
+            session.setLexerMode(mode);
+            Diagnostics diags = new Diagnostics();
+            CompilationUnit direct = session.parseAst(src, diags);
+            assertFalse(diags.hasErrors());
+            CompilationUnit viaTree = new AstBuilder().build(session.parse(src, new Diagnostics()));
+            assertEquals(AstPrinter.print(viaTree), AstPrinter.print(direct));
+            assertFalse(new TypeChecker().check(viaTree).hasErrors());
+            assertFalse(new TypeChecker().check(direct).hasErrors());
+            assertArrayEquals(new ClassGenerator().generate(viaTree), new ClassGenerator().generate(direct));
+        }
+    }
+
+    @Test
+    public void direct_ast_keeps_source_positions() {
+        String src = "let x = 1;\nif (x + 1) { y = 2; } else { print \"s\" * 2; }\nx = true;";
+        CompilerSession session = new CompilerSession();
+        CompilationUnit direct = session.parseAst(src, new Diagnostics());
+        CompilationUnit viaTree = new AstBuilder().build(session.parse(src, new Diagnostics()));
+        List<String> expected = new TypeChecker().check(viaTree).getErrors();
+        assertEquals(4, expected.size());
+        assertEquals(expected, new TypeChecker().check(direct).getErrors());
+    }
+
+    @Test
+    public void direct_ast_is_null_on_syntax_error() {
+        CompilerSession session = new CompilerSession();
+        Diagnostics diags = new Diagnostics();
+        assertNull(session.parseAst("let x = 1;\nprint x +;", diags));
+        assertTrue(diags.getErrors().get(0).endsWith("at 2:9"));
+
+        // 出错后会话仍可继续使用
+        assertNotNull(session.parseAst("print 1;", new Diagnostics()));
+    }
+
+    @Test
+    public void interns_identifiers_and_packs_positions() {
+        CompilationUnit unit = new CompilerSession().parseAst("let x = 1;\n  print x;\n  x = x + 1;", new Diagnostics());
+        LetStmt let = (LetStmt) unit.statements.get(0);
+        VarRef ref = (VarRef) ((PrintStmt) unit.statements.get(1)).expression;
+        AssignStmt assign = (AssignStmt) unit.statements.get(2);
+        assertEquals(1, unit.names.size());
+        assertEquals(let.id, ref.id);
+        assertEquals(let.id, assign.id);
+        assertSame(let.name, ref.name);
+        assertEquals(2, unit.statements.get(1).getPos().line);
+        assertEquals(2, unit.statements.get(1).getPos().column);
+
+        long big = SourcePos.pack(Integer.MAX_VALUE, 123456);
+        assertEquals(Integer.MAX_VALUE, SourcePos.line(big));
+        assertEquals(123456, SourcePos.column(big));
+
+        List<Statement> manual = Arrays.asList(
+                new LetStmt("x", new IntLiteral(1)),
+                new PrintStmt(new VarRef("x")),
+                new AssignStmt("x", new BinaryExpr(new VarRef("x"), BinaryOp.ADD, new IntLiteral(1))));
+        CompilationUnit handBuilt = new CompilationUnit(manual);
+        assertFalse(new TypeChecker().check(unit).hasErrors());
+        assertFalse(new TypeChecker().check(handBuilt).hasErrors());
+        assertArrayEquals(new ClassGenerator().generate(unit), new ClassGenerator().generate(handBuilt));
+    }
+}
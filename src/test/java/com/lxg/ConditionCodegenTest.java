@@ -0,0 +1,123 @@
+package com.lxg;
+
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.runtime.LxgShell;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 条件编译测试：条件直接编译为跳转，&amp;&amp; / || 短路求值。
+ * <p>
+ * 覆盖点：
+ * - 真值表与优先级（! 高于 &amp;&amp;，&amp;&amp; 高于 ||）；作为值使用时物化为 true/false
+ * - 短路：右侧的除零不会被求值
+ * - if (a &lt; b) 只有一条条件跳转（外加跳过 else 的 GOTO），! 不增加跳转
+ * - 逻辑运算的操作数必须是 BOOLEAN
+ *
+ * @author xiangganluo
+ */
+public class ConditionCodegenTest {
+    @Test
+    public void evaluates_logical_operators() {
+        StringBuilder src = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        boolean[] values = {false, true};
+        for (boolean a : values) {
+            for (boolean b : values) {
+                String la = "let a = " + a + "; ", lb = "let b = " + b + "; ";
+                src.append("{ ").append(la).append(lb)
+                        .append("print a && b; print a || b; print !a && b; print !(a || b); ")
+                        .append("if (a && !b || b && !a) { print \"xor\"; } else { print \"same\"; } }\n");
+                expected.append(a && b).append('\n').append(a || b).append('\n')
+                        .append(!a && b).append('\n').append(!(a || b)).append('\n')
+                        .append(a != b ? "xor" : "same").append('\n');
+            }
+        }
+        src.append("print true || false && false; print 1 < 2 && 2 > 3 || !(0 != 0);");
+        expected.append("true\ntrue\n");
+        assertEquals(expected.toString(), run(src.toString()));
+    }
+
+    @Test
+    public void short_circuits_right_operand() {
+        String src = "let z = 0;\n"
+                + "if (z != 0 && 10 / z > 1) { print 1; } else { print 2; }\n"
+                + "if (z == 0 || 10 / z > 1) { print 3; }\n"
+                + "print z > 0 && 1 / z == 0;";
+        assertEquals("2\n3\nfalse\n", run(src));
+    }
+
+    @Test
+    public void if_compiles_to_a_single_conditional_jump() {
+        assertEquals(2, jumps("let a = 1; let b = 2; if (a < b) { print a; } else { print b; }"));
+        assertEquals(2, jumps("let a = 1; let b = 2; if (!(a < b)) { print a; } else { print b; }"));
+        assertEquals(1, jumps("let a = 1; if (a > 0) { print a; }"));
+        assertEquals(3, jumps("let a = 1; let b = 2; if (a < b && b < 3) { print a; } else { print b; }"));
+    }
+
+    @Test
+    public void logical_operators_expect_booleans() {
+        Diagnostics diags = new TypeChecker().check(parse("print 1 && true; print false || 0;"));
+        assertEquals(2, diags.getErrors().size());
+        assertTrue(diags.getErrors().get(0).contains("Logical operator expects BOOLEAN"));
+    }
+
+    private static CompilationUnit parse(String src) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+        return unit;
+    }
+
+    private static byte[] compile(String src) {
+        CompilationUnit unit = parse(src);
+        assertFalse(new TypeChecker().check(unit).hasErrors());
+        return new ClassGenerator().generate(unit);
+    }
+
+    private static String run(String src) {
+        byte[] cls = compile(src);
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout));
+        try {
+            new LxgShell().run(cls);
+        } finally {
+            System.setOut(old);
+        }
+        return new String(bout.toByteArray());
+    }
+
+    /**
+     * main 中的跳转指令数（条件跳转与 GOTO）。
+     */
+    private static int jumps(String src) {
+        int[] count = {0};
+        new ClassReader(compile(src)).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                if (!name.equals("main")) return null;
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitJumpInsn(int opcode, Label label) {
+                        count[0]++;
+                    }
+                };
+            }
+        }, 0);
+        return count[0];
+    }
+}
@@ -0,0 +1,109 @@
+package com.lxg;
+
+import com.lxg.ast.expr.BinaryExpr;
+import com.lxg.ast.expr.BoolLiteral;
+import com.lxg.ast.expr.IntLiteral;
+import com.lxg.ast.expr.VarRef;
+import com.lxg.ast.node.Expression;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.stmt.PrintStmt;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.opt.ConstantFolder;
+import com.lxg.opt.Optimizer;
+import com.lxg.runtime.LxgShell;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import com.lxg.tools.SyntheticSource;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 常量折叠/传播测试。
+ * <p>
+ * 覆盖点：
+ * - 字面量运算与未被重新赋值的 let 在编译期求值
+ * - int 溢出回绕与未优化时一致；除数为 0 的除法保留到运行时
+ * - 被重新赋值的变量不传播
+ * - 随机程序优化前后输出完全一致
+ *
+ * @author xiangganluo
+ */
+public class ConstantFolderTest {
+    @Test
+    public void folds_literals_and_propagates_lets() {
+        CompilationUnit unit = optimize("let x = 1 + 2; print x * 4; print !(x < 4); let s = \"a\"; print s;");
+        assertEquals(12, ((IntLiteral) printed(unit, 1)).value);
+        assertFalse(((BoolLiteral) printed(unit, 2)).value);
+        assertEquals("a\n", run("let s = \"a\"; print s;"));
+    }
+
+    @Test
+    public void keeps_int_semantics() {
+        assertEquals(Integer.MIN_VALUE, ((IntLiteral) printed(optimize("print 2147483647 + 1;"), 0)).value);
+        assertEquals(-7, ((IntLiteral) printed(optimize("print -15 / 2;"), 0)).value);
+        assertTrue(printed(optimize("let z = 0; print 1 / z;"), 1) instanceof BinaryExpr);
+        try {
+            run("let z = 0; print 1 / z;");
+            fail("expected division by zero at runtime");
+        } catch (RuntimeException e) {
+            Throwable cause = e;
+            while (cause.getCause() != null) cause = cause.getCause();
+            assertTrue(cause instanceof ArithmeticException);
+        }
+    }
+
+    @Test
+    public void does_not_propagate_reassigned_variables() {
+        CompilationUnit unit = optimize("let x = 1; if (x > 0) { x = 2; } print x + 0;");
+        assertTrue(printed(unit, 2) instanceof VarRef);
+        assertEquals("2\n", run("let x = 1; if (x > 0) { x = 2; } print x + 0;"));
+    }
+
+    @Test
+    public void optimized_programs_print_the_same() {
+        for (int seed = 0; seed < 20; seed++) {
+            String src = SyntheticSource.generate(300, seed);
+            CompilationUnit unit = check(src);
+            String plain = capture(new ClassGenerator().generate(unit));
+            String optimized = capture(new ClassGenerator().generate(Optimizer.optimize(unit)));
+            assertEquals("seed " + seed, plain, optimized);
+        }
+    }
+
+    private static Expression printed(CompilationUnit unit, int index) {
+        return ((PrintStmt) unit.statements.get(index)).expression;
+    }
+
+    private static CompilationUnit check(String src) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.hasErrors());
+        assertFalse(new TypeChecker().check(unit).hasErrors());
+        return unit;
+    }
+
+    private static CompilationUnit optimize(String src) {
+        return new ConstantFolder().fold(check(src));
+    }
+
+    private static String run(String src) {
+        return capture(new ClassGenerator().generate(Optimizer.optimize(check(src))));
+    }
+
+    private static String capture(byte[] cls) {
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout));
+        try {
+            new LxgShell().run(cls);
+        } finally {
+            System.setOut(old);
+        }
+        return new String(bout.toByteArray());
+    }
+}
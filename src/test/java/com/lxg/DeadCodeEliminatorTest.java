@@ -0,0 +1,82 @@
+package com.lxg;
+
+import com.lxg.ast.expr.IntLiteral;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.stmt.IfStmt;
+import com.lxg.ast.stmt.LetStmt;
+import com.lxg.ast.stmt.PrintStmt;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.opt.ConstantFolder;
+import com.lxg.opt.Optimizer;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import com.lxg.tools.AstPrinter;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 死分支与死存储消除测试。
+ * <p>
+ * 覆盖点：
+ * - 条件为常量的 if 只保留执行的分支并展开到外层；嵌套块展开
+ * - 从未读取的 let/赋值删除，并迭代到不动点
+ * - 可能抛出除零异常的右侧与条件保留
+ * - 含大量死代码的程序类文件明显变小
+ *
+ * @author xiangganluo
+ */
+public class DeadCodeEliminatorTest {
+    @Test
+    public void removes_constant_branches_and_flattens_blocks() {
+        CompilationUnit unit = optimize("if (true) { print 1; } else { print 2; } if (1 > 2) { print 3; } { let a = 4; { print a; } }");
+        assertEquals("Print 1\nPrint 4\n", AstPrinter.print(unit));
+    }
+
+    @Test
+    public void removes_unread_stores_until_fixpoint() {
+        CompilationUnit unit = optimize("let n = 0; n = n + 1; let a = n * 2; let b = a - 1; b = b * 3; print n;");
+        assertEquals(3, unit.statements.size());
+        assertEquals("n", ((LetStmt) unit.statements.get(0)).name);
+        assertTrue(unit.statements.get(2) instanceof PrintStmt);
+    }
+
+    @Test
+    public void keeps_stores_and_conditions_that_may_throw() {
+        CompilationUnit unit = optimize("let z = 0; let d = 5 / z; let e = 5 / 2; if (1 / z > 0) { } print 1;");
+        assertEquals(3, unit.statements.size());
+        assertEquals("d", ((LetStmt) unit.statements.get(0)).name);
+        assertTrue(unit.statements.get(1) instanceof IfStmt);
+        assertEquals(1, ((IntLiteral) ((PrintStmt) unit.statements.get(2)).expression).value);
+    }
+
+    @Test
+    public void shrinks_classes_with_dead_code() {
+        StringBuilder src = new StringBuilder("let debug = false;\nlet sum = 0;\n");
+        for (int i = 0; i < 300; i++) {
+            src.append("let t").append(i).append(" = sum * ").append(i).append(";\n");
+            src.append("if (debug) { print \"step ").append(i).append("\"; print t").append(i).append("; }\n");
+            src.append("sum = sum + ").append(i).append(";\n");
+        }
+        src.append("print sum;\n");
+        CompilationUnit unit = check(src.toString());
+        int plain = new ClassGenerator().generate(unit).length;
+        int folded = new ClassGenerator().generate(new ConstantFolder().fold(unit)).length;
+        int optimized = new ClassGenerator().generate(Optimizer.optimize(unit)).length;
+        assertTrue(plain + " -> " + folded, folded <= plain);
+        assertTrue(folded + " -> " + optimized, optimized * 3 < folded);
+    }
+
+    private static CompilationUnit check(String src) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.hasErrors());
+        assertFalse(new TypeChecker().check(unit).hasErrors());
+        return unit;
+    }
+
+    private static CompilationUnit optimize(String src) {
+        return Optimizer.optimize(check(src));
+    }
+}
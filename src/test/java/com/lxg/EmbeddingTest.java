@@ -0,0 +1,159 @@
+package com.lxg;
+
+import com.lxg.ast.node.ValueType;
+import com.lxg.driver.ScriptCompiler;
+import com.lxg.runtime.CompiledScript;
+import com.lxg.runtime.LxgContext;
+import com.lxg.runtime.LxgProgram;
+import com.lxg.sema.Diagnostics;
+import com.lxg.tools.Main;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * 嵌入运行测试：ScriptCompiler 编译、CompiledScript 以 LxgContext 传入输入与收集输出。
+ * <p>
+ * 覆盖点：
+ * - 三种类型的输入、函数中的 print、给输入赋值、循环优化（强度削弱分配的新槽位不覆盖输入）
+ * - 无输入的脚本与命令行路径输出一致；生成的类实现 LxgProgram、没有静态字段
+ * - 缺少输入、类型不符、与输入同名的 let、语法错误
+ * - 同一个句柄在多个线程中同时运行，各自的输出互不干扰
+ *
+ * @author xiangganluo
+ */
+public class EmbeddingTest {
+    private static final String SRC = "fn line(s: string, k: int): int { print s + \":\" + k; return k * 2; }\n"
+            + "let i = 0; let t = 0;\n"
+            + "while (i < n) { t = t + i * 3 + line(who, i); i = i + 1; }\n"
+            + "if (loud) { print \"TOTAL \" + t; } else { print t; }\n"
+            + "n = n + 100; print n;\n";
+
+    @Test
+    public void inputs_and_output_go_through_the_context() {
+        CompiledScript script = ScriptCompiler.compile(SRC, inputs());
+        assertEquals("[n, who, loud]", script.inputs().keySet().toString());
+        assertEquals("INT", script.inputs().get("n"));
+        assertEquals("a:0\na:1\na:2\nTOTAL 15\n103\n", script.run(values(3, "a", true)));
+        assertEquals("0\n100\n", script.run(values(0, "b", false)));
+
+        StringWriter out = new StringWriter();
+        script.run(new LxgContext(values(1, "w", false), out));
+        assertEquals("w:0\n0\n101\n", out.toString());
+    }
+
+    @Test
+    public void scripts_without_inputs_match_the_command_line_path() throws Exception {
+        String src = "fn sq(x: int): int { return x * x; }\n"
+                + "let i = 0; let s = \"\";\n"
+                + "while (i < 4) { s = s + sq(i) + \",\"; i = i + 1; }\n"
+                + "print s; print i > 3; print \"done \" + i;\n";
+        CompiledScript script = ScriptCompiler.compile(src, Collections.<String, ValueType>emptyMap());
+        assertEquals(capture(src), script.run(Collections.<String, Object>emptyMap()));
+        assertTrue(script.program() instanceof LxgProgram);
+
+        ClassNode cn = new ClassNode();
+        new ClassReader(script.classBytes()).accept(cn, 0);
+        assertEquals(Collections.singletonList(LxgProgram.INTERNAL_NAME), cn.interfaces);
+        assertTrue(cn.fields.isEmpty());
+        for (MethodNode m : cn.methods) assertNotEquals("main", m.name);
+    }
+
+    @Test
+    public void bad_inputs_and_scripts_are_reported() {
+        CompiledScript script = ScriptCompiler.compile(SRC, inputs());
+        Map<String, Object> missing = values(1, "a", true);
+        missing.remove("who");
+        assertRejected(script, missing, "Missing input: who");
+        Map<String, Object> wrong = values(1, "a", true);
+        wrong.put("n", "1");
+        assertRejected(script, wrong, "Input 'n' must be Integer, got String");
+
+        Diagnostics diags = new Diagnostics();
+        assertNull(ScriptCompiler.compile("let n = 1; print n;", inputs(), diags));
+        assertTrue(diags.getErrors().toString(), diags.getErrors().get(0).contains("n"));
+        try {
+            ScriptCompiler.compile("print n +;", inputs());
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertFalse(expected.getMessage().isEmpty());
+        }
+    }
+
+    @Test
+    public void one_script_runs_concurrently() throws Exception {
+        CompiledScript script = ScriptCompiler.compile(SRC, inputs());
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                String who = "t" + t;
+                int n = t % 4;
+                String expected = script.run(values(n, who, false));
+                results.add(pool.submit(() -> {
+                    for (int r = 0; r < 2_000; r++) {
+                        if (!expected.equals(script.run(values(n, who, false)))) return false;
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> f : results) assertTrue(f.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void assertRejected(CompiledScript script, Map<String, Object> values, String message) {
+        try {
+            script.run(values);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals(message, expected.getMessage());
+        }
+    }
+
+    private static Map<String, ValueType> inputs() {
+        Map<String, ValueType> inputs = new LinkedHashMap<>();
+        inputs.put("n", ValueType.INT);
+        inputs.put("who", ValueType.STRING);
+        inputs.put("loud", ValueType.BOOLEAN);
+        return inputs;
+    }
+
+    private static Map<String, Object> values(int n, String who, boolean loud) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("n", n);
+        values.put("who", who);
+        values.put("loud", loud);
+        return values;
+    }
+
+    private static String capture(String src) throws IOException {
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout, true, "UTF-8"));
+        try {
+            Main.runSource(src, new Main.Options());
+        } finally {
+            System.setOut(old);
+        }
+        return bout.toString("UTF-8");
+    }
+}
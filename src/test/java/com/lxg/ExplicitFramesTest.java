@@ -0,0 +1,170 @@
+package com.lxg;
+
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.program.FlatCompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.codegen.ProgramEmitter;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.opt.Optimizer;
+import com.lxg.runtime.LxgShell;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import com.lxg.tools.SyntheticSource;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FrameNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * 显式栈映射帧测试：发射时给出的帧与 ClassWriter 的 COMPUTE_FRAMES|COMPUTE_MAXS 结果一致，生成的类通过校验。
+ * <p>
+ * 覆盖点：
+ * - 循环体内的 let 复用循环前已死亡、类型不同的变量的槽位；嵌套循环、块内变量、短路条件、字符串拼接、函数与递归
+ * - 缓冲/非缓冲输出（catch-any 处理器的帧）、目标 8/17、方法拆分、扁平形式：各方法的指令、最大栈深度与局部变量数
+ * 与 COMPUTE_* 的结果相同（帧的内容可以不同：循环头上显式帧把循环体内声明的槽位记为 TOP）
+ * - 显式帧的 ClassWriter 不做分析，从不调用 getCommonSuperClass
+ * - 空程序、只有函数声明或被优化到一条语句不剩的程序：main 只有 catch-any 处理器压栈，max_stack 仍然正确
+ *
+ * @author xiangganluo
+ */
+public class ExplicitFramesTest {
+    private static final String SRC = "let s = \"a\"; let i = 0; print s;\n"
+            + "while (i < 3) { let t = i * 2; print t; if (t > 1) { let u = \"x\" + t; print u; } i = i + 1; }\n"
+            + "{ let q = \"blk\"; print q; }\n"
+            + "let k = 0;\n"
+            + "while (k < 2 || false) { let z = k + 1; print z; let j = 0; while (j < 2) { let w = \"w\" + j; print w; j = j + 1; } k = k + 1; }\n"
+            + "let b = i > 2 && k < 5 || k == 0; print b; print \"str\" + (i < 3) + k;\n"
+            + "fn fib(n: int): int { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }\n"
+            + "fn tag(x: int, loud: boolean): string { let r = \"#\" + x; if (loud) { return r + \"!\"; } else { return r; } }\n"
+            + "print fib(15); print tag(3, true); print tag(4, false);\n";
+
+    private static final String EXPECTED = "a\n0\n2\nx2\n4\nx4\nblk\n1\nw0\nw1\n2\nw0\nw1\ntrue\nstrfalse2\n610\n#3!\n#4\n";
+
+    @Test
+    public void explicit_frames_match_computed_frames() throws Exception {
+        for (int target : new int[]{8, 17}) {
+            for (boolean buffered : new boolean[]{true, false}) {
+                for (int budget : new int[]{0, 60}) {
+                    CompilationUnit unit = check(SRC);
+                    byte[] explicit = new ClassGenerator(ClassGenerator.CLASS_NAME, target, buffered, budget, null, false).generate(unit);
+                    byte[] computed = new ClassGenerator(ClassGenerator.CLASS_NAME, target, buffered, budget, null, true).generate(unit);
+                    assertEquals(shape(computed), shape(explicit));
+                    assertEquals(EXPECTED, run(explicit));
+                    assertEquals(EXPECTED, run(new ClassGenerator(ClassGenerator.CLASS_NAME, target, buffered, budget, null, false)
+                            .generate(Optimizer.optimize(check(SRC)))));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void large_programs_and_flat_form_verify() throws Exception {
+        String src = SyntheticSource.generate(3_000, 11);
+        CompilationUnit unit = check(src);
+        byte[] explicit = new ClassGenerator().generate(unit);
+        assertEquals(shape(new ClassGenerator(ClassGenerator.CLASS_NAME, 8, true, ClassGenerator.DEFAULT_METHOD_BUDGET, null, true)
+                .generate(unit)), shape(explicit));
+        FlatCompilationUnit flat = FlatCompilationUnit.of(parse(src));
+        assertFalse(new TypeChecker().check(flat).hasErrors());
+        assertEquals(shape(explicit), shape(new ClassGenerator().generate(flat)));
+        assertEquals(run(explicit), run(new ClassGenerator().generate(flat)));
+    }
+
+    @Test
+    public void programs_that_push_nothing_verify() throws Exception {
+        // main 只剩 flush 与 catch-any 处理器：处理器帧的栈上有 Throwable，max_stack 不能为 0
+        for (String src : new String[]{"", "// only a comment\n", "fn f(): int { return 1; }"}) {
+            CompilationUnit unit = check(src);
+            byte[] explicit = new ClassGenerator().generate(unit);
+            assertEquals(shape(new ClassGenerator(ClassGenerator.CLASS_NAME, 8, true, ClassGenerator.DEFAULT_METHOD_BUDGET, null, true)
+                    .generate(unit)), shape(explicit));
+            assertEquals("", run(explicit));
+        }
+        for (String src : new String[]{"let a = 1;", "let a = 1; a = a;", "if (false) { print 1; }"}) {
+            assertEquals("", run(new ClassGenerator().generate(Optimizer.optimize(check(src)))));
+        }
+    }
+
+    @Test
+    public void loop_head_frame_forgets_slots_declared_in_the_body() {
+        // s 在循环前最后一次使用，t 复用它的槽位：循环头的帧中该槽位必须是 TOP，而不是 String
+        ClassNode cn = new ClassNode();
+        new ClassReader(new ClassGenerator().generate(check("let s = \"a\"; let i = 0; print s; while (i < 3) { let t = i; print t; i = i + 1; }")))
+                .accept(cn, ClassReader.EXPAND_FRAMES);
+        MethodNode main = cn.methods.stream().filter(m -> m.name.equals("main")).findFirst().get();
+        boolean sawLoopHead = false;
+        for (int i = 0; i < main.instructions.size(); i++) {
+            if (!(main.instructions.get(i) instanceof FrameNode)) continue;
+            FrameNode f = (FrameNode) main.instructions.get(i);
+            if (f.local.size() > 1) {
+                assertEquals(TOP, f.local.get(1));
+                sawLoopHead = true;
+            }
+        }
+        assertTrue(sawLoopHead);
+    }
+
+    @Test
+    public void explicit_frames_never_load_classes() {
+        ClassWriter cw = new ClassWriter(0) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                throw new AssertionError("getCommonSuperClass(" + type1 + ", " + type2 + ")");
+            }
+        };
+        ProgramEmitter program = new ClassGenerator().begin(cw);
+        for (Statement s : check(SRC).statements) program.emit(s);
+        assertTrue(program.finish().length > 0);
+    }
+
+    /**
+     * 每个方法的名字、最大栈深度、局部变量数与指令（不含帧）。
+     */
+    private static String shape(byte[] cls) {
+        ClassNode cn = new ClassNode();
+        new ClassReader(cls).accept(cn, ClassReader.SKIP_FRAMES);
+        StringBuilder sb = new StringBuilder();
+        for (MethodNode m : cn.methods) {
+            sb.append(m.name).append(m.desc).append(" stack=").append(m.maxStack).append(" locals=").append(m.maxLocals).append(':');
+            for (int i = 0; i < m.instructions.size(); i++) sb.append(' ').append(m.instructions.get(i).getOpcode());
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static CompilationUnit parse(String src) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+        return unit;
+    }
+
+    private static CompilationUnit check(String src) {
+        CompilationUnit unit = parse(src);
+        Diagnostics sema = new TypeChecker().check(unit);
+        assertFalse(sema.getErrors().toString(), sema.hasErrors());
+        return unit;
+    }
+
+    private static String run(byte[] cls) throws IOException {
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout, true, "UTF-8"));
+        try {
+            new LxgShell().run(cls);
+        } finally {
+            System.setOut(old);
+        }
+        return bout.toString("UTF-8");
+    }
+}
@@ -0,0 +1,128 @@
+package com.lxg;
+
+import com.lxg.antlr.LxgLexer;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.frontend.FastLexer;
+import com.lxg.frontend.FastTokens;
+import com.lxg.sema.Diagnostics;
+import com.lxg.tools.Main;
+import com.lxg.tools.SyntheticSource;
+import org.antlr.v4.runtime.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * 手写词法器等价性测试：FastLexer 与 ANTLR 生成的 LxgLexer 逐 Token 对比。
+ * <p>
+ * 覆盖点：
+ * - 类型、起止偏移、行列号与文本完全一致（含末尾 EOF）
+ * - 关键字前缀/后缀（printx、let_1）、注释、转义与跨行字符串、最长匹配运算符
+ * - 词法错误（非法字符、未闭合字符串）的诊断文本与位置一致，且错误后的 Token 序列一致
+ * - --lexer=fast 的端到端输出与默认词法器相同
+ *
+ * @author xiangganluo
+ */
+public class FastLexerTest {
+
+    private static void assertEquivalent(String src) {
+        Diagnostics antlrDiags = new Diagnostics();
+        LxgLexer lexer = new LxgLexer(CharStreams.fromString(src));
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> r, Object o, int line, int col, String msg, RecognitionException e) {
+                antlrDiags.error("Syntax error: " + msg + " at " + line + ":" + col);
+            }
+        });
+        CommonTokenStream stream = new CommonTokenStream(lexer);
+        stream.fill();
+        List<Token> expected = stream.getTokens();
+
+        Diagnostics fastDiags = new Diagnostics();
+        FastTokens actual = FastLexer.lex(src, fastDiags);
+
+        assertEquals(antlrDiags.getErrors(), fastDiags.getErrors());
+        assertEquals(describe(expected), describe(actual));
+    }
+
+    private static List<String> describe(List<Token> tokens) {
+        List<String> out = new ArrayList<>();
+        for (Token t : tokens) {
+            out.add(t.getType() + " " + t.getStartIndex() + ":" + t.getStopIndex() + " @" + t.getLine() + ":"
+                    + t.getCharPositionInLine() + " " + t.getText());
+        }
+        return out;
+    }
+
+    private static List<String> describe(FastTokens tokens) {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            String text = tokens.kind(i) == Token.EOF ? "<EOF>" : tokens.text(i);
+            out.add(tokens.kind(i) + " " + tokens.start(i) + ":" + (tokens.end(i) - 1) + " @" + tokens.line(i) + ":"
+                    + tokens.column(i) + " " + text);
+        }
+        return out;
+    }
+
+    @Test
+    public void equivalent_on_examples() throws Exception {
+        File[] files = new File("examples").listFiles((d, n) -> n.endsWith(".lxg"));
+        assertNotNull(files);
+        for (File f : files) {
+            assertEquivalent(new String(Files.readAllBytes(f.toPath()), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void equivalent_on_synthetic_source() {
+        assertEquivalent(SyntheticSource.generate(2_000, 3));
+    }
+
+    @Test
+    public void equivalent_on_edge_cases() {
+        assertEquivalent("");
+        assertEquivalent("printx print let_1 letx iff if else elsey true truex false _f1 x9");
+        assertEquivalent("a==b!=c<=d>=e<f>g=h!i+-*/j // comment\r\n//tail");
+        assertEquivalent("a&&b||!c &&(d||e)");
+        assertEquivalent("print \"a\\\"b\\\\c\\n\";\nprint \"multi\nline\";  print 1;");
+        assertEquivalent("let 中 = 1;\n  x = 0123 ;\t{ }()");
+    }
+
+    @Test
+    public void equivalent_on_lexical_errors() {
+        assertEquivalent("let x = 1 @ 2;\n print #x;");
+        assertEquivalent("print 1;\nprint \"unterminated\nstill");
+        assertEquivalent("print \"ends with backslash\\");
+        assertEquivalent("print a & b | c &");
+    }
+
+    @Test
+    public void fast_lexer_end_to_end() {
+        String src = "let a = 10; let b = 3; if (a >= b) { print a * b; } else { print \"no\"; }\n";
+        assertEquals(run(src, CompilerSession.LexerMode.ANTLR), run(src, CompilerSession.LexerMode.FAST));
+        assertEquals("30\n", run(src, CompilerSession.LexerMode.FAST));
+    }
+
+    private static String run(String src, CompilerSession.LexerMode lexer) {
+        PrintStream oldOut = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout));
+        try {
+            Main.Options opts = new Main.Options();
+            opts.lexer = lexer;
+            Main.runSource(src, opts);
+            return new String(bout.toByteArray());
+        } finally {
+            System.setOut(oldOut);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.lxg;
+
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.runtime.LxgShell;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+
+import static org.junit.Assert.*;
+
+/**
+ * 缓冲输出测试：默认的 FastOut 输出与 --unbuffered（System.out.println）逐字节一致。
+ * <p>
+ * 覆盖点：
+ * - int 边界值、boolean、非 ASCII 与代理对字符串、超过缓冲区容量的字面量与大量输出
+ * - 抛出异常前已 print 的内容仍然输出
+ * - 缓冲输出的类不调用 PrintStream.println，重复的字面量共用一个预编码字段
+ *
+ * @author xiangganluo
+ */
+public class FastOutTest {
+    @Test
+    public void matches_unbuffered_output() throws Exception {
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 1000; i++) big.append("0123456789");
+        StringBuilder src = new StringBuilder()
+                .append("let min = -2147483647 - 1; print min; print 2147483647; print 0; print -7; print 10; print 99;\n")
+                .append("print true; print false; print 1 < 2;\n")
+                .append("print \"héllo 中文 😀\"; let s = \"é\" + min + \"😀\"; print s; print \"\";\n")
+                .append("print \"").append(big).append("\"; print \"").append(big).append("\" + 1;\n");
+        for (int i = 0; i < 600; i++) src.append("print \"line ").append(i).append("\"; print ").append(i * 37).append(";\n");
+        String buffered = run(src.toString(), true);
+        assertEquals(run(src.toString(), false), buffered);
+        assertTrue(buffered.startsWith("-2147483648\n2147483647\n0\n-7\n10\n99\ntrue\nfalse\ntrue\nhéllo 中文 😀\né-2147483648😀\n\n"));
+    }
+
+    @Test
+    public void flushes_before_exception() throws Exception {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        PrintStream old = System.out;
+        PrintStream oldErr = System.err;
+        System.setOut(new PrintStream(bout, true, "UTF-8"));
+        System.setErr(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            new LxgShell().run(compile("let z = 0; print \"before\"; print 1; print 1 / z; print \"after\";", true));
+            fail();
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getCause().getCause() instanceof ArithmeticException);
+        } finally {
+            System.setOut(old);
+            System.setErr(oldErr);
+        }
+        assertEquals("before\n1\n", bout.toString("UTF-8"));
+    }
+
+    @Test
+    public void buffered_class_avoids_print_stream() {
+        String src = "print \"a\"; print \"b\"; print \"a\"; print 1; print true;";
+        int[] counts = count(compile(src, true));
+        assertEquals(0, counts[0]);
+        assertEquals(2, counts[1]);
+        counts = count(compile(src, false));
+        assertEquals(5, counts[0]);
+        assertEquals(0, counts[1]);
+    }
+
+    private static byte[] compile(String src, boolean buffered) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+        assertFalse(new TypeChecker().check(unit).hasErrors());
+        return new ClassGenerator(ClassGenerator.CLASS_NAME, ClassGenerator.DEFAULT_TARGET, buffered).generate(unit);
+    }
+
+    private static String run(String src, boolean buffered) throws UnsupportedEncodingException {
+        byte[] cls = compile(src, buffered);
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout, true, "UTF-8"));
+        try {
+            new LxgShell().run(cls);
+        } finally {
+            System.setOut(old);
+        }
+        return bout.toString("UTF-8");
+    }
+
+    /**
+     * [PrintStream.println 调用数, 字段数]
+     */
+    private static int[] count(byte[] cls) {
+        int[] counts = {0, 0};
+        new ClassReader(cls).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                counts[1]++;
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                        if (owner.equals("java/io/PrintStream") && name.equals("println")) counts[0]++;
+                    }
+                };
+            }
+        }, 0);
+        return counts;
+    }
+}
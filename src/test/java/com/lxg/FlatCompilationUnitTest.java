@@ -0,0 +1,63 @@
+package com.lxg;
+
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.program.FlatCompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import com.lxg.tools.AstPrinter;
+import com.lxg.tools.SyntheticSource;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 扁平 AST 测试：与对象 AST 互相转换无损，类型检查与代码生成结果一致。
+ * <p>
+ * 覆盖点：
+ * - of → toCompilationUnit 往返后结构（AstPrinter 输出）与位置不变
+ * - 扁平形式上的 TypeChecker 诊断与对象 AST 逐条一致（含位置）
+ * - 扁平形式生成的字节码与对象 AST 完全相同
+ *
+ * @author xiangganluo
+ */
+public class FlatCompilationUnitTest {
+    @Test
+    public void round_trips_through_object_ast() {
+        CompilationUnit unit = parse(SyntheticSource.generate(2_000, 3)
+                + "if (1 < 2) { print \"a\"; { print !true; } } else { print -(4 / 2); }");
+        FlatCompilationUnit flat = FlatCompilationUnit.of(unit);
+        CompilationUnit back = flat.toCompilationUnit();
+        assertEquals(AstPrinter.print(unit), AstPrinter.print(back));
+        assertEquals(unit.statements.size(), flat.statementCount());
+        assertEquals(unit.statements.get(1).getPos().toString(), back.statements.get(1).getPos().toString());
+    }
+
+    @Test
+    public void type_checks_like_object_ast() {
+        CompilationUnit unit = parse("let x = 1;\nlet x = 2;\nprint y + 1;\nx = \"s\";\nif (x) { print -true; } else { z = 1; }\nprint 1 < true;");
+        Diagnostics expected = new TypeChecker().check(unit);
+        Diagnostics actual = new TypeChecker().check(FlatCompilationUnit.of(unit));
+        assertTrue(expected.getErrors().size() >= 6);
+        assertEquals(expected.getErrors(), actual.getErrors());
+    }
+
+    @Test
+    public void generates_same_bytecode_as_object_ast() {
+        CompilationUnit unit = parse(SyntheticSource.generate(3_000, 17)
+                + "if (1 < 2) { print \"a\"; { print !true; } } else { print -(4 / 2); }"
+                + "let t = v1 > 0 && !(v2 == 3 || v3 <= v1); if (!t || v0 != 0) { print t && true; }");
+        FlatCompilationUnit flat = FlatCompilationUnit.of(unit);
+        assertFalse(new TypeChecker().check(unit).hasErrors());
+        assertFalse(new TypeChecker().check(flat).hasErrors());
+        assertArrayEquals(new ClassGenerator().generate(unit), new ClassGenerator().generate(flat));
+    }
+
+    private static CompilationUnit parse(String src) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+        return unit;
+    }
+}
@@ -0,0 +1,156 @@
+package com.lxg;
+
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.codegen.PeepholeOptimizer;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.opt.Inliner;
+import com.lxg.opt.Optimizer;
+import com.lxg.runtime.LxgShell;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import com.lxg.tools.AstPrinter;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * 函数测试：声明与调用、语义检查、各条编译路径的输出、生成的静态方法，以及 AST 层面的内联。
+ * <p>
+ * 覆盖点：
+ * - 递归、多参数、字符串与 boolean 参数/返回值、if 中的 return、有副作用的函数；对象 AST、优化、窥孔与方法拆分输出一致
+ * - 未知函数、参数个数与类型、返回类型、缺少 return、return 之后的语句、嵌套声明、重复声明
+ * - 小的叶子函数在调用点展开并被删除，--inline=0 时保留调用；递归与有副作用的函数不内联
+ *
+ * @author xiangganluo
+ */
+public class FunctionTest {
+    private static final String SRC = "fn sq(x: int): int { return x * x; }\n"
+            + "fn fact(n: int): int { if (n <= 1) { return 1; } else { return n * fact(n - 1); } }\n"
+            + "fn greet(name: string, loud: boolean): string {\n"
+            + "  let s = \"hi \" + name;\n"
+            + "  if (loud) { return s + \"!\"; }\n"
+            + "  return s;\n"
+            + "}\n"
+            + "fn isPos(x: int): boolean { return x > 0; }\n"
+            + "let a = 7;\n"
+            + "print sq(a) + sq(2);\n"
+            + "print fact(10);\n"
+            + "print greet(\"bob\", true); print greet(\"amy\", false);\n"
+            + "if (isPos(a - 10)) { print \"pos\"; } else { print \"neg\"; }\n"
+            + "let i = 0; let t = 0;\n"
+            + "while (i < 10) { t = t + sq(i); i = i + 1; }\n"
+            + "print t;\n"
+            + "fn zero(): int { print \"side\"; return 0; }\n"
+            + "print zero() + 1;\n";
+
+    private static final String EXPECTED = "53\n3628800\nhi bob!\nhi amy\nneg\n285\nside\n1\n";
+
+    @Test
+    public void functions_run_on_every_path() throws Exception {
+        assertEquals(EXPECTED, run(new ClassGenerator().generate(check(SRC))));
+        assertEquals(EXPECTED, run(new ClassGenerator().generate(Optimizer.optimize(check(SRC)))));
+        assertEquals(EXPECTED, run(new ClassGenerator().generate(Optimizer.optimize(check(SRC), 0))));
+        assertEquals(EXPECTED, run(new ClassGenerator(ClassGenerator.CLASS_NAME, 8, false, 0, new PeepholeOptimizer())
+                .generate(Optimizer.optimize(check(SRC), 0))));
+        assertEquals(EXPECTED, run(new ClassGenerator(ClassGenerator.CLASS_NAME, 8, true, 60).generate(check(SRC))));
+    }
+
+    @Test
+    public void semantic_errors_are_reported() {
+        assertError("print f(1);", "Unknown function: f");
+        assertError("print sq(1); fn sq(x: int): int { return x * x; }", "Unknown function: sq");
+        assertError("fn f(x: int): int { return x; } print f(1, 2);", "Function 'f' expects 1 argument(s), got 2");
+        assertError("fn f(x: int): int { return x; } print f(\"a\");", "Argument 1 of 'f': expected INT, got STRING");
+        assertError("fn f(x: int): string { return x; }", "Return type mismatch in function 'f': expected STRING, got INT");
+        assertError("return 1;", "return outside of function");
+        assertError("fn f(x: int): int { if (x > 0) { return 1; } }", "Missing return in function 'f'");
+        assertError("fn f(): int { return 1; print 2; }", "Unreachable statement");
+        assertError("if (true) { fn f(): int { return 1; } }", "Functions must be declared at top level");
+        assertError("fn f(): int { return 1; } fn f(): int { return 2; }", "Function already declared: f");
+        assertError("let y = 1; fn f(): int { return y; }", "Unknown variable");
+    }
+
+    @Test
+    public void functions_become_private_static_methods() throws Exception {
+        ClassNode cn = new ClassNode();
+        new ClassReader(new ClassGenerator().generate(Optimizer.optimize(check(SRC), 0))).accept(cn, 0);
+        Map<String, MethodNode> methods = new HashMap<>();
+        for (MethodNode m : cn.methods) methods.put(m.name, m);
+        assertEquals("(I)I", methods.get("sq").desc);
+        assertEquals("(Ljava/lang/String;Z)Ljava/lang/String;", methods.get("greet").desc);
+        assertEquals("(I)Z", methods.get("isPos").desc);
+        assertEquals("()I", methods.get("zero").desc);
+        assertEquals(ACC_PRIVATE | ACC_STATIC, methods.get("fact").access);
+    }
+
+    @Test
+    public void small_leaf_functions_are_inlined() {
+        Inliner inliner = new Inliner();
+        String dump = AstPrinter.print(inliner.inline(check(SRC)));
+        // sq 三处、isPos 一处；fact 递归、greet 含 if、zero 有副作用，都保留
+        assertEquals(4, inliner.inlined());
+        assertEquals(2, inliner.removed());
+        assertFalse(dump, dump.contains("Call sq"));
+        assertFalse(dump, dump.contains("Fn isPos"));
+        assertTrue(dump, dump.contains("Call fact"));
+        assertTrue(dump, dump.contains("Call zero"));
+
+        String off = AstPrinter.print(Optimizer.optimize(check(SRC), 0));
+        assertTrue(off, off.contains("Call sq"));
+        Inliner tiny = new Inliner(2);
+        tiny.inline(check(SRC));
+        assertEquals(0, tiny.inlined()); // x * x 有 3 个节点
+    }
+
+    @Test
+    public void arguments_are_not_duplicated() throws Exception {
+        // 参数 x 在函数体中出现两次：实参是变量时直接替换，是复杂表达式时保留调用，避免重复求值
+        String src = "fn twice(x: int): int { return x + x; } let a = 3; print twice(a); print twice(a * 5 + 1);";
+        Inliner inliner = new Inliner();
+        String dump = AstPrinter.print(inliner.inline(check(src)));
+        assertEquals(1, inliner.inlined());
+        assertTrue(dump, dump.contains("Call twice"));
+        assertEquals("6\n32\n", run(new ClassGenerator().generate(Optimizer.optimize(check(src)))));
+    }
+
+    private static void assertError(String src, String message) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+        Diagnostics sema = new TypeChecker().check(unit);
+        assertTrue(src, sema.hasErrors());
+        assertTrue(sema.getErrors().toString(), sema.getErrors().toString().contains(message));
+    }
+
+    private static CompilationUnit check(String src) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+        Diagnostics sema = new TypeChecker().check(unit);
+        assertFalse(sema.getErrors().toString(), sema.hasErrors());
+        return unit;
+    }
+
+    private static String run(byte[] cls) throws IOException {
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout, true, "UTF-8"));
+        try {
+            new LxgShell().run(cls);
+        } finally {
+            System.setOut(old);
+        }
+        return bout.toString("UTF-8");
+    }
+}
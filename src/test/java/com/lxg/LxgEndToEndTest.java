@@ -30,7 +30,7 @@ public class LxgEndToEndTest {
         ByteArrayOutputStream bout = new ByteArrayOutputStream();
         System.setOut(new PrintStream(bout));
         try {
-            Main.runSource(source, null, false, true, false);
+            Main.runSource(source, null, false, false, false);
             return new String(bout.toByteArray());
         } finally {
             System.setOut(oldOut);
@@ -45,7 +45,7 @@ public class LxgEndToEndTest {
      */
     @Test
     public void testPrintIntAndStringAndBool() throws IOException {
-        String source = new String(Files.readAllBytes(Paths.get("/Users/hbwb36334/github/my-language/examples/hello.lxg")), "UTF-8");
+        String source = new String(Files.readAllBytes(Paths.get("examples/hello.lxg")), "UTF-8");
         Main.runSource(source, null, true, true, false);
     }
 
@@ -0,0 +1,215 @@
+package com.lxg;
+
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.program.FlatCompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.driver.StreamingCompiler;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.opt.Optimizer;
+import com.lxg.runtime.LxgShell;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import com.lxg.tools.SyntheticSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * 方法拆分测试：超过预算的程序拆成 main + chunkN，输出不变，每个方法都在预算内并能被 JIT 编译。
+ * <p>
+ * 覆盖点：
+ * - 跨方法的 int/boolean/string 变量、块内变量、活跃区间复用的槽位；对象 AST、扁平形式与优化后的 AST
+ * - 超过 64KB 的程序（包括流式编译）可以生成并运行
+ * - 子 JVM 中 -XX:+PrintCompilation：拆分后的方法被编译，未拆分的大 main 不会被编译
+ *
+ * @author xiangganluo
+ */
+public class MethodSplittingTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void split_program_behaves_like_single_main() throws Exception {
+        String src = program(1_200);
+        CompilationUnit unit = check(src);
+        String expected = run(new ClassGenerator(ClassGenerator.CLASS_NAME, 8, true, 0).generate(unit));
+        for (int budget : new int[]{ClassGenerator.DEFAULT_METHOD_BUDGET, 2_000, 300}) {
+            byte[] cls = new ClassGenerator(ClassGenerator.CLASS_NAME, 8, true, budget).generate(unit);
+            Map<String, Integer> sizes = codeSizes(cls);
+            assertTrue(sizes.toString(), sizes.size() > 2);
+            for (Map.Entry<String, Integer> e : sizes.entrySet()) {
+                if (!e.getKey().equals("<init>")) assertTrue(e + " > " + budget, e.getValue() <= budget);
+            }
+            assertEquals("budget " + budget, expected, run(cls));
+            assertEquals("flat, budget " + budget, expected, run(new ClassGenerator(ClassGenerator.CLASS_NAME, 8, true, budget)
+                    .generate(flat(src))));
+            assertEquals("optimized, budget " + budget, expected, run(new ClassGenerator(ClassGenerator.CLASS_NAME, 8, true, budget)
+                    .generate(Optimizer.optimize(check(src)))));
+        }
+    }
+
+    @Test
+    public void small_programs_stay_in_main() {
+        CompilationUnit unit = check("let x = 1; print x + 2;");
+        byte[] split = new ClassGenerator().generate(unit);
+        assertArrayEquals(new ClassGenerator(ClassGenerator.CLASS_NAME, 8, true, 0).generate(unit), split);
+        assertEquals(2, codeSizes(split).size());
+    }
+
+    @Test
+    public void programs_beyond_64kb_compile_and_run() throws Exception {
+        String src = program(12_000);
+        byte[] whole = new ClassGenerator().generate(check(src));
+        assertTrue(whole.length > 65_536);
+
+        Path file = tmp.newFile("big.lxg").toPath();
+        Files.write(file, src.getBytes(StandardCharsets.UTF_8));
+        Diagnostics diags = new Diagnostics();
+        byte[] streamed = new StreamingCompiler().compile(file, diags);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+        assertEquals(run(whole), run(streamed));
+    }
+
+    @Test
+    public void split_methods_are_jit_compiled() throws Exception {
+        String src = SyntheticSource.generate(2_500, 3).replaceAll("print [^;]*;", "v0 = v0 + 1;");
+        CompilationUnit unit = check(src);
+        File dir = tmp.newFolder("classes");
+        byte[] huge = new ClassGenerator("com/lxg/gen/Huge", 8, false, 0).generate(unit);
+        byte[] split = new ClassGenerator("com/lxg/gen/Split", 8, false, ClassGenerator.DEFAULT_METHOD_BUDGET).generate(unit);
+        assertTrue(codeSizes(huge).get("main") > ClassGenerator.DEFAULT_METHOD_BUDGET);
+        Files.createDirectories(dir.toPath().resolve("com/lxg/gen"));
+        Files.write(dir.toPath().resolve("com/lxg/gen/Huge.class"), huge);
+        Files.write(dir.toPath().resolve("com/lxg/gen/Split.class"), split);
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String probe = new File(JitProbe.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        Process p = new ProcessBuilder(java, "-Xbatch", "-XX:+PrintCompilation", "-cp", probe, JitProbe.class.getName(),
+                dir.getPath(), "com.lxg.gen.Huge", "com.lxg.gen.Split")
+                .redirectErrorStream(true).start();
+        String log = readAll(p.getInputStream());
+        assertEquals(log, 0, p.waitFor());
+        assertTrue(log, log.contains("com.lxg.gen.Split::main"));
+        assertTrue(log, log.contains("com.lxg.gen.Split::chunk1"));
+        assertFalse(log, log.contains("com.lxg.gen.Huge::main"));
+    }
+
+    /**
+     * 子 JVM 入口：从目录加载给定的类，各调用 main 500 次（超过分层编译的调用阈值）。
+     */
+    public static final class JitProbe {
+        public static void main(String[] args) throws Exception {
+            try (URLClassLoader loader = new URLClassLoader(new URL[]{new File(args[0]).toURI().toURL()})) {
+                for (int i = 1; i < args.length; i++) {
+                    Method main = loader.loadClass(args[i]).getMethod("main", String[].class);
+                    for (int k = 0; k < 500; k++) main.invoke(null, (Object) new String[0]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 合成程序，外加跨越全程的 string/boolean 变量、块内变量与被重新声明的名字。
+     */
+    private static String program(int statements) {
+        StringBuilder sb = new StringBuilder("let name = \"lxg\"; let flag = true; let sum = 0;\n");
+        String body = SyntheticSource.generate(statements, 11);
+        String[] lines = body.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            sb.append(lines[i]).append('\n');
+            if (i % 97 == 0) {
+                sb.append("{ let t = v0 * 2; let s = name + t; if (flag) { let u = s + \"!\"; print u; } sum = sum + t; }\n");
+                sb.append("flag = !flag; name = name + \".\";\n");
+            }
+        }
+        sb.append("print name; print flag; print sum;\n");
+        return sb.toString();
+    }
+
+    private static CompilationUnit check(String src) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+        Diagnostics sema = new TypeChecker().check(unit);
+        assertFalse(sema.getErrors().toString(), sema.hasErrors());
+        return unit;
+    }
+
+    private static FlatCompilationUnit flat(String src) {
+        Diagnostics diags = new Diagnostics();
+        FlatCompilationUnit unit = FlatCompilationUnit.of(new CompilerSession().parseAst(src, diags));
+        assertFalse(new TypeChecker().check(unit).hasErrors());
+        return unit;
+    }
+
+    private static String run(byte[] cls) throws IOException {
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout, true, "UTF-8"));
+        try {
+            new LxgShell().run(cls);
+        } finally {
+            System.setOut(old);
+        }
+        return bout.toString("UTF-8");
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        for (int n; (n = in.read(buf)) > 0; ) out.write(buf, 0, n);
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * 方法名 → Code 属性中的 code_length（直接解析类文件的 methods 表）。
+     */
+    private static Map<String, Integer> codeSizes(byte[] cls) {
+        ClassReader cr = new ClassReader(cls);
+        char[] buf = new char[cr.getMaxStringLength()];
+        int offset = cr.header + 6;
+        offset += 2 + 2 * cr.readUnsignedShort(offset); // interfaces
+        offset = skipMembers(cr, offset); // fields
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        int methods = cr.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < methods; i++) {
+            String name = cr.readUTF8(offset + 2, buf);
+            int attributes = cr.readUnsignedShort(offset + 6);
+            offset += 8;
+            for (int a = 0; a < attributes; a++) {
+                if (cr.readUTF8(offset, buf).equals("Code")) sizes.put(name, cr.readInt(offset + 10));
+                offset += 6 + cr.readInt(offset + 2);
+            }
+        }
+        return sizes;
+    }
+
+    private static int skipMembers(ClassReader cr, int offset) {
+        int count = cr.readUnsignedShort(offset);
+        offset += 2;
+        for (int i = 0; i < count; i++) {
+            int attributes = cr.readUnsignedShort(offset + 6);
+            offset += 8;
+            for (int a = 0; a < attributes; a++) offset += 6 + cr.readInt(offset + 2);
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,156 @@
+package com.lxg;
+
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.codegen.PeepholeOptimizer;
+import com.lxg.codegen.PeepholeOptimizer.Rule;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.runtime.LxgShell;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * 窥孔优化测试：开启后程序输出不变、指令变少，各规则按预期命中。
+ * <p>
+ * 覆盖点：
+ * - let 后立即读取、x = x ± c、- -x 与 !!b、空 else 分支；缓冲/非缓冲输出与方法拆分
+ * - 条件物化的 0/1 菱形后紧跟 IFEQ/IFNE（发射器本身不再产生，用手写的 MethodNode 验证）改写为直接跳转且语义不变
+ *
+ * @author xiangganluo
+ */
+public class PeepholeOptimizerTest {
+    private static final String SRC = "let x = 5; let y = 7; let s = \"a\";\n"
+            + "let t = x * 2; print t;\n"
+            + "x = x + 1; y = y - 3; x = x + 200; x = x - 4; print x; print y;\n"
+            + "print -(-x); let b = x < y; print !(!b);\n"
+            + "if (x > y) { print \"big\"; } else { }\n"
+            + "if (!(x < y) && y > 0) { s = s + x; } else { s = s + y; }\n"
+            + "let big = 0; big = big + 40000; print big; print s;";
+
+    @Test
+    public void rewritten_program_behaves_the_same() throws Exception {
+        CompilationUnit unit = check(SRC);
+        for (boolean buffered : new boolean[]{true, false}) {
+            PeepholeOptimizer peephole = new PeepholeOptimizer();
+            byte[] plain = new ClassGenerator(ClassGenerator.CLASS_NAME, 8, buffered, 0).generate(unit);
+            byte[] rewritten = new ClassGenerator(ClassGenerator.CLASS_NAME, 8, buffered, 0, peephole).generate(unit);
+            assertEquals(run(plain), run(rewritten));
+            assertTrue(rewritten.length < plain.length);
+            assertEquals(4, peephole.hits(Rule.INCREMENT)); // big + 40000 超出 IINC 的范围
+            assertEquals(2, peephole.hits(Rule.DOUBLE_NEGATION));
+            assertEquals(1, peephole.hits(Rule.GOTO_NEXT));
+            assertEquals(buffered ? 4 : 1, peephole.hits(Rule.STORE_LOAD)); // 非缓冲时 print 先取 System.out，只剩 big 的赋值
+        }
+        assertEquals("10\n202\n4\n202\nfalse\nbig\n40000\na202\n", run(new ClassGenerator(ClassGenerator.CLASS_NAME, 8, true, 0,
+                new PeepholeOptimizer()).generate(unit)));
+    }
+
+    @Test
+    public void split_methods_are_rewritten_too() throws Exception {
+        StringBuilder src = new StringBuilder("let n = 0;\n");
+        for (int i = 0; i < 400; i++) src.append("let v").append(i).append(" = n + ").append(i).append("; print v").append(i)
+                .append("; n = n + 3;\n");
+        CompilationUnit unit = check(src.toString());
+        PeepholeOptimizer peephole = new PeepholeOptimizer();
+        byte[] rewritten = new ClassGenerator(ClassGenerator.CLASS_NAME, 8, true, 1_000, peephole).generate(unit);
+        assertEquals(run(new ClassGenerator().generate(unit)), run(rewritten));
+        assertTrue(peephole.hits(Rule.STORE_LOAD) > 0);
+        assertTrue(peephole.hits(Rule.INCREMENT) > 0);
+    }
+
+    @Test
+    public void boolean_diamond_feeding_jump_becomes_direct_jump() throws Exception {
+        for (int test : new int[]{IFEQ, IFNE}) {
+            MethodNode method = diamond(test);
+            PeepholeOptimizer peephole = new PeepholeOptimizer();
+            peephole.optimize(method);
+            assertEquals(1, peephole.hits(Rule.BOOLEAN_JUMP));
+            for (AbstractInsnNode i = method.instructions.getFirst(); i != null; i = i.getNext()) {
+                assertNotEquals(ICONST_0, i.getOpcode());
+                assertNotEquals(GOTO, i.getOpcode());
+            }
+            Method m = load(method);
+            // a < b 为真：IFEQ 顺序执行返回 1，IFNE 跳转返回 2
+            assertEquals(test == IFEQ ? 1 : 2, m.invoke(null, 1, 2));
+            assertEquals(test == IFEQ ? 2 : 1, m.invoke(null, 3, 2));
+            assertEquals(test == IFEQ ? 2 : 1, m.invoke(null, 2, 2));
+        }
+    }
+
+    /**
+     * static int f(int a, int b)：把 a &lt; b 物化为 0/1 后立即以 test 测试，跳转返回 2，否则返回 1。
+     */
+    private static MethodNode diamond(int test) {
+        MethodNode m = new MethodNode(ACC_PUBLIC | ACC_STATIC, "f", "(II)I", null, null);
+        Label falseL = new Label();
+        Label endL = new Label();
+        Label target = new Label();
+        m.visitCode();
+        m.visitVarInsn(ILOAD, 0);
+        m.visitVarInsn(ILOAD, 1);
+        m.visitJumpInsn(IF_ICMPGE, falseL);
+        m.visitInsn(ICONST_1);
+        m.visitJumpInsn(GOTO, endL);
+        m.visitLabel(falseL);
+        m.visitInsn(ICONST_0);
+        m.visitLabel(endL);
+        m.visitJumpInsn(test, target);
+        m.visitInsn(ICONST_1);
+        m.visitInsn(IRETURN);
+        m.visitLabel(target);
+        m.visitInsn(ICONST_2);
+        m.visitInsn(IRETURN);
+        m.visitMaxs(0, 0);
+        m.visitEnd();
+        return m;
+    }
+
+    private static Method load(MethodNode method) throws Exception {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, ACC_PUBLIC | ACC_SUPER, "com/lxg/gen/Diamond", null, "java/lang/Object", null);
+        method.accept(cw);
+        cw.visitEnd();
+        byte[] bytes = cw.toByteArray();
+        Class<?> cls = new ClassLoader(PeepholeOptimizerTest.class.getClassLoader()) {
+            Class<?> define() {
+                return defineClass("com.lxg.gen.Diamond", bytes, 0, bytes.length);
+            }
+        }.define();
+        return cls.getMethod("f", int.class, int.class);
+    }
+
+    private static CompilationUnit check(String src) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+        Diagnostics sema = new TypeChecker().check(unit);
+        assertFalse(sema.getErrors().toString(), sema.hasErrors());
+        return unit;
+    }
+
+    private static String run(byte[] cls) throws UnsupportedEncodingException {
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout, true, "UTF-8"));
+        try {
+            new LxgShell().run(cls);
+        } finally {
+            System.setOut(old);
+        }
+        return bout.toString("UTF-8");
+    }
+}
@@ -0,0 +1,153 @@
+package com.lxg;
+
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.runtime.LxgShell;
+import com.lxg.runtime.ProgramCache;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 进程内程序缓存测试：命中与未命中、LRU 淘汰、被淘汰的类可以卸载，以及脚本持续更替时 Metaspace 保持稳定。
+ * <p>
+ * 覆盖点：
+ * - 同一段字节码只定义一次，之后的运行输出相同；以源码哈希为键时命中不再调用编译
+ * - 条目数与类文件总大小上限，最近使用的程序保留
+ * - 淘汰后加载器与类不再可达，GC 后被卸载
+ * - 容量 16 的缓存运行 3000 个不同脚本：后 2000 个期间 Metaspace 基本不增长，被淘汰的类持续卸载
+ *
+ * @author xiangganluo
+ */
+public class ProgramCacheTest {
+    @Test
+    public void repeated_runs_reuse_the_loaded_program() throws Exception {
+        ProgramCache cache = new ProgramCache();
+        LxgShell shell = new LxgShell(cache);
+        byte[] cls = compile("let i = 0; while (i < 3) { print i; i = i + 1; } print \"end\";");
+        for (int i = 0; i < 3; i++) assertEquals("0\n1\n2\nend\n", capture(() -> shell.run(cls)));
+        assertEquals(1, cache.misses());
+        assertEquals(2, cache.hits());
+        assertSame(cache.program(cls), cache.program(cls.clone()));
+
+        AtomicInteger compiles = new AtomicInteger();
+        String src = "print 6 * 7;";
+        for (int i = 0; i < 3; i++) {
+            assertEquals("42\n", capture(() -> shell.run(ProgramCache.hash(src.getBytes(StandardCharsets.UTF_8)), () -> {
+                compiles.incrementAndGet();
+                return compile(src);
+            })));
+        }
+        assertEquals(1, compiles.get());
+        assertEquals(2, cache.size());
+        assertTrue(ProgramCache.metaspaceUsed() > 0);
+    }
+
+    @Test
+    public void least_recently_used_programs_are_evicted() throws Exception {
+        ProgramCache cache = new ProgramCache(2, Long.MAX_VALUE);
+        byte[] a = compile("print 1;");
+        byte[] b = compile("print 2;");
+        byte[] c = compile("print 3;");
+        Method first = cache.program(a);
+        cache.program(b);
+        cache.program(a);
+        cache.program(c); // b 最久未用
+        assertEquals(1, cache.evictions());
+        assertSame(first, cache.program(a));
+        assertEquals(4, cache.misses() + cache.evictions());
+        cache.program(b);
+        assertEquals(4, cache.misses());
+
+        ProgramCache bySize = new ProgramCache(100, a.length + b.length);
+        bySize.program(a);
+        bySize.program(b);
+        assertEquals(0, bySize.evictions());
+        bySize.program(compile("print \"a longer program than the others\";"));
+        assertEquals(1, bySize.size());
+        assertEquals(2, bySize.evictions());
+    }
+
+    @Test
+    public void evicted_programs_are_unloaded() throws Exception {
+        ProgramCache cache = new ProgramCache(1, Long.MAX_VALUE);
+        WeakReference<Class<?>> evicted = new WeakReference<>(cache.program(compile("print 1;")).getDeclaringClass());
+        cache.program(compile("print 2;"));
+        assertEquals(1, cache.evictions());
+        for (int i = 0; i < 10 && evicted.get() != null; i++) System.gc();
+        assertNull(evicted.get());
+    }
+
+    @Test
+    public void metaspace_is_stable_under_script_churn() throws Exception {
+        ProgramCache cache = new ProgramCache(16, Long.MAX_VALUE);
+        LxgShell shell = new LxgShell(cache);
+        ClassLoadingMXBean classes = ManagementFactory.getClassLoadingMXBean();
+        PrintStream old = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        long warm;
+        long unloaded;
+        try {
+            churn(shell, 0, 1_000);
+            warm = metaspaceAfterGc();
+            unloaded = classes.getUnloadedClassCount();
+            churn(shell, 1_000, 3_000);
+        } finally {
+            System.setOut(old);
+        }
+        long growth = metaspaceAfterGc() - warm;
+        // 不淘汰时 2000 个脚本约占 2.8MB Metaspace
+        assertTrue("metaspace grew by " + growth + " bytes", growth < 1_000_000);
+        assertTrue(classes.getUnloadedClassCount() - unloaded >= 1_900);
+        assertEquals(16, cache.size());
+        assertEquals(3_000 - 16, cache.evictions());
+    }
+
+    private static void churn(LxgShell shell, int from, int to) {
+        for (int i = from; i < to; i++) shell.run(compile("let v = " + i + "; print v;"));
+    }
+
+    private static long metaspaceAfterGc() {
+        for (int i = 0; i < 3; i++) System.gc();
+        return ProgramCache.metaspaceUsed();
+    }
+
+    private static byte[] compile(String src) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+        Diagnostics sema = new TypeChecker().check(unit);
+        assertFalse(sema.getErrors().toString(), sema.hasErrors());
+        return new ClassGenerator().generate(unit);
+    }
+
+    private static String capture(Runnable task) throws IOException {
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout, true, "UTF-8"));
+        try {
+            task.run();
+        } finally {
+            System.setOut(old);
+        }
+        return bout.toString("UTF-8");
+    }
+}
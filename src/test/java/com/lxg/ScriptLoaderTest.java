@@ -0,0 +1,105 @@
+package com.lxg;
+
+import com.lxg.ast.node.ValueType;
+import com.lxg.driver.ScriptCompiler;
+import com.lxg.runtime.CompiledScript;
+import com.lxg.runtime.ScriptLoader;
+import com.lxg.sema.Diagnostics;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * 脚本类定义策略测试：每个脚本一个加载器、共享加载器（唯一类名）与隐藏类。
+ * <p>
+ * 覆盖点：
+ * - 三种策略下同一批脚本（含函数与输入）的输出相同
+ * - 共享加载器中的类名互不相同、加载器只有一个，编译错误不占用类名
+ * - 隐藏类不在任何加载器的字典中，句柄不可达后单独卸载（需要 JDK 15+）
+ *
+ * @author xiangganluo
+ */
+public class ScriptLoaderTest {
+    private static final Map<String, ValueType> INPUTS = Collections.singletonMap("n", ValueType.INT);
+
+    @Test
+    public void every_strategy_runs_the_same_scripts() {
+        for (ScriptLoader.Strategy strategy : ScriptLoader.Strategy.values()) {
+            if (strategy == ScriptLoader.Strategy.HIDDEN_CLASS && !ScriptLoader.hiddenClassesSupported()) continue;
+            ScriptLoader loader = new ScriptLoader(strategy);
+            for (int i = 0; i < 5; i++) {
+                CompiledScript script = compile(i, loader);
+                assertEquals(strategy.toString(), "f=" + (3 * i + 1) + "\n" + (3 * i + 1 + i) + "\n",
+                        script.run(Collections.singletonMap("n", 3)));
+            }
+            assertEquals(5, loader.defined());
+        }
+    }
+
+    @Test
+    public void shared_loader_defines_uniquely_named_classes() throws Exception {
+        ScriptLoader loader = new ScriptLoader(ScriptLoader.Strategy.SHARED_LOADER);
+        Set<String> names = new HashSet<>();
+        Set<ClassLoader> loaders = new HashSet<>();
+        for (int i = 0; i < 20; i++) {
+            Class<?> cls = compile(i, loader).program().getClass();
+            names.add(cls.getName());
+            loaders.add(cls.getClassLoader());
+        }
+        assertEquals(20, names.size());
+        assertEquals(1, loaders.size());
+        ClassLoader shared = loaders.iterator().next();
+        assertSame(shared, shared.loadClass("com.lxg.gen.Script7").getClassLoader());
+        try {
+            shared.loadClass("com.lxg.gen.Script21");
+            fail();
+        } catch (ClassNotFoundException expected) {
+        }
+
+        assertNull(ScriptCompiler.compile("print m;", INPUTS, new Diagnostics(), loader));
+        assertEquals("com/lxg/gen/Script21", loader.newClassName());
+
+        ScriptLoader perScript = new ScriptLoader(ScriptLoader.Strategy.LOADER_PER_SCRIPT);
+        assertEquals("com.lxg.gen.Program", compile(0, perScript).program().getClass().getName());
+        assertNotSame(compile(1, perScript).program().getClass().getClassLoader(), compile(2, perScript).program().getClass().getClassLoader());
+    }
+
+    @Test
+    public void hidden_classes_are_unloaded_individually() {
+        Assume.assumeTrue("hidden classes require JDK 15+", ScriptLoader.hiddenClassesSupported());
+        ScriptLoader loader = new ScriptLoader(ScriptLoader.Strategy.HIDDEN_CLASS);
+        List<CompiledScript> kept = new ArrayList<>();
+        List<WeakReference<Class<?>>> dropped = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            CompiledScript script = compile(i, loader);
+            Class<?> cls = script.program().getClass();
+            assertTrue(cls.getName(), cls.getName().startsWith("com.lxg.runtime.Script" + (i + 1) + "/"));
+            if (i % 2 == 0) kept.add(script);
+            else dropped.add(new WeakReference<>(cls));
+        }
+        for (int i = 0; i < 10 && dropped.stream().anyMatch(r -> r.get() != null); i++) System.gc();
+        for (WeakReference<Class<?>> r : dropped) assertNull(r.get());
+        for (CompiledScript script : kept) assertTrue(script.run(Collections.singletonMap("n", 1)).startsWith("f="));
+        try {
+            Class.forName("com.lxg.runtime.Script1");
+            fail();
+        } catch (ClassNotFoundException expected) {
+        }
+    }
+
+    private static CompiledScript compile(int i, ScriptLoader loader) {
+        String src = "fn f(x: int): int { return x * " + i + " + 1; } print \"f=\" + f(n); print f(n) + " + i + ";";
+        CompiledScript script = ScriptCompiler.compile(src, INPUTS, new Diagnostics(), loader);
+        assertNotNull(script);
+        return script;
+    }
+}
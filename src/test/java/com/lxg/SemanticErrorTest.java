@@ -2,7 +2,13 @@ package com.lxg;
 
 import com.lxg.antlr.LxgLexer;
 import com.lxg.antlr.LxgParser;
+import com.lxg.ast.expr.BinaryExpr;
+import com.lxg.ast.expr.VarRef;
+import com.lxg.ast.node.ValueType;
 import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.stmt.AssignStmt;
+import com.lxg.ast.stmt.LetStmt;
+import com.lxg.ast.stmt.PrintStmt;
 import com.lxg.frontend.AstBuilder;
 import com.lxg.sema.Diagnostics;
 import com.lxg.sema.TypeChecker;
@@ -10,7 +16,7 @@ import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.junit.Test;
 
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 
 /**
  * 语义错误测试：覆盖未声明变量与类型不匹配两类基础错误。
@@ -22,6 +28,7 @@ import static org.junit.Assert.assertTrue;
  * - 使用未声明变量应产生错误，错误消息包含关键字串（Unknown variable）
  * - 赋值类型不匹配（int <- string）应产生错误，错误消息包含关键字串（Type mismatch）
  * - 本组用例不校验行列位置文本，仅验证错误分类与关键信息
+ * - 检查通过后表达式带有类型、变量引用与声明共享同一个 Local（代码生成直接使用）
  *
  * @author xiangganluo
  */
@@ -49,4 +56,22 @@ public class SemanticErrorTest {
         assertTrue(diags.hasErrors());
         assertTrue(diags.getErrors().stream().anyMatch(e -> e.contains("Type mismatch")));
     }
-} 
\ No newline at end of file
+
+    @Test
+    public void check_annotates_types_and_locals() {
+        String src = "let x = 1; let s = \"a\"; x = x * 2; print x < 3; print s;";
+        LxgLexer lexer = new LxgLexer(CharStreams.fromString(src));
+        CompilationUnit unit = new AstBuilder().build(new LxgParser(new CommonTokenStream(lexer)).prog());
+        AssignStmt assign = (AssignStmt) unit.statements.get(2);
+        BinaryExpr mul = (BinaryExpr) assign.value;
+        assertNull(mul.getType());
+        assertFalse(new TypeChecker().check(unit).hasErrors());
+
+        LetStmt let = (LetStmt) unit.statements.get(0);
+        assertSame(let.local, assign.local);
+        assertSame(let.local, ((VarRef) mul.left).local);
+        assertEquals(ValueType.INT, mul.getType());
+        assertEquals(ValueType.BOOLEAN, ((PrintStmt) unit.statements.get(3)).expression.getType());
+        assertEquals(ValueType.STRING, ((PrintStmt) unit.statements.get(4)).expression.getType());
+    }
+}
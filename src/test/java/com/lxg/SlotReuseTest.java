@@ -0,0 +1,116 @@
+package com.lxg;
+
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+
+import static org.junit.Assert.*;
+
+/**
+ * 块级作用域与槽位复用测试。
+ * <p>
+ * 覆盖点：
+ * - 块内变量在块外不可见；不允许遮蔽外层同名变量；不同块可以重复使用同一个名字
+ * - 数百个块各自声明变量时，main 的 max_locals 只取决于嵌套深度
+ * - 只使用一次的顶层变量按活跃区间复用槽位，程序输出不变；循环中仍活跃的变量不会被循环体末尾的 let 复用
+ *
+ * @author xiangganluo
+ */
+public class SlotReuseTest {
+    @Test
+    public void block_variables_are_scoped() {
+        assertTrue(check("{ let a = 1; } print a;").getErrors().get(0).contains("Unknown variable"));
+        assertTrue(check("let a = 1; if (a > 0) { let a = 2; }").getErrors().get(0).contains("already declared"));
+        assertFalse(check("{ let a = 1; print a; } { let a = \"s\"; print a; } let a = true; print a;").hasErrors());
+    }
+
+    @Test
+    public void many_blocks_share_slots() throws Exception {
+        StringBuilder src = new StringBuilder("let sum = 0;\n");
+        for (int i = 0; i < 600; i++) {
+            src.append("{ let a = ").append(i).append("; let b = a * 2; a = b - 1; sum = sum + a; }\n");
+        }
+        src.append("print sum;\n");
+        byte[] cls = compile(src.toString());
+        // args + sum + 块内 a/b（b 声明时 a 仍活跃）
+        assertEquals(4, maxLocals(cls));
+        int expected = 0;
+        for (int i = 0; i < 600; i++) expected += i * 2 - 1;
+        assertEquals(expected + "\n", run(cls));
+    }
+
+    @Test
+    public void dead_top_level_variables_are_reused() throws Exception {
+        byte[] cls = compile("let a = 1; print a; let b = \"x\"; print b; let c = 2; let d = c + 1; print d;");
+        assertEquals(2, maxLocals(cls));
+        assertEquals("1\nx\n3\n", run(cls));
+    }
+
+    @Test
+    public void trailing_let_in_loop_keeps_its_own_slot() throws Exception {
+        byte[] cls = compile("let c = 1; while (c < 4) { c = c + 1; print c; let t = 100; } print \"end\";");
+        // args + c + t：t 不能复用 c 的槽位
+        assertEquals(3, maxLocals(cls));
+        assertEquals("2\n3\n4\nend\n", run(cls));
+    }
+
+    private static Diagnostics check(String src) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.hasErrors());
+        return new TypeChecker().check(unit);
+    }
+
+    private static byte[] compile(String src) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(new TypeChecker().check(unit).hasErrors());
+        return new ClassGenerator().generate(unit);
+    }
+
+    private static int maxLocals(byte[] cls) {
+        int[] max = {-1};
+        new ClassReader(cls).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                if (!name.equals("main")) return null;
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitMaxs(int maxStack, int maxLocals) {
+                        max[0] = maxLocals;
+                    }
+                };
+            }
+        }, 0);
+        return max[0];
+    }
+
+    private static String run(byte[] cls) throws Exception {
+        Class<?> c = new ClassLoader(SlotReuseTest.class.getClassLoader()) {
+            Class<?> define() {
+                return defineClass(ClassGenerator.CLASS_NAME.replace('/', '.'), cls, 0, cls.length);
+            }
+        }.define();
+        Method main = c.getMethod("main", String[].class);
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout));
+        try {
+            main.invoke(null, (Object) new String[0]);
+        } finally {
+            System.setOut(old);
+        }
+        return new String(bout.toByteArray());
+    }
+}
@@ -0,0 +1,130 @@
+package com.lxg;
+
+import com.lxg.ast.node.Statement;
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.driver.StreamingCompiler;
+import com.lxg.frontend.AstBuilder;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.SymbolTable;
+import com.lxg.sema.TypeChecker;
+import com.lxg.tools.SyntheticSource;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * 流式编译测试：结果与整体编译一致，且在很小的堆上也能处理大文件。
+ * <p>
+ * 覆盖点：
+ * - 同一源码经流式编译与整体编译得到完全相同的字节码
+ * - 语法错误的诊断与整体解析一致，出错后不再产出字节码
+ * - 在 -Xmx32m 的子 JVM 中流式编译远大于堆的源文件（默认 32MB，可用 -Dlxg.stream.mb=N 调大）
+ *
+ * @author xiangganluo
+ */
+public class StreamingCompilerTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void produces_same_bytecode_as_whole_file_compile() throws Exception {
+        String src = SyntheticSource.generate(2_000, 11);
+        Path file = tmp.newFile("prog.lxg").toPath();
+        Files.write(file, src.getBytes(StandardCharsets.UTF_8));
+
+        Diagnostics diags = new Diagnostics();
+        byte[] streamed = new StreamingCompiler().compile(file, diags);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+
+        // 流式编译看不到后续语句，不做基于活跃区间的槽位复用（只有块作用域级的复用）：参照也逐条检查
+        CompilationUnit unit = new AstBuilder().build(new CompilerSession().parse(src, new Diagnostics()));
+        SymbolTable symbols = new SymbolTable(unit.names);
+        Diagnostics sema = new Diagnostics();
+        for (Statement s : unit.statements) new TypeChecker().check(s, symbols, sema);
+        assertFalse(sema.hasErrors());
+        byte[] whole = new ClassGenerator().generate(unit);
+        assertArrayEquals(whole, streamed);
+    }
+
+    @Test
+    public void reports_syntax_errors_like_whole_file_parse() throws Exception {
+        String src = "let x = 1;\nprint x +;\nlet y = ;\nprint x;";
+        Path file = tmp.newFile("bad.lxg").toPath();
+        Files.write(file, src.getBytes(StandardCharsets.UTF_8));
+
+        Diagnostics streamed = new Diagnostics();
+        assertNull(new StreamingCompiler().compile(file, streamed));
+        Diagnostics whole = new Diagnostics();
+        new CompilerSession().parse(src, whole);
+        assertEquals(whole.getErrors(), streamed.getErrors());
+    }
+
+    @Test
+    public void compiles_file_larger_than_heap() throws Exception {
+        long mb = Long.getLong("lxg.stream.mb", 32);
+        File file = tmp.newFile("huge.lxg");
+        try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            SyntheticSource.write(out, mb << 20, 200, 5);
+        }
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process p = new ProcessBuilder(java, "-Xmx32m", "-cp", System.getProperty("java.class.path"),
+                Child.class.getName(), file.getAbsolutePath())
+                .redirectErrorStream(true)
+                .start();
+        String output = readAll(p.getInputStream());
+        assertEquals(output, 0, p.waitFor());
+        assertTrue(output, output.startsWith("statements="));
+    }
+
+    /**
+     * 子 JVM 入口：流式编译到只丢弃指令的 ClassVisitor，输出处理的语句数与堆峰值。
+     */
+    public static final class Child {
+        public static void main(String[] args) throws Exception {
+            ClassVisitor sink = new ClassVisitor(Opcodes.ASM9) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    return new MethodVisitor(Opcodes.ASM9) {
+                    };
+                }
+            };
+            Diagnostics diags = new Diagnostics();
+            int statements = new StreamingCompiler().compile(new File(args[0]).toPath(), sink, diags);
+            if (diags.hasErrors()) {
+                diags.printAll(System.out);
+                System.exit(1);
+            }
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+            }
+            System.out.println("statements=" + statements + " peakHeapMB=" + (peak >> 20));
+        }
+    }
+
+    private static String readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        for (int n; (n = in.read(buf)) > 0; ) bytes.write(buf, 0, n);
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
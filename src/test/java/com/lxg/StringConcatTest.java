@@ -0,0 +1,146 @@
+package com.lxg;
+
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.program.FlatCompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.opt.Optimizer;
+import com.lxg.runtime.LxgShell;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 字符串拼接与字节码目标测试。
+ * <p>
+ * 覆盖点：
+ * - STRING 与 STRING/INT/BOOLEAN 的 + 结果为 STRING，左结合：1 + 2 + "a" 为 "3a"
+ * - 目标 8（StringBuilder）与 11/17（invokedynamic）输出一致，含控制字符与超过单次调用参数上限的长链
+ * - 目标 11 生成 makeConcatWithConstants 调用，目标 8 不生成；类文件版本随目标变化
+ * - 除 + 以外的运算不接受字符串；不支持的目标报错
+ *
+ * @author xiangganluo
+ */
+public class StringConcatTest {
+    private static final String SRC = "let name = \"lxg\"; let n = 3; let ok = n > 2;\n"
+            + "print \"hello, \" + name + \"!\";\n"
+            + "print name + \": n=\" + n + \", ok=\" + ok;\n"
+            + "print 1 + 2 + \"a\" + 1 + 2;\n"
+            + "print \"\u0001\" + n + \"\u0002\";\n"
+            + "let s = \"\"; s = s + n; s = s + s; print s;\n"
+            + "if (ok) { print \"n*2=\" + n * 2 + \" neg=\" + -n; }";
+    private static final String EXPECTED = "hello, lxg!\nlxg: n=3, ok=true\n3a12\n\u00013\u0002\n33\nn*2=6 neg=-3\n";
+
+    @Test
+    public void concatenates_strings_with_all_types() {
+        for (int target : new int[]{8, 11, 17}) {
+            assertEquals("target " + target, EXPECTED, run(compile(SRC, target, false)));
+            assertEquals("target " + target + " optimized", EXPECTED, run(compile(SRC, target, true)));
+        }
+    }
+
+    @Test
+    public void long_chains_match_across_targets() {
+        StringBuilder src = new StringBuilder("let x = 7;\nprint \"start\"");
+        StringBuilder expected = new StringBuilder("start");
+        for (int i = 0; i < 450; i++) {
+            src.append(" + x + \"|").append(i).append('"');
+            expected.append(7).append('|').append(i);
+        }
+        src.append(";\n");
+        expected.append('\n');
+        assertEquals(expected.toString(), run(compile(src.toString(), 8, false)));
+        assertEquals(expected.toString(), run(compile(src.toString(), 11, false)));
+    }
+
+    @Test
+    public void target_selects_concat_strategy_and_class_version() {
+        String src = "let n = 1; print \"n=\" + n;";
+        byte[] legacy = compile(src, 8, false);
+        byte[] modern = compile(src, 11, false);
+        assertEquals(0, indyCalls(legacy));
+        assertEquals(1, indyCalls(modern));
+        assertEquals(Opcodes.V1_8, version(legacy));
+        assertEquals(Opcodes.V11, version(modern));
+        assertEquals(Opcodes.V17, version(compile(src, 17, false)));
+        try {
+            new ClassGenerator(ClassGenerator.CLASS_NAME, 9);
+            fail();
+        } catch (IllegalArgumentException expectedError) {
+            assertTrue(expectedError.getMessage().contains("Unsupported target: 9"));
+        }
+    }
+
+    @Test
+    public void flat_units_concatenate_too() {
+        FlatCompilationUnit unit = FlatCompilationUnit.of(parse(SRC));
+        assertFalse(new TypeChecker().check(unit).hasErrors());
+        assertEquals(EXPECTED, run(new ClassGenerator(ClassGenerator.CLASS_NAME, 11).generate(unit)));
+        assertEquals(EXPECTED, run(new ClassGenerator().generate(unit)));
+    }
+
+    @Test
+    public void only_plus_accepts_strings() {
+        Diagnostics diags = new TypeChecker().check(parse("let s = \"a\"; print s - 1; print s * s; print s < \"b\";"));
+        assertEquals(3, diags.getErrors().size());
+        assertTrue(diags.getErrors().get(0).contains("Arithmetic expects INT"));
+        assertTrue(diags.getErrors().get(2).contains("Comparison expects INT"));
+    }
+
+    private static CompilationUnit parse(String src) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+        return unit;
+    }
+
+    private static byte[] compile(String src, int target, boolean optimize) {
+        CompilationUnit unit = parse(src);
+        Diagnostics diags = new TypeChecker().check(unit);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+        if (optimize) unit = Optimizer.optimize(unit);
+        return new ClassGenerator(ClassGenerator.CLASS_NAME, target).generate(unit);
+    }
+
+    private static String run(byte[] cls) {
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout));
+        try {
+            new LxgShell().run(cls);
+        } finally {
+            System.setOut(old);
+        }
+        return new String(bout.toByteArray());
+    }
+
+    private static int version(byte[] cls) {
+        return ((cls[6] & 0xFF) << 8) | (cls[7] & 0xFF);
+    }
+
+    private static int indyCalls(byte[] cls) {
+        int[] count = {0};
+        new ClassReader(cls).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bsm, Object... bsmArgs) {
+                        if (name.equals("makeConcatWithConstants")) count[0]++;
+                    }
+                };
+            }
+        }, 0);
+        return count[0];
+    }
+}
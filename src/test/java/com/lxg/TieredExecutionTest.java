@@ -0,0 +1,199 @@
+package com.lxg;
+
+import com.lxg.ast.node.ValueType;
+import com.lxg.driver.ScriptCompiler;
+import com.lxg.driver.TieredScript;
+import com.lxg.runtime.CompiledScript;
+import com.lxg.runtime.ScriptLoader;
+import com.lxg.sema.Diagnostics;
+import com.lxg.tools.Main;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分层执行测试：Interpreter 与编译后的字节码对同一脚本给出相同的输出，TieredScript 按阈值升级。
+ * <p>
+ * 覆盖点：
+ * - 函数与递归、字符串拼接（含整数、布尔）、整数溢出回绕、除法、短路求值、嵌套循环、输入；examples 中的正确程序
+ * - 两层的除零都抛出 ArithmeticException
+ * - 按次数、按累计耗时升级，promoteAfter 为 0 时创建即编译；升级前后与多线程同时运行的输出不变
+ * - Main --interpret 与编译执行的输出一致
+ *
+ * @author xiangganluo
+ */
+public class TieredExecutionTest {
+    private static final String[] PROGRAMS = {
+            "fn fib(n: int): int { if (n < 2) { return n; } return fib(n - 1) + fib(n - 2); }\n"
+                    + "print fib(15); print \"fib=\" + fib(10) + \"!\";",
+            "let big = 2147483647; print big + 1; print -big - 2; print 2000000000 * 3;",
+            "print 7 / 2; print -7 / 2; print 17 - 4 * 3; print (1 + 2) * (3 - 4);",
+            "fn boom(): boolean { print \"evaluated\"; return true; }\n"
+                    + "print false && boom(); print true || boom(); print true && boom(); print 1 < 2 && 2 <= 2;",
+            "let s = \"\"; let i = 0;\n"
+                    + "while (i < 4) { let j = 0; while (j < i) { s = s + i + j + \",\"; j = j + 1; } i = i + 1; }\n"
+                    + "print s; print \"\" + (i > 3) + true + 1 + 2; print 1 + 2 + \"x\";",
+            "fn tag(s: string, b: boolean): string { if (b) { return \"<\" + s + \">\"; } return s; }\n"
+                    + "let k = 0; while (k < 3) { print tag(\"k\" + k, k != 1); k = k + 1; } if (k >= 3) { print \"end\"; } else { print \"no\"; }",
+    };
+
+    @Test
+    public void interpreter_matches_compiled_code() throws Exception {
+        List<String> programs = new ArrayList<>();
+        Collections.addAll(programs, PROGRAMS);
+        for (String example : new String[]{"arithmetic", "conditions", "functions", "hello", "loops"}) {
+            programs.add(new String(Files.readAllBytes(Paths.get("examples", example + ".lxg")), StandardCharsets.UTF_8));
+        }
+        Map<String, Object> none = Collections.emptyMap();
+        for (String src : programs) {
+            String compiled = ScriptCompiler.compile(src, Collections.<String, ValueType>emptyMap()).run(none);
+            assertEquals(src, capture(src, false), compiled);
+            assertEquals(src, compiled, interpretedOnly(src, Collections.<String, ValueType>emptyMap()).run(none));
+            assertEquals(src, compiled, capture(src, true));
+        }
+    }
+
+    @Test
+    public void inputs_and_errors_behave_the_same_in_both_tiers() {
+        String src = "fn div(a: int, b: int): int { return a / b; }\n"
+                + "n = n * 2; print who + n; if (flag) { print div(100, n); }";
+        Map<String, ValueType> inputs = inputs();
+        TieredScript interpreted = interpretedOnly(src, inputs);
+        CompiledScript compiled = ScriptCompiler.compile(src, inputs);
+        Map<String, Object> values = values(3, "n=", true);
+        assertEquals("n=6\n16\n", interpreted.run(values));
+        assertEquals(compiled.run(values), interpreted.run(values));
+        assertEquals("x0\n", interpreted.run(values(0, "x", false)));
+
+        for (Runnable run : new Runnable[]{() -> interpreted.run(values(0, "z", true)), () -> compiled.run(values(0, "z", true))}) {
+            try {
+                run.run();
+                fail();
+            } catch (ArithmeticException expected) {
+            }
+        }
+        try {
+            interpreted.run(Collections.singletonMap("n", 1));
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("Missing input: who", expected.getMessage());
+        }
+
+        Diagnostics diags = new Diagnostics();
+        assertNull(ScriptCompiler.tiered("print missing;", inputs, diags));
+        assertTrue(diags.hasErrors());
+    }
+
+    @Test
+    public void scripts_are_promoted_after_the_thresholds() {
+        String src = "let i = 0; let t = 0; while (i < n) { t = t + i; i = i + 1; } print who + t;";
+        ScriptLoader loader = new ScriptLoader(ScriptLoader.Strategy.SHARED_LOADER);
+        TieredScript byCount = ScriptCompiler.tiered(src, inputs(), new Diagnostics(), 3, Long.MAX_VALUE, loader);
+        for (int r = 0; r < 3; r++) {
+            assertFalse(byCount.isCompiled());
+            assertEquals("t=45\n", byCount.run(values(10, "t=", false)));
+        }
+        assertTrue(byCount.toString(), byCount.isCompiled());
+        assertNull(byCount.promotionFailure());
+        assertEquals(3, byCount.interpretedRuns());
+        assertTrue(byCount.promotionNanos() > 0);
+        assertEquals("t=4950\n", byCount.run(values(100, "t=", false)));
+        assertEquals(3, byCount.interpretedRuns());
+        assertEquals(1, loader.defined());
+
+        TieredScript byTime = ScriptCompiler.tiered(src, inputs(), new Diagnostics(), Integer.MAX_VALUE, 0, loader);
+        assertEquals("0\n", byTime.run(values(0, "", false)));
+        assertTrue(byTime.isCompiled());
+        assertEquals(1, byTime.interpretedRuns());
+
+        TieredScript eager = ScriptCompiler.tiered(src, inputs(), new Diagnostics(), 0, Long.MAX_VALUE, loader);
+        assertTrue(eager.isCompiled());
+        assertEquals("1\n", eager.run(values(2, "", false)));
+        assertEquals(0, eager.interpretedRuns());
+        assertEquals(3, loader.defined());
+    }
+
+    @Test
+    public void one_tiered_script_runs_concurrently_across_promotion() throws Exception {
+        TieredScript script = ScriptCompiler.tiered("fn sq(x: int): int { return x * x; } let i = 0;"
+                        + " while (i < n) { print who + sq(i); i = i + 1; }", inputs(), new Diagnostics(),
+                100, Long.MAX_VALUE, new ScriptLoader(ScriptLoader.Strategy.LOADER_PER_SCRIPT));
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                String who = "t" + t + ":";
+                int n = t % 4 + 1;
+                StringBuilder expected = new StringBuilder();
+                for (int i = 0; i < n; i++) expected.append(who).append(i * i).append('\n');
+                results.add(pool.submit(() -> {
+                    for (int r = 0; r < 500; r++) {
+                        if (!expected.toString().equals(script.run(values(n, who, false)))) return false;
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> f : results) assertTrue(f.get());
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(script.isCompiled());
+        assertTrue(script.toString(), script.interpretedRuns() >= 100);
+    }
+
+    private static TieredScript interpretedOnly(String src, Map<String, ValueType> inputs) {
+        TieredScript script = ScriptCompiler.tiered(src, inputs, new Diagnostics(), Integer.MAX_VALUE, Long.MAX_VALUE,
+                new ScriptLoader(ScriptLoader.Strategy.LOADER_PER_SCRIPT));
+        assertNotNull(src, script);
+        return script;
+    }
+
+    private static Map<String, ValueType> inputs() {
+        Map<String, ValueType> inputs = new LinkedHashMap<>();
+        inputs.put("n", ValueType.INT);
+        inputs.put("who", ValueType.STRING);
+        inputs.put("flag", ValueType.BOOLEAN);
+        return inputs;
+    }
+
+    private static Map<String, Object> values(int n, String who, boolean flag) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("n", n);
+        values.put("who", who);
+        values.put("flag", flag);
+        return values;
+    }
+
+    private static String capture(String src, boolean interpret) throws IOException {
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout, true, "UTF-8"));
+        try {
+            Main.Options opts = new Main.Options();
+            if (interpret) {
+                opts.interpret = true;
+                Main.runInterpreted(src, opts);
+            } else {
+                Main.runSource(src, opts);
+            }
+        } finally {
+            System.setOut(old);
+        }
+        return bout.toString("UTF-8");
+    }
+}
@@ -0,0 +1,173 @@
+package com.lxg;
+
+import com.lxg.ast.program.CompilationUnit;
+import com.lxg.ast.program.FlatCompilationUnit;
+import com.lxg.codegen.ClassGenerator;
+import com.lxg.codegen.PeepholeOptimizer;
+import com.lxg.frontend.CompilerSession;
+import com.lxg.opt.ConstantFolder;
+import com.lxg.opt.DeadCodeEliminator;
+import com.lxg.opt.LoopOptimizer;
+import com.lxg.opt.Optimizer;
+import com.lxg.runtime.LxgShell;
+import com.lxg.sema.Diagnostics;
+import com.lxg.sema.TypeChecker;
+import com.lxg.tools.AstPrinter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * while 循环测试：语法与检查、各条编译路径的输出、循环优化，以及热循环的 OSR 编译。
+ * <p>
+ * 覆盖点：
+ * - 零次迭代、嵌套循环、循环内声明的变量、回绕的乘法；对象 AST、扁平形式、优化、窥孔与方法拆分输出一致
+ * - 条件必须为 boolean；循环前声明、在循环中最后一次使用的变量，其槽位不能被循环体内（含最后一条语句）的新变量复用
+ * - 不变表达式外提到循环前、i * k 改为累加（AST 中不再出现），条件为 false 的循环被删除
+ * - 子 JVM 中 -XX:+PrintCompilation：只调用一次的 main 因回边计数触发 OSR 编译
+ *
+ * @author xiangganluo
+ */
+public class WhileLoopTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String SRC = "let n = 0; n = n + 4; let w = 0; w = w + 1000000007; let total = 0;\n"
+            + "let i = 0;\n"
+            + "while (i < n) {\n"
+            + "  let j = 0;\n"
+            + "  while (j <= i) { total = total + i * w + j * 3 + (n * n - 1); j = j + 1; }\n"
+            + "  i = i + 1;\n"
+            + "}\n"
+            + "print total;\n"
+            + "let k = 10; let s = \"\"; let go = true;\n"
+            + "while (k > 0 && go) { let t = k * 2; s = s + \"x\"; print t; if (k < 5) { go = false; } k = k - 3; }\n"
+            + "print s; print k;\n"
+            + "while (k > 100) { print \"never\"; }\n"
+            + "while (false) { print \"dead\"; }\n";
+
+    private static final String EXPECTED = expected();
+
+    private static String expected() {
+        int total = 0;
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j <= i; j++) total = total + i * 1000000007 + j * 3 + 15;
+        }
+        return total + "\n20\n14\n8\nxxx\n1\n";
+    }
+
+    @Test
+    public void loops_run_on_every_path() throws Exception {
+        CompilationUnit unit = check(SRC);
+        assertEquals(EXPECTED, run(new ClassGenerator().generate(unit)));
+        assertEquals(EXPECTED, run(new ClassGenerator().generate(flat(SRC))));
+        assertEquals(EXPECTED, run(new ClassGenerator().generate(Optimizer.optimize(check(SRC)))));
+        assertEquals(EXPECTED, run(new ClassGenerator(ClassGenerator.CLASS_NAME, 8, false, 0, new PeepholeOptimizer())
+                .generate(Optimizer.optimize(check(SRC)))));
+        assertEquals(EXPECTED, run(new ClassGenerator(ClassGenerator.CLASS_NAME, 8, true, 60).generate(Optimizer.optimize(check(SRC)))));
+    }
+
+    @Test
+    public void condition_must_be_boolean() {
+        Diagnostics diags = new Diagnostics();
+        new CompilerSession().parseAst("let i = 0; while i < 3 { i = i + 1; }", diags);
+        assertTrue(diags.hasErrors());
+        Diagnostics sema = new TypeChecker().check(parse("let i = 3; while (i) { i = i - 1; }"));
+        assertTrue(sema.getErrors().toString(), sema.getErrors().get(0).contains("while condition must be boolean"));
+        assertTrue(new TypeChecker().check(parse("while (true) { let a = 1; } print a;")).getErrors().get(0).contains("Unknown variable"));
+    }
+
+    @Test
+    public void outer_variables_stay_live_through_the_loop() throws Exception {
+        // a 最后一次出现在 b 的声明之前：若不延长活跃区间，b 会复用 a 的槽位，第二次迭代打印出 b 的值
+        String src = "let a = 7; let n = 0; while (n < 3) { print a; let b = n * 10; print b; n = n + 1; }";
+        assertEquals("7\n0\n7\n10\n7\n20\n", run(new ClassGenerator().generate(check(src))));
+        assertEquals("7\n0\n7\n10\n7\n20\n", run(new ClassGenerator().generate(flat(src))));
+    }
+
+    @Test
+    public void trailing_let_does_not_take_a_loop_carried_slot() throws Exception {
+        // t 是循环体最后一条语句：c 的活跃区间必须越过循环末尾，否则 t 复用 c 的槽位，下一次迭代读到 t 的值
+        String top = "let c = 1; while (c < 4) { c = c + 1; print c; let t = 100 / c; } print \"end\";";
+        assertEquals("2\n3\n4\nend\n", run(new ClassGenerator().generate(check(top))));
+        assertEquals("2\n3\n4\nend\n", run(new ClassGenerator().generate(flat(top))));
+        String nested = "let c = 1; while (c < 4) { c = c + 1; print c; { let t = 100; } } print \"end\";";
+        assertEquals("2\n3\n4\nend\n", run(new ClassGenerator().generate(check(nested))));
+        String fn = "fn f(n: int): int { let c = 1; while (c < n) { c = c + 1; print c; let t = 100 / c; } return c; }\n"
+                + "print f(4);";
+        assertEquals("2\n3\n4\n4\n", run(new ClassGenerator().generate(check(fn))));
+    }
+
+    @Test
+    public void invariants_are_hoisted_and_multiplications_reduced() {
+        CompilationUnit base = new DeadCodeEliminator().eliminate(new ConstantFolder().fold(check(SRC)));
+        LoopOptimizer loops = new LoopOptimizer();
+        String dump = AstPrinter.print(loops.optimize(base));
+        // n * n - 1 提到外层循环之前；最后一个循环不修改 k，条件 k > 100 本身也是不变量；i 在外层循环中变化，i * w 留给强度削弱
+        assertEquals(2, loops.hoisted());
+        assertEquals(3, loops.reduced()); // i * w、j * 3、k * 2
+        assertTrue(dump, dump.contains("Let $licm"));
+        // 乘法只剩循环前的初始化
+        assertEquals(dump, 1, dump.split("\\(i MUL w\\)", -1).length - 1);
+        assertEquals(dump, 1, dump.split("\\(j MUL 3\\)", -1).length - 1);
+        assertFalse(dump, dump.contains("dead"));
+    }
+
+    @Test
+    public void hot_loop_is_osr_compiled() throws Exception {
+        byte[] cls = new ClassGenerator("com/lxg/gen/Loop", 8, false, 0).generate(Optimizer.optimize(check(
+                "let n = 0; n = n + 3000000; let sum = 0; let i = 0; while (i < n) { sum = sum + i * 3; i = i + 1; } print sum;")));
+        File dir = tmp.newFolder("classes");
+        Files.createDirectories(dir.toPath().resolve("com/lxg/gen"));
+        Files.write(dir.toPath().resolve("com/lxg/gen/Loop.class"), cls);
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process p = new ProcessBuilder(java, "-XX:+PrintCompilation", "-cp", dir.getPath(), "com.lxg.gen.Loop")
+                .redirectErrorStream(true).start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        for (int r; (r = p.getInputStream().read(buf)) > 0; ) out.write(buf, 0, r);
+        String log = out.toString("UTF-8");
+        assertEquals(log, 0, p.waitFor());
+        assertTrue(log, log.matches("(?s).*%.*com\\.lxg\\.gen\\.Loop::main @.*"));
+    }
+
+    private static CompilationUnit parse(String src) {
+        Diagnostics diags = new Diagnostics();
+        CompilationUnit unit = new CompilerSession().parseAst(src, diags);
+        assertFalse(diags.getErrors().toString(), diags.hasErrors());
+        return unit;
+    }
+
+    private static CompilationUnit check(String src) {
+        CompilationUnit unit = parse(src);
+        Diagnostics sema = new TypeChecker().check(unit);
+        assertFalse(sema.getErrors().toString(), sema.hasErrors());
+        return unit;
+    }
+
+    private static FlatCompilationUnit flat(String src) {
+        FlatCompilationUnit unit = FlatCompilationUnit.of(parse(src));
+        assertFalse(new TypeChecker().check(unit).hasErrors());
+        return unit;
+    }
+
+    private static String run(byte[] cls) throws IOException {
+        PrintStream old = System.out;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bout, true, "UTF-8"));
+        try {
+            new LxgShell().run(cls);
+        } finally {
+            System.setOut(old);
+        }
+        return bout.toString("UTF-8");
+    }
+}